@@ -22,25 +22,21 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.RELATION_TYPE;
 import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
 import static java.util.Arrays.asList;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 
-import org.apache.log4j.FileAppender;
-import org.apache.log4j.Level;
-import org.apache.log4j.Logger;
-import org.apache.log4j.PatternLayout;
 import org.apache.uima.cas.CAS;
 import org.apache.wicket.spring.injection.annot.SpringBean;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.transaction.annotation.Transactional;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.AuditLogService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -65,15 +61,21 @@ import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 public class AnnotationServiceImpl
     implements AnnotationService
 {
-    @Value(value = "${webanno.repository}")
-    private File dir;
-
     @PersistenceContext
     private EntityManager entityManager;
 
     @SpringBean(name = "documentRepository")
     private RepositoryService projectRepository;
 
+    @Resource(name = "typeSystemCache")
+    private ProjectTypeSystemCache typeSystemCache;
+
+    @Resource(name = "schemaCache")
+    private SchemaCache schemaCache;
+
+    @Resource(name = "auditLog")
+    private AuditLogService auditLog;
+
     public AnnotationServiceImpl()
     {
 
@@ -85,12 +87,11 @@ public class AnnotationServiceImpl
         throws IOException
     {
         entityManager.persist(aTag);
+        schemaCache.invalidate(aTag.getTagSet().getProject());
 
-        createLog(aTag.getTagSet().getProject(), aUser.getUsername()).info(
+        auditLog.log(aTag.getTagSet().getProject(), aUser.getUsername(),
                 " Added tag [" + aTag.getName() + "] with ID [" + aTag.getId() + "] to TagSet ["
                         + aTag.getTagSet().getName() + "]");
-        createLog(aTag.getTagSet().getProject(), aUser.getUsername())
-                .removeAllAppenders();
     }
 
     @Override
@@ -105,10 +106,9 @@ public class AnnotationServiceImpl
         else {
             entityManager.merge(aTagSet);
         }
-        createLog(aTagSet.getProject(), aUser.getUsername()).info(
+        schemaCache.invalidate(aTagSet.getProject());
+        auditLog.log(aTagSet.getProject(), aUser.getUsername(),
                 " Added tagset [" + aTagSet.getName() + "] with ID [" + aTagSet.getId() + "]");
-        createLog(aTagSet.getProject(), aUser.getUsername())
-                .removeAllAppenders();
     }
 
     @Override
@@ -122,10 +122,10 @@ public class AnnotationServiceImpl
         else {
             entityManager.merge(aLayer);
         }
-        createLog(aLayer.getProject(), aUser.getUsername()).info(
+        typeSystemCache.invalidate(aLayer.getProject());
+        schemaCache.invalidate(aLayer.getProject());
+        auditLog.log(aLayer.getProject(), aUser.getUsername(),
                 " Added layer [" + aLayer.getName() + "] with ID [" + aLayer.getId() + "]");
-        createLog(aLayer.getProject(), aUser.getUsername())
-                .removeAllAppenders();
     }
 
     @Override
@@ -138,6 +138,8 @@ public class AnnotationServiceImpl
         else {
             entityManager.merge(aFeature);
         }
+        typeSystemCache.invalidate(aFeature.getProject());
+        schemaCache.invalidate(aFeature.getProject());
     }
 
     @Override
@@ -232,11 +234,19 @@ public class AnnotationServiceImpl
 
     @Override
     @Transactional
-    public TagSet getTagSet(String aName, Project aProject)
-    {
-        return entityManager
-                .createQuery("FROM TagSet WHERE name = :name AND project =:project", TagSet.class)
-                .setParameter("name", aName).setParameter("project", aProject).getSingleResult();
+    public TagSet getTagSet(final String aName, final Project aProject)
+    {
+        return schemaCache.get(aProject, "tagset:" + aName, new SchemaCache.Loader<TagSet>()
+        {
+            @Override
+            public List<TagSet> load()
+            {
+                return asList(entityManager
+                        .createQuery("FROM TagSet WHERE name = :name AND project =:project",
+                                TagSet.class).setParameter("name", aName)
+                        .setParameter("project", aProject).getSingleResult());
+            }
+        }).get(0);
     }
 
     @Override
@@ -627,11 +637,19 @@ public class AnnotationServiceImpl
 
     @Override
     @Transactional
-    public List<AnnotationLayer> listAnnotationLayer(Project aProject)
-    {
-        return entityManager
-                .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
-                        AnnotationLayer.class).setParameter("project", aProject).getResultList();
+    public List<AnnotationLayer> listAnnotationLayer(final Project aProject)
+    {
+        return schemaCache.get(aProject, "layers", new SchemaCache.Loader<AnnotationLayer>()
+        {
+            @Override
+            public List<AnnotationLayer> load()
+            {
+                return entityManager
+                        .createQuery("FROM AnnotationLayer WHERE project =:project ORDER BY uiName",
+                                AnnotationLayer.class).setParameter("project", aProject)
+                        .getResultList();
+            }
+        });
     }
     
     @Override
@@ -665,25 +683,43 @@ public class AnnotationServiceImpl
 
     @Override
     @Transactional
-    public List<AnnotationFeature> listAnnotationFeature(AnnotationLayer aLayer)
+    public List<AnnotationFeature> listAnnotationFeature(final AnnotationLayer aLayer)
     {
         if (aLayer.getId() == 0) {
             return new ArrayList<AnnotationFeature>();
         }
 
-        return entityManager
-                .createQuery("FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
-                        AnnotationFeature.class).setParameter("layer", aLayer).getResultList();
+        return schemaCache.get(aLayer.getProject(), "features:" + aLayer.getId(),
+                new SchemaCache.Loader<AnnotationFeature>()
+                {
+                    @Override
+                    public List<AnnotationFeature> load()
+                    {
+                        return entityManager
+                                .createQuery(
+                                        "FROM AnnotationFeature  WHERE layer =:layer ORDER BY uiName",
+                                        AnnotationFeature.class).setParameter("layer", aLayer)
+                                .getResultList();
+                    }
+                });
     }
 
     @Override
     @Transactional
-    public List<AnnotationFeature> listAnnotationFeature(Project aProject)
-    {
-        return entityManager
-                .createQuery(
-                        "FROM AnnotationFeature f WHERE project =:project ORDER BY f.layer.uiName, f.uiName",
-                        AnnotationFeature.class).setParameter("project", aProject).getResultList();
+    public List<AnnotationFeature> listAnnotationFeature(final Project aProject)
+    {
+        return schemaCache.get(aProject, "features", new SchemaCache.Loader<AnnotationFeature>()
+        {
+            @Override
+            public List<AnnotationFeature> load()
+            {
+                return entityManager
+                        .createQuery(
+                                "FROM AnnotationFeature f WHERE project =:project ORDER BY f.layer.uiName, f.uiName",
+                                AnnotationFeature.class).setParameter("project", aProject)
+                        .getResultList();
+            }
+        });
     }
 
     @Override
@@ -695,16 +731,25 @@ public class AnnotationServiceImpl
 
     @Override
     @Transactional
-    public List<Tag> listTags(TagSet aTagSet)
-    {
-        List<Tag> tags = entityManager
-                .createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC", Tag.class)
-                .setParameter("tagSet", aTagSet).getResultList();
-        // FIXME ?!? This loop appears to make absolutely not sense!
-        for (int i = 0; i < tags.size(); i++) {
-            tags.get(i).setName(tags.get(i).getName());
-        }
-        return tags;
+    public List<Tag> listTags(final TagSet aTagSet)
+    {
+        return schemaCache.get(aTagSet.getProject(), "tags:" + aTagSet.getId(),
+                new SchemaCache.Loader<Tag>()
+                {
+                    @Override
+                    public List<Tag> load()
+                    {
+                        List<Tag> tags = entityManager
+                                .createQuery("FROM Tag WHERE tagSet = :tagSet ORDER BY name ASC",
+                                        Tag.class).setParameter("tagSet", aTagSet)
+                                .getResultList();
+                        // FIXME ?!? This loop appears to make absolutely not sense!
+                        for (int i = 0; i < tags.size(); i++) {
+                            tags.get(i).setName(tags.get(i).getName());
+                        }
+                        return tags;
+                    }
+                });
     }
 
     @Override
@@ -717,18 +762,27 @@ public class AnnotationServiceImpl
 
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
-    public List<TagSet> listTagSets(Project aProject)
-    {
-        return entityManager
-                .createQuery("FROM TagSet where project = :project ORDER BY name ASC", TagSet.class)
-                .setParameter("project", aProject).getResultList();
+    public List<TagSet> listTagSets(final Project aProject)
+    {
+        return schemaCache.get(aProject, "tagsets", new SchemaCache.Loader<TagSet>()
+        {
+            @Override
+            public List<TagSet> load()
+            {
+                return entityManager
+                        .createQuery("FROM TagSet where project = :project ORDER BY name ASC",
+                                TagSet.class).setParameter("project", aProject).getResultList();
+            }
+        });
     }
 
     @Override
     @Transactional
     public void removeTag(Tag aTag)
     {
-        entityManager.remove(aTag);
+        // Entities may come from the schema cache and hence be detached
+        entityManager.remove(entityManager.merge(aTag));
+        schemaCache.invalidate(aTag.getTagSet().getProject());
     }
 
     @Override
@@ -736,16 +790,21 @@ public class AnnotationServiceImpl
     public void removeTagSet(TagSet aTagSet)
     {
         for (Tag tag : listTags(aTagSet)) {
-            entityManager.remove(tag);
+            entityManager.remove(entityManager.merge(tag));
         }
-        entityManager.remove(aTagSet);
+        entityManager.remove(entityManager.merge(aTagSet));
+        schemaCache.invalidate(aTagSet.getProject());
     }
 
     @Override
     @Transactional
     public void removeAnnotationFeature(AnnotationFeature aFeature)
     {
-        entityManager.remove(aFeature);
+        entityManager.createQuery("DELETE FROM AgreementSummary WHERE feature = :feature")
+                .setParameter("feature", aFeature).executeUpdate();
+        entityManager.remove(entityManager.merge(aFeature));
+        typeSystemCache.invalidate(aFeature.getProject());
+        schemaCache.invalidate(aFeature.getProject());
 
     }
 
@@ -753,21 +812,9 @@ public class AnnotationServiceImpl
     @Transactional
     public void removeAnnotationLayer(AnnotationLayer aLayer)
     {
-        entityManager.remove(aLayer);
-
-    }
+        entityManager.remove(entityManager.merge(aLayer));
+        typeSystemCache.invalidate(aLayer.getProject());
+        schemaCache.invalidate(aLayer.getProject());
 
-    private static final String PROJECT = "/project/";
-
-    private Logger createLog(Project aProject, String aUser)
-        throws IOException
-    {
-        Logger logger = Logger.getLogger(getClass());
-        String targetLog = dir.getAbsolutePath() + PROJECT + "project-" + aProject.getId() + ".log";
-        FileAppender apndr = new FileAppender(new PatternLayout("%d [" + aUser + "] %m%n"),
-                targetLog, true);
-        logger.addAppender(apndr);
-        logger.setLevel(Level.ALL);
-        return logger;
     }
 }
@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AuditLogService;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Writes the project audit logs on a single background thread. Logging only places the message
+ * in a bounded lock-free ring buffer. The writer thread drains the buffer in batches, keeps the
+ * log files of recently active projects open and flushes them once per batch. When a log file
+ * exceeds the configured size, it is rolled over to {@code project-<id>.log.1} and so on.
+ * <p>
+ * If the buffer is full, logging waits for the writer to catch up, so messages are never lost
+ * while the application is running.
+ */
+public class AuditLogServiceImpl
+    implements AuditLogService, InitializingBean, DisposableBean
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private static final String PROJECT = "/project/";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int BATCH_SIZE = 1024;
+
+    private static final int MAX_OPEN_FILES = 32;
+
+    private static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static final long FLUSH_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    @Value(value = "${webanno.repository}")
+    private File dir;
+
+    @Value(value = "${audit-log.max-size}")
+    private long maxSize;
+
+    @Value(value = "${audit-log.max-backups}")
+    private int maxBackups;
+
+    private final RingBuffer buffer = new RingBuffer(BUFFER_SIZE);
+
+    /**
+     * Position in the buffer up to which all messages have been written.
+     */
+    private final AtomicLong written = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread writerThread;
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        running = true;
+        writerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                writeLoop();
+            }
+        }, "webanno-audit-log");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        log.info("Audit log: max size " + maxSize + " MB, " + maxBackups + " backups");
+    }
+
+    @Override
+    public void destroy()
+        throws InterruptedException
+    {
+        running = false;
+        LockSupport.unpark(writerThread);
+        writerThread.join(TimeUnit.NANOSECONDS.toMillis(FLUSH_TIMEOUT));
+    }
+
+    @Override
+    public void log(Project aProject, String aMessage)
+    {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        log(aProject, authentication != null ? authentication.getName() : "SYSTEM", aMessage);
+    }
+
+    @Override
+    public void log(Project aProject, String aUsername, String aMessage)
+    {
+        enqueue(new Message(aProject.getId(), System.currentTimeMillis(), aUsername, aMessage));
+    }
+
+    @Override
+    public void flush(Project aProject)
+    {
+        // The writer closes the file when it gets to this message, so once it has been written,
+        // all earlier messages have been written as well
+        long position = enqueue(new Message(aProject.getId(), 0, null, null));
+        if (position < 0) {
+            return;
+        }
+
+        long deadline = System.nanoTime() + FLUSH_TIMEOUT;
+        while (written.get() <= position) {
+            if (!writerThread.isAlive() || System.nanoTime() > deadline) {
+                log.warn("Timed out waiting for the audit log of project [" + aProject.getId()
+                        + "] to be written");
+                return;
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * @return the position of the message in the buffer or -1 if the message has been dropped
+     *         because the writer is no longer running.
+     */
+    private long enqueue(Message aMessage)
+    {
+        while (true) {
+            long position = buffer.offer(aMessage);
+            if (position >= 0) {
+                return position;
+            }
+            if (!running || !writerThread.isAlive()) {
+                log.warn("Audit log closed - dropping message for project ["
+                        + aMessage.projectId + "]: " + aMessage.text);
+                return -1;
+            }
+            // Buffer is full, give the writer a chance to catch up
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+    }
+
+    private void writeLoop()
+    {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+        Map<Long, LogFile> files = new LinkedHashMap<Long, LogFile>(16, 0.75f, true);
+        Set<LogFile> touched = new HashSet<LogFile>();
+
+        while (true) {
+            // Check before draining so that messages logged before shutdown are still written
+            boolean stopping = !running;
+
+            int count = 0;
+            Message message;
+            while (count < BATCH_SIZE && (message = buffer.poll()) != null) {
+                count++;
+                LogFile file = files.get(message.projectId);
+
+                if (message.text == null) {
+                    // Flush request
+                    if (file != null) {
+                        touched.remove(file);
+                        file.close();
+                        files.remove(message.projectId);
+                    }
+                    continue;
+                }
+
+                try {
+                    if (file == null) {
+                        file = new LogFile(new File(dir, PROJECT + "project-"
+                                + message.projectId + ".log"));
+                        files.put(message.projectId, file);
+                        closeSurplus(files, touched);
+                    }
+                    file.write(dateFormat.format(new Date(message.time)) + " ["
+                            + message.username + "] " + message.text + "\n");
+                    touched.add(file);
+                }
+                catch (IOException e) {
+                    log.error("Unable to write audit log of project [" + message.projectId
+                            + "]: " + message.text, e);
+                }
+            }
+
+            for (LogFile file : touched) {
+                file.flush();
+            }
+            touched.clear();
+            written.addAndGet(count);
+
+            if (count == 0) {
+                if (stopping) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_WAIT);
+            }
+        }
+
+        for (LogFile file : files.values()) {
+            file.close();
+        }
+    }
+
+    private void closeSurplus(Map<Long, LogFile> aFiles, Set<LogFile> aTouched)
+    {
+        Iterator<LogFile> i = aFiles.values().iterator();
+        while (aFiles.size() > MAX_OPEN_FILES && i.hasNext()) {
+            LogFile file = i.next();
+            if (!aTouched.contains(file)) {
+                file.close();
+                i.remove();
+            }
+        }
+    }
+
+    private class LogFile
+    {
+        private final File file;
+        private Writer writer;
+        private long size;
+
+        public LogFile(File aFile)
+        {
+            file = aFile;
+        }
+
+        public void write(String aLine)
+            throws IOException
+        {
+            if (writer == null) {
+                FileUtils.forceMkdir(file.getParentFile());
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file,
+                        true), "UTF-8"));
+                size = file.length();
+            }
+            writer.write(aLine);
+            size += aLine.length();
+        }
+
+        public void flush()
+        {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.flush();
+                if (maxSize > 0 && size > maxSize * 1024 * 1024) {
+                    close();
+                    rollOver();
+                }
+            }
+            catch (IOException e) {
+                log.error("Unable to write audit log [" + file + "]", e);
+            }
+        }
+
+        public void close()
+        {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.close();
+            }
+            catch (IOException e) {
+                log.error("Unable to close audit log [" + file + "]", e);
+            }
+            writer = null;
+        }
+
+        private void rollOver()
+            throws IOException
+        {
+            if (maxBackups <= 0) {
+                FileUtils.forceDelete(file);
+                return;
+            }
+
+            File oldest = new File(file.getPath() + "." + maxBackups);
+            if (oldest.exists()) {
+                FileUtils.forceDelete(oldest);
+            }
+            for (int i = maxBackups - 1; i >= 1; i--) {
+                File backup = new File(file.getPath() + "." + i);
+                if (backup.exists()) {
+                    FileUtils.moveFile(backup, new File(file.getPath() + "." + (i + 1)));
+                }
+            }
+            FileUtils.moveFile(file, new File(file.getPath() + ".1"));
+        }
+    }
+
+    private static class Message
+    {
+        final long projectId;
+        final long time;
+        final String username;
+        final String text;
+
+        public Message(long aProjectId, long aTime, String aUsername, String aText)
+        {
+            projectId = aProjectId;
+            time = aTime;
+            username = aUsername;
+            text = aText;
+        }
+    }
+
+    /**
+     * Bounded multi-producer, single-consumer queue. Each slot carries a sequence number which
+     * tells producers whether the slot is free and the consumer whether it has been filled, so
+     * neither side needs a lock.
+     */
+    private static class RingBuffer
+    {
+        private final AtomicReferenceArray<Message> slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong();
+        private long tail;
+
+        public RingBuffer(int aCapacity)
+        {
+            // Capacity must be a power of two for the mask to work
+            int capacity = Integer.highestOneBit(aCapacity);
+            slots = new AtomicReferenceArray<Message>(capacity);
+            sequences = new AtomicLongArray(capacity);
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        /**
+         * @return the position of the message or -1 if the buffer is full.
+         */
+        public long offer(Message aMessage)
+        {
+            while (true) {
+                long position = head.get();
+                int slot = (int) (position & mask);
+                long sequence = sequences.get(slot);
+                if (sequence == position) {
+                    // Slot is free - try to claim it
+                    if (head.compareAndSet(position, position + 1)) {
+                        slots.set(slot, aMessage);
+                        sequences.set(slot, position + 1);
+                        return position;
+                    }
+                }
+                else if (sequence < position) {
+                    // Slot still holds a message from the previous round
+                    return -1;
+                }
+                // Otherwise another producer claimed the slot in the meantime - retry
+            }
+        }
+
+        /**
+         * Must only be called from the consumer thread.
+         *
+         * @return the next message or {@code null} if the buffer is empty.
+         */
+        public Message poll()
+        {
+            int slot = (int) (tail & mask);
+            if (sequences.get(slot) != tail + 1) {
+                return null;
+            }
+            Message message = slots.get(slot);
+            slots.set(slot, null);
+            // Free the slot for the next round
+            sequences.set(slot, tail + mask + 1);
+            tail++;
+            return message;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Stores the CAS in the UIMA compressed binary format with type filtering (form 6). The type
+ * system is not part of the file. Instead, it is stored once per project in the
+ * {@code typesystem} folder of the project, keyed by its {@link TypeSystemFingerprint}. The file only
+ * records this hash.
+ * <p>
+ * The type system is persisted as an empty CAS template. Restoring the template yields exactly
+ * the type system the CAS has been written with, so the form 6 data can be read without any
+ * type mapping.
+ */
+public class BinaryCasCodec
+    implements CasStorageCodec
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private static final byte[] MAGIC = { 'W', 'A', 'C', 'B' };
+
+    private static final int VERSION = 1;
+
+    private static final String PROJECT = "/project/";
+
+    private static final String TYPESYSTEM = "/typesystem/";
+
+    private final File repositoryDir;
+
+    private final Map<File, byte[]> templates = new ConcurrentHashMap<File, byte[]>();
+
+    /**
+     * @param aRepositoryDir
+     *            the repository folder.
+     */
+    public BinaryCasCodec(File aRepositoryDir)
+    {
+        repositoryDir = aRepositoryDir;
+    }
+
+    @Override
+    public boolean accepts(byte[] aHeader)
+    {
+        return aHeader.length >= MAGIC.length
+                && Arrays.equals(Arrays.copyOf(aHeader, MAGIC.length), MAGIC);
+    }
+
+    @Override
+    public void write(Project aProject, JCas aJCas, OutputStream aStream)
+        throws IOException
+    {
+        CAS cas = aJCas.getCas();
+        String hash = TypeSystemFingerprint.of(cas.getTypeSystem());
+        File templateFile = getTemplateFile(aProject, hash);
+        if (!templates.containsKey(templateFile) && !templateFile.exists()) {
+            writeTemplate(cas, templateFile);
+        }
+
+        DataOutputStream os = new DataOutputStream(aStream);
+        os.write(MAGIC);
+        os.writeInt(VERSION);
+        os.writeUTF(hash);
+        try {
+            Serialization.serializeWithCompression(cas, os, cas.getTypeSystem());
+        }
+        catch (UIMAException e) {
+            throw new IOException(e);
+        }
+        os.flush();
+    }
+
+    @Override
+    public JCas read(Project aProject, InputStream aStream)
+        throws IOException
+    {
+        DataInputStream is = new DataInputStream(aStream);
+        String hash = readHeader(is);
+
+        try {
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            deserializeCASComplete(readTemplate(getTemplateFile(aProject, hash)), (CASImpl) cas);
+            Serialization.deserializeCAS(cas, is, cas.getTypeSystem(), null);
+            // The template has been stored under the fingerprint of its type system
+            TypeSystemFingerprint.register(cas.getTypeSystem(), hash);
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            return cas.getJCas();
+        }
+        catch (UIMAException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Read the {@link TypeSystemFingerprint} of the type system a CAS has been written with
+     * without reading the CAS itself.
+     *
+     * @param aStream
+     *            the source stream. The stream is not closed.
+     * @return the fingerprint.
+     * @throws IOException
+     *             if an I/O error occurs or the data has not been written by this codec.
+     */
+    public String readFingerprint(InputStream aStream)
+        throws IOException
+    {
+        return readHeader(new DataInputStream(aStream));
+    }
+
+    private String readHeader(DataInputStream aStream)
+        throws IOException
+    {
+        byte[] magic = new byte[MAGIC.length];
+        aStream.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary CAS");
+        }
+        int version = aStream.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary CAS version [" + version + "]");
+        }
+        return aStream.readUTF();
+    }
+
+    private File getTemplateFile(Project aProject, String aHash)
+    {
+        return new File(repositoryDir, PROJECT + aProject.getId() + TYPESYSTEM + aHash + ".ser");
+    }
+
+    private byte[] readTemplate(File aFile)
+        throws IOException
+    {
+        byte[] template = templates.get(aFile);
+        if (template == null) {
+            if (!aFile.exists()) {
+                throw new FileNotFoundException("Type system [" + aFile.getName()
+                        + "] not found in [" + aFile.getParent() + "]");
+            }
+            template = FileUtils.readFileToByteArray(aFile);
+            templates.put(aFile, template);
+        }
+        return deserializeTemplate(template);
+    }
+
+    private CASCompleteSerializer deserializeTemplate(byte[] aTemplate)
+        throws IOException
+    {
+        try (ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(aTemplate))) {
+            return (CASCompleteSerializer) is.readObject();
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void writeTemplate(CAS aCas, File aFile)
+        throws IOException
+    {
+        byte[] template;
+        try {
+            // Copy the CAS including its type system and drop the data. This preserves the type
+            // codes which the form 6 data refers to.
+            CAS empty = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            deserializeCASComplete(serializeCASComplete((CASImpl) aCas), (CASImpl) empty);
+            empty.reset();
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream os = new ObjectOutputStream(bos)) {
+                os.writeObject(serializeCASComplete((CASImpl) empty));
+            }
+            template = bos.toByteArray();
+        }
+        catch (UIMAException e) {
+            throw new IOException(e);
+        }
+
+        // Write to a temporary file first so that concurrent readers never see a partial file
+        FileUtils.forceMkdir(aFile.getParentFile());
+        File tmp = File.createTempFile(aFile.getName(), ".tmp", aFile.getParentFile());
+        FileUtils.writeByteArrayToFile(tmp, template);
+        if (!tmp.renameTo(aFile) && !aFile.exists()) {
+            FileUtils.deleteQuietly(tmp);
+            throw new IOException("Unable to store type system [" + aFile + "]");
+        }
+        FileUtils.deleteQuietly(tmp);
+        templates.put(aFile, template);
+
+        log.info("Stored new type system [" + aFile.getName() + "] in [" + aFile.getParent()
+                + "]");
+    }
+}
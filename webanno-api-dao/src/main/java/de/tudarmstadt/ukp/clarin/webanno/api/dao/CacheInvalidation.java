@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps the entries of a cache consistent with the database while transactions change the cached
+ * information.
+ * <p>
+ * Every invalidation increments a version. An entry loaded while the version changed may be
+ * outdated and must not be kept, see {@link #isCurrent(long)}. A transaction which invalidated
+ * entries bypasses the cache until it completes, so uncommitted changes are never cached. When it
+ * completes, the entries are removed once more since others may have reloaded them from the old
+ * state in the meantime.
+ *
+ * @param <K>
+ *            the key of the cache entries.
+ */
+abstract class CacheInvalidation<K>
+{
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Remove the entry of the given key from the cache.
+     */
+    protected abstract void remove(K aKey);
+
+    /**
+     * Called once the change behind an invalidation is visible to everybody, i.e. after the
+     * transaction has been committed or immediately if there is no transaction.
+     */
+    protected void changed(K aKey)
+    {
+        // Nothing to do by default
+    }
+
+    /**
+     * The current version. Obtain this before loading an entry and check it with
+     * {@link #isCurrent(long)} after the entry has been stored.
+     */
+    public long getVersion()
+    {
+        return version.get();
+    }
+
+    /**
+     * Check whether an entry loaded at the given version may be kept. Callers store the entry
+     * first and remove it again if this returns {@code false}. Since invalidations increment the
+     * version before removing the entries, checking afterwards is sufficient.
+     */
+    public boolean isCurrent(long aVersion)
+    {
+        return version.get() == aVersion;
+    }
+
+    /**
+     * @return whether the current transaction invalidated entries and must bypass the cache.
+     */
+    public boolean isBypassed()
+    {
+        return TransactionSynchronizationManager.hasResource(this);
+    }
+
+    /**
+     * Remove the entry of the given key. Within a transaction, the transaction bypasses the cache
+     * from now on and the entry is removed again when it completes.
+     */
+    public void invalidate(K aKey)
+    {
+        removeEntry(aKey);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            changed(aKey);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        Set<K> keys = (Set<K>) TransactionSynchronizationManager.getResource(this);
+        if (keys == null) {
+            final Set<K> invalidated = new LinkedHashSet<K>();
+            TransactionSynchronizationManager.bindResource(this, invalidated);
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            TransactionSynchronizationManager
+                                    .unbindResource(CacheInvalidation.this);
+                            for (K key : invalidated) {
+                                removeEntry(key);
+                                if (aStatus == TransactionSynchronization.STATUS_COMMITTED) {
+                                    changed(key);
+                                }
+                            }
+                        }
+                    });
+            keys = invalidated;
+        }
+        keys.add(aKey);
+    }
+
+    private void removeEntry(K aKey)
+    {
+        version.incrementAndGet();
+        remove(aKey);
+    }
+}
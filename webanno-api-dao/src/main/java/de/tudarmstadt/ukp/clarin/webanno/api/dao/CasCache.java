@@ -0,0 +1,611 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Bounded working set of live CAS objects keyed by {@link SourceDocument} and user. Entries are
+ * kept in least-recently-used order. The total size of the working set is approximated by the
+ * size of the serialized CASes on disk. If the size limit is exceeded or an entry has not been
+ * accessed for longer than the idle timeout, the entry is evicted. Modified entries are written
+ * back via the {@link CasWriter} before they are dropped.
+ * <p>
+ * Entries are only removed from the cache after they have been written back. While an entry is
+ * being written, {@link #get} blocks so that nobody modifies the CAS during serialization.
+ * <p>
+ * The live CAS obtained via {@link #get} is meant for the annotation session owning it. Everybody
+ * else, e.g. background tasks or a curator deriving the curation CAS from the CAS of an annotator,
+ * must work on a copy so that their changes do not end up in the CAS of the owner. For the same
+ * reason, a CAS is never cached under more than one key.
+ * <p>
+ * The owner changes its live CAS without holding any lock, so the live CAS is never serialized
+ * while the owner may be using it. Instead, the owner records the state of the CAS via
+ * {@link #save} when it saves the CAS. Copies obtained via {@link #getCopy} and write-backs are
+ * made from that state.
+ */
+public class CasCache
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * Callback used to write back modified CASes.
+     */
+    public static interface CasWriter
+    {
+        void write(SourceDocument aDocument, String aUsername, JCas aJCas)
+            throws IOException;
+    }
+
+    private final CasWriter writer;
+
+    private final long maxSize;
+
+    private final long idleTimeout;
+
+    private final Map<CasKey, Entry> entries = new LinkedHashMap<CasKey, Entry>(16, 0.75f, true);
+
+    private final Map<CAS, CasKey> owners = new IdentityHashMap<CAS, CasKey>();
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    /**
+     * @param aWriter
+     *            the callback used to write back modified CASes.
+     * @param aMaxSize
+     *            the maximum total size of the cached CASes in bytes.
+     * @param aIdleTimeout
+     *            the time in milliseconds after which an unused CAS is evicted.
+     */
+    public CasCache(CasWriter aWriter, long aMaxSize, long aIdleTimeout)
+    {
+        writer = aWriter;
+        maxSize = aMaxSize;
+        idleTimeout = aIdleTimeout;
+    }
+
+    public boolean isEnabled()
+    {
+        return maxSize > 0;
+    }
+
+    /**
+     * Get the cached CAS for the given document and user.
+     *
+     * @return the CAS or {@code null} if it is not in the cache.
+     */
+    public synchronized JCas get(SourceDocument aDocument, String aUsername)
+    {
+        Entry entry = entries.get(new CasKey(aDocument, aUsername));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+
+        awaitWriteBack(entry);
+
+        // The entry may have been dropped while we waited for the write-back
+        if (entries.get(entry.key) != entry) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.jcas;
+    }
+
+    /**
+     * Get a private copy of the state last recorded via {@link #save} for the given document and
+     * user. Changes to the copy do not affect the cached CAS.
+     *
+     * @return the copy or {@code null} if there is no recorded state which has not been written
+     *         back yet. In this case, the CAS file contains the last saved state.
+     * @throws IOException
+     *             if the CAS cannot be copied.
+     */
+    public JCas getCopy(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        SavedState saved;
+        synchronized (this) {
+            Entry entry = entries.get(new CasKey(aDocument, aUsername));
+            if (entry == null || entry.saved == null) {
+                return null;
+            }
+            saved = entry.saved;
+        }
+        return saved.restore();
+    }
+
+    /**
+     * Record the current state of the cached CAS for the given document and user. Only the owner
+     * of the CAS may call this, and only while it is not changing the CAS, i.e. when saving it.
+     *
+     * @throws IOException
+     *             if the CAS cannot be serialized.
+     */
+    public void save(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new CasKey(aDocument, aUsername));
+            if (entry == null) {
+                return;
+            }
+        }
+
+        // The owner is the only one changing the CAS and it is busy calling us
+        SavedState saved = new SavedState(entry.jcas);
+
+        synchronized (this) {
+            entry.saved = saved;
+        }
+    }
+
+    /**
+     * Check if there is an entry for the given document and user.
+     */
+    public synchronized boolean contains(SourceDocument aDocument, String aUsername)
+    {
+        return entries.containsKey(new CasKey(aDocument, aUsername));
+    }
+
+    /**
+     * Check if the given CAS is cached for a different document or user than the given one, i.e.
+     * if the owner of the CAS is saving it under a different user.
+     */
+    public synchronized boolean isCachedElsewhere(SourceDocument aDocument, String aUsername,
+            JCas aJCas)
+    {
+        CasKey owner = owners.get(aJCas.getCas());
+        return owner != null && !owner.equals(new CasKey(aDocument, aUsername));
+    }
+
+    /**
+     * Place a CAS freshly loaded from disk into the cache unless another thread has cached a CAS
+     * for the same key in the meantime.
+     *
+     * @return the cached CAS which may be different from the given one.
+     */
+    public JCas putIfAbsent(SourceDocument aDocument, String aUsername, JCas aJCas, long aSize)
+    {
+        synchronized (this) {
+            Entry entry = entries.get(new CasKey(aDocument, aUsername));
+            if (entry != null) {
+                awaitWriteBack(entry);
+                if (entries.get(entry.key) == entry) {
+                    entry.lastAccess = System.currentTimeMillis();
+                    return entry.jcas;
+                }
+            }
+        }
+
+        put(aDocument, aUsername, aJCas, aSize, false);
+        return aJCas;
+    }
+
+    /**
+     * Place the CAS in the cache.
+     *
+     * @param aDocument
+     *            the document.
+     * @param aUsername
+     *            the user.
+     * @param aJCas
+     *            the CAS.
+     * @param aSize
+     *            the approximate size of the CAS in bytes. If this is negative, the size of a
+     *            previous entry for the same key is retained.
+     * @param aDirty
+     *            whether the CAS still needs to be written back.
+     * @return {@code false} if the CAS could not be cached because the same CAS object is already
+     *         cached under a different key. In this case, any previous entry for the given key is
+     *         dropped and the entry for the other key is retained. The caller needs to write the
+     *         CAS immediately.
+     */
+    public boolean put(SourceDocument aDocument, String aUsername, JCas aJCas, long aSize,
+            boolean aDirty)
+    {
+        CasKey key = new CasKey(aDocument, aUsername);
+
+        synchronized (this) {
+            CasKey owner = owners.get(aJCas.getCas());
+            if (owner != null && !owner.equals(key)) {
+                // The owner of the CAS is saving it under a different user (e.g. the annotator's
+                // CAS as the correction CAS). Caching it under both keys would let further
+                // changes to one of them leak into the other.
+                log.debug("CAS of " + owner + " is being saved as " + key + " - not caching "
+                        + key);
+                remove(entries.get(key));
+                return false;
+            }
+
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                awaitWriteBack(entry);
+            }
+            entry = entries.get(key);
+
+            if (entry != null && entry.jcas != aJCas) {
+                remove(entry);
+                entry = null;
+            }
+
+            if (entry == null) {
+                entry = new Entry(key, aDocument, aJCas);
+                entries.put(key, entry);
+                owners.put(aJCas.getCas(), key);
+                if (aSize < 0) {
+                    // We have no idea how large the CAS is - use text length as a rough guess
+                    String text = aJCas.getDocumentText();
+                    aSize = text != null ? text.length() : 0;
+                }
+            }
+
+            if (aSize >= 0) {
+                size += aSize - entry.size;
+                entry.size = aSize;
+            }
+            entry.document = aDocument;
+            entry.dirty = entry.dirty || aDirty;
+            entry.lastAccess = System.currentTimeMillis();
+        }
+
+        evictSurplus();
+
+        return true;
+    }
+
+    /**
+     * Drop the entry for the given document and user without writing it back.
+     */
+    public synchronized void invalidate(SourceDocument aDocument, String aUsername)
+    {
+        Entry entry = entries.get(new CasKey(aDocument, aUsername));
+        if (entry != null) {
+            awaitWriteBack(entry);
+            remove(entries.get(entry.key));
+        }
+    }
+
+    /**
+     * Drop all entries for the given document without writing them back.
+     */
+    public synchronized void invalidate(SourceDocument aDocument)
+    {
+        for (Entry entry : new ArrayList<Entry>(entries.values())) {
+            if (entry.key.documentId == aDocument.getId()) {
+                awaitWriteBack(entry);
+                remove(entries.get(entry.key));
+            }
+        }
+    }
+
+    /**
+     * Write back the entry for the given document and user if it has been modified. The entry
+     * remains in the cache.
+     */
+    public void flush(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new CasKey(aDocument, aUsername));
+        }
+        if (entry != null) {
+            writeBack(entry, false);
+        }
+    }
+
+    /**
+     * Write back the entry for the given document and user if it has been modified and drop it
+     * from the cache.
+     */
+    public void evict(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(new CasKey(aDocument, aUsername));
+        }
+        if (entry != null) {
+            writeBack(entry, true);
+        }
+    }
+
+    /**
+     * Write back all modified entries of the given user. The entries remain in the cache.
+     */
+    public void flush(String aUsername)
+        throws IOException
+    {
+        for (Entry entry : snapshot()) {
+            if (entry.key.username.equals(aUsername)) {
+                writeBack(entry, false);
+            }
+        }
+    }
+
+    /**
+     * Write back all modified entries and clear the cache.
+     */
+    public void flushAll()
+        throws IOException
+    {
+        for (Entry entry : snapshot()) {
+            writeBack(entry, true);
+        }
+    }
+
+    /**
+     * Evict all entries that have not been used within the idle timeout.
+     */
+    public void evictIdle()
+    {
+        long now = System.currentTimeMillis();
+        for (Entry entry : snapshot()) {
+            if (idleTimeout > 0 && entry.lastAccess + idleTimeout < now) {
+                try {
+                    writeBack(entry, true);
+                }
+                catch (IOException e) {
+                    log.error("Unable to write back " + entry.key, e);
+                }
+            }
+        }
+    }
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    public synchronized int getEntryCount()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    private void evictSurplus()
+    {
+        while (true) {
+            Entry victim = null;
+            synchronized (this) {
+                if (size <= maxSize || entries.size() <= 1) {
+                    return;
+                }
+                // The iteration order of the map is the access order, so the first entry not
+                // currently being written back is the least recently used one.
+                for (Entry entry : entries.values()) {
+                    if (!entry.writing) {
+                        victim = entry;
+                        break;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+            }
+
+            try {
+                writeBack(victim, true);
+            }
+            catch (IOException e) {
+                log.error("Unable to write back " + victim.key + " - keeping it in cache", e);
+                return;
+            }
+        }
+    }
+
+    private void writeBack(Entry aEntry, boolean aEvict)
+        throws IOException
+    {
+        long accessed;
+        SavedState saved;
+        synchronized (this) {
+            if (entries.get(aEntry.key) != aEntry) {
+                // Already dropped
+                return;
+            }
+            awaitWriteBack(aEntry);
+            if (!aEntry.dirty) {
+                if (aEvict) {
+                    remove(aEntry);
+                }
+                return;
+            }
+            aEntry.writing = true;
+            accessed = aEntry.lastAccess;
+            saved = aEntry.saved;
+        }
+
+        boolean success = false;
+        try {
+            // Do not touch the live CAS if its saved state is known - the owner may be changing
+            // the live CAS right now
+            writer.write(aEntry.document, aEntry.key.username,
+                    saved != null ? saved.restore() : aEntry.jcas);
+            success = true;
+        }
+        finally {
+            synchronized (this) {
+                aEntry.writing = false;
+                if (success) {
+                    aEntry.dirty = false;
+                    aEntry.saved = null;
+                    // Only evict if nobody has picked up the entry in the meantime
+                    if (aEvict && aEntry.lastAccess == accessed) {
+                        remove(aEntry);
+                    }
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Complete serialization of a CAS including its type system from which any number of
+     * independent copies can be created.
+     */
+    private static class SavedState
+    {
+        final CASCompleteSerializer serializer;
+        final String fingerprint;
+
+        public SavedState(JCas aJCas)
+        {
+            serializer = serializeCASComplete((CASImpl) aJCas.getCas());
+            fingerprint = TypeSystemFingerprint.of(aJCas.getTypeSystem());
+        }
+
+        public JCas restore()
+            throws IOException
+        {
+            try {
+                CAS copy = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+                deserializeCASComplete(serializer, (CASImpl) copy);
+                // The copy has its own instance of the type system which is otherwise identical
+                TypeSystemFingerprint.register(copy.getTypeSystem(), fingerprint);
+                return copy.getJCas();
+            }
+            catch (UIMAException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private synchronized List<Entry> snapshot()
+    {
+        return new ArrayList<Entry>(entries.values());
+    }
+
+    private void awaitWriteBack(Entry aEntry)
+    {
+        boolean interrupted = false;
+        while (aEntry.writing) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void remove(Entry aEntry)
+    {
+        if (aEntry == null || entries.get(aEntry.key) != aEntry) {
+            return;
+        }
+
+        entries.remove(aEntry.key);
+        owners.remove(aEntry.jcas.getCas());
+        size -= aEntry.size;
+    }
+
+    private static class Entry
+    {
+        final CasKey key;
+        final JCas jcas;
+        SourceDocument document;
+        long size;
+        long lastAccess;
+        boolean dirty;
+        boolean writing;
+        SavedState saved;
+
+        public Entry(CasKey aKey, SourceDocument aDocument, JCas aJCas)
+        {
+            key = aKey;
+            document = aDocument;
+            jcas = aJCas;
+        }
+    }
+
+    private static final class CasKey
+    {
+        final long documentId;
+        final String username;
+
+        public CasKey(SourceDocument aDocument, String aUsername)
+        {
+            documentId = aDocument.getId();
+            username = aUsername;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) (documentId ^ (documentId >>> 32)) * 31 + username.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object aObj)
+        {
+            if (!(aObj instanceof CasKey)) {
+                return false;
+            }
+            CasKey other = (CasKey) aObj;
+            return documentId == other.documentId && username.equals(other.username);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "[" + documentId + "/" + username + "]";
+        }
+    }
+}
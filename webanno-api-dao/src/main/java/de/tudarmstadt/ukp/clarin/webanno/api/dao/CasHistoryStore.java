@@ -0,0 +1,732 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * History of the CAS files in the repository. A version is recorded when a CAS file is saved and
+ * the latest version of the file is older than the backup interval.
+ * <p>
+ * Versions are not stored as copies of the CAS file. The CAS file may be stored in a compressed
+ * format in which a small change alters everything after it, so the CAS is first converted into
+ * an uncompressed form via the {@link CasConverter}. This form is split into chunks at
+ * content-defined boundaries, and every chunk is stored compressed under its SHA-1 hash in the
+ * {@code history} folder of the project. A version is a manifest listing the hashes of its chunks.
+ * Since a small change to a CAS only affects the chunks around it, consecutive versions share
+ * most of their chunks, and chunks shared by any versions of any documents of the project are
+ * stored only once. Saving an unchanged CAS does not record a new version at all. Restoring a
+ * version converts it back into the format of the repository.
+ * <p>
+ * The manifests of a CAS file are stored in {@code history/<user>} in the annotation folder of the
+ * document, named after the modification time of the version. Recording versions and pruning the
+ * history are done on a background thread, so saving a CAS only checks whether a version is due.
+ * Backups written by earlier versions of WebAnno ({@code <user>.ser.<time>.bak}) are listed,
+ * restored and pruned along with the new versions.
+ */
+public class CasHistoryStore
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private static final String PROJECT = "/project/";
+    private static final String DOCUMENT = "/document/";
+    private static final String ANNOTATION = "/annotation";
+    private static final String HISTORY = "history";
+    private static final String CHUNKS = "/history/chunks/";
+    private static final String MANIFEST_SUFFIX = ".manifest";
+
+    // Marks manifests of the uncompressed form - earlier manifests list chunks of the CAS file
+    private static final String EXPANDED = "expanded";
+
+    private static final Pattern MANIFEST_PATTERN = Pattern.compile("([0-9]+)\\.manifest");
+
+    private static final Pattern LEGACY_PATTERN = Pattern.compile("(.+)\\.ser\\.([0-9]+)\\.bak");
+
+    // Chunks are at least 16 KB and at most 256 KB large, on average about 80 KB
+    private static final int MIN_CHUNK = 16 * 1024;
+    private static final int MAX_CHUNK = 256 * 1024;
+    private static final long BOUNDARY_MASK = 0xFFFFL << 48;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // The boundaries must be the same across restarts, so use a fixed seed
+        Random random = new Random(0x5745424E4E4FL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Converts between the CAS files and the uncompressed form recorded in the history.
+     */
+    public static interface CasConverter
+    {
+        /**
+         * Write the CAS stored in the given CAS file in the uncompressed form.
+         */
+        void expand(SourceDocument aDocument, File aCasFile, OutputStream aStream)
+            throws IOException;
+
+        /**
+         * Write the CAS read from the uncompressed form to the given CAS file.
+         */
+        void compact(SourceDocument aDocument, InputStream aStream, File aCasFile)
+            throws IOException;
+    }
+
+    private final File repositoryDir;
+
+    private final CasLockManager locks;
+
+    private final CasConverter converter;
+
+    private final long interval;
+
+    private final int keepNumber;
+
+    private final long keepTime;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Time of the latest version by CAS file. Only accessed from the background thread except for
+     * the check whether a version is due.
+     */
+    private final Map<File, Long> latestVersions = new ConcurrentHashMap<File, Long>();
+
+    private final Set<File> pending = Collections
+            .newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    /**
+     * @param aRepositoryDir
+     *            the repository folder.
+     * @param aLocks
+     *            the locks of the CAS files.
+     * @param aConverter
+     *            the converter used to record and restore versions.
+     * @param aInterval
+     *            minimum time in milliseconds between two versions of a CAS file.
+     * @param aKeepNumber
+     *            the number of versions to keep per CAS file. If this is 0, the number is not
+     *            limited.
+     * @param aKeepTime
+     *            the time in milliseconds after which versions are removed. If this is 0, versions
+     *            are kept regardless of their age.
+     */
+    public CasHistoryStore(File aRepositoryDir, CasLockManager aLocks, CasConverter aConverter,
+            long aInterval, int aKeepNumber, long aKeepTime)
+    {
+        repositoryDir = aRepositoryDir;
+        locks = aLocks;
+        converter = aConverter;
+        interval = aInterval;
+        keepNumber = aKeepNumber;
+        keepTime = aKeepTime;
+    }
+
+    public boolean isEnabled()
+    {
+        return interval > 0;
+    }
+
+    /**
+     * Start the background thread. Pruning runs once per hour, or at the backup interval if that
+     * is shorter.
+     */
+    public void start()
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "webanno-cas-history");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        long pruneInterval = Math.max(Math.min(interval, TimeUnit.HOURS.toMillis(1)),
+                TimeUnit.MINUTES.toMillis(1));
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    prune();
+                }
+                catch (Exception e) {
+                    log.error("Unable to prune CAS history", e);
+                }
+            }
+        }, pruneInterval, pruneInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Record a version of the given CAS file if the latest version is older than the backup
+     * interval. The version is recorded in the background. If the file is saved again before
+     * that, the newer content is recorded.
+     *
+     * @param aDocument
+     *            the document.
+     * @param aUsername
+     *            the user.
+     * @param aCasFile
+     *            the CAS file which has just been saved.
+     */
+    public void casSaved(final SourceDocument aDocument, final String aUsername,
+            final File aCasFile)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Long latest = latestVersions.get(aCasFile);
+        if (latest != null && latest + interval >= aCasFile.lastModified()) {
+            return;
+        }
+
+        if (!pending.add(aCasFile)) {
+            return;
+        }
+
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pending.remove(aCasFile);
+                Lock lock = locks.lockForReading(aDocument, aUsername);
+                try {
+                    record(aDocument, aUsername, aCasFile, false);
+                }
+                catch (Exception e) {
+                    log.error("Unable to record history of [" + aCasFile + "]", e);
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * List the versions of the given CAS file.
+     *
+     * @param aCasFile
+     *            the CAS file.
+     * @param aUsername
+     *            the user.
+     * @return the times of the versions, latest first.
+     */
+    public List<Long> getVersions(File aCasFile, String aUsername)
+    {
+        List<Version> versions = listVersions(aCasFile.getParentFile(), aUsername);
+        Collections.sort(versions, Collections.reverseOrder());
+
+        List<Long> times = new ArrayList<Long>();
+        for (Version version : versions) {
+            times.add(version.time);
+        }
+        return times;
+    }
+
+    /**
+     * Replace the given CAS file with one of its versions. Unless the history is disabled, the
+     * current content of the file is recorded as a version first, so restoring can be undone.
+     * The caller is responsible for holding the write lock of the CAS file. Restoring excludes
+     * pruning, so no chunk of the version can be removed in the meantime.
+     *
+     * @param aDocument
+     *            the document.
+     * @param aUsername
+     *            the user.
+     * @param aCasFile
+     *            the CAS file.
+     * @param aTime
+     *            the time of the version as returned by {@link #getVersions}.
+     * @throws IOException
+     *             if there is no such version or it cannot be restored.
+     */
+    public synchronized void restore(SourceDocument aDocument, String aUsername, File aCasFile,
+            long aTime)
+        throws IOException
+    {
+        Version version = null;
+        for (Version v : listVersions(aCasFile.getParentFile(), aUsername)) {
+            if (v.time == aTime) {
+                version = v;
+                break;
+            }
+        }
+        if (version == null) {
+            throw new FileNotFoundException("No version [" + aTime + "] of [" + aCasFile + "]");
+        }
+
+        File chunkFolder = getChunkFolder(aDocument);
+        if (isEnabled() && aCasFile.exists()) {
+            record(aDocument, aUsername, aCasFile, true);
+        }
+
+        File tempFile = new File(aCasFile.getPath() + ".restore");
+        File expandedFile = new File(aCasFile.getPath() + ".expanded");
+        try {
+            if (version.legacy) {
+                FileUtils.copyFile(version.file, tempFile);
+            }
+            else {
+                Manifest manifest = readManifest(version.file);
+                File target = manifest.expanded ? expandedFile : tempFile;
+                try (OutputStream os = new BufferedOutputStream(new FileOutputStream(target))) {
+                    for (String chunk : manifest.chunks) {
+                        try (InputStream is = new InflaterInputStream(new BufferedInputStream(
+                                new FileInputStream(getChunkFile(chunkFolder, chunk))))) {
+                            IOUtils.copy(is, os);
+                        }
+                    }
+                }
+                if (manifest.expanded) {
+                    try (InputStream is = new BufferedInputStream(new FileInputStream(
+                            expandedFile))) {
+                        converter.compact(aDocument, is, tempFile);
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            FileUtils.deleteQuietly(tempFile);
+            throw e;
+        }
+        finally {
+            FileUtils.deleteQuietly(expandedFile);
+        }
+
+        if (aCasFile.exists()) {
+            FileUtils.forceDelete(aCasFile);
+        }
+        if (!tempFile.renameTo(aCasFile)) {
+            throw new IOException("Unable to rename [" + tempFile + "] to [" + aCasFile + "]");
+        }
+
+        log.info("Restored version [" + aTime + "] of [" + aCasFile + "]");
+    }
+
+    /**
+     * Record a version of the CAS file. Recording chunks and pruning unused ones exclude each
+     * other, so no chunk of a version being recorded can be mistaken as unused.
+     *
+     * @param aForce
+     *            whether to record a version even if the latest one is more recent than the
+     *            backup interval.
+     */
+    synchronized void record(SourceDocument aDocument, String aUsername, File aCasFile,
+            boolean aForce)
+        throws IOException
+    {
+        if (!aCasFile.exists()) {
+            return;
+        }
+
+        File historyFolder = getHistoryFolder(aCasFile, aUsername);
+        long time = aCasFile.lastModified();
+
+        Long latest = latestVersions.get(aCasFile);
+        if (latest == null) {
+            latest = getLatestVersionTime(aCasFile, aUsername);
+            latestVersions.put(aCasFile, latest);
+        }
+        if (!aForce && latest + interval >= time) {
+            return;
+        }
+
+        ByteArrayOutputStream expanded = new ByteArrayOutputStream();
+        converter.expand(aDocument, aCasFile, expanded);
+
+        File chunkFolder = getChunkFolder(aDocument);
+        MessageDigest fileDigest = createDigest();
+        List<String> chunks = new ArrayList<String>();
+        long length = 0;
+        int stored = 0;
+        try (InputStream is = new ByteArrayInputStream(expanded.toByteArray())) {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream(MAX_CHUNK);
+            long hash = 0;
+            int b;
+            while ((b = is.read()) != -1) {
+                chunk.write(b);
+                hash = (hash << 1) + GEAR[b];
+                if ((chunk.size() >= MIN_CHUNK && (hash & BOUNDARY_MASK) == 0)
+                        || chunk.size() >= MAX_CHUNK) {
+                    stored += storeChunk(chunkFolder, chunk.toByteArray(), fileDigest, chunks);
+                    length += chunk.size();
+                    chunk.reset();
+                    hash = 0;
+                }
+            }
+            if (chunk.size() > 0) {
+                stored += storeChunk(chunkFolder, chunk.toByteArray(), fileDigest, chunks);
+                length += chunk.size();
+            }
+        }
+        String fileHash = toHex(fileDigest.digest());
+
+        // Do not record a version if nothing has changed since the latest one
+        File latestManifest = new File(historyFolder, latest + MANIFEST_SUFFIX);
+        if (latestManifest.exists() && fileHash.equals(readManifest(latestManifest).hash)) {
+            latestVersions.put(aCasFile, time);
+            return;
+        }
+
+        FileUtils.forceMkdir(historyFolder);
+        File manifestFile = new File(historyFolder, time + MANIFEST_SUFFIX);
+        File tempFile = new File(historyFolder, time + MANIFEST_SUFFIX + ".tmp");
+        try (PrintWriter out = new PrintWriter(tempFile, "UTF-8")) {
+            out.println(fileHash + " " + length + " " + EXPANDED);
+            for (String chunk : chunks) {
+                out.println(chunk);
+            }
+        }
+        if (!tempFile.renameTo(manifestFile)) {
+            FileUtils.forceDelete(tempFile);
+            throw new IOException("Unable to create [" + manifestFile + "]");
+        }
+        latestVersions.put(aCasFile, time);
+
+        log.debug("Recorded version [" + time + "] of [" + aCasFile + "] - " + chunks.size()
+                + " chunks, " + stored + " new");
+    }
+
+    /**
+     * @return 1 if the chunk has been stored, 0 if it already existed.
+     */
+    private int storeChunk(File aChunkFolder, byte[] aData, MessageDigest aFileDigest,
+            List<String> aChunks)
+        throws IOException
+    {
+        aFileDigest.update(aData);
+        String hash = toHex(createDigest().digest(aData));
+        aChunks.add(hash);
+
+        File chunkFile = getChunkFile(aChunkFolder, hash);
+        if (chunkFile.exists()) {
+            return 0;
+        }
+
+        FileUtils.forceMkdir(chunkFile.getParentFile());
+        File tempFile = new File(chunkFile.getPath() + ".tmp");
+        try (OutputStream os = new DeflaterOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)))) {
+            os.write(aData);
+        }
+        if (!tempFile.renameTo(chunkFile)) {
+            FileUtils.forceDelete(tempFile);
+            throw new IOException("Unable to create [" + chunkFile + "]");
+        }
+        return 1;
+    }
+
+    /**
+     * Remove surplus and outdated versions and the chunks no longer used by any version.
+     */
+    synchronized void prune()
+        throws IOException
+    {
+        File[] projects = new File(repositoryDir, PROJECT).listFiles();
+        if (projects == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int removedVersions = 0;
+        int removedChunks = 0;
+        for (File project : projects) {
+            File[] documents = new File(project, DOCUMENT).listFiles();
+            if (documents == null) {
+                continue;
+            }
+
+            Set<String> usedChunks = new HashSet<String>();
+            for (File document : documents) {
+                File annotationFolder = new File(document, ANNOTATION);
+                for (String user : listUsers(annotationFolder)) {
+                    removedVersions += pruneVersions(annotationFolder, user, now, usedChunks);
+                }
+            }
+
+            // Versions are not recorded while pruning, so no chunk of a version being recorded
+            // can be mistaken as unused here
+            File chunkFolder = new File(project, CHUNKS);
+            File[] prefixes = chunkFolder.listFiles();
+            if (prefixes == null) {
+                continue;
+            }
+            for (File prefix : prefixes) {
+                File[] chunks = prefix.listFiles();
+                if (chunks == null) {
+                    continue;
+                }
+                for (File chunk : chunks) {
+                    if (!usedChunks.contains(chunk.getName())) {
+                        FileUtils.forceDelete(chunk);
+                        removedChunks++;
+                    }
+                }
+            }
+        }
+
+        if (removedVersions > 0 || removedChunks > 0) {
+            log.info("Pruned CAS history - removed " + removedVersions + " versions and "
+                    + removedChunks + " chunks");
+        }
+    }
+
+    private int pruneVersions(File aAnnotationFolder, String aUsername, long aNow,
+            Set<String> aUsedChunks)
+        throws IOException
+    {
+        // Oldest version first
+        List<Version> versions = listVersions(aAnnotationFolder, aUsername);
+        Collections.sort(versions);
+
+        int removed = 0;
+        // The latest version is always kept
+        for (int i = 0; i < versions.size() - 1; i++) {
+            Version version = versions.get(i);
+            boolean surplus = keepNumber > 0 && versions.size() - i > keepNumber;
+            boolean outdated = keepTime > 0 && version.time + keepTime < aNow;
+            if (surplus || outdated) {
+                FileUtils.forceDelete(version.file);
+                removed++;
+            }
+            else if (!version.legacy) {
+                aUsedChunks.addAll(readManifest(version.file).chunks);
+            }
+        }
+        if (!versions.isEmpty()) {
+            Version latest = versions.get(versions.size() - 1);
+            if (!latest.legacy) {
+                aUsedChunks.addAll(readManifest(latest.file).chunks);
+            }
+        }
+        return removed;
+    }
+
+    private long getLatestVersionTime(File aCasFile, String aUsername)
+    {
+        long latest = 0;
+        for (Version version : listVersions(aCasFile.getParentFile(), aUsername)) {
+            latest = Math.max(latest, version.time);
+        }
+        return latest;
+    }
+
+    /**
+     * List the users which have a history in the given annotation folder.
+     */
+    private Set<String> listUsers(File aAnnotationFolder)
+    {
+        Set<String> users = new HashSet<String>();
+        String[] historyUsers = new File(aAnnotationFolder, HISTORY).list();
+        if (historyUsers != null) {
+            Collections.addAll(users, historyUsers);
+        }
+        String[] files = aAnnotationFolder.list();
+        if (files != null) {
+            Matcher matcher = LEGACY_PATTERN.matcher("");
+            for (String file : files) {
+                if (matcher.reset(file).matches()) {
+                    users.add(matcher.group(1));
+                }
+            }
+        }
+        return users;
+    }
+
+    private List<Version> listVersions(File aAnnotationFolder, final String aUsername)
+    {
+        List<Version> versions = new ArrayList<Version>();
+
+        File[] manifests = new File(aAnnotationFolder, HISTORY + "/" + aUsername).listFiles();
+        if (manifests != null) {
+            Matcher matcher = MANIFEST_PATTERN.matcher("");
+            for (File manifest : manifests) {
+                if (matcher.reset(manifest.getName()).matches()) {
+                    versions.add(new Version(manifest, Long.parseLong(matcher.group(1)), false));
+                }
+            }
+        }
+
+        File[] legacy = aAnnotationFolder.listFiles(new FileFilter()
+        {
+            private final Matcher matcher = Pattern.compile(
+                    Pattern.quote(aUsername) + "\\.ser\\.[0-9]+\\.bak").matcher("");
+
+            @Override
+            public boolean accept(File aFile)
+            {
+                return matcher.reset(aFile.getName()).matches();
+            }
+        });
+        if (legacy != null) {
+            for (File file : legacy) {
+                versions.add(new Version(file, file.lastModified(), true));
+            }
+        }
+
+        return versions;
+    }
+
+    File getChunkFolder(SourceDocument aDocument)
+    {
+        return new File(repositoryDir, PROJECT + aDocument.getProject().getId() + CHUNKS);
+    }
+
+    private File getHistoryFolder(File aCasFile, String aUsername)
+    {
+        return new File(aCasFile.getParentFile(), HISTORY + "/" + aUsername);
+    }
+
+    private File getChunkFile(File aChunkFolder, String aHash)
+    {
+        return new File(aChunkFolder, aHash.substring(0, 2) + "/" + aHash);
+    }
+
+    private Manifest readManifest(File aFile)
+        throws IOException
+    {
+        try (BufferedReader in = new BufferedReader(new FileReader(aFile))) {
+            Manifest manifest = new Manifest();
+            String header = in.readLine();
+            if (header == null) {
+                throw new IOException("Empty manifest [" + aFile + "]");
+            }
+            String[] fields = header.split(" ");
+            manifest.hash = fields[0];
+            manifest.expanded = fields.length > 2 && EXPANDED.equals(fields[2]);
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    manifest.chunks.add(line);
+                }
+            }
+            return manifest;
+        }
+    }
+
+    private static MessageDigest createDigest()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] aData)
+    {
+        StringBuilder sb = new StringBuilder(aData.length * 2);
+        for (byte b : aData) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static class Manifest
+    {
+        String hash;
+        boolean expanded;
+        final List<String> chunks = new ArrayList<String>();
+    }
+
+    private static class Version
+        implements Comparable<Version>
+    {
+        final File file;
+        final long time;
+        final boolean legacy;
+
+        public Version(File aFile, long aTime, boolean aLegacy)
+        {
+            file = aFile;
+            time = aTime;
+            legacy = aLegacy;
+        }
+
+        @Override
+        public int compareTo(Version aOther)
+        {
+            return time < aOther.time ? -1 : (time == aOther.time ? 0 : 1);
+        }
+    }
+}
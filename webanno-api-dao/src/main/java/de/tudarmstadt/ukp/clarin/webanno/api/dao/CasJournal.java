@@ -0,0 +1,313 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.Marker;
+import org.apache.uima.cas.TypeSystem;
+import org.apache.uima.cas.impl.Serialization;
+import org.apache.uima.jcas.JCas;
+
+/**
+ * Append-only journal of the changes made to a CAS since it has been loaded from its snapshot
+ * file. Instead of writing the complete CAS after every edit, only the changes since the previous
+ * save are appended to the journal as a UIMA delta CAS and forced to disk. The snapshot file is
+ * rewritten only when the CAS is evicted from the {@link CasCache}, which also removes the
+ * journal. If the application terminates before that, the journal is replayed onto the snapshot
+ * the next time the CAS is read.
+ * <p>
+ * A delta CAS can only be applied to a CAS which is in exactly the same state as the CAS the delta
+ * has been taken from at the time the {@link Marker} was created. Reading a snapshot file always
+ * yields the same state, but writing a CAS and reading it back may not (e.g. the binary format
+ * drops unreachable feature structures). Hence, changes can only be journaled for CASes which have
+ * been read from their snapshot and not been written to it since. The journal header records the
+ * length and modification time of the snapshot it applies to, so a journal which is outdated
+ * because the snapshot has been written after it is ignored.
+ * <p>
+ * The caller is responsible for holding the write lock of the CAS file when appending to or
+ * deleting a journal and at least the read lock when tracking or replaying it.
+ */
+public class CasJournal
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private static final byte[] MAGIC = { 'W', 'A', 'C', 'J' };
+
+    private static final int VERSION = 1;
+
+    private static final String SUFFIX = ".journal";
+
+    /**
+     * Tracked CASes by snapshot file.
+     */
+    private final Map<File, Tracking> trackings = new ConcurrentHashMap<File, Tracking>();
+
+    /**
+     * Apply the journal of the given snapshot file to the CAS which has just been read from the
+     * snapshot. A journal which does not match the snapshot is deleted. If the journal ends with an
+     * incomplete record, e.g. because the application terminated while writing it, the record is
+     * discarded.
+     *
+     * @param aCasFile
+     *            the snapshot file.
+     * @param aJCas
+     *            the CAS read from the snapshot file.
+     * @return whether any changes have been applied.
+     * @throws IOException
+     *             if the journal cannot be read or applied.
+     */
+    public boolean replay(File aCasFile, JCas aJCas)
+        throws IOException
+    {
+        File journalFile = getJournalFile(aCasFile);
+        if (!journalFile.exists()) {
+            return false;
+        }
+
+        CAS cas = aJCas.getCas();
+        int records = 0;
+        long validLength;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journalFile)))) {
+            if (!readHeader(is, aCasFile)) {
+                log.info("Discarding outdated journal [" + journalFile + "]");
+                FileUtils.forceDelete(journalFile);
+                return false;
+            }
+            validLength = MAGIC.length + 4 + 8 + 8;
+
+            while (true) {
+                byte[] delta;
+                try {
+                    int length = is.readInt();
+                    long checksum = is.readLong();
+                    delta = new byte[length];
+                    is.readFully(delta);
+                    if (checksum(delta) != checksum) {
+                        log.warn("Discarding corrupt record at the end of journal ["
+                                + journalFile + "]");
+                        break;
+                    }
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                // Deserializing a delta requires a marker at the current end of the CAS
+                cas.createMarker();
+                Serialization.deserializeCAS(cas, new ByteArrayInputStream(delta));
+                validLength += 4 + 8 + delta.length;
+                records++;
+            }
+        }
+
+        // Cut off any incomplete record so further records are not appended after it
+        if (validLength < journalFile.length()) {
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(validLength);
+            }
+        }
+
+        log.debug("Replayed " + records + " records from journal [" + journalFile + "]");
+        return records > 0;
+    }
+
+    /**
+     * Start tracking the changes made to the given CAS. The CAS must be in the state obtained by
+     * reading the snapshot file and replaying its journal.
+     *
+     * @param aCasFile
+     *            the snapshot file.
+     * @param aJCas
+     *            the CAS.
+     */
+    public void track(File aCasFile, JCas aJCas)
+    {
+        CAS cas = aJCas.getCas();
+        trackings.put(aCasFile, new Tracking(cas, cas.createMarker(), aCasFile));
+    }
+
+    /**
+     * Stop tracking the given CAS, e.g. because it has not been cached after all.
+     *
+     * @param aJCas
+     *            the CAS.
+     */
+    public void forget(JCas aJCas)
+    {
+        Iterator<Tracking> i = trackings.values().iterator();
+        while (i.hasNext()) {
+            if (i.next().cas == aJCas.getCas()) {
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Append the changes made to the given CAS since it has been read or since the last append to
+     * the journal of the snapshot file. The journal is forced to disk before this method returns.
+     *
+     * @param aCasFile
+     *            the snapshot file.
+     * @param aJCas
+     *            the CAS.
+     * @return {@code false} if the changes cannot be journaled because the CAS is not tracked for
+     *         this snapshot file. In this case the caller has to write the complete CAS.
+     * @throws IOException
+     *             if the journal cannot be written.
+     */
+    public boolean append(File aCasFile, JCas aJCas)
+        throws IOException
+    {
+        CAS cas = aJCas.getCas();
+        Tracking tracking = trackings.get(aCasFile);
+        if (tracking == null || tracking.cas != cas) {
+            return false;
+        }
+
+        // The marker becomes invalid if the CAS is reset, and upgrading the CAS replaces its type
+        // system. In both cases, the CAS no longer matches the snapshot.
+        if (!tracking.marker.isValid() || tracking.typeSystem != cas.getTypeSystem()
+                || tracking.snapshotLength != aCasFile.length()
+                || tracking.snapshotModified != aCasFile.lastModified()) {
+            trackings.remove(aCasFile);
+            return false;
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Serialization.serializeCAS(cas, buffer, tracking.marker);
+        byte[] delta = buffer.toByteArray();
+
+        File journalFile = getJournalFile(aCasFile);
+        boolean created = !journalFile.exists();
+        try (FileOutputStream fos = new FileOutputStream(journalFile, true)) {
+            DataOutputStream os = new DataOutputStream(fos);
+            if (created) {
+                os.write(MAGIC);
+                os.writeInt(VERSION);
+                os.writeLong(tracking.snapshotLength);
+                os.writeLong(tracking.snapshotModified);
+            }
+            os.writeInt(delta.length);
+            os.writeLong(checksum(delta));
+            os.write(delta);
+            os.flush();
+            fos.getFD().sync();
+        }
+
+        tracking.marker = cas.createMarker();
+
+        return true;
+    }
+
+    /**
+     * Delete the journal of the given snapshot file and stop tracking its CAS. This must be called
+     * whenever the snapshot file is written.
+     *
+     * @param aCasFile
+     *            the snapshot file.
+     * @throws IOException
+     *             if the journal cannot be deleted.
+     */
+    public void delete(File aCasFile)
+        throws IOException
+    {
+        trackings.remove(aCasFile);
+        File journalFile = getJournalFile(aCasFile);
+        if (journalFile.exists()) {
+            FileUtils.forceDelete(journalFile);
+        }
+    }
+
+    /**
+     * @param aCasFile
+     *            the snapshot file.
+     * @return the size of the journal of the given snapshot file in bytes.
+     */
+    public long getSize(File aCasFile)
+    {
+        return getJournalFile(aCasFile).length();
+    }
+
+    private File getJournalFile(File aCasFile)
+    {
+        return new File(aCasFile.getPath() + SUFFIX);
+    }
+
+    private boolean readHeader(DataInputStream aStream, File aCasFile)
+        throws IOException
+    {
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            aStream.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || aStream.readInt() != VERSION) {
+                return false;
+            }
+            return aStream.readLong() == aCasFile.length()
+                    && aStream.readLong() == aCasFile.lastModified();
+        }
+        catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private static long checksum(byte[] aData)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(aData);
+        return crc.getValue();
+    }
+
+    private static class Tracking
+    {
+        final CAS cas;
+        final TypeSystem typeSystem;
+        final long snapshotLength;
+        final long snapshotModified;
+        Marker marker;
+
+        public Tracking(CAS aCas, Marker aMarker, File aCasFile)
+        {
+            cas = aCas;
+            typeSystem = aCas.getTypeSystem();
+            marker = aMarker;
+            snapshotLength = aCasFile.length();
+            snapshotModified = aCasFile.lastModified();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.jcas.JCas;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.CasLoaderService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+
+/**
+ * Loads CASes on a dedicated thread pool. To avoid running out of memory when many large CASes
+ * are requested at the same time, the total size of the CASes being deserialized concurrently is
+ * limited. The size of a CAS is approximated by the size of its file on disk.
+ */
+public class CasLoaderServiceImpl
+    implements CasLoaderService, InitializingBean, DisposableBean
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Resource(name = "documentRepository")
+    private RepositoryService repository;
+
+    @Value(value = "${repository.cas-loader.threads}")
+    private int threads;
+
+    @Value(value = "${repository.cas-loader.max-size}")
+    private int maxSize;
+
+    private ExecutorService executor;
+
+    private Semaphore budget;
+
+    private int budgetKb;
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        if (threads > 0) {
+            final AtomicInteger count = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable aRunnable)
+                {
+                    Thread thread = new Thread(aRunnable, "webanno-cas-loader-"
+                            + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        // Size is configured in MB, but we count in KB to avoid overflowing the semaphore
+        if (maxSize > 0) {
+            budgetKb = maxSize * 1024;
+            budget = new Semaphore(budgetKb, true);
+        }
+
+        log.info("CAS loader: " + (threads > 0 ? threads + " threads" : "disabled")
+                + ", max size " + (maxSize > 0 ? maxSize + " MB" : "unlimited"));
+    }
+
+    @Override
+    public void destroy()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public Map<AnnotationDocument, Future<JCas>> submit(
+            Collection<AnnotationDocument> aDocuments)
+    {
+        // The repository may record the acting user, so the loader threads need to act on behalf
+        // of the user submitting the request
+        final SecurityContext context = SecurityContextHolder.getContext();
+
+        Map<AnnotationDocument, Future<JCas>> futures = new LinkedHashMap<AnnotationDocument,
+                Future<JCas>>();
+        for (final AnnotationDocument annotationDocument : aDocuments) {
+            Callable<JCas> task = new Callable<JCas>()
+            {
+                @Override
+                public JCas call()
+                    throws Exception
+                {
+                    SecurityContext previous = SecurityContextHolder.getContext();
+                    SecurityContextHolder.setContext(context);
+                    try {
+                        return load(annotationDocument);
+                    }
+                    finally {
+                        SecurityContextHolder.setContext(previous);
+                    }
+                }
+            };
+
+            if (executor != null) {
+                futures.put(annotationDocument, executor.submit(task));
+            }
+            else {
+                // Loading in parallel is disabled - load right away in the calling thread
+                FutureTask<JCas> future = new FutureTask<JCas>(task);
+                future.run();
+                futures.put(annotationDocument, future);
+            }
+        }
+        return futures;
+    }
+
+    @Override
+    public Map<AnnotationDocument, JCas> readAnnotationCases(
+            Collection<AnnotationDocument> aDocuments)
+        throws IOException
+    {
+        Map<AnnotationDocument, Future<JCas>> futures = submit(aDocuments);
+
+        Map<AnnotationDocument, JCas> result = new LinkedHashMap<AnnotationDocument, JCas>();
+        try {
+            for (Map.Entry<AnnotationDocument, Future<JCas>> e : futures.entrySet()) {
+                result.put(e.getKey(), e.getValue().get());
+            }
+        }
+        catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading CASes");
+        }
+        catch (ExecutionException e) {
+            cancel(futures);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+        return result;
+    }
+
+    private JCas load(AnnotationDocument aAnnotationDocument)
+        throws IOException, InterruptedException
+    {
+        if (budget == null) {
+            return repository.readAnnotationCasCopy(aAnnotationDocument);
+        }
+
+        // A CAS larger than the whole budget may still be loaded, but only on its own
+        long size = repository.getCasFile(aAnnotationDocument.getDocument(),
+                aAnnotationDocument.getUser()).length() / 1024;
+        int permits = (int) Math.max(1, Math.min(size, budgetKb));
+        budget.acquire(permits);
+        try {
+            return repository.readAnnotationCasCopy(aAnnotationDocument);
+        }
+        finally {
+            budget.release(permits);
+        }
+    }
+
+    private static void cancel(Map<AnnotationDocument, Future<JCas>> aFutures)
+    {
+        // Loads which are already running are not interrupted since they may be writing a newly
+        // created CAS to disk
+        for (Future<JCas> future : aFutures.values()) {
+            future.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Read/write locks for the serialized CAS files of a document and user. Any number of threads may
+ * read the same file concurrently, but writing is exclusive. The locks are striped over a fixed
+ * number of {@link ReadWriteLock}s, so operations on different files only block each other if
+ * they happen to hash to the same stripe.
+ * <p>
+ * The time threads spend waiting for a lock is recorded so that contention can be monitored, see
+ * {@link #reportContention()}.
+ */
+public class CasLockManager
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ReadWriteLock[] stripes;
+
+    private final AtomicLong acquisitions = new AtomicLong();
+
+    private final AtomicLong contended = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private long reportedAcquisitions;
+
+    private long reportedContended;
+
+    private long reportedWaitNanos;
+
+    /**
+     * @param aStripes
+     *            the number of stripes. This is rounded up to the next power of two.
+     */
+    public CasLockManager(int aStripes)
+    {
+        int n = Integer.highestOneBit(Math.max(aStripes - 1, 1)) << 1;
+        stripes = new ReadWriteLock[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Acquire the shared lock for reading the CAS of the given document and user. The returned
+     * lock is already locked and must be released by the caller using {@link Lock#unlock()}.
+     */
+    public Lock lockForReading(SourceDocument aDocument, String aUsername)
+    {
+        return acquire(stripe(aDocument, aUsername).readLock(), aDocument, aUsername);
+    }
+
+    /**
+     * Acquire the exclusive lock for writing the CAS of the given document and user. The returned
+     * lock is already locked and must be released by the caller using {@link Lock#unlock()}.
+     */
+    public Lock lockForWriting(SourceDocument aDocument, String aUsername)
+    {
+        return acquire(stripe(aDocument, aUsername).writeLock(), aDocument, aUsername);
+    }
+
+    /**
+     * @return the number of lock acquisitions so far.
+     */
+    public long getAcquisitions()
+    {
+        return acquisitions.get();
+    }
+
+    /**
+     * @return the number of lock acquisitions which had to wait for another thread.
+     */
+    public long getContended()
+    {
+        return contended.get();
+    }
+
+    /**
+     * @return the total time in milliseconds threads spent waiting for a lock.
+     */
+    public long getTotalWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    /**
+     * @return the longest time in milliseconds a thread had to wait for a lock.
+     */
+    public long getMaxWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    /**
+     * Log the contention since the last report if any thread had to wait for a lock in the
+     * meantime. This is meant to be called periodically.
+     */
+    public synchronized void reportContention()
+    {
+        long currentAcquisitions = acquisitions.get();
+        long currentContended = contended.get();
+        long currentWaitNanos = totalWaitNanos.get();
+
+        if (currentContended > reportedContended) {
+            log.info("CAS lock contention - " + (currentContended - reportedContended) + " of "
+                    + (currentAcquisitions - reportedAcquisitions)
+                    + " acquisitions waited for a total of "
+                    + TimeUnit.NANOSECONDS.toMillis(currentWaitNanos - reportedWaitNanos)
+                    + " ms since the last report (overall " + this + ")");
+        }
+
+        reportedAcquisitions = currentAcquisitions;
+        reportedContended = currentContended;
+        reportedWaitNanos = currentWaitNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "acquisitions: " + getAcquisitions() + ", contended: " + getContended()
+                + ", total wait: " + getTotalWaitTime() + " ms, max wait: " + getMaxWaitTime()
+                + " ms";
+    }
+
+    private ReadWriteLock stripe(SourceDocument aDocument, String aUsername)
+    {
+        long id = aDocument.getId();
+        int hash = (int) (id ^ (id >>> 32)) * 31 + aUsername.hashCode();
+        // Spread the bits so that neighbouring document IDs do not end up in neighbouring stripes
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private Lock acquire(Lock aLock, SourceDocument aDocument, String aUsername)
+    {
+        acquisitions.incrementAndGet();
+
+        if (aLock.tryLock()) {
+            return aLock;
+        }
+
+        long start = System.nanoTime();
+        aLock.lock();
+        long wait = System.nanoTime() - start;
+
+        contended.incrementAndGet();
+        totalWaitNanos.addAndGet(wait);
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        }
+        while (wait > max && !maxWaitNanos.compareAndSet(max, wait));
+
+        if (log.isDebugEnabled()) {
+            log.debug("Waited " + TimeUnit.NANOSECONDS.toMillis(wait) + " ms for CAS lock on ["
+                    + aDocument.getId() + "/" + aUsername + "]");
+        }
+
+        return aLock;
+    }
+}
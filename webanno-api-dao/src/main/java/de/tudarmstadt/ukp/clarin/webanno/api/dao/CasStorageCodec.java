@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Format in which CASes are persisted in the repository.
+ */
+public interface CasStorageCodec
+{
+    /**
+     * Number of bytes that need to be inspected by {@link #accepts(byte[])}.
+     */
+    int HEADER_LENGTH = 8;
+
+    /**
+     * Check if the given data has been written by this codec.
+     *
+     * @param aHeader
+     *            the first bytes of the data. May be shorter than {@link #HEADER_LENGTH} if the
+     *            data is shorter.
+     * @return whether this codec can read the data.
+     */
+    boolean accepts(byte[] aHeader);
+
+    /**
+     * Write the CAS.
+     *
+     * @param aProject
+     *            the project the CAS belongs to.
+     * @param aJCas
+     *            the CAS.
+     * @param aStream
+     *            the target stream. The stream is not closed.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void write(Project aProject, JCas aJCas, OutputStream aStream)
+        throws IOException;
+
+    /**
+     * Read a CAS.
+     *
+     * @param aProject
+     *            the project the CAS belongs to.
+     * @param aStream
+     *            the source stream. The stream is not closed.
+     * @return the CAS.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    JCas read(Project aProject, InputStream aStream)
+        throws IOException;
+}
@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Authority;
+import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+
+/**
+ * Caches the global authorities and the project permissions of each user. The security checks
+ * behind menus, links and project lists ask for these many times per request, often once for
+ * every project, while they rarely change.
+ * <p>
+ * The permissions of a user are loaded all at once, so checking them for any number of projects
+ * needs no further queries. Entries must be invalidated whenever the authorities or project
+ * permissions of a user change.
+ */
+public class PermissionCache
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ConcurrentMap<String, UserPermissions> entries =
+            new ConcurrentHashMap<String, UserPermissions>();
+
+    /**
+     * The key {@code null} stands for all users.
+     */
+    private final CacheInvalidation<String> invalidation = new CacheInvalidation<String>()
+    {
+        @Override
+        protected void remove(String aUsername)
+        {
+            if (aUsername == null) {
+                entries.clear();
+                log.debug("Dropped permissions of all users");
+            }
+            else if (entries.remove(aUsername) != null) {
+                log.debug("Dropped permissions of user [" + aUsername + "]");
+            }
+        }
+    };
+
+    /**
+     * Loads the authorities and the permissions of a user from the database if they are not
+     * cached.
+     */
+    public static interface Loader
+    {
+        List<Authority> loadAuthorities();
+
+        List<ProjectPermission> loadPermissions();
+    }
+
+    /**
+     * The authorities and the permission levels in all projects of a single user.
+     */
+    public static class UserPermissions
+    {
+        private final Set<String> authorities;
+        private final Map<Long, Set<PermissionLevel>> levels;
+
+        private UserPermissions(List<Authority> aAuthorities,
+                List<ProjectPermission> aPermissions)
+        {
+            Set<String> authorityNames = new HashSet<String>();
+            for (Authority authority : aAuthorities) {
+                authorityNames.add(authority.getAuthority());
+            }
+            authorities = Collections.unmodifiableSet(authorityNames);
+
+            levels = new HashMap<Long, Set<PermissionLevel>>();
+            for (ProjectPermission permission : aPermissions) {
+                Set<PermissionLevel> projectLevels = levels.get(permission.getProject().getId());
+                if (projectLevels == null) {
+                    projectLevels = EnumSet.noneOf(PermissionLevel.class);
+                    levels.put(permission.getProject().getId(), projectLevels);
+                }
+                projectLevels.add(permission.getLevel());
+            }
+            for (Map.Entry<Long, Set<PermissionLevel>> e : levels.entrySet()) {
+                e.setValue(Collections.unmodifiableSet(e.getValue()));
+            }
+        }
+
+        /**
+         * @return the names of the global authorities of the user, e.g. {@code ROLE_ADMIN}.
+         */
+        public Set<String> getAuthorities()
+        {
+            return authorities;
+        }
+
+        /**
+         * @return the permission levels of the user in the given project.
+         */
+        public Set<PermissionLevel> getLevels(Project aProject)
+        {
+            Set<PermissionLevel> projectLevels = levels.get(aProject.getId());
+            if (projectLevels == null) {
+                return Collections.emptySet();
+            }
+            return projectLevels;
+        }
+    }
+
+    /**
+     * Get the permissions of the given user, loading them if necessary.
+     *
+     * @param aUser
+     *            the user.
+     * @param aLoader
+     *            loads the authorities and permissions on a cache miss.
+     * @return the permissions.
+     */
+    public UserPermissions get(User aUser, Loader aLoader)
+    {
+        if (invalidation.isBypassed()) {
+            return load(aLoader);
+        }
+
+        UserPermissions cached = entries.get(aUser.getUsername());
+        if (cached != null) {
+            return cached;
+        }
+
+        long loadedVersion = invalidation.getVersion();
+        UserPermissions result = load(aLoader);
+        entries.put(aUser.getUsername(), result);
+        if (!invalidation.isCurrent(loadedVersion)) {
+            entries.remove(aUser.getUsername(), result);
+        }
+        return result;
+    }
+
+    /**
+     * Drop the entry of the given user.
+     */
+    public void invalidate(String aUsername)
+    {
+        invalidation.invalidate(aUsername);
+    }
+
+    /**
+     * Drop the entries of all users, e.g. when a project and with it the permissions of all its
+     * users have been removed.
+     */
+    public void invalidateAll()
+    {
+        invalidation.invalidate(null);
+    }
+
+    private UserPermissions load(Loader aLoader)
+    {
+        return new UserPermissions(aLoader.loadAuthorities(), aLoader.loadPermissions());
+    }
+}
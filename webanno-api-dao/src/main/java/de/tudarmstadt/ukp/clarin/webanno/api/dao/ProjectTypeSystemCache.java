@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Caches the merged type system of each project together with an empty CAS template using this
+ * type system. Entries must be invalidated whenever the layers or features of a project change.
+ * A transaction which changed them bypasses the cache until it completes.
+ */
+public class ProjectTypeSystemCache
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ConcurrentMap<Long, ProjectTypeSystem> entries =
+            new ConcurrentHashMap<Long, ProjectTypeSystem>();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    private final CacheInvalidation<Project> invalidation = new CacheInvalidation<Project>()
+    {
+        @Override
+        protected void remove(Project aProject)
+        {
+            if (entries.remove(aProject.getId()) != null) {
+                log.debug("Dropped type system of project [" + aProject.getId() + "]");
+            }
+        }
+
+        @Override
+        protected void changed(Project aProject)
+        {
+            fireTypeSystemChanged(aProject);
+        }
+    };
+
+    /**
+     * Callback notified when the type system of a project has changed.
+     */
+    public static interface Listener
+    {
+        void typeSystemChanged(Project aProject);
+    }
+
+    /**
+     * Register a listener which is notified after the layers or features of a project have been
+     * changed. If the change was made within a transaction, the listener is notified after the
+     * transaction has been committed.
+     */
+    public void addListener(Listener aListener)
+    {
+        listeners.add(aListener);
+    }
+
+    /**
+     * @return the cached type system of the project or {@code null} if it needs to be built.
+     */
+    public ProjectTypeSystem get(Project aProject)
+    {
+        if (invalidation.isBypassed()) {
+            return null;
+        }
+        return entries.get(aProject.getId());
+    }
+
+    /**
+     * The current version of the cache. Obtain this before building a type system and pass it to
+     * {@link #put} so that a type system built from outdated information is not cached.
+     */
+    public long getVersion()
+    {
+        return invalidation.getVersion();
+    }
+
+    /**
+     * Cache the type system of the project unless the cache was invalidated since
+     * {@link #getVersion()} returned the given version.
+     */
+    public void put(Project aProject, long aVersion, ProjectTypeSystem aTypeSystem)
+    {
+        if (invalidation.isBypassed()) {
+            return;
+        }
+        entries.put(aProject.getId(), aTypeSystem);
+        if (!invalidation.isCurrent(aVersion)) {
+            entries.remove(aProject.getId(), aTypeSystem);
+        }
+    }
+
+    /**
+     * Drop the type system of the given project. The listeners are notified once the change has
+     * been committed.
+     */
+    public void invalidate(Project aProject)
+    {
+        invalidation.invalidate(aProject);
+    }
+
+    private void fireTypeSystemChanged(Project aProject)
+    {
+        for (Listener listener : listeners) {
+            try {
+                listener.typeSystemChanged(aProject);
+            }
+            catch (RuntimeException e) {
+                log.error("Type system change listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Merged type system of a project.
+     */
+    public static class ProjectTypeSystem
+    {
+        private final TypeSystemDescription typeSystemDescription;
+        private final CASCompleteSerializer template;
+        private final String fingerprint;
+
+        public ProjectTypeSystem(TypeSystemDescription aTypeSystemDescription,
+                CASCompleteSerializer aTemplate, String aFingerprint)
+        {
+            typeSystemDescription = aTypeSystemDescription;
+            template = aTemplate;
+            fingerprint = aFingerprint;
+        }
+
+        /**
+         * @return the merged type system description. This must not be modified.
+         */
+        public TypeSystemDescription getTypeSystemDescription()
+        {
+            return typeSystemDescription;
+        }
+
+        /**
+         * @return an empty CAS using the type system. This must not be modified.
+         */
+        public CASCompleteSerializer getTemplate()
+        {
+            return template;
+        }
+
+        /**
+         * @return the {@link TypeSystemFingerprint} of the type system.
+         */
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        /**
+         * Create a new empty CAS from the template.
+         */
+        public JCas createJCas()
+            throws UIMAException
+        {
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            deserializeCASComplete(template, (CASImpl) cas);
+            TypeSystemFingerprint.register(cas.getTypeSystem(), fingerprint);
+            return cas.getJCas();
+        }
+    }
+}
@@ -26,13 +26,13 @@ import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.SPAN_TYPE;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.apache.commons.io.IOUtils.copyLarge;
 import static org.apache.commons.lang.StringUtils.isBlank;
-import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
-import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngine;
 import static org.apache.uima.fit.factory.AnalysisEngineFactory.createEngineDescription;
 import static org.apache.uima.fit.pipeline.SimplePipeline.runPipeline;
 
 import java.beans.PropertyDescriptor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -43,8 +43,6 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -53,14 +51,31 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
 
 import javax.annotation.Resource;
 import javax.persistence.EntityManager;
@@ -69,19 +84,14 @@ import javax.persistence.PersistenceContext;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.LineIterator;
-import org.apache.commons.io.comparator.LastModifiedFileComparator;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.log4j.FileAppender;
-import org.apache.log4j.Level;
-import org.apache.log4j.Logger;
-import org.apache.log4j.PatternLayout;
 import org.apache.uima.UIMAException;
 import org.apache.uima.analysis_engine.AnalysisEngine;
 import org.apache.uima.analysis_engine.AnalysisEngineDescription;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.CASException;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
@@ -96,6 +106,7 @@ import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.ResourceInitializationException;
 import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
 import org.apache.uima.resource.metadata.impl.TypeSystemDescription_impl;
@@ -104,18 +115,31 @@ import org.hibernate.Session;
 import org.hibernate.jdbc.Work;
 import org.springframework.beans.BeanWrapper;
 import org.springframework.beans.PropertyAccessorFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.AuditLogService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentImportReport;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.api.dao.ProjectTypeSystemCache.ProjectTypeSystem;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
@@ -126,6 +150,7 @@ import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
 import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.Role;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition;
 import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
@@ -145,24 +170,12 @@ import de.tudarmstadt.ukp.dkpro.core.tokit.BreakIteratorSegmenter;
  *
  */
 public class RepositoryServiceDbData
-    implements RepositoryService, InitializingBean
+    implements RepositoryService, InitializingBean, DisposableBean
 {
     private final Log log = LogFactory.getLog(getClass());
 
-    public Logger createLog(Project aProject)
-        throws IOException
-    {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String username = authentication != null ? authentication.getName() : "SYSTEM";
-
-        Logger logger = Logger.getLogger(getClass());
-        String targetLog = dir.getAbsolutePath() + PROJECT + "project-" + aProject.getId() + ".log";
-        FileAppender apndr = new FileAppender(new PatternLayout("%d [" + username + "] %m%n"),
-                targetLog, true);
-        logger.addAppender(apndr);
-        logger.setLevel(Level.ALL);
-        return logger;
-    }
+    @Resource(name = "auditLog")
+    private AuditLogService auditLog;
 
     @Resource(name = "annotationService")
     private AnnotationService annotationService;
@@ -170,6 +183,15 @@ public class RepositoryServiceDbData
     @Resource(name = "userRepository")
     private UserDao userRepository;
 
+    @Resource(name = "typeSystemCache")
+    private ProjectTypeSystemCache typeSystemCache;
+
+    @Resource(name = "permissionCache")
+    private PermissionCache permissionCache;
+
+    @Resource(name = "transactionManager")
+    private PlatformTransactionManager transactionManager;
+
     @Value(value = "${backup.keep.time}")
     private long backupKeepTime;
 
@@ -185,6 +207,30 @@ public class RepositoryServiceDbData
     @Value(value = "${webanno.repository}")
     private File dir;
 
+    @Value(value = "${repository.cas-cache.size}")
+    private long casCacheSize;
+
+    @Value(value = "${repository.cas-cache.idle-timeout}")
+    private long casCacheIdleTimeout;
+
+    @Value(value = "${repository.cas-cache.write-back}")
+    private boolean casCacheWriteBack;
+
+    @Value(value = "${repository.cas-journal}")
+    private boolean casJournalEnabled;
+
+    @Value(value = "${repository.cas-format}")
+    private String casFormat;
+
+    @Value(value = "${repository.cas-upgrade.background}")
+    private boolean casUpgradeInBackground;
+
+    @Value(value = "${repository.import.threads}")
+    private int importThreads;
+
+    @Value(value = "${repository.cas-lock.report-interval}")
+    private long casLockReportInterval;
+
     @Resource(name = "formats")
     private Properties readWriteFileFormats;
 
@@ -205,13 +251,52 @@ public class RepositoryServiceDbData
 
     private static final String CONSTRAINTS = "/constraints/";
 
+    private static final int IMPORT_BATCH_SIZE = 100;
+
     @PersistenceContext
     private EntityManager entityManager;
 
     // The annotation preference properties File name
     String annotationPreferencePropertiesFileName;
 
-    private final Object lock = new Object();
+    private final CasLockManager casLocks = new CasLockManager(1024);
+
+    private CasCache casCache;
+
+    private ScheduledExecutorService casMaintenance;
+
+    private CasJournal casJournal;
+
+    private CasHistoryStore casHistory;
+
+    private final Set<File> pendingCompactions = Collections
+            .newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+
+    private final SerializedCasCodec serializedCasCodec = new SerializedCasCodec();
+
+    private BinaryCasCodec binaryCasCodec;
+
+    private CasStorageCodec casCodec;
+
+    private ExecutorService casUpgrader;
+
+    private final Set<Long> pendingUpgrades = Collections
+            .newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    private final List<AnnotationDocumentListener> annotationDocumentListeners =
+            new CopyOnWriteArrayList<AnnotationDocumentListener>();
+
+    private TransactionTemplate transactionTemplate;
+
+    private ExecutorService importer;
+
+    /**
+     * Segmenters used to add missing tokens and sentences to imported documents, keyed by which
+     * of the two they add. Creating a segmenter is expensive, but an engine may only be used by
+     * one thread at a time, so each conversion borrows one from the pool and returns it after.
+     */
+    private final ConcurrentMap<String, Queue<AnalysisEngine>> segmenters =
+            new ConcurrentHashMap<String, Queue<AnalysisEngine>>();
 
     public RepositoryServiceDbData()
     {
@@ -223,6 +308,188 @@ public class RepositoryServiceDbData
         throws Exception
     {
         log.info("Repository: " + dir);
+
+        binaryCasCodec = new BinaryCasCodec(dir);
+        if ("serialized".equals(casFormat)) {
+            casCodec = serializedCasCodec;
+        }
+        else if ("binary".equals(casFormat)) {
+            casCodec = binaryCasCodec;
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported CAS format [" + casFormat
+                    + "] - use [binary] or [serialized]");
+        }
+        log.info("CAS format: " + casFormat);
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        if (importThreads > 0) {
+            final AtomicInteger count = new AtomicInteger();
+            importer = Executors.newFixedThreadPool(importThreads, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable aRunnable)
+                {
+                    Thread thread = new Thread(aRunnable, "webanno-document-import-"
+                            + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        log.info("Document import: "
+                + (importThreads > 0 ? importThreads + " threads" : "in calling thread"));
+
+        if (casUpgradeInBackground) {
+            casUpgrader = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable aRunnable)
+                {
+                    Thread thread = new Thread(aRunnable, "webanno-cas-upgrade");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+            typeSystemCache.addListener(new ProjectTypeSystemCache.Listener()
+            {
+                @Override
+                public void typeSystemChanged(Project aProject)
+                {
+                    scheduleProjectUpgrade(aProject);
+                }
+            });
+        }
+
+        // Cache size is configured in MB, idle timeout in seconds
+        casCache = new CasCache(new CasCache.CasWriter()
+        {
+            @Override
+            public void write(SourceDocument aDocument, String aUsername, JCas aJCas)
+                throws IOException
+            {
+                writeCasToDisk(aDocument, aJCas, aUsername);
+            }
+        }, casCacheSize * 1024 * 1024, casCacheIdleTimeout * 1000);
+
+        // Background maintenance of the CAS storage: evicting idle CASes, compacting journals and
+        // reporting lock contention
+        casMaintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "webanno-cas-maintenance");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        if (casCache.isEnabled()) {
+            log.info("CAS cache: " + casCacheSize + " MB, idle timeout " + casCacheIdleTimeout
+                    + " sec, write-back " + (casCacheWriteBack ? "enabled" : "disabled"));
+
+            casMaintenance.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    casCache.evictIdle();
+                }
+            }, 30, 30, TimeUnit.SECONDS);
+        }
+
+        // Interval is configured in seconds
+        if (casLockReportInterval > 0) {
+            casMaintenance.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    casLocks.reportContention();
+                }
+            }, casLockReportInterval, casLockReportInterval, TimeUnit.SECONDS);
+        }
+
+        // The history records the serialized CAS format which, unlike the binary format, is not
+        // compressed, so consecutive versions share most of their chunks
+        casHistory = new CasHistoryStore(dir, casLocks, new CasHistoryStore.CasConverter()
+        {
+            @Override
+            public void expand(SourceDocument aDocument, File aCasFile, OutputStream aStream)
+                throws IOException
+            {
+                CasStorageCodec codec = getCodec(aCasFile);
+                if (codec == serializedCasCodec) {
+                    FileUtils.copyFile(aCasFile, aStream);
+                }
+                else {
+                    serializedCasCodec.write(aDocument.getProject(),
+                            readCasFile(codec, aDocument.getProject(), aCasFile), aStream);
+                }
+            }
+
+            @Override
+            public void compact(SourceDocument aDocument, InputStream aStream, File aCasFile)
+                throws IOException
+            {
+                writeCasFile(aDocument.getProject(),
+                        serializedCasCodec.read(aDocument.getProject(), aStream), aCasFile);
+            }
+        }, backupInterval, backupKeepNumber, backupKeepTime);
+        casHistory.start();
+
+        // Journaled changes are folded into the snapshot when the CAS is written back from the
+        // cache, so the journal is not available without the cache
+        if (casJournalEnabled) {
+            if (casCache.isEnabled()) {
+                casJournal = new CasJournal();
+                log.info("CAS journal: enabled");
+            }
+            else {
+                log.warn("CAS journal requires the CAS cache - disabled");
+            }
+        }
+    }
+
+    @Override
+    public void flushCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        casCache.flush(aDocument, aUsername);
+    }
+
+    @Override
+    public void flushCas(String aUsername)
+        throws IOException
+    {
+        casCache.flush(aUsername);
+    }
+
+    @Override
+    public void destroy()
+        throws Exception
+    {
+        casMaintenance.shutdown();
+        if (casUpgrader != null) {
+            casUpgrader.shutdownNow();
+        }
+        if (importer != null) {
+            importer.shutdownNow();
+        }
+        for (Queue<AnalysisEngine> pool : segmenters.values()) {
+            AnalysisEngine segmenter;
+            while ((segmenter = pool.poll()) != null) {
+                segmenter.destroy();
+            }
+        }
+        casHistory.stop();
+        // Make sure no modifications are lost on shutdown
+        casCache.flushAll();
+
+        log.info("CAS lock contention - " + casLocks);
     }
 
     @Override
@@ -237,13 +504,51 @@ public class RepositoryServiceDbData
             entityManager.merge(aAnnotationDocument);
         }
 
-        createLog(aAnnotationDocument.getProject()).info(
+        fireAnnotationDocumentSaved(aAnnotationDocument);
+
+        auditLog.log(aAnnotationDocument.getProject(),
                 " User [" + aAnnotationDocument.getUser()
                         + "] creates annotation document for source document ["
                         + aAnnotationDocument.getDocument().getId() + "] in project ["
                         + aAnnotationDocument.getProject().getId() + "] with id ["
                         + aAnnotationDocument.getId() + "]");
-        createLog(aAnnotationDocument.getProject()).removeAllAppenders();
+    }
+
+    @Override
+    public void addAnnotationDocumentListener(AnnotationDocumentListener aListener)
+    {
+        annotationDocumentListeners.add(aListener);
+    }
+
+    private void fireAnnotationDocumentSaved(final AnnotationDocument aAnnotationDocument)
+    {
+        if (annotationDocumentListeners.isEmpty()) {
+            return;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager
+                    .registerSynchronization(new TransactionSynchronizationAdapter()
+                    {
+                        @Override
+                        public void afterCompletion(int aStatus)
+                        {
+                            if (aStatus == TransactionSynchronization.STATUS_COMMITTED) {
+                                fireAnnotationDocumentSaved(aAnnotationDocument);
+                            }
+                        }
+                    });
+        }
+        else {
+            for (AnnotationDocumentListener listener : annotationDocumentListeners) {
+                try {
+                    listener.annotationDocumentSaved(aAnnotationDocument);
+                }
+                catch (RuntimeException e) {
+                    log.error("Annotation document listener failed", e);
+                }
+            }
+        }
     }
 
     /**
@@ -306,10 +611,8 @@ public class RepositoryServiceDbData
         entityManager.persist(aProject);
         String path = dir.getAbsolutePath() + PROJECT + aProject.getId();
         FileUtils.forceMkdir(new File(path));
-        createLog(aProject)
-                .info("Created  Project [" + aProject.getName() + "] with ID [" + aProject.getId()
-                        + "]");
-        createLog(aProject).removeAllAppenders();
+        auditLog.log(aProject,
+                "Created  Project [" + aProject.getName() + "] with ID [" + aProject.getId() + "]");
     }
 
     @Override
@@ -324,10 +627,9 @@ public class RepositoryServiceDbData
             entityManager.merge(aCrowdJob);
         }
 
-        createLog(aCrowdJob.getProject()).info(
+        auditLog.log(aCrowdJob.getProject(),
                 " Created  crowd job from project [" + aCrowdJob.getProject() + "] with ID ["
                         + aCrowdJob.getId() + "]");
-        createLog(aCrowdJob.getProject()).removeAllAppenders();
     }
 
     @Override
@@ -336,11 +638,11 @@ public class RepositoryServiceDbData
         throws IOException
     {
         entityManager.persist(aPermission);
-        createLog(aPermission.getProject()).info(
+        permissionCache.invalidate(aPermission.getUser());
+        auditLog.log(aPermission.getProject(),
                 " New Permission created on Project[" + aPermission.getProject().getName()
                         + "] for user [" + aPermission.getUser() + "] with permission ["
                         + aPermission.getLevel() + "]" + "]");
-        createLog(aPermission.getProject()).removeAllAppenders();
     }
 
     @Override
@@ -410,7 +712,9 @@ public class RepositoryServiceDbData
     public boolean existsCas(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
-        return new File(getAnnotationFolder(aSourceDocument), aUsername + ".ser").exists();
+        // A CAS that has been created but not yet been written back only exists in the cache
+        return casCache.contains(aSourceDocument, aUsername)
+                || new File(getAnnotationFolder(aSourceDocument), aUsername + ".ser").exists();
     }
 
     @Override
@@ -566,18 +870,23 @@ public class RepositoryServiceDbData
     {
         File annotationFolder = getAnnotationFolder(aDocument);
         String serializedCasFileName;
+        String serializedCasUser;
         // for Correction, it will export the corrected document (of the logged in user)
         // (CORRECTION_USER.ser is the automated result displayed for the user to correct it, not
         // the final result) for automation, it will export either the corrected document
         // (Annotated) or the automated document
         if (aMode.equals(Mode.ANNOTATION) || aMode.equals(Mode.AUTOMATION)
                 || aMode.equals(Mode.CORRECTION)) {
-            serializedCasFileName = aUser + ".ser";
+            serializedCasUser = aUser;
         }
         // The merge result will be exported
         else {
-            serializedCasFileName = WebAnnoConst.CURATION_USER + ".ser";
+            serializedCasUser = WebAnnoConst.CURATION_USER;
         }
+        serializedCasFileName = serializedCasUser + ".ser";
+
+        // Make sure we export the latest state of the CAS
+        writeBackCas(aDocument, serializedCasUser);
 
         // Read file
         File serializedCasFile = new File(annotationFolder, serializedCasFileName);
@@ -586,8 +895,7 @@ public class RepositoryServiceDbData
                     + "] not found in [" + annotationFolder + "]");
         }
 
-        CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-        readSerializedCas(cas.getJCas(), serializedCasFile);
+        CAS cas = readCasFile(aDocument.getProject(), serializedCasFile).getCas();
 
         // Update type system the CAS
         upgradeCas(cas, aDocument, aUser);
@@ -647,11 +955,10 @@ public class RepositoryServiceDbData
 
         runPipeline(cas, writer);
 
-        createLog(project).info(
+        auditLog.log(project,
                 " Exported annotation file [" + aDocument.getName() + "] with ID ["
                         + aDocument.getId() + "] for user [" + aUser + "] from project ["
                         + project.getId() + "]");
-        createLog(project).removeAllAppenders();
 
         File exportFile;
         if (exportTempDir.listFiles().length > 1) {
@@ -660,7 +967,7 @@ public class RepositoryServiceDbData
                 ZipUtils.zipFolder(exportTempDir, exportFile);
             }
             catch (Exception e) {
-                createLog(project).info("Unable to create zip File");
+                auditLog.log(project, "Unable to create zip File");
             }
         }
         else {
@@ -682,6 +989,15 @@ public class RepositoryServiceDbData
     @Override
     public File getCasFile(SourceDocument aDocument, String aUser)
     {
+        // Callers access the file directly, so pending modifications must be on disk
+        try {
+            writeBackCas(aDocument, aUser);
+        }
+        catch (IOException e) {
+            throw new DataAccessResourceFailureException("Unable to write back CAS of user ["
+                    + aUser + "] for document [" + aDocument.getId() + "]", e);
+        }
+
         File documentUri = new File(dir.getAbsolutePath() + PROJECT
                 + aDocument.getProject().getId() + DOCUMENT + aDocument.getId() + ANNOTATION);
         return new File(documentUri, aUser + ".ser");
@@ -690,6 +1006,8 @@ public class RepositoryServiceDbData
     @Override
     public File getProjectLogFile(Project aProject)
     {
+        // Make sure all pending messages are in the file before somebody reads it
+        auditLog.flush(aProject);
         return new File(dir.getAbsolutePath() + PROJECT + "project-" + aProject.getId() + ".log");
     }
 
@@ -764,15 +1082,17 @@ public class RepositoryServiceDbData
                     // adding this feature, the existing projects do not yet have initial CASes, so
                     // we create them here lazily
                     jcas = convertSourceDocumentToCas(getSourceDocumentFile(aDocument),
-                            getReadableFormats().get(aDocument.getFormat()), aDocument);
-                    writeSerializedCas(jcas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+                            getReadableFormats().get(aDocument.getFormat()),
+                            aDocument.getProject());
+                    writeCasFile(aDocument.getProject(), jcas,
+                            getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
                 }
 
                 // Ok, so at this point, we either have the lazily converted CAS already loaded
                 // or we know that we can load the existing initial CAS.
                 if (jcas == null) {
-                    jcas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null).getJCas();
-                    readSerializedCas(jcas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+                    jcas = readCasFile(aDocument.getProject(),
+                            getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
                 }
             }
             catch (UIMAException e) {
@@ -799,6 +1119,20 @@ public class RepositoryServiceDbData
         return jcas;
     }
 
+    @Override
+    @Transactional
+    public JCas readAnnotationCasCopy(AnnotationDocument aAnnotationDocument)
+        throws IOException
+    {
+        SourceDocument document = aAnnotationDocument.getDocument();
+        String user = aAnnotationDocument.getUser();
+        if (!existsCas(document, user)) {
+            // Creating the CAS is up to the regular path
+            readAnnotationCas(aAnnotationDocument);
+        }
+        return readCasCopy(document, user);
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public List<Authority> listAuthorities(User aUser)
@@ -838,6 +1172,41 @@ public class RepositoryServiceDbData
                 .setParameter("project", aProject).getResultList();
     }
 
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public Set<String> getAuthorityNames(User aUser)
+    {
+        return getPermissions(aUser).getAuthorities();
+    }
+
+    @Override
+    @Transactional(noRollbackFor = NoResultException.class)
+    public Set<PermissionLevel> getPermissionLevels(User aUser, Project aProject)
+    {
+        return getPermissions(aUser).getLevels(aProject);
+    }
+
+    private PermissionCache.UserPermissions getPermissions(final User aUser)
+    {
+        return permissionCache.get(aUser, new PermissionCache.Loader()
+        {
+            @Override
+            public List<Authority> loadAuthorities()
+            {
+                return listAuthorities(aUser);
+            }
+
+            @Override
+            public List<ProjectPermission> loadPermissions()
+            {
+                return entityManager
+                        .createQuery("FROM ProjectPermission WHERE user = :user",
+                                ProjectPermission.class)
+                        .setParameter("user", aUser.getUsername()).getResultList();
+            }
+        });
+    }
+
     @Override
     public List<User> listProjectUsersWithPermissions(Project aProject)
     {
@@ -911,10 +1280,9 @@ public class RepositoryServiceDbData
         copyLarge(new FileInputStream(aContent), new FileOutputStream(new File(guidelinePath
                 + aFileName)));
 
-        createLog(aProject).info(
+        auditLog.log(aProject,
                 " Created Guideline file[ " + aFileName + "] for Project [" + aProject.getName()
                         + "] with ID [" + aProject.getId() + "]");
-        createLog(aProject).removeAllAppenders();
     }
 
     @Override
@@ -1064,6 +1432,57 @@ public class RepositoryServiceDbData
                 .setParameter("state", AnnotationDocumentState.FINISHED).getResultList();
     }
 
+    @Override
+    public Map<String, Map<String, AnnotationDocumentState>> getAnnotationDocumentStates(
+            Project aProject)
+    {
+        List<Object[]> rows = entityManager
+                .createQuery(
+                        "SELECT document.name, user, state FROM AnnotationDocument "
+                                + "WHERE project = :project", Object[].class)
+                .setParameter("project", aProject).getResultList();
+
+        Map<String, Map<String, AnnotationDocumentState>> states =
+                new HashMap<String, Map<String, AnnotationDocumentState>>();
+        for (Object[] row : rows) {
+            Map<String, AnnotationDocumentState> documentStates = states.get(row[0]);
+            if (documentStates == null) {
+                documentStates = new HashMap<String, AnnotationDocumentState>();
+                states.put((String) row[0], documentStates);
+            }
+            documentStates.put((String) row[1], (AnnotationDocumentState) row[2]);
+        }
+        return states;
+    }
+
+    @Override
+    public Map<String, Map<AnnotationDocumentState, Integer>> countAnnotationDocumentStates(
+            Project aProject, boolean aIncludeTrainingDocuments)
+    {
+        String query = "SELECT user, state, COUNT(*) FROM AnnotationDocument "
+                + "WHERE project = :project";
+        if (!aIncludeTrainingDocuments) {
+            query += " AND document.trainingDocument = false";
+        }
+        query += " GROUP BY user, state";
+
+        List<Object[]> rows = entityManager.createQuery(query, Object[].class)
+                .setParameter("project", aProject).getResultList();
+
+        Map<String, Map<AnnotationDocumentState, Integer>> counts =
+                new HashMap<String, Map<AnnotationDocumentState, Integer>>();
+        for (Object[] row : rows) {
+            Map<AnnotationDocumentState, Integer> userCounts = counts.get(row[0]);
+            if (userCounts == null) {
+                userCounts = new EnumMap<AnnotationDocumentState, Integer>(
+                        AnnotationDocumentState.class);
+                counts.put((String) row[0], userCounts);
+            }
+            userCounts.put((AnnotationDocumentState) row[1], ((Number) row[2]).intValue());
+        }
+        return counts;
+    }
+
     @Override
     @Transactional(noRollbackFor = NoResultException.class)
     public List<AnnotationDocument> listAllAnnotationDocuments(SourceDocument aSourceDocument)
@@ -1193,19 +1612,20 @@ public class RepositoryServiceDbData
             FileUtils.deleteDirectory(new File(path));
         }
         catch (FileNotFoundException e) {
-            createLog(aProject).warn(
+            auditLog.log(aProject,
                     "Project directory to be deleted was not found: [" + path + "]. Ignoring.");
         }
 
         for (ProjectPermission permisions : getProjectPermisions(aProject)) {
             entityManager.remove(permisions);
         }
+        permissionCache.invalidateAll();
         // remove metadata from DB
         entityManager.remove(aProject);
-        createLog(aProject).info(
+        auditLog.log(aProject,
                 " Removed Project [" + aProject.getName() + "] with ID [" + aProject.getId() + "]");
-        createLog(aProject).removeAllAppenders();
-
+        // The project is gone, so there is no point in keeping its log file open
+        auditLog.flush(aProject);
     }
 
     @Override
@@ -1221,25 +1641,29 @@ public class RepositoryServiceDbData
     {
         FileUtils.forceDelete(new File(dir.getAbsolutePath() + PROJECT + aProject.getId()
                 + GUIDELINE + aFileName));
-        createLog(aProject).info(
+        auditLog.log(aProject,
                 " Removed Guideline file from [" + aProject.getName() + "] with ID ["
                         + aProject.getId() + "]");
-        createLog(aProject).removeAllAppenders();
     }
 
     @Override
     public void removeCurationDocumentContent(SourceDocument aSourceDocument, String aUsername)
         throws IOException
     {
+        casCache.invalidate(aSourceDocument, WebAnnoConst.CURATION_USER);
+        if (casJournal != null) {
+            casJournal.delete(new File(getAnnotationFolder(aSourceDocument),
+                    WebAnnoConst.CURATION_USER + ".ser"));
+        }
+
         if (new File(getAnnotationFolder(aSourceDocument), WebAnnoConst.CURATION_USER + ".ser")
                 .exists()) {
             FileUtils.forceDelete(new File(getAnnotationFolder(aSourceDocument),
                     WebAnnoConst.CURATION_USER + ".ser"));
 
-            createLog(aSourceDocument.getProject()).info(
+            auditLog.log(aSourceDocument.getProject(),
                     " Removed Curated document from  project [" + aSourceDocument.getProject()
                             + "] for the source document [" + aSourceDocument.getId());
-            createLog(aSourceDocument.getProject()).removeAllAppenders();
         }
     }
 
@@ -1249,11 +1673,11 @@ public class RepositoryServiceDbData
         throws IOException
     {
         entityManager.remove(projectPermission);
-        createLog(projectPermission.getProject()).info(
+        permissionCache.invalidate(projectPermission.getUser());
+        auditLog.log(projectPermission.getProject(),
                 " Removed Project Permission [" + projectPermission.getLevel() + "] for the USer ["
                         + projectPermission.getUser() + "] From project ["
                         + projectPermission.getProject().getId() + "]");
-        createLog(projectPermission.getProject()).removeAllAppenders();
 
     }
 
@@ -1274,8 +1698,13 @@ public class RepositoryServiceDbData
             }
         }
 
+        entityManager.createQuery("DELETE FROM AgreementSummary WHERE document = :document")
+                .setParameter("document", aDocument).executeUpdate();
+
         entityManager.remove(aDocument);
 
+        casCache.invalidate(aDocument);
+
         String path = dir.getAbsolutePath() + PROJECT + aDocument.getProject().getId() + DOCUMENT
                 + aDocument.getId();
         // remove from file both source and related annotation file
@@ -1283,10 +1712,9 @@ public class RepositoryServiceDbData
             FileUtils.forceDelete(new File(path));
         }
 
-        createLog(aDocument.getProject()).info(
+        auditLog.log(aDocument.getProject(),
                 " Removed Document [" + aDocument.getName() + "] with ID [" + aDocument.getId()
                         + "] from Project [" + aDocument.getProject().getId() + "]");
-        createLog(aDocument.getProject()).removeAllAppenders();
 
     }
 
@@ -1352,11 +1780,10 @@ public class RepositoryServiceDbData
         property.store(new FileOutputStream(new File(propertiesPath,
                 annotationPreferencePropertiesFileName)), null);
 
-        createLog(aProject).info(
+        auditLog.log(aProject,
                 " Saved preferences file [" + annotationPreferencePropertiesFileName
                         + "] for project [" + aProject.getName() + "] with ID [" + aProject.getId()
                         + "] to location: [" + propertiesPath + "]");
-        createLog(aProject).removeAllAppenders();
 
     }
 
@@ -1400,7 +1827,7 @@ public class RepositoryServiceDbData
             }
             else {
                 cas = convertSourceDocumentToCas(aFile,
-                        getReadableFormats().get(aDocument.getFormat()), aDocument);
+                        getReadableFormats().get(aDocument.getFormat()), aDocument.getProject());
             }
         }
         catch (IOException e) {
@@ -1419,13 +1846,13 @@ public class RepositoryServiceDbData
 
         // Copy the initial conversion of the file into the repository
         if (cas != null) {
-            writeSerializedCas(cas, getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
+            writeCasFile(aDocument.getProject(), cas,
+                    getCasFile(aDocument, INITIAL_CAS_PSEUDO_USER));
         }
 
-        createLog(aDocument.getProject()).info(
+        auditLog.log(aDocument.getProject(),
                 " Imported file [" + aDocument.getName() + "] with ID [" + aDocument.getId()
                         + "] to Project [" + aDocument.getProject().getId() + "]");
-        createLog(aDocument.getProject()).removeAllAppenders();
     }
 
     @Override
@@ -1447,73 +1874,319 @@ public class RepositoryServiceDbData
             closeQuietly(aIs);
         }
 
-        createLog(aDocument.getProject()).info(
+        auditLog.log(aDocument.getProject(),
                 " Imported file [" + aDocument.getName() + "] with ID [" + aDocument.getId()
                         + "] to Project [" + aDocument.getProject().getId() + "]");
-        createLog(aDocument.getProject()).removeAllAppenders();
 
     }
 
     @Override
-    public List<String> getReadableFormatLabels()
-        throws ClassNotFoundException
+    @SuppressWarnings("rawtypes")
+    public DocumentImportReport uploadSourceDocuments(Project aProject, String aFormat,
+            Map<String, File> aFiles, User aUser)
     {
-        List<String> readableFormats = new ArrayList<String>();
-        for (String key : readWriteFileFormats.stringPropertyNames()) {
-            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
-                String readerLabel = key.substring(0, key.lastIndexOf(".label"));
-                if (!isBlank(readWriteFileFormats.getProperty(readerLabel + ".reader"))) {
-                    readableFormats.add(readWriteFileFormats.getProperty(key));
+        long start = System.currentTimeMillis();
+        DocumentImportReport report = new DocumentImportReport();
+
+        Class reader = null;
+        if (!WebAnnoConst.TAB_SEP.equals(aFormat)) {
+            try {
+                reader = getReadableFormats().get(aFormat);
+            }
+            catch (ClassNotFoundException e) {
+                log.error("Unable to load reader for format [" + aFormat + "]", e);
+            }
+            if (reader == null) {
+                for (String name : aFiles.keySet()) {
+                    report.addError(name, "Unsupported format [" + aFormat + "]");
                 }
+                return report;
             }
         }
-        Collections.sort(readableFormats);
-        return readableFormats;
-    }
 
-    @Override
-    public String getReadableFormatId(String aLabel)
-        throws ClassNotFoundException
-    {
-        String readableFormat = "";
-        for (String key : readWriteFileFormats.stringPropertyNames()) {
-            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
-                if (readWriteFileFormats.getProperty(key).equals(aLabel)) {
-                    readableFormat = key.substring(0, key.lastIndexOf(".label"));
-                    break;
-                }
+        // Look up the existing documents once instead of once per file
+        Set<String> existing = new HashSet<String>();
+        for (SourceDocument document : listSourceDocuments(aProject)) {
+            existing.add(document.getName());
+        }
+        List<Entry<String, File>> files = new ArrayList<Entry<String, File>>();
+        for (Entry<String, File> file : aFiles.entrySet()) {
+            if (existing.contains(file.getKey())) {
+                report.addError(file.getKey(), "Document already uploaded - delete the "
+                        + "document if you want to upload it again");
+            }
+            else {
+                files.add(file);
             }
         }
-        return readableFormat;
+
+        // Convert the next batch while the current batch is stored, so the workers are kept busy
+        // without holding the CASes of all files in memory at once
+        Map<String, Future<ImportedDocument>> next = submitImports(aProject, reader, files, 0);
+        for (int i = 0; i < files.size(); i += IMPORT_BATCH_SIZE) {
+            Map<String, Future<ImportedDocument>> current = next;
+            next = submitImports(aProject, reader, files, i + IMPORT_BATCH_SIZE);
+            storeImports(aProject, aFormat, current, report);
+        }
+
+        report.setTime(System.currentTimeMillis() - start);
+        log.info("Bulk import into project [" + aProject.getId() + "]: " + report);
+        return report;
     }
 
+    /**
+     * Submit the conversion of the batch of files starting at the given offset.
+     */
     @SuppressWarnings("rawtypes")
-    @Override
-    public Map<String, Class> getReadableFormats()
-        throws ClassNotFoundException
-    {
-        Map<String, Class> readableFormats = new HashMap<String, Class>();
-        for (String key : readWriteFileFormats.stringPropertyNames()) {
-            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
-                String readerLabel = key.substring(0, key.lastIndexOf(".label"));
-                if (!isBlank(readWriteFileFormats.getProperty(readerLabel + ".reader"))) {
-                    readableFormats.put(readerLabel, Class.forName(readWriteFileFormats
-                            .getProperty(readerLabel + ".reader")));
+    private Map<String, Future<ImportedDocument>> submitImports(final Project aProject,
+            final Class aReader, List<Entry<String, File>> aFiles, int aOffset)
+    {
+        // The type system is built from the project layers, so the workers need to act on behalf
+        // of the user submitting the import
+        final SecurityContext context = SecurityContextHolder.getContext();
+
+        Map<String, Future<ImportedDocument>> futures =
+                new LinkedHashMap<String, Future<ImportedDocument>>();
+        int end = Math.min(aOffset + IMPORT_BATCH_SIZE, aFiles.size());
+        for (int i = aOffset; i < end; i++) {
+            final File file = aFiles.get(i).getValue();
+            Callable<ImportedDocument> task = new Callable<ImportedDocument>()
+            {
+                @Override
+                public ImportedDocument call()
+                    throws Exception
+                {
+                    SecurityContext previous = SecurityContextHolder.getContext();
+                    SecurityContextHolder.setContext(context);
+                    try {
+                        JCas jcas = null;
+                        if (aReader == null) {
+                            if (!isTabSepFileFormatCorrect(file)) {
+                                throw new IOException("This TAB-SEP file is not in correct "
+                                        + "format. It should have two columns separated by TAB!");
+                            }
+                        }
+                        else {
+                            jcas = convertSourceDocumentToCas(file, aReader, aProject);
+                        }
+                        return new ImportedDocument(file, jcas);
+                    }
+                    finally {
+                        SecurityContextHolder.setContext(previous);
+                    }
                 }
-            }
+            };
+            futures.put(aFiles.get(i).getKey(), submitImportTask(task));
         }
-        return readableFormats;
+        return futures;
     }
 
-    @Override
-    public List<String> getWritableFormatLabels()
-        throws ClassNotFoundException
+    private <T> Future<T> submitImportTask(Callable<T> aTask)
     {
-        List<String> writableFormats = new ArrayList<String>();
-        for (String key : readWriteFileFormats.stringPropertyNames()) {
-            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
-                String writerLabel = key.substring(0, key.lastIndexOf(".label"));
-                if (!isBlank(readWriteFileFormats.getProperty(writerLabel + ".writer"))) {
+        if (importer != null) {
+            return importer.submit(aTask);
+        }
+
+        // Importing in parallel is disabled - run right away in the calling thread
+        FutureTask<T> future = new FutureTask<T>(aTask);
+        future.run();
+        return future;
+    }
+
+    /**
+     * Store the converted documents of a batch: all source documents are inserted in one
+     * transaction, then the files are written to the repository in parallel.
+     */
+    private void storeImports(final Project aProject, final String aFormat,
+            Map<String, Future<ImportedDocument>> aBatch, DocumentImportReport aReport)
+    {
+        final Map<String, ImportedDocument> converted =
+                new LinkedHashMap<String, ImportedDocument>();
+        for (Entry<String, Future<ImportedDocument>> e : aBatch.entrySet()) {
+            try {
+                converted.put(e.getKey(), e.getValue().get());
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                aReport.addError(e.getKey(), "Import interrupted");
+            }
+            catch (ExecutionException ex) {
+                log.error("Unable to convert [" + e.getKey() + "]", ex.getCause());
+                aReport.addError(e.getKey(), getImportErrorMessage(ex.getCause()));
+            }
+        }
+
+        if (converted.isEmpty()) {
+            return;
+        }
+
+        try {
+            transactionTemplate.execute(new TransactionCallbackWithoutResult()
+            {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus aStatus)
+                {
+                    for (Entry<String, ImportedDocument> e : converted.entrySet()) {
+                        SourceDocument document = new SourceDocument();
+                        document.setName(e.getKey());
+                        document.setProject(aProject);
+                        document.setFormat(aFormat);
+                        entityManager.persist(document);
+                        e.getValue().document = document;
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            log.error("Unable to store batch of source documents", e);
+            for (String name : converted.keySet()) {
+                aReport.addError(name, getImportErrorMessage(e));
+            }
+            return;
+        }
+
+        Map<String, Future<Void>> writes = new LinkedHashMap<String, Future<Void>>();
+        for (Entry<String, ImportedDocument> e : converted.entrySet()) {
+            final ImportedDocument imported = e.getValue();
+            writes.put(e.getKey(), submitImportTask(new Callable<Void>()
+            {
+                @Override
+                public Void call()
+                    throws Exception
+                {
+                    // Copy the original file and its initial conversion into the repository
+                    File targetFile = getSourceDocumentFile(imported.document);
+                    FileUtils.forceMkdir(targetFile.getParentFile());
+                    FileUtils.copyFile(imported.file, targetFile);
+                    if (imported.jcas != null) {
+                        writeCasFile(aProject, imported.jcas,
+                                getCasFile(imported.document, INITIAL_CAS_PSEUDO_USER));
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        for (Entry<String, Future<Void>> e : writes.entrySet()) {
+            final SourceDocument document = converted.get(e.getKey()).document;
+            try {
+                e.getValue().get();
+                aReport.addImported(e.getKey(), converted.get(e.getKey()).file.length());
+                auditLog.log(aProject,
+                        " Imported file [" + document.getName() + "] with ID ["
+                                + document.getId() + "] to Project [" + aProject.getId() + "]");
+                continue;
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                aReport.addError(e.getKey(), "Import interrupted");
+            }
+            catch (ExecutionException ex) {
+                log.error("Unable to store [" + e.getKey() + "]", ex.getCause());
+                aReport.addError(e.getKey(), getImportErrorMessage(ex.getCause()));
+            }
+
+            // Do not leave behind a document without its source file
+            try {
+                transactionTemplate.execute(new TransactionCallbackWithoutResult()
+                {
+                    @Override
+                    protected void doInTransactionWithoutResult(TransactionStatus aStatus)
+                    {
+                        entityManager.remove(entityManager.merge(document));
+                    }
+                });
+            }
+            catch (RuntimeException ex) {
+                log.error("Unable to remove source document [" + document.getName() + "]", ex);
+            }
+            FileUtils.deleteQuietly(new File(dir.getAbsolutePath() + PROJECT + aProject.getId()
+                    + DOCUMENT + document.getId()));
+        }
+    }
+
+    private static String getImportErrorMessage(Throwable aCause)
+    {
+        return aCause.getMessage() != null ? aCause.getMessage() : aCause.getClass()
+                .getSimpleName();
+    }
+
+    /**
+     * A file being imported by {@link #uploadSourceDocuments}.
+     */
+    private static class ImportedDocument
+    {
+        final File file;
+        final JCas jcas;
+        SourceDocument document;
+
+        public ImportedDocument(File aFile, JCas aJCas)
+        {
+            file = aFile;
+            jcas = aJCas;
+        }
+    }
+
+    @Override
+    public List<String> getReadableFormatLabels()
+        throws ClassNotFoundException
+    {
+        List<String> readableFormats = new ArrayList<String>();
+        for (String key : readWriteFileFormats.stringPropertyNames()) {
+            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
+                String readerLabel = key.substring(0, key.lastIndexOf(".label"));
+                if (!isBlank(readWriteFileFormats.getProperty(readerLabel + ".reader"))) {
+                    readableFormats.add(readWriteFileFormats.getProperty(key));
+                }
+            }
+        }
+        Collections.sort(readableFormats);
+        return readableFormats;
+    }
+
+    @Override
+    public String getReadableFormatId(String aLabel)
+        throws ClassNotFoundException
+    {
+        String readableFormat = "";
+        for (String key : readWriteFileFormats.stringPropertyNames()) {
+            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
+                if (readWriteFileFormats.getProperty(key).equals(aLabel)) {
+                    readableFormat = key.substring(0, key.lastIndexOf(".label"));
+                    break;
+                }
+            }
+        }
+        return readableFormat;
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Map<String, Class> getReadableFormats()
+        throws ClassNotFoundException
+    {
+        Map<String, Class> readableFormats = new HashMap<String, Class>();
+        for (String key : readWriteFileFormats.stringPropertyNames()) {
+            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
+                String readerLabel = key.substring(0, key.lastIndexOf(".label"));
+                if (!isBlank(readWriteFileFormats.getProperty(readerLabel + ".reader"))) {
+                    readableFormats.put(readerLabel, Class.forName(readWriteFileFormats
+                            .getProperty(readerLabel + ".reader")));
+                }
+            }
+        }
+        return readableFormats;
+    }
+
+    @Override
+    public List<String> getWritableFormatLabels()
+        throws ClassNotFoundException
+    {
+        List<String> writableFormats = new ArrayList<String>();
+        for (String key : readWriteFileFormats.stringPropertyNames()) {
+            if (key.contains(".label") && !isBlank(readWriteFileFormats.getProperty(key))) {
+                String writerLabel = key.substring(0, key.lastIndexOf(".label"));
+                if (!isBlank(readWriteFileFormats.getProperty(writerLabel + ".writer"))) {
                     writableFormats.add(readWriteFileFormats.getProperty(key));
                 }
             }
@@ -1612,16 +2285,150 @@ public class RepositoryServiceDbData
      *            CURATION_USER
      * @throws IOException
      */
-
     private void writeCas(SourceDocument aDocument, JCas aJcas, String aUserName)
         throws IOException
+    {
+        if (casJournal != null && casCache.isCachedElsewhere(aDocument, aUserName, aJcas)) {
+            // The CAS has been changed to be saved as the CAS of a different user, so changes
+            // made to it since it has last been saved are not necessarily edits of its owner.
+            // Stop journaling it, so the owner's next save writes the complete CAS instead.
+            casJournal.forget(aJcas);
+        }
+        else if (casJournal != null && writeCasToJournal(aDocument, aJcas, aUserName)) {
+            return;
+        }
+
+        if (casCache.isEnabled() && casCacheWriteBack) {
+            // Defer writing until the CAS is evicted or flushed. If the CAS is already cached
+            // for a different user, we fall back to writing it immediately.
+            if (casCache.put(aDocument, aUserName, aJcas, -1, true)) {
+                // The CAS file is outdated now, so copies and the write-back are made from the
+                // state recorded here
+                casCache.save(aDocument, aUserName);
+                return;
+            }
+        }
+
+        writeCasToDisk(aDocument, aJcas, aUserName);
+
+        if (casJournal != null) {
+            // Reading the snapshot back may not yield exactly the CAS we just wrote, so changes to
+            // this CAS cannot be journaled. Drop it so the next access reads the snapshot again.
+            casCache.invalidate(aDocument, aUserName);
+        }
+        else if (casCache.isEnabled()) {
+            casCache.put(aDocument, aUserName, aJcas,
+                    new File(getAnnotationFolder(aDocument), aUserName + ".ser").length(), false);
+        }
+    }
+
+    /**
+     * Append the changes made to the CAS since it has been read or last saved to the journal of
+     * the CAS file. This only works for the live CAS of the owning annotation session, i.e. a CAS
+     * which has been read via the cache and not been written to disk since. Copies handed out to
+     * other readers are never tracked, so their changes are never journaled.
+     *
+     * @return whether the changes have been journaled. If not, the caller needs to write the
+     *         complete CAS.
+     */
+    private boolean writeCasToJournal(SourceDocument aDocument, JCas aJcas, String aUserName)
+        throws IOException
+    {
+        File casFile = new File(getAnnotationFolder(aDocument), aUserName + ".ser");
+
+        boolean journaled;
+        Lock lock = casLocks.lockForWriting(aDocument, aUserName);
+        try {
+            journaled = casJournal.append(casFile, aJcas);
+        }
+        finally {
+            lock.unlock();
+        }
+
+        // The snapshot is rewritten when the CAS is written back from the cache
+        if (!journaled || !casCache.put(aDocument, aUserName, aJcas, -1, true)) {
+            return false;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Journaled changes to annotation document [" + aDocument.getId()
+                    + "] of user [" + aUserName + "]");
+        }
+
+        // Once replaying the journal would take longer than reading the snapshot, fold the
+        // journal into the snapshot
+        if (casJournal.getSize(casFile) > casFile.length()) {
+            scheduleCompaction(aDocument, aUserName, casFile);
+        }
+
+        return true;
+    }
+
+    private void scheduleCompaction(final SourceDocument aDocument, final String aUsername,
+            final File aCasFile)
+    {
+        if (!pendingCompactions.add(aCasFile)) {
+            return;
+        }
+
+        casMaintenance.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    casCache.evict(aDocument, aUsername);
+                }
+                catch (IOException e) {
+                    log.error("Unable to write back CAS of user [" + aUsername
+                            + "] for document [" + aDocument.getId() + "]", e);
+                }
+                finally {
+                    pendingCompactions.remove(aCasFile);
+                }
+            }
+        });
+    }
+
+    /**
+     * Make sure the CAS file of the given document and user contains all changes, e.g. before it
+     * is accessed directly. Pending changes of a cached CAS are written back, and a journal left
+     * over from a previous run is folded into the CAS file. This never places the CAS in the
+     * cache, so exporting a project does not evict the working sets of the users.
+     */
+    private void writeBackCas(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        casCache.flush(aDocument, aUsername);
+
+        if (casJournal == null) {
+            return;
+        }
+
+        File casFile = new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+        Lock lock = casLocks.lockForWriting(aDocument, aUsername);
+        try {
+            // The journal of a cached CAS has been folded in by the flush above
+            if (casJournal.getSize(casFile) > 0 && !casCache.contains(aDocument, aUsername)) {
+                writeCasToDisk(aDocument, readCasFromDisk(aDocument, aUsername, false),
+                        aUsername);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeCasToDisk(SourceDocument aDocument, JCas aJcas, String aUserName)
+        throws IOException
     {
         log.debug("Updating annotation document [" + aDocument.getName() + "] " + "with ID ["
                 + aDocument.getId() + "] in project ID [" + aDocument.getProject().getId()
                 + "]");
         //DebugUtils.smallStack();
 
-        synchronized (lock) {
+        Lock lock = casLocks.lockForWriting(aDocument, aUserName);
+        try {
             File annotationFolder = getAnnotationFolder(aDocument);
             FileUtils.forceMkdir(annotationFolder);
 
@@ -1648,18 +2455,23 @@ public class RepositoryServiceDbData
                 md.setDocumentId(aUserName);
 
                 File targetPath = getAnnotationFolder(aDocument);
-                writeSerializedCas(aJcas, new File(targetPath, aUserName+".ser"));
+                writeCasFile(aDocument.getProject(), aJcas,
+                        new File(targetPath, aUserName + ".ser"));
 
-                createLog(aDocument.getProject()).info(
+                auditLog.log(aDocument.getProject(),
                         "Updated annotation document [" + aDocument.getName() + "] " + "with ID ["
                                 + aDocument.getId() + "] in project ID ["
                                 + aDocument.getProject().getId() + "]");
-                createLog(aDocument.getProject()).removeAllAppenders();
 
                 // If the saving was successful, we delete the old version
                 if (oldVersion.exists()) {
                     FileUtils.forceDelete(oldVersion);
                 }
+
+                // The new version contains all journaled changes
+                if (casJournal != null) {
+                    casJournal.delete(currentVersion);
+                }
             }
             catch (IOException e) {
                 // If we could not save the new version, restore the old one.
@@ -1673,91 +2485,10 @@ public class RepositoryServiceDbData
             }
 
             // Manage history
-            if (backupInterval > 0) {
-                // Determine the reference point in time based on the current version
-                long now = currentVersion.lastModified();
-
-                // Get all history files for the current user
-                File[] history = annotationFolder.listFiles(new FileFilter()
-                {
-                    private final Matcher matcher = Pattern.compile(
-                            Pattern.quote(username) + "\\.ser\\.[0-9]+\\.bak").matcher("");
-
-                    @Override
-                    public boolean accept(File aFile)
-                    {
-                        // Check if the filename matches the pattern given above.
-                        return matcher.reset(aFile.getName()).matches();
-                    }
-                });
-
-                // Sort the files (oldest one first)
-                Arrays.sort(history, LastModifiedFileComparator.LASTMODIFIED_COMPARATOR);
-
-                // Check if we need to make a new history file
-                boolean historyFileCreated = false;
-                File historyFile = new File(annotationFolder, username + ".ser." + now + ".bak");
-                if (history.length == 0) {
-                    // If there is no history yet but we should keep history, then we create a
-                    // history file in any case.
-                    FileUtils.copyFile(currentVersion, historyFile);
-                    historyFileCreated = true;
-                }
-                else {
-                    // Check if the newest history file is significantly older than the current one
-                    File latestHistory = history[history.length - 1];
-                    if (latestHistory.lastModified() + backupInterval < now) {
-                        FileUtils.copyFile(currentVersion, historyFile);
-                        historyFileCreated = true;
-                    }
-                }
-
-                // Prune history based on number of backup
-                if (historyFileCreated) {
-                    // The new version is not in the history, so we keep that in any case. That
-                    // means we need to keep one less.
-                    int toKeep = Math.max(backupKeepNumber - 1, 0);
-                    if ((backupKeepNumber > 0) && (toKeep < history.length)) {
-                        // Copy the oldest files to a new array
-                        File[] toRemove = new File[history.length - toKeep];
-                        System.arraycopy(history, 0, toRemove, 0, toRemove.length);
-
-                        // Restrict the history to what is left
-                        File[] newHistory = new File[toKeep];
-                        if (toKeep > 0) {
-                            System.arraycopy(history, toRemove.length, newHistory, 0,
-                                    newHistory.length);
-                        }
-                        history = newHistory;
-
-                        // Remove these old files
-                        for (File file : toRemove) {
-                            FileUtils.forceDelete(file);
-                            createLog(aDocument.getProject()).info(
-                                    "Removed surplus history file [" + file.getName() + "] "
-                                            + "for document with ID [" + aDocument.getId()
-                                            + "] in project ID [" + aDocument.getProject().getId()
-                                            + "]");
-                            createLog(aDocument.getProject()).removeAllAppenders();
-                        }
-                    }
-
-                    // Prune history based on time
-                    if (backupKeepTime > 0) {
-                        for (File file : history) {
-                            if ((file.lastModified() + backupKeepTime) < now) {
-                                FileUtils.forceDelete(file);
-                                createLog(aDocument.getProject()).info(
-                                        "Removed outdated history file [" + file.getName() + "] "
-                                                + " for document with ID [" + aDocument.getId()
-                                                + "] in project ID ["
-                                                + aDocument.getProject().getId() + "]");
-                                createLog(aDocument.getProject()).removeAllAppenders();
-                            }
-                        }
-                    }
-                }
-            }
+            casHistory.casSaved(aDocument, username, currentVersion);
+        }
+        finally {
+            lock.unlock();
         }
     }
 
@@ -1772,6 +2503,54 @@ public class RepositoryServiceDbData
      */
     private JCas readCas(SourceDocument aDocument, String aUsername)
         throws IOException
+    {
+        if (!casCache.isEnabled()) {
+            return readCasFromDisk(aDocument, aUsername, false);
+        }
+
+        JCas jcas = casCache.get(aDocument, aUsername);
+        if (jcas == null) {
+            File casFile = new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+            JCas loaded = readCasFromDisk(aDocument, aUsername, true);
+            jcas = casCache.putIfAbsent(aDocument, aUsername, loaded, casFile.length());
+            if (casJournal != null) {
+                if (jcas != loaded) {
+                    casJournal.forget(loaded);
+                }
+                else if (casJournal.getSize(casFile) > 0) {
+                    // Changes have been replayed from the journal which are not in the CAS file
+                    casCache.put(aDocument, aUsername, jcas, -1, true);
+                }
+            }
+        }
+        return jcas;
+    }
+
+    /**
+     * Get a private copy of the last saved state of the CAS of the given document and user which
+     * may be changed without affecting the CAS used by the annotation session of the user. The
+     * live CAS of the session is never touched since the session may be changing it right now.
+     * The copy is not placed in the cache.
+     */
+    private JCas readCasCopy(SourceDocument aDocument, String aUsername)
+        throws IOException
+    {
+        // Only saves deferred by the write-back leave the CAS file outdated. Otherwise, the CAS
+        // file and its journal contain the last saved state.
+        JCas jcas = casCache.getCopy(aDocument, aUsername);
+        if (jcas == null) {
+            jcas = readCasFromDisk(aDocument, aUsername, false);
+        }
+        return jcas;
+    }
+
+    /**
+     * @param aTrack
+     *            whether to journal further changes to the CAS. Only CASes which are placed in
+     *            the cache should be tracked.
+     */
+    private JCas readCasFromDisk(SourceDocument aDocument, String aUsername, boolean aTrack)
+        throws IOException
     {
         if (log.isDebugEnabled()) {
             log.debug("Getting annotation document [" + aDocument.getName() + "] with ID ["
@@ -1781,28 +2560,85 @@ public class RepositoryServiceDbData
 
         //DebugUtils.smallStack();
 
-        synchronized (lock) {
+        JCas jcas;
+        boolean migrate;
+        Lock lock = casLocks.lockForReading(aDocument, aUsername);
+        try {
             File annotationFolder = getAnnotationFolder(aDocument);
 
             String file = aUsername + ".ser";
 
-            try {
-                File serializedCasFile = new File(annotationFolder, file);
-                if (!serializedCasFile.exists()) {
-                    throw new FileNotFoundException("Annotation document of user [" + aUsername
-                            + "] for source document [" + aDocument.getName() + "] ("
-                            + aDocument.getId() + "). not found in project["
-                            + aDocument.getProject().getName() + "] ("
-                            + aDocument.getProject().getId() + ")");
+            File serializedCasFile = new File(annotationFolder, file);
+            if (!serializedCasFile.exists()) {
+                throw new FileNotFoundException("Annotation document of user [" + aUsername
+                        + "] for source document [" + aDocument.getName() + "] ("
+                        + aDocument.getId() + "). not found in project["
+                        + aDocument.getProject().getName() + "] ("
+                        + aDocument.getProject().getId() + ")");
+            }
+
+            CasStorageCodec codec = getCodec(serializedCasFile);
+            jcas = readCasFile(codec, aDocument.getProject(), serializedCasFile);
+            migrate = codec != casCodec;
+
+            if (casJournal != null) {
+                casJournal.replay(serializedCasFile, jcas);
+                // After migration, reading the CAS file no longer yields the same CAS
+                if (aTrack && !migrate) {
+                    casJournal.track(serializedCasFile, jcas);
                 }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if (migrate) {
+            migrateCasFile(aDocument, aUsername, jcas);
+        }
+
+        return jcas;
+    }
+
+    /**
+     * Rewrite a CAS file which has been stored in a format different from the configured one.
+     * This does not count as a modification, so no history is created. Failing to migrate is not
+     * fatal since the file can still be read in its old format.
+     */
+    private void migrateCasFile(SourceDocument aDocument, String aUsername, JCas aJCas)
+    {
+        Lock lock = casLocks.lockForWriting(aDocument, aUsername);
+        try {
+            File annotationFolder = getAnnotationFolder(aDocument);
+            File currentVersion = new File(annotationFolder, aUsername + ".ser");
 
-                CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
-                readSerializedCas(cas.getJCas(), serializedCasFile);
-                return cas.getJCas();
+            // The file may have been saved by somebody else while we did not hold the lock
+            if (!currentVersion.exists() || getCodec(currentVersion) == casCodec) {
+                return;
             }
-            catch (UIMAException e) {
-                throw new DataRetrievalFailureException("Unable to parse annotation", e);
+
+            File migratedVersion = new File(annotationFolder, aUsername + ".ser.tmp");
+            writeCasFile(aDocument.getProject(), aJCas, migratedVersion);
+            if (!migratedVersion.renameTo(currentVersion)) {
+                FileUtils.forceDelete(currentVersion);
+                renameFile(migratedVersion, currentVersion);
             }
+
+            // The migrated file contains any changes replayed from the journal
+            if (casJournal != null) {
+                casJournal.delete(currentVersion);
+            }
+
+            log.debug("Migrated CAS of user [" + aUsername + "] for document ["
+                    + aDocument.getId() + "] in project ID [" + aDocument.getProject().getId()
+                    + "] to " + casFormat + " format");
+        }
+        catch (IOException e) {
+            log.warn("Unable to migrate CAS of user [" + aUsername + "] for document ["
+                    + aDocument.getId() + "]", e);
+        }
+        finally {
+            lock.unlock();
         }
     }
 
@@ -1850,23 +2686,26 @@ public class RepositoryServiceDbData
 
             AnnotationDocument annotationDocument = getAnnotationDocument(aDocument, user);
             try {
+                // Only save CASes which actually had to be upgraded
                 CAS cas = readAnnotationCas(annotationDocument).getCas();
-                upgradeCas(cas, annotationDocument);
-                writeAnnotationCas(cas.getJCas(),
-                        annotationDocument.getDocument(), user);
+                if (upgradeCas(cas, aDocument, aUsername)) {
+                    writeAnnotationCas(cas.getJCas(), annotationDocument.getDocument(), user);
+                }
 
                 if (aMode.equals(Mode.ANNOTATION)) {
                     // In this case we only need to upgrade to annotation document
                 }
                 else if (aMode.equals(Mode.AUTOMATION) || aMode.equals(Mode.CORRECTION)) {
                     CAS corrCas = readCorrectionCas(aDocument).getCas();
-                    upgradeCas(corrCas, annotationDocument);
-                    writeCorrectionCas(corrCas.getJCas(), aDocument, user);
+                    if (upgradeCas(corrCas, aDocument, aUsername)) {
+                        writeCorrectionCas(corrCas.getJCas(), aDocument, user);
+                    }
                 }
                 else {
                     CAS curCas = readCurationCas(aDocument).getCas();
-                    upgradeCas(curCas, annotationDocument);
-                    writeCurationCas(curCas.getJCas(), aDocument, user);
+                    if (upgradeCas(curCas, aDocument, aUsername)) {
+                        writeCurationCas(curCas.getJCas(), aDocument, user);
+                    }
                 }
 
             }
@@ -1874,12 +2713,11 @@ public class RepositoryServiceDbData
                 // no need to catch, it is acceptable that no curation document
                 // exists to be upgraded while there are annotation documents
             }
-            createLog(aDocument.getProject()).info(
+            auditLog.log(aDocument.getProject(),
                     "Upgraded annotation document [" + aDocument.getName() + "] " + "with ID ["
                             + aDocument.getId() + "] in project ID ["
                             + aDocument.getProject().getId() + "] for user [" + aUsername
                             + "] in mode [" + aMode + "]");
-            createLog(aDocument.getProject()).removeAllAppenders();
         }
     }
 
@@ -1890,18 +2728,24 @@ public class RepositoryServiceDbData
         upgradeCas(aCas, aAnnotationDocument.getDocument(), aAnnotationDocument.getUser());
     }
 
-    private void upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
+    /**
+     * Upgrade the CAS to the current type system of the project.
+     *
+     * @return whether the CAS had to be upgraded.
+     */
+    private boolean upgradeCas(CAS aCas, SourceDocument aSourceDocument, String aUser)
         throws UIMAException, IOException
     {
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aSourceDocument.getProject());
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+        ProjectTypeSystem projectTypeSystem = getProjectTypeSystem(aSourceDocument.getProject());
+
+        // Nothing to do if the CAS already uses the current type system of the project
+        if (projectTypeSystem.getFingerprint().equals(
+                TypeSystemFingerprint.of(aCas.getTypeSystem()))) {
+            return false;
+        }
 
         // Prepare template for new CAS
-        CAS newCas = JCasFactory.createJCas(allTypes).getCas();
-        CASCompleteSerializer serializer = Serialization.serializeCASComplete((CASImpl) newCas);
+        CASCompleteSerializer serializer = projectTypeSystem.getTemplate();
 
         // Save old type system
         TypeSystem oldTypeSystem = aCas.getTypeSystem();
@@ -1919,11 +2763,113 @@ public class RepositoryServiceDbData
 
         // Make sure JCas is properly initialized too
         aCas.getJCas();
+
+        // The CAS now uses a type system restored from the template
+        TypeSystemFingerprint.register(aCas.getTypeSystem(), projectTypeSystem.getFingerprint());
         
-        createLog(aSourceDocument.getProject()).info(
+        auditLog.log(aSourceDocument.getProject(),
                 "Upgraded CAS of user [" + aUser + "] for document [" + aSourceDocument.getName()
                         + "] " + " in project ID [" + aSourceDocument.getProject().getId() + "]");
-        createLog(aSourceDocument.getProject()).removeAllAppenders();
+
+        return true;
+    }
+
+    /**
+     * Check if the CAS file of the given document and user has been written with the current
+     * type system of the project. This only looks at the file header and does not load the CAS.
+     * Files in the serialized format do not record their type system and are always considered
+     * to be outdated.
+     */
+    private boolean isCasFileUpToDate(SourceDocument aDocument, String aUsername,
+            String aFingerprint)
+        throws IOException
+    {
+        Lock lock = casLocks.lockForReading(aDocument, aUsername);
+        try {
+            File file = new File(getAnnotationFolder(aDocument), aUsername + ".ser");
+            if (!file.exists() || getCodec(file) != binaryCasCodec) {
+                return false;
+            }
+            try (InputStream is = new FileInputStream(file)) {
+                return aFingerprint.equals(binaryCasCodec.readFingerprint(is));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Schedule upgrading all outdated CASes of the project in the background.
+     */
+    private void scheduleProjectUpgrade(final Project aProject)
+    {
+        // Multiple changes to the same project are upgraded in a single run
+        if (!pendingUpgrades.add(aProject.getId())) {
+            return;
+        }
+
+        casUpgrader.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                pendingUpgrades.remove(aProject.getId());
+                try {
+                    upgradeProjectCases(aProject);
+                }
+                catch (Exception e) {
+                    log.error("Unable to upgrade CASes of project [" + aProject.getId() + "]", e);
+                }
+            }
+        });
+    }
+
+    private void upgradeProjectCases(Project aProject)
+        throws UIMAException, IOException
+    {
+        String fingerprint = getProjectTypeSystem(aProject).getFingerprint();
+        log.info("Upgrading CASes of project [" + aProject.getId() + "]");
+
+        int upgraded = 0;
+        for (SourceDocument document : listSourceDocuments(aProject)) {
+            File[] files = getAnnotationFolder(document).listFiles(new FileFilter()
+            {
+                @Override
+                public boolean accept(File aFile)
+                {
+                    return aFile.getName().endsWith(".ser");
+                }
+            });
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                String username = FilenameUtils.getBaseName(file.getName());
+
+                // Hold the lock throughout so no save is lost between reading and writing
+                Lock lock = casLocks.lockForWriting(document, username);
+                try {
+                    // CASes in use are upgraded when they are opened
+                    if (casCache.contains(document, username)
+                            || isCasFileUpToDate(document, username, fingerprint)) {
+                        continue;
+                    }
+
+                    JCas jcas = readCasFromDisk(document, username, false);
+                    if (upgradeCas(jcas.getCas(), document, username)) {
+                        writeCasToDisk(document, jcas, username);
+                        upgraded++;
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        log.info("Upgraded " + upgraded + " CASes of project [" + aProject.getId() + "]");
     }
 
     @Override
@@ -1975,16 +2921,11 @@ public class RepositoryServiceDbData
      *             if an I/O error occurs.
      */
     @SuppressWarnings({ "rawtypes", "unchecked" })
-    private JCas convertSourceDocumentToCas(File aFile, Class aReader, SourceDocument aDocument)
+    private JCas convertSourceDocumentToCas(File aFile, Class aReader, Project aProject)
         throws UIMAException, IOException
     {
         // Prepare a CAS with the project type system
-        TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
-                .createTypeSystemDescription();
-        List<TypeSystemDescription> projectTypes = getProjectTypes(aDocument.getProject());
-        projectTypes.add(builtInTypes);
-        TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
-        CAS cas = JCasFactory.createJCas(allTypes).getCas();
+        CAS cas = getProjectTypeSystem(aProject).createJCas().getCas();
 
         // Convert the source document to CAS
         CollectionReader reader = CollectionReaderFactory.createReader(aReader,
@@ -2002,16 +2943,44 @@ public class RepositoryServiceDbData
         boolean hasSentences = JCasUtil.exists(jCas, Sentence.class);
 
         if (!hasTokens || !hasSentences) {
-            AnalysisEngine pipeline = createEngine(createEngineDescription(
-                    BreakIteratorSegmenter.class,
-                    BreakIteratorSegmenter.PARAM_WRITE_TOKEN, !hasTokens,
-                    BreakIteratorSegmenter.PARAM_WRITE_SENTENCE, !hasSentences));
-            pipeline.process(cas.getJCas());
+            Queue<AnalysisEngine> pool = getSegmenterPool(!hasTokens, !hasSentences);
+            AnalysisEngine segmenter = pool.poll();
+            if (segmenter == null) {
+                segmenter = createSegmenter(!hasTokens, !hasSentences);
+            }
+            try {
+                segmenter.process(jCas);
+            }
+            finally {
+                pool.offer(segmenter);
+            }
         }
 
         return jCas;
     }
 
+    private Queue<AnalysisEngine> getSegmenterPool(boolean aWriteTokens, boolean aWriteSentences)
+    {
+        String key = aWriteTokens + "/" + aWriteSentences;
+        Queue<AnalysisEngine> pool = segmenters.get(key);
+        if (pool == null) {
+            pool = new ConcurrentLinkedQueue<AnalysisEngine>();
+            Queue<AnalysisEngine> existing = segmenters.putIfAbsent(key, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    private AnalysisEngine createSegmenter(boolean aWriteTokens, boolean aWriteSentences)
+        throws ResourceInitializationException
+    {
+        return createEngine(createEngineDescription(BreakIteratorSegmenter.class,
+                BreakIteratorSegmenter.PARAM_WRITE_TOKEN, aWriteTokens,
+                BreakIteratorSegmenter.PARAM_WRITE_SENTENCE, aWriteSentences));
+    }
+
     @Transactional
     private void updateTimeStamp(SourceDocument aDocument, User aUser, Mode aMode)
         throws IOException
@@ -2053,6 +3022,33 @@ public class RepositoryServiceDbData
         return crowdsourceEnabled;
     }
 
+    /**
+     * Get the merged type system of the built-in types and the custom layers of the project. This
+     * is cached until the layers or features of the project change.
+     */
+    private ProjectTypeSystem getProjectTypeSystem(Project aProject)
+        throws UIMAException
+    {
+        ProjectTypeSystem projectTypeSystem = typeSystemCache.get(aProject);
+        if (projectTypeSystem == null) {
+            long version = typeSystemCache.getVersion();
+
+            TypeSystemDescription builtInTypes = TypeSystemDescriptionFactory
+                    .createTypeSystemDescription();
+            List<TypeSystemDescription> projectTypes = getProjectTypes(aProject);
+            projectTypes.add(builtInTypes);
+            TypeSystemDescription allTypes = CasCreationUtils.mergeTypeSystems(projectTypes);
+
+            CAS template = JCasFactory.createJCas(allTypes).getCas();
+            projectTypeSystem = new ProjectTypeSystem(allTypes,
+                    Serialization.serializeCASComplete((CASImpl) template),
+                    TypeSystemFingerprint.of(template.getTypeSystem()));
+
+            typeSystemCache.put(aProject, version, projectTypeSystem);
+        }
+        return projectTypeSystem;
+    }
+
     private List<TypeSystemDescription> getProjectTypes(Project aProject)
     {
         // Create a new type system from scratch
@@ -2202,13 +3198,10 @@ public class RepositoryServiceDbData
         User user = userRepository.get(username);
 
         List<Project> allProjects = listProjects();
-        List<Authority> authorities = listAuthorities(user);
 
         // if global admin, show all projects
-        for (Authority authority : authorities) {
-            if (authority.getAuthority().equals("ROLE_ADMIN")) {
-                return allProjects;
-            }
+        if (getAuthorityNames(user).contains(Role.ROLE_ADMIN.name())) {
+            return allProjects;
         }
 
         // else only projects she is admin of
@@ -2247,32 +3240,92 @@ public class RepositoryServiceDbData
         return finishedAnnotationDocumentExist;
     }
 
-    private static void writeSerializedCas(JCas aJCas, File aFile)
+    private void writeCasFile(Project aProject, JCas aJCas, File aFile)
         throws IOException
     {
         FileUtils.forceMkdir(aFile.getParentFile());
 
-        try (ObjectOutputStream os = new ObjectOutputStream(new FileOutputStream(aFile))) {
-            CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
-            os.writeObject(serializer);
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(aFile))) {
+            casCodec.write(aProject, aJCas, os);
         }
     }
 
-    private static void readSerializedCas(JCas aJCas, File aFile)
+    private JCas readCasFile(Project aProject, File aFile)
+        throws IOException
+    {
+        return readCasFile(getCodec(aFile), aProject, aFile);
+    }
+
+    private JCas readCasFile(CasStorageCodec aCodec, Project aProject, File aFile)
         throws IOException
     {
-        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(aFile))) {
-            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
-            deserializeCASComplete(serializer, aJCas.getCasImpl());
-            // Initialize the JCas sub-system which is the most often used API in DKPro Core components
-            aJCas.getCas().getJCas();
+        try (InputStream is = new BufferedInputStream(new FileInputStream(aFile))) {
+            return aCodec.read(aProject, is);
         }
-        catch (CASException e) {
-            throw new IOException(e);
+    }
+
+    /**
+     * Determine the codec a CAS file has been written with. Files not written by the binary codec
+     * are considered to be serialized CASes.
+     */
+    private CasStorageCodec getCodec(File aFile)
+        throws IOException
+    {
+        byte[] header = new byte[CasStorageCodec.HEADER_LENGTH];
+        int length;
+        try (InputStream is = new FileInputStream(aFile)) {
+            length = IOUtils.read(is, header);
         }
-        catch (ClassNotFoundException e) {
-            throw new IOException(e);
+        return binaryCasCodec.accepts(Arrays.copyOf(header, length)) ? binaryCasCodec
+                : serializedCasCodec;
+    }
+
+    @Override
+    public void exportSerializedCas(SourceDocument aDocument, String aUser, OutputStream aStream)
+        throws IOException
+    {
+        // Exporting does not make the CAS part of anybody's working set and must not touch the
+        // live CAS of the user
+        serializedCasCodec.write(aDocument.getProject(), readCasCopy(aDocument, aUser), aStream);
+    }
+
+    @Override
+    public List<Long> listCasVersions(SourceDocument aDocument, String aUser)
+        throws IOException
+    {
+        return casHistory.getVersions(new File(getAnnotationFolder(aDocument), aUser + ".ser"),
+                aUser);
+    }
+
+    @Override
+    public void restoreCasVersion(SourceDocument aDocument, String aUser, long aVersion)
+        throws IOException
+    {
+        // Make sure the current state is in the CAS file, so it is recorded before it is
+        // replaced. The cache entry must be dropped without holding the lock, since dropping
+        // waits for a running write-back which needs the lock.
+        writeBackCas(aDocument, aUser);
+        casCache.invalidate(aDocument, aUser);
+
+        Lock lock = casLocks.lockForWriting(aDocument, aUser);
+        try {
+            File casFile = new File(getAnnotationFolder(aDocument), aUser + ".ser");
+            casHistory.restore(aDocument, aUser, casFile, aVersion);
+            if (casJournal != null) {
+                casJournal.delete(casFile);
+            }
+        }
+        finally {
+            lock.unlock();
         }
+
+        // Somebody may have read the replaced CAS in the meantime
+        casCache.invalidate(aDocument, aUser);
+
+        auditLog.log(aDocument.getProject(), "Restored version [" + aVersion
+                + "] of annotation document [" + aDocument.getName() + "] with ID ["
+                + aDocument.getId() + "] of user [" + aUser + "] in project ID ["
+                + aDocument.getProject().getId() + "]");
     }
 
     @Override
@@ -2285,10 +3338,9 @@ public class RepositoryServiceDbData
         copyLarge(new FileInputStream(aContent), new FileOutputStream(new File(constraintRulesPath
                 + "project.rules")));
 
-        createLog(aProject).info(
+        auditLog.log(aProject,
                 " Created Constraints Rule file[ " + aFileName + "] for Project [" + aProject.getName()
                         + "] with ID [" + aProject.getId() + "]");
-        createLog(aProject).removeAllAppenders();
         
     }
 
@@ -2304,10 +3356,9 @@ public class RepositoryServiceDbData
     {
         FileUtils.forceDelete(new File(dir.getAbsolutePath() + PROJECT + aProject.getId()
                 + CONSTRAINTS+"/project.rules"));
-        createLog(aProject).info(
+        auditLog.log(aProject,
                 " Removed Constraint Rules file from [" + aProject.getName() + "] with ID ["
                         + aProject.getId() + "]");
-        createLog(aProject).removeAllAppenders();
         
     }
 }
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Caches the layers, features, tag sets and tags of each project. These are read whenever a
+ * document is rendered or exported, but they hardly ever change.
+ * <p>
+ * Each entry holds detached copies of the entities which are shared by all callers. Every hit
+ * returns a new list, so callers may add or remove elements, but they must not modify the entities
+ * themselves - editing forms need to work on a copy of their own. Entries must be invalidated
+ * whenever the schema of a project changes.
+ */
+public class SchemaCache
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final ConcurrentMap<Long, ConcurrentMap<String, List<?>>> entries =
+            new ConcurrentHashMap<Long, ConcurrentMap<String, List<?>>>();
+
+    private final CacheInvalidation<Long> invalidation = new CacheInvalidation<Long>()
+    {
+        @Override
+        protected void remove(Long aProjectId)
+        {
+            if (entries.remove(aProjectId) != null) {
+                log.debug("Dropped schema of project [" + aProjectId + "]");
+            }
+        }
+    };
+
+    /**
+     * Loads the entities of an entry from the database if they are not cached.
+     */
+    public static interface Loader<T extends Serializable>
+    {
+        List<T> load();
+    }
+
+    /**
+     * Get the entities cached under the given key for the project, loading them if necessary.
+     *
+     * @param aProject
+     *            the project the entities belong to. If this is {@code null}, the cache is
+     *            bypassed.
+     * @param aKey
+     *            identifies the entry within the project.
+     * @param aLoader
+     *            loads the entities on a cache miss.
+     * @return the entities.
+     */
+    public <T extends Serializable> List<T> get(Project aProject, String aKey, Loader<T> aLoader)
+    {
+        if (aProject == null || invalidation.isBypassed()) {
+            return aLoader.load();
+        }
+
+        ConcurrentMap<String, List<?>> projectEntries = entries.get(aProject.getId());
+        @SuppressWarnings("unchecked")
+        List<T> cached = projectEntries != null ? (List<T>) projectEntries.get(aKey) : null;
+        if (cached != null) {
+            return new ArrayList<T>(cached);
+        }
+
+        long loadedVersion = invalidation.getVersion();
+        List<T> result = aLoader.load();
+        List<T> detached = detach(result);
+        if (detached != null) {
+            put(aProject, aKey, loadedVersion, detached);
+        }
+        return result;
+    }
+
+    /**
+     * Drop all entries of the given project.
+     */
+    public void invalidate(Project aProject)
+    {
+        invalidation.invalidate(aProject.getId());
+    }
+
+    private void put(Project aProject, String aKey, long aVersion, List<?> aEntities)
+    {
+        ConcurrentMap<String, List<?>> projectEntries = entries.get(aProject.getId());
+        if (projectEntries == null) {
+            projectEntries = new ConcurrentHashMap<String, List<?>>();
+            ConcurrentMap<String, List<?>> existing = entries.putIfAbsent(aProject.getId(),
+                    projectEntries);
+            if (existing != null) {
+                projectEntries = existing;
+            }
+        }
+        projectEntries.put(aKey, aEntities);
+        if (!invalidation.isCurrent(aVersion)) {
+            projectEntries.remove(aKey, aEntities);
+        }
+    }
+
+    /**
+     * Create a copy of the loaded entities which is detached from the persistence context they
+     * were loaded by, so it can be shared across requests.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> detach(List<T> aEntities)
+    {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                oos.writeObject(new ArrayList<T>(aEntities));
+            }
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+                    bos.toByteArray()))) {
+                return Collections.unmodifiableList((List<T>) ois.readObject());
+            }
+        }
+        catch (IOException | ClassNotFoundException e) {
+            log.error("Unable to detach schema entities - not caching", e);
+            return null;
+        }
+    }
+}
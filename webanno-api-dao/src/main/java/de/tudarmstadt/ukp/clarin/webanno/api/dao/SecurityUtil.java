@@ -17,32 +17,22 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
-import java.util.List;
-
-import javax.persistence.NoResultException;
-
-import org.apache.commons.lang.StringUtils;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
-import de.tudarmstadt.ukp.clarin.webanno.model.Authority;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
-import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
 import de.tudarmstadt.ukp.clarin.webanno.model.Role;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
 
 /**
- * This class contains Utility methods that can be used in Project settings
+ * This class contains Utility methods that can be used in Project settings. The checks use the
+ * authorities and permissions cached by the {@link RepositoryService}, so they can be called
+ * repeatedly, e.g. for every project in a list, without querying the database each time.
  *
  * @author Seid Muhie Yimam
  *
  */
 public class SecurityUtil
 {
-    private static final Log LOG = LogFactory.getLog(SecurityUtil.class);
-
     /**
      * IS user super Admin
      * 
@@ -52,15 +42,7 @@ public class SecurityUtil
      */
     public static boolean isSuperAdmin(RepositoryService aProjectRepository, User aUser)
     {
-        boolean roleAdmin = false;
-        List<Authority> authorities = aProjectRepository.listAuthorities(aUser);
-        for (Authority authority : authorities) {
-            if (authority.getAuthority().equals(Role.ROLE_ADMIN.name())) {
-                roleAdmin = true;
-                break;
-            }
-        }
-        return roleAdmin;
+        return aProjectRepository.getAuthorityNames(aUser).contains(Role.ROLE_ADMIN.name());
     }
 
     /**
@@ -72,15 +54,8 @@ public class SecurityUtil
      */
     public static boolean isProjectCreator(RepositoryService aProjectRepository, User aUser)
     {
-        boolean roleAdmin = false;
-        List<Authority> authorities = aProjectRepository.listAuthorities(aUser);
-        for (Authority authority : authorities) {
-            if (authority.getAuthority().equals(Role.ROLE_PROJECT_CREATOR.name())) {
-                roleAdmin = true;
-                break;
-            }
-        }
-        return roleAdmin;
+        return aProjectRepository.getAuthorityNames(aUser).contains(
+                Role.ROLE_PROJECT_CREATOR.name());
     }
 
     /**
@@ -94,35 +69,7 @@ public class SecurityUtil
     public static boolean isProjectAdmin(Project aProject, RepositoryService aProjectRepository,
             User aUser)
     {
-        boolean roleAdmin = false;
-        List<Authority> authorities = aProjectRepository.listAuthorities(aUser);
-        for (Authority authority : authorities) {
-            if (authority.getAuthority().equals("ROLE_ADMIN")) {
-                roleAdmin = true;
-                break;
-            }
-        }
-
-        boolean projectAdmin = false;
-        if (!roleAdmin) {
-
-            try {
-                List<ProjectPermission> permissionLevels = aProjectRepository
-                        .listProjectPermisionLevel(aUser, aProject);
-                for (ProjectPermission permissionLevel : permissionLevels) {
-                    if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                            PermissionLevel.ADMIN.getName())) {
-                        projectAdmin = true;
-                        break;
-                    }
-                }
-            }
-            catch (NoResultException ex) {
-                LOG.info("No permision is given to this user " + ex);
-            }
-        }
-
-        return (projectAdmin || roleAdmin);
+        return hasPermissionLevel(aProject, aProjectRepository, aUser, PermissionLevel.ADMIN);
     }
 
     /**
@@ -136,35 +83,7 @@ public class SecurityUtil
     public static boolean isCurator(Project aProject, RepositoryService aProjectRepository,
             User aUser)
     {
-        boolean roleAdmin = false;
-        List<Authority> authorities = aProjectRepository.listAuthorities(aUser);
-        for (Authority authority : authorities) {
-            if (authority.getAuthority().equals("ROLE_ADMIN")) {
-                roleAdmin = true;
-                break;
-            }
-        }
-
-        boolean curator = false;
-        if (!roleAdmin) {
-
-            try {
-                List<ProjectPermission> permissionLevels = aProjectRepository
-                        .listProjectPermisionLevel(aUser, aProject);
-                for (ProjectPermission permissionLevel : permissionLevels) {
-                    if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                            PermissionLevel.CURATOR.getName())) {
-                        curator = true;
-                        break;
-                    }
-                }
-            }
-            catch (NoResultException ex) {
-                LOG.info("No permision is given to this user " + ex);
-            }
-        }
-
-        return (curator || roleAdmin);
+        return hasPermissionLevel(aProject, aProjectRepository, aUser, PermissionLevel.CURATOR);
     }
 
     /**
@@ -178,35 +97,16 @@ public class SecurityUtil
     public static boolean isMember(Project aProject, RepositoryService aProjectRepository,
             User aUser)
     {
-        boolean roleAdmin = false;
-        List<Authority> authorities = aProjectRepository.listAuthorities(aUser);
-        for (Authority authority : authorities) {
-            if (authority.getAuthority().equals("ROLE_ADMIN")) {
-                roleAdmin = true;
-                break;
-            }
-        }
-
-        boolean user = false;
-        if (!roleAdmin) {
-
-            try {
-                List<ProjectPermission> permissionLevels = aProjectRepository
-                        .listProjectPermisionLevel(aUser, aProject);
-                for (ProjectPermission permissionLevel : permissionLevels) {
-                    if (StringUtils.equalsIgnoreCase(permissionLevel.getLevel().getName(),
-                            PermissionLevel.USER.getName())) {
-                        user = true;
-                        break;
-                    }
-                }
-            }
-
-            catch (NoResultException ex) {
-                LOG.info("No permision is given to this user " + ex);
-            }
-        }
+        return hasPermissionLevel(aProject, aProjectRepository, aUser, PermissionLevel.USER);
+    }
 
-        return (user || roleAdmin);
+    /**
+     * Global admins implicitly have every permission level in every project.
+     */
+    private static boolean hasPermissionLevel(Project aProject,
+            RepositoryService aProjectRepository, User aUser, PermissionLevel aLevel)
+    {
+        return isSuperAdmin(aProjectRepository, aUser)
+                || aProjectRepository.getPermissionLevels(aUser, aProject).contains(aLevel);
     }
 }
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.cas.impl.Serialization.deserializeCASComplete;
+import static org.apache.uima.cas.impl.Serialization.serializeCASComplete;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+import org.apache.uima.UIMAException;
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.impl.CASCompleteSerializer;
+import org.apache.uima.cas.impl.CASImpl;
+import org.apache.uima.jcas.JCas;
+import org.apache.uima.resource.metadata.TypeSystemDescription;
+import org.apache.uima.util.CasCreationUtils;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Stores the CAS as a Java-serialized {@link CASCompleteSerializer}. Each file contains the
+ * complete type system, so files can be read without any further information. This is the
+ * format used by earlier versions of WebAnno and in exported projects.
+ */
+public class SerializedCasCodec
+    implements CasStorageCodec
+{
+    // Magic number of the Java object serialization stream protocol
+    private static final int STREAM_MAGIC = 0xACED;
+
+    @Override
+    public boolean accepts(byte[] aHeader)
+    {
+        return aHeader.length >= 2
+                && ((aHeader[0] & 0xFF) << 8 | (aHeader[1] & 0xFF)) == STREAM_MAGIC;
+    }
+
+    @Override
+    public void write(Project aProject, JCas aJCas, OutputStream aStream)
+        throws IOException
+    {
+        ObjectOutputStream os = new ObjectOutputStream(aStream);
+        CASCompleteSerializer serializer = serializeCASComplete(aJCas.getCasImpl());
+        os.writeObject(serializer);
+        os.flush();
+    }
+
+    @Override
+    public JCas read(Project aProject, InputStream aStream)
+        throws IOException
+    {
+        try {
+            CAS cas = CasCreationUtils.createCas((TypeSystemDescription) null, null, null);
+            ObjectInputStream is = new ObjectInputStream(aStream);
+            CASCompleteSerializer serializer = (CASCompleteSerializer) is.readObject();
+            deserializeCASComplete(serializer, (CASImpl) cas);
+            // Initialize the JCas sub-system which is the most often used API in DKPro Core
+            // components
+            return cas.getJCas();
+        }
+        catch (UIMAException e) {
+            throw new IOException(e);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.Feature;
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.TypeSystem;
+
+/**
+ * Hash over the names, supertypes and features of all types in a type system. Two CASes with the
+ * same fingerprint can be (de)serialized using each other's type system.
+ */
+public final class TypeSystemFingerprint
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Type systems are immutable once committed, so the fingerprint can be remembered as long as
+    // the type system is in use.
+    private static final Map<TypeSystem, String> FINGERPRINTS = Collections
+            .synchronizedMap(new WeakHashMap<TypeSystem, String>());
+
+    private TypeSystemFingerprint()
+    {
+        // No instances
+    }
+
+    /**
+     * Calculate the fingerprint of the given type system. The types are considered in the order
+     * of their type codes, so type systems which contain the same types in a different order yield
+     * different fingerprints.
+     *
+     * @param aTypeSystem
+     *            the type system.
+     * @return the fingerprint as a hex string.
+     */
+    public static String of(TypeSystem aTypeSystem)
+    {
+        String fingerprint = FINGERPRINTS.get(aTypeSystem);
+        if (fingerprint != null) {
+            return fingerprint;
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Iterator<Type> types = aTypeSystem.getTypeIterator();
+        while (types.hasNext()) {
+            Type type = types.next();
+            Type parent = aTypeSystem.getParent(type);
+            StringBuilder sb = new StringBuilder();
+            sb.append(type.getName()).append(':');
+            sb.append(parent != null ? parent.getName() : "").append('{');
+            for (Feature feature : type.getFeatures()) {
+                sb.append(feature.getShortName()).append(':');
+                sb.append(feature.getRange().getName()).append(';');
+            }
+            sb.append('}');
+            digest.update(sb.toString().getBytes(UTF8));
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        fingerprint = hex.toString();
+        FINGERPRINTS.put(aTypeSystem, fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * Remember the fingerprint of a type system which is known to be identical to a type system
+     * the fingerprint has been calculated for, e.g. because it has been restored from a template.
+     */
+    static void register(TypeSystem aTypeSystem, String aFingerprint)
+    {
+        FINGERPRINTS.put(aTypeSystem, aFingerprint);
+    }
+}
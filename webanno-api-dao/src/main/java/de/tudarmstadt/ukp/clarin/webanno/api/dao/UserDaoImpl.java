@@ -19,6 +19,7 @@ package de.tudarmstadt.ukp.clarin.webanno.api.dao;
 
 import java.util.List;
 
+import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
@@ -42,6 +43,9 @@ public class UserDaoImpl
 	@PersistenceContext
 	private EntityManager entityManager;
 
+	@Resource(name = "permissionCache")
+	private PermissionCache permissionCache;
+
 	@Override
 	@Transactional
 	public boolean exists(final String aUsername)
@@ -57,12 +61,15 @@ public class UserDaoImpl
 	    {
 	        entityManager.persist(aUser);
 	        entityManager.flush();
+	        permissionCache.invalidate(aUser.getUsername());
 	    }
 
 	    @Override
         @Transactional
 	    public User update(User aUser)
 	    {
+	        // The authorities of the user may have changed
+	        permissionCache.invalidate(aUser.getUsername());
 	        return entityManager.merge(aUser);
 	    }
 
@@ -85,6 +92,7 @@ public class UserDaoImpl
 	public void delete(User aUser)
 	{
 		entityManager.remove(entityManager.merge(aUser));
+		permissionCache.invalidate(aUser.getUsername());
 	}
 
 	@Override
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CORRECTION_USER;
+import static de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst.CURATION_USER;
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasCacheTest
+{
+    private Map<String, JCas> written;
+
+    private CasCache cache;
+
+    private SourceDocument document;
+
+    private JCas annotatorCas;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        written = new HashMap<String, JCas>();
+        cache = new CasCache(new CasCache.CasWriter()
+        {
+            @Override
+            public void write(SourceDocument aDocument, String aUsername, JCas aJCas)
+                throws IOException
+            {
+                written.put(aUsername, aJCas);
+            }
+        }, 1024 * 1024, 0);
+
+        document = new SourceDocument();
+        document.setId(1);
+
+        annotatorCas = JCasFactory.createJCas();
+        annotatorCas.setDocumentText("This is a test.");
+        new Token(annotatorCas, 0, 4).addToIndexes();
+        new Token(annotatorCas, 5, 7).addToIndexes();
+
+        // The annotator saves the CAS with write-back enabled
+        cache.put(document, "annotator", annotatorCas, 100, true);
+        cache.save(document, "annotator");
+    }
+
+    @Test
+    public void testChangingCurationCasLeavesAnnotatorCasUnchanged()
+        throws Exception
+    {
+        // Derive the curation CAS from the annotator's CAS like the curation does
+        JCas curationCas = cache.getCopy(document, "annotator");
+        assertNotSame(annotatorCas, curationCas);
+        curationCas.removeFsFromIndexes(select(curationCas, Token.class).iterator().next());
+        assertTrue(cache.put(document, CURATION_USER, curationCas, -1, true));
+
+        assertSame(annotatorCas, cache.get(document, "annotator"));
+        assertEquals(2, select(annotatorCas, Token.class).size());
+        assertSame(curationCas, cache.get(document, CURATION_USER));
+        assertEquals(1, select(curationCas, Token.class).size());
+
+        // The curation CAS has not been saved via save(), so the live CAS is written back
+        cache.flushAll();
+        assertEquals(2, written.size());
+        assertSame(curationCas, written.get(CURATION_USER));
+        assertEquals(2, select(written.get("annotator"), Token.class).size());
+    }
+
+    @Test
+    public void testCopyIsMadeFromSavedState()
+        throws Exception
+    {
+        // The annotator is in the middle of an edit
+        new Token(annotatorCas, 8, 9).addToIndexes();
+
+        JCas copy = cache.getCopy(document, "annotator");
+        assertNotSame(annotatorCas, copy);
+        assertEquals(2, select(copy, Token.class).size());
+        assertEquals(3, select(annotatorCas, Token.class).size());
+    }
+
+    @Test
+    public void testWriteBackWritesSavedState()
+        throws Exception
+    {
+        // The annotator is in the middle of an edit
+        new Token(annotatorCas, 8, 9).addToIndexes();
+
+        cache.flush(document, "annotator");
+
+        JCas writtenCas = written.get("annotator");
+        assertNotSame(annotatorCas, writtenCas);
+        assertEquals(2, select(writtenCas, Token.class).size());
+
+        // The CAS file is up to date now, so copies are read from there
+        assertNull(cache.getCopy(document, "annotator"));
+        assertSame(annotatorCas, cache.get(document, "annotator"));
+    }
+
+    @Test
+    public void testCopyIsIdenticalToCachedCas()
+        throws Exception
+    {
+        JCas copy = cache.getCopy(document, "annotator");
+
+        assertEquals(annotatorCas.getDocumentText(), copy.getDocumentText());
+        assertEquals(2, select(copy, Token.class).size());
+        assertEquals(TypeSystemFingerprint.of(annotatorCas.getTypeSystem()),
+                TypeSystemFingerprint.of(copy.getTypeSystem()));
+    }
+
+    @Test
+    public void testCopyOfUncachedCas()
+        throws Exception
+    {
+        assertNull(cache.getCopy(document, "other"));
+    }
+
+    @Test
+    public void testNoCopyOfCasWithoutSavedState()
+        throws Exception
+    {
+        // Without write-back, the CAS file contains the last saved state
+        JCas cas = JCasFactory.createJCas();
+        cache.put(document, "other", cas, 100, false);
+
+        assertNull(cache.getCopy(document, "other"));
+    }
+
+    @Test
+    public void testCasIsNotCachedUnderTwoKeys()
+        throws Exception
+    {
+        assertFalse(cache.isCachedElsewhere(document, "annotator", annotatorCas));
+        assertTrue(cache.isCachedElsewhere(document, CORRECTION_USER, annotatorCas));
+
+        // The annotator's CAS is saved as the correction CAS
+        assertFalse(cache.put(document, CORRECTION_USER, annotatorCas, -1, true));
+
+        assertFalse(cache.contains(document, CORRECTION_USER));
+        assertSame(annotatorCas, cache.get(document, "annotator"));
+    }
+}
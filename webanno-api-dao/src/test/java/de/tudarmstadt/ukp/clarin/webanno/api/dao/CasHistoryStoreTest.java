@@ -0,0 +1,282 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasHistoryStoreTest
+{
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private static final int TOKENS = 100000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File repositoryDir;
+
+    private Project project;
+
+    private SourceDocument document;
+
+    private File casFile;
+
+    private long time;
+
+    private BinaryCasCodec binaryCodec;
+
+    private SerializedCasCodec serializedCodec;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        repositoryDir = folder.newFolder("repository");
+
+        project = new Project();
+        project.setId(1);
+        document = new SourceDocument();
+        document.setId(2);
+        document.setProject(project);
+
+        File annotationFolder = new File(repositoryDir, "project/1/document/2/annotation");
+        FileUtils.forceMkdir(annotationFolder);
+        casFile = new File(annotationFolder, "user.ser");
+
+        time = System.currentTimeMillis() - 100 * HOUR;
+
+        binaryCodec = new BinaryCasCodec(repositoryDir);
+        serializedCodec = new SerializedCasCodec();
+    }
+
+    @Test
+    public void testRestoreVersion()
+        throws Exception
+    {
+        CasHistoryStore store = createStore(0);
+
+        JCas original = createCas();
+        save(original);
+        store.record(document, "user", casFile, false);
+        assertTrue(listChunks(store).size() > 1);
+
+        JCas changed = createCas();
+        new Token(changed, 0, 5).addToIndexes();
+        save(changed);
+        long version = store.getVersions(casFile, "user").get(0);
+        store.restore(document, "user", casFile, version);
+
+        // The version is restored in the format of the repository
+        assertEquals(TOKENS, select(load(), Token.class).size());
+        // The replaced content has been recorded, so restoring can be undone
+        assertEquals(2, store.getVersions(casFile, "user").size());
+    }
+
+    @Test
+    public void testSmallEditSharesMostChunks()
+        throws Exception
+    {
+        CasHistoryStore store = createStore(0);
+
+        JCas cas = createCas();
+        save(cas);
+        store.record(document, "user", casFile, false);
+        int chunks = listChunks(store).size();
+
+        // Add an annotation in the middle of the text. The compressed CAS file changes from
+        // there on, but the recorded form only changes locally.
+        int middle = TOKENS / 2 * 6;
+        new Token(cas, middle, middle + 5).addToIndexes();
+        save(cas);
+        store.record(document, "user", casFile, false);
+
+        assertEquals(2, store.getVersions(casFile, "user").size());
+        assertTrue("Too few chunks: " + chunks, chunks >= 10);
+        int added = listChunks(store).size() - chunks;
+        assertTrue("Too many new chunks: " + added + " of " + chunks, added * 4 < chunks);
+
+        // Saving unchanged content does not record a new version
+        save(cas);
+        store.record(document, "user", casFile, false);
+        assertEquals(2, store.getVersions(casFile, "user").size());
+    }
+
+    @Test
+    public void testPruneKeepsReferencedChunks()
+        throws Exception
+    {
+        CasHistoryStore store = createStore(1);
+
+        JCas cas = createCas();
+        save(cas);
+        store.record(document, "user", casFile, false);
+
+        new Token(cas, 0, 5).addToIndexes();
+        save(cas);
+        store.record(document, "user", casFile, false);
+        int chunksBefore = listChunks(store).size();
+
+        store.prune();
+
+        // Only the latest version is kept and exactly the chunks it refers to
+        List<Long> versions = store.getVersions(casFile, "user");
+        assertEquals(1, versions.size());
+        File manifest = new File(casFile.getParentFile(), "history/user/" + versions.get(0)
+                + ".manifest");
+        List<String> lines = FileUtils.readLines(manifest, "UTF-8");
+        Set<String> referenced = new HashSet<String>(lines.subList(1, lines.size()));
+        assertEquals(referenced, listChunks(store));
+        assertTrue(listChunks(store).size() < chunksBefore);
+
+        save(createCas());
+        store.restore(document, "user", casFile, versions.get(0));
+        assertEquals(TOKENS + 1, select(load(), Token.class).size());
+    }
+
+    @Test
+    public void testLegacyBackupIsRestored()
+        throws Exception
+    {
+        CasHistoryStore store = createStore(0);
+
+        byte[] legacy = randomData(1000);
+        File backup = new File(casFile.getParentFile(), "user.ser.20150101120000.bak");
+        FileUtils.writeByteArrayToFile(backup, legacy);
+        backup.setLastModified(time);
+
+        save(createCas());
+        assertEquals(Arrays.asList(time), store.getVersions(casFile, "user"));
+        store.restore(document, "user", casFile, time);
+
+        assertArrayEquals(legacy, FileUtils.readFileToByteArray(casFile));
+    }
+
+    private CasHistoryStore createStore(int aKeepNumber)
+    {
+        // Convert like the repository does with the binary format configured
+        CasHistoryStore.CasConverter converter = new CasHistoryStore.CasConverter()
+        {
+            @Override
+            public void expand(SourceDocument aDocument, File aCasFile, OutputStream aStream)
+                throws IOException
+            {
+                try (InputStream is = new BufferedInputStream(new FileInputStream(aCasFile))) {
+                    serializedCodec.write(project, binaryCodec.read(project, is), aStream);
+                }
+            }
+
+            @Override
+            public void compact(SourceDocument aDocument, InputStream aStream, File aCasFile)
+                throws IOException
+            {
+                try (OutputStream os = new BufferedOutputStream(new FileOutputStream(aCasFile))) {
+                    binaryCodec.write(project, serializedCodec.read(project, aStream), os);
+                }
+            }
+        };
+
+        // The history thread is not started, the tests record and prune explicitly
+        return new CasHistoryStore(repositoryDir, new CasLockManager(1), converter, 1,
+                aKeepNumber, 0);
+    }
+
+    /**
+     * Create a CAS with one token per word of a long text.
+     */
+    private JCas createCas()
+        throws Exception
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < TOKENS; i++) {
+            text.append(String.format("w%04d ", i % 10000));
+        }
+
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText(text.toString());
+        for (int i = 0; i < TOKENS; i++) {
+            new Token(jcas, i * 6, i * 6 + 5).addToIndexes();
+        }
+        return jcas;
+    }
+
+    /**
+     * Write the CAS file as if it had been saved one hour after the previous save.
+     */
+    private void save(JCas aJCas)
+        throws Exception
+    {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(casFile))) {
+            binaryCodec.write(project, aJCas, os);
+        }
+        time += HOUR;
+        casFile.setLastModified(time);
+    }
+
+    private JCas load()
+        throws Exception
+    {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(casFile))) {
+            return binaryCodec.read(project, is);
+        }
+    }
+
+    private Set<String> listChunks(CasHistoryStore aStore)
+    {
+        Set<String> chunks = new HashSet<String>();
+        for (File file : FileUtils.listFiles(aStore.getChunkFolder(document), null, true)) {
+            chunks.add(file.getName());
+        }
+        return chunks;
+    }
+
+    private static byte[] randomData(int aLength)
+    {
+        byte[] data = new byte[aLength];
+        new Random(aLength).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static org.apache.uima.fit.util.JCasUtil.select;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.uima.fit.factory.JCasFactory;
+import org.apache.uima.jcas.JCas;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+
+public class CasJournalTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CasJournal journal;
+
+    private File casFile;
+
+    private File journalFile;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        journal = new CasJournal();
+        casFile = folder.newFile("user.ser");
+        journalFile = new File(casFile.getPath() + ".journal");
+        // The journal only looks at the length and modification time of the snapshot
+        FileUtils.writeStringToFile(casFile, "snapshot", "UTF-8");
+    }
+
+    @Test
+    public void testAppendAndReplay()
+        throws Exception
+    {
+        JCas jcas = readSnapshot();
+        journal.track(casFile, jcas);
+
+        new Token(jcas, 5, 7).addToIndexes();
+        assertTrue(journal.append(casFile, jcas));
+        new Token(jcas, 8, 9).addToIndexes();
+        assertTrue(journal.append(casFile, jcas));
+
+        JCas replayed = readSnapshot();
+        assertTrue(journal.replay(casFile, replayed));
+        assertEquals(3, select(replayed, Token.class).size());
+    }
+
+    @Test
+    public void testTornLastRecordIsDiscarded()
+        throws Exception
+    {
+        JCas jcas = readSnapshot();
+        journal.track(casFile, jcas);
+
+        new Token(jcas, 5, 7).addToIndexes();
+        assertTrue(journal.append(casFile, jcas));
+        long validLength = journalFile.length();
+        new Token(jcas, 8, 9).addToIndexes();
+        assertTrue(journal.append(casFile, jcas));
+
+        // Simulate a crash while the second record was being written
+        try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        JCas replayed = readSnapshot();
+        assertTrue(journal.replay(casFile, replayed));
+        assertEquals(2, select(replayed, Token.class).size());
+        assertEquals(validLength, journalFile.length());
+
+        // Records appended after recovery must be readable
+        journal.track(casFile, replayed);
+        new Token(replayed, 10, 14).addToIndexes();
+        assertTrue(journal.append(casFile, replayed));
+
+        JCas recovered = readSnapshot();
+        assertTrue(journal.replay(casFile, recovered));
+        assertEquals(3, select(recovered, Token.class).size());
+    }
+
+    @Test
+    public void testJournalOfOtherSnapshotIsDiscarded()
+        throws Exception
+    {
+        JCas jcas = readSnapshot();
+        journal.track(casFile, jcas);
+        new Token(jcas, 5, 7).addToIndexes();
+        assertTrue(journal.append(casFile, jcas));
+
+        // The snapshot has been rewritten, but the journal has not been deleted
+        FileUtils.writeStringToFile(casFile, "new snapshot", "UTF-8");
+
+        JCas replayed = readSnapshot();
+        assertFalse(journal.replay(casFile, replayed));
+        assertEquals(1, select(replayed, Token.class).size());
+        assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void testUntrackedCasIsNotJournaled()
+        throws Exception
+    {
+        JCas jcas = readSnapshot();
+        new Token(jcas, 5, 7).addToIndexes();
+
+        assertFalse(journal.append(casFile, jcas));
+        assertFalse(journalFile.exists());
+    }
+
+    @Test
+    public void testDeleteStopsTracking()
+        throws Exception
+    {
+        JCas jcas = readSnapshot();
+        journal.track(casFile, jcas);
+        new Token(jcas, 5, 7).addToIndexes();
+        assertTrue(journal.append(casFile, jcas));
+
+        journal.delete(casFile);
+        assertFalse(journalFile.exists());
+
+        new Token(jcas, 8, 9).addToIndexes();
+        assertFalse(journal.append(casFile, jcas));
+    }
+
+    /**
+     * Stand-in for reading the snapshot file - always yields a CAS in exactly the same state.
+     */
+    private JCas readSnapshot()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+        jcas.setDocumentText("This is a test.");
+        new Token(jcas, 0, 4).addToIndexes();
+        return jcas;
+    }
+}
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory stand-in for the database behind an {@link EntityManager}. Queries ignore their text
+ * and return the entities of the requested class whose properties match the query parameters,
+ * e.g. the parameter {@code project} is compared to {@code getProject()}.
+ */
+class FakeDatabase
+{
+    private final List<Object> rows = new ArrayList<Object>();
+
+    private int queries;
+
+    public void add(Object aEntity)
+    {
+        rows.add(aEntity);
+    }
+
+    public void remove(Object aEntity)
+    {
+        rows.remove(aEntity);
+    }
+
+    /**
+     * @return the number of queries run so far.
+     */
+    public int getQueries()
+    {
+        return queries;
+    }
+
+    public EntityManager getEntityManager()
+    {
+        return (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { EntityManager.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object aProxy, Method aMethod, Object[] aArgs)
+                    {
+                        switch (aMethod.getName()) {
+                        case "persist":
+                            rows.add(aArgs[0]);
+                            return null;
+                        case "merge":
+                            rows.remove(aArgs[0]);
+                            rows.add(aArgs[0]);
+                            return aArgs[0];
+                        case "remove":
+                            rows.remove(aArgs[0]);
+                            return null;
+                        case "flush":
+                            return null;
+                        case "createQuery":
+                            return createQuery(aArgs.length > 1 ? (Class<?>) aArgs[1] : null);
+                        default:
+                            throw new UnsupportedOperationException(aMethod.getName());
+                        }
+                    }
+                });
+    }
+
+    private Object createQuery(final Class<?> aResultClass)
+    {
+        final Map<String, Object> parameters = new HashMap<String, Object>();
+        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { TypedQuery.class }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object aProxy, Method aMethod, Object[] aArgs)
+                        throws Exception
+                    {
+                        switch (aMethod.getName()) {
+                        case "setParameter":
+                            parameters.put((String) aArgs[0], aArgs[1]);
+                            return aProxy;
+                        case "getResultList":
+                            queries++;
+                            List<Object> result = new ArrayList<Object>();
+                            for (Object row : rows) {
+                                if (aResultClass.isInstance(row) && matches(row, parameters)) {
+                                    result.add(row);
+                                }
+                            }
+                            return result;
+                        case "executeUpdate":
+                            return 0;
+                        default:
+                            throw new UnsupportedOperationException(aMethod.getName());
+                        }
+                    }
+                });
+    }
+
+    private static boolean matches(Object aRow, Map<String, Object> aParameters)
+        throws Exception
+    {
+        for (Map.Entry<String, Object> e : aParameters.entrySet()) {
+            String name = e.getKey();
+            Method getter;
+            try {
+                getter = aRow.getClass().getMethod(
+                        "get" + Character.toUpperCase(name.charAt(0)) + name.substring(1));
+            }
+            catch (NoSuchMethodException ex) {
+                continue;
+            }
+            Object value = getter.invoke(aRow);
+            if (value == null ? e.getValue() != null : !value.equals(e.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Set a private field of a service, e.g. one which Spring would inject.
+     */
+    public static void inject(Object aService, String aField, Object aValue)
+        throws Exception
+    {
+        Field field = aService.getClass().getDeclaredField(aField);
+        field.setAccessible(true);
+        field.set(aService, aValue);
+    }
+
+    /**
+     * @return an implementation of the given interface which does nothing.
+     */
+    public static <T> T dummy(Class<T> aInterface)
+    {
+        return aInterface.cast(Proxy.newProxyInstance(FakeDatabase.class.getClassLoader(),
+                new Class<?>[] { aInterface }, new InvocationHandler()
+                {
+                    @Override
+                    public Object invoke(Object aProxy, Method aMethod, Object[] aArgs)
+                    {
+                        return null;
+                    }
+                }));
+    }
+
+    /**
+     * Complete the transaction started by
+     * {@link TransactionSynchronizationManager#initSynchronization()} with the given status.
+     */
+    public static void completeTransaction(int aStatus)
+    {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager
+                .getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(aStatus);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.FakeDatabase.completeTransaction;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.FakeDatabase.dummy;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.FakeDatabase.inject;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AuditLogService;
+import de.tudarmstadt.ukp.clarin.webanno.model.Authority;
+import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.ProjectPermission;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+
+public class PermissionCacheTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeDatabase database;
+
+    private RepositoryServiceDbData repository;
+
+    private UserDaoImpl userDao;
+
+    private Project project;
+
+    private User annotator;
+
+    private User other;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        database = new FakeDatabase();
+        PermissionCache permissionCache = new PermissionCache();
+        AuditLogService auditLog = dummy(AuditLogService.class);
+
+        AnnotationServiceImpl annotationService = new AnnotationServiceImpl();
+        inject(annotationService, "entityManager", database.getEntityManager());
+        inject(annotationService, "schemaCache", new SchemaCache());
+        inject(annotationService, "typeSystemCache", new ProjectTypeSystemCache());
+        inject(annotationService, "auditLog", auditLog);
+
+        repository = new RepositoryServiceDbData();
+        inject(repository, "entityManager", database.getEntityManager());
+        inject(repository, "permissionCache", permissionCache);
+        inject(repository, "annotationService", annotationService);
+        inject(repository, "auditLog", auditLog);
+        inject(repository, "dir", folder.getRoot());
+
+        userDao = new UserDaoImpl();
+        inject(userDao, "entityManager", database.getEntityManager());
+        inject(userDao, "permissionCache", permissionCache);
+
+        project = new Project();
+        project.setId(1);
+        project.setName("project");
+        database.add(project);
+
+        annotator = user("annotator", "ROLE_USER");
+        other = user("other", "ROLE_USER");
+        database.add(permission(annotator, PermissionLevel.USER));
+        database.add(permission(other, PermissionLevel.USER));
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testChecksAreCached()
+    {
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(annotator));
+        int queries = database.getQueries();
+
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(annotator));
+        assertEquals(asSet("ROLE_USER"), repository.getAuthorityNames(annotator));
+        assertEquals(queries, database.getQueries());
+    }
+
+    @Test
+    public void testCreateProjectPermissionInvalidates()
+        throws Exception
+    {
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(annotator));
+
+        repository.createProjectPermission(permission(annotator, PermissionLevel.CURATOR));
+
+        assertEquals(EnumSet.of(PermissionLevel.USER, PermissionLevel.CURATOR),
+                levels(annotator));
+    }
+
+    @Test
+    public void testRemoveProjectPermissionInvalidates()
+        throws Exception
+    {
+        ProjectPermission curator = permission(annotator, PermissionLevel.CURATOR);
+        database.add(curator);
+        assertEquals(EnumSet.of(PermissionLevel.USER, PermissionLevel.CURATOR),
+                levels(annotator));
+
+        repository.removeProjectPermission(curator);
+
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(annotator));
+    }
+
+    @Test
+    public void testRemoveProjectInvalidatesAllUsers()
+        throws Exception
+    {
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(annotator));
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(other));
+
+        repository.removeProject(project, annotator);
+
+        assertTrue(levels(annotator).isEmpty());
+        assertTrue(levels(other).isEmpty());
+    }
+
+    @Test
+    public void testUserUpdateInvalidates()
+    {
+        assertEquals(asSet("ROLE_USER"), repository.getAuthorityNames(annotator));
+
+        database.add(authority(annotator, "ROLE_ADMIN"));
+        userDao.update(annotator);
+
+        assertEquals(asSet("ROLE_USER", "ROLE_ADMIN"), repository.getAuthorityNames(annotator));
+    }
+
+    @Test
+    public void testUserDeleteInvalidates()
+    {
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(annotator));
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(other));
+        int queries = database.getQueries();
+
+        userDao.delete(annotator);
+
+        // Only the entry of the deleted user is loaded again
+        levels(annotator);
+        levels(other);
+        assertEquals(queries + 2, database.getQueries());
+    }
+
+    @Test
+    public void testCheckInTransactionBypassesCache()
+        throws Exception
+    {
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(annotator));
+
+        TransactionSynchronizationManager.initSynchronization();
+        repository.createProjectPermission(permission(annotator, PermissionLevel.CURATOR));
+
+        // The transaction sees its own changes, but does not cache them
+        int queries = database.getQueries();
+        assertEquals(EnumSet.of(PermissionLevel.USER, PermissionLevel.CURATOR),
+                levels(annotator));
+        assertEquals(EnumSet.of(PermissionLevel.USER), levels(other));
+        assertEquals(queries + 4, database.getQueries());
+
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(EnumSet.of(PermissionLevel.USER, PermissionLevel.CURATOR),
+                levels(annotator));
+        assertEquals(EnumSet.of(PermissionLevel.USER, PermissionLevel.CURATOR),
+                levels(annotator));
+        assertEquals(queries + 6, database.getQueries());
+    }
+
+    private Set<PermissionLevel> levels(User aUser)
+    {
+        return repository.getPermissionLevels(aUser, project);
+    }
+
+    private User user(String aName, String aRole)
+    {
+        User user = new User();
+        user.setUsername(aName);
+        database.add(user);
+        database.add(authority(user, aRole));
+        return user;
+    }
+
+    private Authority authority(User aUser, String aRole)
+    {
+        Authority authority = new Authority();
+        authority.setUsername(aUser);
+        authority.setAuthority(aRole);
+        return authority;
+    }
+
+    private ProjectPermission permission(User aUser, PermissionLevel aLevel)
+    {
+        ProjectPermission permission = new ProjectPermission();
+        permission.setUser(aUser.getUsername());
+        permission.setProject(project);
+        permission.setLevel(aLevel);
+        return permission;
+    }
+
+    private static Set<String> asSet(String... aNames)
+    {
+        return new HashSet<String>(asList(aNames));
+    }
+}
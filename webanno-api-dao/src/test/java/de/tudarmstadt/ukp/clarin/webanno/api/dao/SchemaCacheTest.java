@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api.dao;
+
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.FakeDatabase.completeTransaction;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.FakeDatabase.dummy;
+import static de.tudarmstadt.ukp.clarin.webanno.api.dao.FakeDatabase.inject;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AuditLogService;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.Tag;
+import de.tudarmstadt.ukp.clarin.webanno.model.TagSet;
+import de.tudarmstadt.ukp.clarin.webanno.model.User;
+
+public class SchemaCacheTest
+{
+    private FakeDatabase database;
+
+    private AnnotationServiceImpl annotationService;
+
+    private Project project;
+
+    private User user;
+
+    private TagSet tagSet;
+
+    @Before
+    public void setup()
+        throws Exception
+    {
+        database = new FakeDatabase();
+
+        annotationService = new AnnotationServiceImpl();
+        inject(annotationService, "entityManager", database.getEntityManager());
+        inject(annotationService, "schemaCache", new SchemaCache());
+        inject(annotationService, "typeSystemCache", new ProjectTypeSystemCache());
+        inject(annotationService, "auditLog", dummy(AuditLogService.class));
+
+        project = new Project();
+        project.setId(1);
+        project.setName("project");
+
+        user = new User();
+        user.setUsername("admin");
+
+        database.add(new AnnotationLayer("webanno.custom.Span", "Span", "span", project, false));
+
+        tagSet = new TagSet();
+        tagSet.setId(1);
+        tagSet.setName("tags");
+        tagSet.setProject(project);
+        database.add(tagSet);
+        database.add(tag("A"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testHitsReturnSeparateLists()
+    {
+        List<AnnotationLayer> layers = annotationService.listAnnotationLayer(project);
+        layers.clear();
+
+        assertEquals(1, annotationService.listAnnotationLayer(project).size());
+        assertEquals(1, annotationService.listAnnotationLayer(project).size());
+        assertEquals(1, database.getQueries());
+    }
+
+    @Test
+    public void testCreateInvalidates()
+        throws Exception
+    {
+        assertEquals(asList("A"), tagNames());
+
+        annotationService.createTag(tag("B"), user);
+
+        assertEquals(asList("A", "B"), tagNames());
+    }
+
+    @Test
+    public void testUpdateInvalidates()
+        throws Exception
+    {
+        AnnotationLayer layer = annotationService.listAnnotationLayer(project).get(0);
+        AnnotationLayer update = new AnnotationLayer(layer.getName(), "Renamed", layer.getType(),
+                project, false);
+        update.setId(1);
+
+        annotationService.createLayer(update, user);
+
+        assertEquals("Renamed", annotationService.listAnnotationLayer(project).get(0).getUiName());
+    }
+
+    @Test
+    public void testRemoveInvalidates()
+    {
+        assertEquals(asList("A"), tagNames());
+
+        annotationService.removeTag(annotationService.listTags(tagSet).get(0));
+
+        assertTrue(tagNames().isEmpty());
+    }
+
+    @Test
+    public void testTransactionBypassesCacheUntilCompleted()
+        throws Exception
+    {
+        assertEquals(asList("A"), tagNames());
+
+        TransactionSynchronizationManager.initSynchronization();
+        annotationService.createTag(tag("B"), user);
+
+        // The transaction sees its own changes, but does not cache them
+        int before = database.getQueries();
+        assertEquals(asList("A", "B"), tagNames());
+        assertEquals(asList("A", "B"), tagNames());
+        assertEquals(before + 2, database.getQueries());
+
+        completeTransaction(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(asList("A", "B"), tagNames());
+        assertEquals(asList("A", "B"), tagNames());
+        assertEquals(before + 3, database.getQueries());
+    }
+
+    @Test
+    public void testRolledBackTransactionLeavesNothingCached()
+        throws Exception
+    {
+        assertEquals(asList("A"), tagNames());
+
+        TransactionSynchronizationManager.initSynchronization();
+        Tag tag = tag("B");
+        annotationService.createTag(tag, user);
+        assertEquals(asList("A", "B"), tagNames());
+
+        // Undo the change like the rollback would
+        database.remove(tag);
+        completeTransaction(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertEquals(asList("A"), tagNames());
+    }
+
+    private List<String> tagNames()
+    {
+        List<String> names = new ArrayList<String>();
+        for (Tag tag : annotationService.listTags(tagSet)) {
+            names.add(tag.getName());
+        }
+        return names;
+    }
+
+    private Tag tag(String aName)
+    {
+        Tag tag = new Tag();
+        tag.setName(aName);
+        tag.setTagSet(tagSet);
+        return tag;
+    }
+}
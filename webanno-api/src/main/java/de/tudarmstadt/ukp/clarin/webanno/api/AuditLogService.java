@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+
+/**
+ * Audit log of the changes made to a project, e.g. creating or removing documents, saving
+ * annotations or importing and exporting. Each project has its own log file in the repository.
+ * Messages are written asynchronously, so logging does not block on file I/O.
+ */
+public interface AuditLogService
+{
+    /**
+     * Log a message on behalf of the current user, or as {@code SYSTEM} if there is no current
+     * user.
+     *
+     * @param aProject
+     *            the project.
+     * @param aMessage
+     *            the message.
+     */
+    void log(Project aProject, String aMessage);
+
+    /**
+     * Log a message on behalf of the given user.
+     *
+     * @param aProject
+     *            the project.
+     * @param aUsername
+     *            the user.
+     * @param aMessage
+     *            the message.
+     */
+    void log(Project aProject, String aUsername, String aMessage);
+
+    /**
+     * Wait until all messages logged for the given project so far have been written and close
+     * the log file. This needs to be done before the log file is read or removed.
+     *
+     * @param aProject
+     *            the project.
+     */
+    void flush(Project aProject);
+}
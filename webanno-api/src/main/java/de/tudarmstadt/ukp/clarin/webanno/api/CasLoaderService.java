@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+
+/**
+ * Loads the CASes of many annotation documents concurrently, e.g. the CASes of all annotators
+ * when opening a document for curation. The CASes are obtained through
+ * {@link RepositoryService#readAnnotationCasCopy(AnnotationDocument)}, so the same caching and
+ * locking applies as when loading them one by one. Since every CAS is a private copy, it can be
+ * used safely while the annotator continues working on the document.
+ */
+public interface CasLoaderService
+{
+    /**
+     * Start loading the CASes of the given annotation documents.
+     *
+     * @param aDocuments
+     *            the annotation documents.
+     * @return a future for each annotation document in the iteration order of the given
+     *         collection.
+     */
+    Map<AnnotationDocument, Future<JCas>> submit(Collection<AnnotationDocument> aDocuments);
+
+    /**
+     * Load the CASes of the given annotation documents and wait until all of them are available.
+     * If any of the CASes cannot be loaded, the remaining loads are cancelled.
+     *
+     * @param aDocuments
+     *            the annotation documents.
+     * @return the CAS for each annotation document in the iteration order of the given
+     *         collection.
+     * @throws IOException
+     *             if any of the CASes cannot be loaded.
+     */
+    Map<AnnotationDocument, JCas> readAnnotationCases(Collection<AnnotationDocument> aDocuments)
+        throws IOException;
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outcome of importing multiple source documents at once using
+ * {@link RepositoryService#uploadSourceDocuments}.
+ */
+public class DocumentImportReport
+    implements Serializable
+{
+    private static final long serialVersionUID = 5327640214568423817L;
+
+    private final List<String> imported = new ArrayList<String>();
+
+    private final Map<String, String> errors = new LinkedHashMap<String, String>();
+
+    private long bytes;
+
+    private long time;
+
+    public synchronized void addImported(String aName, long aBytes)
+    {
+        imported.add(aName);
+        bytes += aBytes;
+    }
+
+    public synchronized void addError(String aName, String aMessage)
+    {
+        errors.put(aName, aMessage);
+    }
+
+    /**
+     * @return the names of the documents which have been imported.
+     */
+    public synchronized List<String> getImported()
+    {
+        return Collections.unmodifiableList(new ArrayList<String>(imported));
+    }
+
+    /**
+     * @return the error message for each file which could not be imported.
+     */
+    public synchronized Map<String, String> getErrors()
+    {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, String>(errors));
+    }
+
+    /**
+     * @return the total size in bytes of the imported files.
+     */
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * @return the time in milliseconds the import took.
+     */
+    public synchronized long getTime()
+    {
+        return time;
+    }
+
+    public synchronized void setTime(long aTime)
+    {
+        time = aTime;
+    }
+
+    /**
+     * @return the number of documents imported per second.
+     */
+    public synchronized double getDocumentsPerSecond()
+    {
+        return time > 0 ? imported.size() * 1000.0 / time : 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "imported " + imported.size() + " of " + (imported.size() + errors.size())
+                + " documents (" + bytes / 1024 + " KB) in " + time + " ms, "
+                + String.format("%.1f", getDocumentsPerSecond()) + " documents/s";
+    }
+}
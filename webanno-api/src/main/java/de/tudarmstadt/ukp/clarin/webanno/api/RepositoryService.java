@@ -20,10 +20,12 @@ package de.tudarmstadt.ukp.clarin.webanno.api;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
@@ -126,6 +128,28 @@ public interface RepositoryService
      */
     List<ProjectPermission> listProjectPermisionLevel(User user, Project project);
 
+    /**
+     * Get the names of the authorities of a user, e.g. {@code ROLE_ADMIN}. The authorities are
+     * cached together with the project permissions of the user until either of them changes.
+     *
+     * @param user
+     *            the user.
+     * @return the authority names.
+     */
+    Set<String> getAuthorityNames(User user);
+
+    /**
+     * Get the permission levels a user has in a given project. The permissions of the user in all
+     * projects are loaded at once and cached, so checking many projects is cheap.
+     *
+     * @param user
+     *            the user.
+     * @param project
+     *            the project.
+     * @return the permission levels.
+     */
+    Set<PermissionLevel> getPermissionLevels(User user, Project project);
+
     /**
      * List Users those with some {@link PermissionLevel}s in the project
      * 
@@ -262,6 +286,27 @@ public interface RepositoryService
     void uploadSourceDocument(InputStream file, SourceDocument document)
         throws IOException, UIMAException;
 
+    /**
+     * Import many files as source documents into a project at once. The files are converted on a
+     * pool of worker threads and the source documents are stored in the database in batches. A
+     * file which cannot be imported, e.g. because a document with the same name already exists
+     * or because it cannot be converted, is reported and does not prevent the other files from
+     * being imported.
+     *
+     * @param project
+     *            the project.
+     * @param format
+     *            the format of the files.
+     * @param files
+     *            the files to import by the names of the source documents.
+     * @param user
+     *            the user importing the files.
+     * @return the names of the imported documents and the errors.
+     */
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN','ROLE_USER','ROLE_REMOTE')")
+    DocumentImportReport uploadSourceDocuments(Project project, String format,
+            Map<String, File> files, User user);
+
     /**
      * Get the directory of this {@link SourceDocument} usually to read the content of the document
      * 
@@ -401,6 +446,59 @@ public interface RepositoryService
      */
     File getCasFile(SourceDocument document, String user);
 
+    /**
+     * Write the CAS of the given document and user as a serialized CAS which includes the type
+     * system. Unlike the files in the repository, which may be stored in a compact format that
+     * depends on the project type system, this is self-contained and can be imported into any
+     * project.
+     * 
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @param stream
+     *            the target stream. The stream is not closed.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void exportSerializedCas(SourceDocument document, String user, OutputStream stream)
+        throws IOException;
+
+    /**
+     * List the versions recorded in the history of the CAS of the given document and user.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @return the times of the versions, latest first.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN','ROLE_REMOTE')")
+    List<Long> listCasVersions(SourceDocument document, String user)
+        throws IOException;
+
+    /**
+     * Replace the CAS of the given document and user with a version from its history. The
+     * current CAS is recorded as a version first, so this can be undone by restoring that
+     * version. This should only be done while the user is not working on the document, since
+     * saving the document again overwrites the restored version.
+     *
+     * @param document
+     *            the source document.
+     * @param user
+     *            the username.
+     * @param version
+     *            the time of the version as returned by
+     *            {@link #listCasVersions(SourceDocument, String)}.
+     * @throws IOException
+     *             if there is no such version or it cannot be restored.
+     */
+    @PreAuthorize("hasAnyRole('ROLE_ADMIN','ROLE_REMOTE')")
+    void restoreCasVersion(SourceDocument document, String user, long version)
+        throws IOException;
+
     /**
      * Get the annotation document.
      * 
@@ -427,6 +525,22 @@ public interface RepositoryService
     JCas readAnnotationCas(AnnotationDocument annotationDocument)
         throws IOException;
 
+    /**
+     * Gets a private copy of the CAS for the given annotation document. Changes to the copy do
+     * not affect the CAS the annotator is working on and are not saved unless the copy is
+     * written explicitly. Use this instead of {@link #readAnnotationCas(AnnotationDocument)} when
+     * reading the CAS of somebody else, e.g. in background tasks, or when deriving another CAS
+     * from it, e.g. the curation CAS.
+     *
+     * @param annotationDocument
+     *            the annotation document.
+     * @return the JCas.
+     * @throws IOException
+     *             if there was an I/O error.
+     */
+    JCas readAnnotationCasCopy(AnnotationDocument annotationDocument)
+        throws IOException;
+
     /**
      * Gets the CAS for the given annotation document. Converts it form the source document if
      * necessary. If necessary, no annotation document exists, one is created. The source document
@@ -477,6 +591,32 @@ public interface RepositoryService
      */
     List<AnnotationDocument> listFinishedAnnotationDocuments(Project project);
 
+    /**
+     * Get the states of all annotation documents in a project using a single query. Used to
+     * render the document status table of the monitoring page.
+     *
+     * @param project
+     *            the project.
+     * @return a map from the source document name to a map from the user name to the state of
+     *         the user's annotation document. Users who have not opened a document yet do not
+     *         have an entry for it.
+     */
+    Map<String, Map<String, AnnotationDocumentState>> getAnnotationDocumentStates(
+            Project project);
+
+    /**
+     * Count the annotation documents of every user in a project grouped by their state using a
+     * single query. Used to compute the annotator progress.
+     *
+     * @param project
+     *            the project.
+     * @param includeTrainingDocuments
+     *            whether annotation documents of training documents are counted.
+     * @return a map from the user name to the number of annotation documents per state.
+     */
+    Map<String, Map<AnnotationDocumentState, Integer>> countAnnotationDocumentStates(
+            Project project, boolean includeTrainingDocuments);
+
     /**
      * List all annotation documents for this source document (including in active and delted user
      * annotation and those created by project admins or super admins for Test purpose. This method
@@ -1019,6 +1159,33 @@ public interface RepositoryService
      */
     File getDir();
 
+    /**
+     * Write the CAS of the given document and user to disk if it has been modified in memory but
+     * not yet been saved. This is only relevant if the CAS cache operates in write-back mode.
+     *
+     * @param aDocument
+     *            the source document.
+     * @param aUsername
+     *            the username.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void flushCas(SourceDocument aDocument, String aUsername)
+        throws IOException;
+
+    /**
+     * Write all CASes of the given user to disk which have been modified in memory but not yet
+     * been saved. This should be called when the user switches to another document or ends the
+     * session.
+     *
+     * @param aUsername
+     *            the username.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    void flushCas(String aUsername)
+        throws IOException;
+
     /**
      * Load the CAS for the specified source document and user, upgrade it, and save it again.
      * Depending on the mode parameter, the automation/correction and curation CASes are also
@@ -1130,4 +1297,23 @@ public interface RepositoryService
      */
     void removeConstraintRules(Project project, String username)
         throws IOException;
+
+    /**
+     * Callback notified when an annotation document has been saved, e.g. because its state has
+     * changed.
+     */
+    static interface AnnotationDocumentListener
+    {
+        void annotationDocumentSaved(AnnotationDocument aAnnotationDocument);
+    }
+
+    /**
+     * Register a listener which is notified after an annotation document has been created or
+     * updated using {@link #createAnnotationDocument(AnnotationDocument)}. If this happens within
+     * a transaction, the listener is notified after the transaction has been committed.
+     *
+     * @param aListener
+     *            the listener.
+     */
+    void addAnnotationDocumentListener(AnnotationDocumentListener aListener);
 }
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.automation;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AutomationStatus;
+import de.tudarmstadt.ukp.clarin.webanno.model.MiraTemplate;
+
+/**
+ * Runs the training and prediction pipeline of a {@link MiraTemplate} in the background. The
+ * {@link AutomationStatus} of the template serves as the job record: it is updated after every
+ * stage of the pipeline, so jobs which were still queued or running when the application was shut
+ * down are resumed from their last stage on the next start.
+ */
+public interface AutomationJobService
+{
+    /**
+     * Queue the automation of the given template. The {@link AutomationStatus} of the template must
+     * already have been saved with the status {@code QUEUED} and the user on whose behalf the
+     * automation runs. If a job for the template is already queued or running, nothing happens.
+     *
+     * @param aTemplate
+     *            the template.
+     * @throws IllegalStateException
+     *             if a cancelled job for the template is still running.
+     */
+    void submit(MiraTemplate aTemplate);
+
+    /**
+     * Check if a job for the given template is queued or running. This includes a cancelled job
+     * which has not stopped yet.
+     *
+     * @param aTemplate
+     *            the template.
+     * @return whether a new job for the template must not be submitted yet.
+     */
+    boolean isActive(MiraTemplate aTemplate);
+
+    /**
+     * Cancel the queued or running automation of the given template. A running job is interrupted
+     * and stops after the current stage at the latest. The status of the template is set
+     * to {@code CANCELLED} right away, but the job remains {@link #isActive active} until it has
+     * stopped.
+     *
+     * @param aTemplate
+     *            the template.
+     */
+    void cancel(MiraTemplate aTemplate);
+}
@@ -0,0 +1,408 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.automation;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
+import de.tudarmstadt.ukp.clarin.webanno.automation.util.AutomationUtil;
+import de.tudarmstadt.ukp.clarin.webanno.model.AutomationStatus;
+import de.tudarmstadt.ukp.clarin.webanno.model.MiraTemplate;
+import de.tudarmstadt.ukp.clarin.webanno.model.Status;
+
+/**
+ * Runs automation jobs on a bounded pool of worker threads. At most one job per template is queued
+ * or running at any time, while jobs for different templates run concurrently. A cancelled job
+ * which is still running counts as well: parts of the pipeline such as the MIRA training do not
+ * react to interrupts, so the job remains registered until its worker has actually left it.
+ * <p>
+ * The workers do not run within a web request, so each job binds its own entity manager to the
+ * worker thread for its whole duration, just like the request threads do. This keeps the entities
+ * loaded by the pipeline managed, so that changes such as the processed flags of the documents are
+ * written to the database whenever the status is saved after a stage.
+ */
+public class AutomationJobServiceImpl
+    implements AutomationJobService, InitializingBean, DisposableBean,
+    ApplicationListener<ContextRefreshedEvent>
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    @Resource(name = "documentRepository")
+    private RepositoryService repository;
+
+    @Resource(name = "annotationService")
+    private AnnotationService annotationService;
+
+    @Resource(name = "automationService")
+    private AutomationService automationService;
+
+    @Resource(name = "userRepository")
+    private UserDao userRepository;
+
+    @PersistenceUnit
+    private EntityManagerFactory entityManagerFactory;
+
+    @Value(value = "${automation.job.threads}")
+    private int threads;
+
+    private ExecutorService executor;
+
+    private final Map<Long, Job> jobs = new HashMap<Long, Job>();
+
+    private final AtomicBoolean resumed = new AtomicBoolean();
+
+    public AutomationJobServiceImpl()
+    {
+        // Dependencies are injected by Spring
+    }
+
+    AutomationJobServiceImpl(AutomationService aAutomationService, int aThreads)
+    {
+        automationService = aAutomationService;
+        threads = aThreads;
+    }
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        final AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "webanno-automation-"
+                        + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        log.info("Automation jobs: " + Math.max(threads, 1) + " threads");
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Resume the jobs which were queued or running when the application was shut down. This is
+     * done once the application context is complete, because the jobs need all the services.
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent aEvent)
+    {
+        if (!resumed.compareAndSet(false, true)) {
+            return;
+        }
+
+        for (AutomationStatus status : automationService.listAutomationStatus()) {
+            if (isActive(status.getStatus()) && status.getTemplate() != null) {
+                log.info("Resuming automation of template [" + status.getTemplate().getId()
+                        + "] at stage [" + status.getStatus().getName() + "]");
+                submit(status.getTemplate());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void submit(MiraTemplate aTemplate)
+    {
+        Job existing = jobs.get(aTemplate.getId());
+        if (existing != null) {
+            if (existing.isCancelled()) {
+                throw new IllegalStateException("Automation of template [" + aTemplate.getId()
+                        + "] is still being cancelled");
+            }
+            return;
+        }
+
+        Job job = new Job(aTemplate.getId());
+        jobs.put(aTemplate.getId(), job);
+        job.future = executor.submit(job);
+    }
+
+    @Override
+    public synchronized boolean isActive(MiraTemplate aTemplate)
+    {
+        return jobs.containsKey(aTemplate.getId());
+    }
+
+    @Override
+    public void cancel(MiraTemplate aTemplate)
+    {
+        Job job;
+        synchronized (this) {
+            job = jobs.get(aTemplate.getId());
+            if (job != null) {
+                // Once the flag is set, the job does not save anything anymore, so the status
+                // set below cannot be overwritten by a stage which is just completing
+                synchronized (job) {
+                    job.cancelled = true;
+                }
+                // A job which has not started yet never will, so nobody else would remove it
+                if (!job.started) {
+                    jobs.remove(aTemplate.getId());
+                }
+            }
+        }
+
+        if (job != null) {
+            job.future.cancel(true);
+        }
+
+        if (automationService.existsAutomationStatus(aTemplate)) {
+            AutomationStatus status = automationService.getAutomationStatus(aTemplate);
+            if (isActive(status.getStatus())) {
+                status.setStatus(Status.CANCELLED);
+                status.setEndTime(new Timestamp(new Date().getTime()));
+                automationService.createAutomationStatus(status);
+            }
+        }
+        aTemplate.setAutomationStarted(false);
+        automationService.createTemplate(aTemplate);
+    }
+
+    private static boolean isActive(Status aStatus)
+    {
+        return aStatus == Status.QUEUED || aStatus == Status.GENERATE_TRAIN_DOC
+                || aStatus == Status.GENERATE_CLASSIFIER || aStatus == Status.PREDICTION;
+    }
+
+    /**
+     * Run the pipeline of the given job on the current worker thread.
+     */
+    void runJob(Job aJob)
+    {
+        aJob.runPipeline();
+    }
+
+    class Job
+        implements Runnable
+    {
+        private final long templateId;
+
+        private Future<?> future;
+
+        private boolean cancelled;
+
+        // Guarded by the service
+        private boolean started;
+
+        public Job(long aTemplateId)
+        {
+            templateId = aTemplateId;
+        }
+
+        public long getTemplateId()
+        {
+            return templateId;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (AutomationJobServiceImpl.this) {
+                if (jobs.get(templateId) != this) {
+                    // Cancelled before it started
+                    return;
+                }
+                started = true;
+            }
+
+            try {
+                runJob(this);
+            }
+            finally {
+                synchronized (AutomationJobServiceImpl.this) {
+                    jobs.remove(templateId);
+                }
+            }
+        }
+
+        private void runPipeline()
+        {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            TransactionSynchronizationManager.bindResource(entityManagerFactory,
+                    new EntityManagerHolder(entityManager));
+            SecurityContext previous = SecurityContextHolder.getContext();
+            try {
+                MiraTemplate template = entityManager.find(MiraTemplate.class, templateId);
+                if (template == null || !automationService.existsAutomationStatus(template)) {
+                    log.warn("Automation of template [" + templateId
+                            + "] skipped - template or status no longer exists");
+                    return;
+                }
+                AutomationStatus status = automationService.getAutomationStatus(template);
+
+                try {
+                    if (status.getUser() == null) {
+                        throw new IllegalStateException("No user recorded for the automation");
+                    }
+
+                    // The pipeline and the repository act on behalf of the user who started the
+                    // automation
+                    SecurityContext context = new SecurityContextImpl();
+                    context.setAuthentication(new UsernamePasswordAuthenticationToken(status
+                            .getUser(), null));
+                    SecurityContextHolder.setContext(context);
+
+                    runStages(template, status);
+                }
+                // any other exception such as running out of heap space
+                catch (Exception | OutOfMemoryError e) {
+                    if (isCancelled()) {
+                        log.info("Automation of template [" + templateId + "] cancelled");
+                    }
+                    else if (executor.isShutdown()) {
+                        // Keep the last stage so the job is resumed on the next start
+                        log.info("Automation of template [" + templateId
+                                + "] stopped at shutdown");
+                    }
+                    else {
+                        log.error("Automation of template [" + templateId + "] failed", e);
+                        finish(template, status, Status.INTERRUPTED);
+                    }
+                }
+            }
+            finally {
+                SecurityContextHolder.setContext(previous);
+                TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+                EntityManagerFactoryUtils.closeEntityManager(entityManager);
+            }
+        }
+
+        private void runStages(MiraTemplate template, AutomationStatus status)
+            throws Exception
+        {
+            Status stage = status.getStatus();
+
+            if (stage == Status.QUEUED || stage == Status.GENERATE_TRAIN_DOC) {
+                template.setResult("---");
+                save(template, status, Status.GENERATE_TRAIN_DOC);
+
+                AutomationUtil.addOtherFeatureTrainDocument(template, repository,
+                        annotationService, automationService, userRepository);
+                AutomationUtil.otherFeatureClassifiers(template, repository, automationService);
+
+                AutomationUtil.addTabSepTrainDocument(template, repository, automationService);
+                AutomationUtil.tabSepClassifiers(template, repository, automationService);
+
+                AutomationUtil.generateTrainDocument(template, repository, annotationService,
+                        automationService, userRepository, true);
+                AutomationUtil.generatePredictDocument(template, repository, annotationService,
+                        automationService, userRepository);
+                stage = Status.GENERATE_CLASSIFIER;
+            }
+
+            if (stage == Status.GENERATE_CLASSIFIER) {
+                save(template, status, Status.GENERATE_CLASSIFIER);
+
+                template.setResult(AutomationUtil.generateFinalClassifier(template, repository,
+                        annotationService, automationService, userRepository));
+                AutomationUtil.addOtherFeatureToPredictDocument(template, repository,
+                        annotationService, automationService, userRepository);
+                stage = Status.PREDICTION;
+            }
+
+            if (stage == Status.PREDICTION) {
+                save(template, status, Status.PREDICTION);
+
+                AutomationUtil.predict(template, repository, automationService, userRepository);
+            }
+
+            finish(template, status, Status.COMPLETED);
+        }
+
+        public synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        /**
+         * Record that the given stage has been reached. Fails if the job has been cancelled in the
+         * meantime, so that the pipeline stops between the stages.
+         */
+        private synchronized void save(MiraTemplate aTemplate, AutomationStatus aStatus,
+                Status aStage)
+            throws InterruptedException
+        {
+            if (cancelled || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException("Automation of template [" + templateId
+                        + "] cancelled");
+            }
+
+            aStatus.setStatus(aStage);
+            automationService.createTemplate(aTemplate);
+            automationService.createAutomationStatus(aStatus);
+        }
+
+        private synchronized void finish(MiraTemplate aTemplate, AutomationStatus aStatus,
+                Status aOutcome)
+        {
+            if (cancelled) {
+                return;
+            }
+
+            try {
+                aTemplate.setAutomationStarted(false);
+                aStatus.setStatus(aOutcome);
+                aStatus.setEndTime(new Timestamp(new Date().getTime()));
+                automationService.createTemplate(aTemplate);
+                automationService.createAutomationStatus(aStatus);
+            }
+            catch (Exception e) {
+                log.error("Unable to record the outcome of the automation of template ["
+                        + templateId + "]", e);
+            }
+        }
+    }
+}
@@ -131,4 +131,11 @@ public interface AutomationService
     boolean existsAutomationStatus(MiraTemplate template);
 
     AutomationStatus getAutomationStatus(MiraTemplate template);
+
+    /**
+     * List the automation status of all templates in all projects.
+     *
+     * @return the automation status entries.
+     */
+    List<AutomationStatus> listAutomationStatus();
 }
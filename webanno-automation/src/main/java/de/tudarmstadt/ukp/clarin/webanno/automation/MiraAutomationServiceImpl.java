@@ -26,18 +26,16 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Resource;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
 
 import org.apache.commons.io.FileUtils;
-import org.apache.log4j.FileAppender;
-import org.apache.log4j.Level;
-import org.apache.log4j.Logger;
-import org.apache.log4j.PatternLayout;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.transaction.annotation.Transactional;
 
+import de.tudarmstadt.ukp.clarin.webanno.api.AuditLogService;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AutomationStatus;
@@ -57,7 +55,10 @@ public class MiraAutomationServiceImpl
 
     @PersistenceContext
     private EntityManager entityManager;
-    
+
+    @Resource(name = "auditLog")
+    private AuditLogService auditLog;
+
     @Override
     public List<String> listTemplates(Project aProject)
     {
@@ -98,10 +99,9 @@ public class MiraAutomationServiceImpl
     {
         FileUtils.forceDelete(new File(dir.getAbsolutePath() + PROJECT + aProject.getId() + MIRA
                 + MIRA_TEMPLATE + aFileName));
-        createLog(aProject, username).info(
+        auditLog.log(aProject, username,
                 " Removed Template file from [" + aProject.getName() + "] with ID ["
                         + aProject.getId() + "]");
-        createLog(aProject, username).removeAllAppenders();
     }
 
     @Override
@@ -114,10 +114,9 @@ public class MiraAutomationServiceImpl
         copyLarge(new FileInputStream(aContent), new FileOutputStream(new File(templatePath
                 + aFileName)));
 
-        createLog(aProject, aUsername).info(
+        auditLog.log(aProject, aUsername,
                 " Created Template file[ " + aFileName + "] for Project [" + aProject.getName()
                         + "] with ID [" + aProject.getId() + "]");
-        createLog(aProject, aUsername).removeAllAppenders();
     }
 
     @Override
@@ -168,6 +167,14 @@ public class MiraAutomationServiceImpl
 
     }
 
+    @Override
+    @Transactional
+    public List<AutomationStatus> listAutomationStatus()
+    {
+        return entityManager.createQuery("FROM AutomationStatus", AutomationStatus.class)
+                .getResultList();
+    }
+
     @Override
     @Transactional
     public void removeAutomationStatus(AutomationStatus aStstus)
@@ -254,16 +261,4 @@ public class MiraAutomationServiceImpl
         }
         return tabSepDocuments;
     }
-
-    private Logger createLog(Project aProject, String aUser)
-        throws IOException
-    {
-        Logger logger = Logger.getLogger(MiraAutomationServiceImpl.class);
-        String targetLog = dir.getAbsolutePath() + PROJECT + "project-" + aProject.getId() + ".log";
-        FileAppender apndr = new FileAppender(new PatternLayout("%d [" + aUser + "] %m%n"),
-                targetLog, true);
-        logger.addAppender(apndr);
-        logger.setLevel(Level.ALL);
-        return logger;
-    }
 }
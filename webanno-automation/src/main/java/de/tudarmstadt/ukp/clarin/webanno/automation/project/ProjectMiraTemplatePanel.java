@@ -17,15 +17,12 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.automation.project;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
-import org.apache.commons.lang.exception.ExceptionUtils;
-import org.apache.uima.UIMAException;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.extensions.ajax.markup.html.IndicatingAjaxButton;
 import org.apache.wicket.extensions.ajax.markup.html.tabs.AjaxTabbedPanel;
@@ -43,16 +40,15 @@ import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.ResourceModel;
 import org.apache.wicket.spring.injection.annot.SpringBean;
+import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.automation.AutomationJobService;
 import de.tudarmstadt.ukp.clarin.webanno.automation.AutomationService;
-import de.tudarmstadt.ukp.clarin.webanno.automation.util.AutomationException;
-import de.tudarmstadt.ukp.clarin.webanno.automation.util.AutomationUtil;
 import de.tudarmstadt.ukp.clarin.webanno.automation.util.TabSepDocModel;
-import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AutomationStatus;
 import de.tudarmstadt.ukp.clarin.webanno.model.MiraTemplate;
@@ -81,6 +77,9 @@ public class ProjectMiraTemplatePanel
     @SpringBean(name = "automationService")
     private AutomationService automationService;
 
+    @SpringBean(name = "automationJobService")
+    private AutomationJobService automationJobService;
+
     @SpringBean(name = "documentRepository")
     private RepositoryService repository;
 
@@ -625,6 +624,7 @@ public class ProjectMiraTemplatePanel
         public ApplyForm(String id)
         {
             super(id);
+            setOutputMarkupId(true);
 
             add(new IndicatingAjaxButton("apply", new ResourceModel("label"))
             {
@@ -635,181 +635,144 @@ public class ProjectMiraTemplatePanel
                 protected void onSubmit(AjaxRequestTarget aTarget, Form<?> form)
                 {
                     MiraTemplate template = miraTemplateDetailForm.getModelObject();
+                    if (automationJobService.isActive(template)) {
+                        error("The previous automation is still stopping - please try again later.");
+                        aTarget.appendJavaScript("alert('The previous automation is still stopping - please try again later.')");
+                        return;
+                    }
                     AutomationStatus automationStatus = new AutomationStatus();
-                    try {
-                        // no training document is added / no curation is done yet!
-                        boolean existsTrainDocument = false;
-                        for (SourceDocument document : repository
-                                .listSourceDocuments(selectedProjectModel.getObject())) {
-                            if (document.getState().equals(SourceDocumentState.CURATION_FINISHED)
-                                    || (document.isTrainingDocument() && template.getTrainFeature()
-                                            .equals(document.getFeature()))) {
-                                existsTrainDocument = true;
-                                break;
-                            }
+                    // no training document is added / no curation is done yet!
+                    boolean existsTrainDocument = false;
+                    for (SourceDocument document : repository
+                            .listSourceDocuments(selectedProjectModel.getObject())) {
+                        if (document.getState().equals(SourceDocumentState.CURATION_FINISHED)
+                                || (document.isTrainingDocument() && template.getTrainFeature()
+                                        .equals(document.getFeature()))) {
+                            existsTrainDocument = true;
+                            break;
                         }
+                    }
 
-                        for (SourceDocument document : automationService
-                                .listTabSepDocuments(selectedProjectModel.getObject())) {
-                            if (document.isTrainingDocument()) {
-                                existsTrainDocument = true;
-                                break;
-                            }
+                    for (SourceDocument document : automationService
+                            .listTabSepDocuments(selectedProjectModel.getObject())) {
+                        if (document.isTrainingDocument()) {
+                            existsTrainDocument = true;
+                            break;
                         }
-                        if (!existsTrainDocument) {
-                            error("No training document exists to proceed.");
-                            aTarget.appendJavaScript("alert('No training document exists to proceed.')");
-                            return;
+                    }
+                    if (!existsTrainDocument) {
+                        error("No training document exists to proceed.");
+                        aTarget.appendJavaScript("alert('No training document exists to proceed.')");
+                        return;
+                    }
+                    if (!template.isCurrentLayer()) {
+                        error("Please save automation layer details to proceed.");
+                        aTarget.appendJavaScript("alert('Please save automation layer details to proceed.')");
+                        return;
+                    }
+
+                    // no need to re-train if no new document is added
+                    boolean existUnprocessedDocument = false;
+                    for (SourceDocument document : repository
+                            .listSourceDocuments(selectedProjectModel.getObject())) {
+                        if (!document.isProcessed()) {
+                            existUnprocessedDocument = true;
+                            break;
                         }
-                        if (!template.isCurrentLayer()) {
-                            error("Please save automation layer details to proceed.");
-                            aTarget.appendJavaScript("alert('Please save automation layer details to proceed.')");
-                            return;
+                    }
+                    for (SourceDocument document : automationService
+                            .listTabSepDocuments(selectedProjectModel.getObject())) {
+                        if (!document.isProcessed()) {
+                            existUnprocessedDocument = true;
+                            break;
                         }
+                    }
+                    if (!existUnprocessedDocument) {
+                        error("No new training/annotation document added.");
+                        aTarget.appendJavaScript("alert('No new training/annotation document added.')");
+                        return;
+                    }
 
-                        // no need to re-train if no new document is added
-                        boolean existUnprocessedDocument = false;
-                        for (SourceDocument document : repository
-                                .listSourceDocuments(selectedProjectModel.getObject())) {
-                            if (!document.isProcessed()) {
-                                existUnprocessedDocument = true;
-                                break;
-                            }
-                        }
-                        for (SourceDocument document : automationService
-                                .listTabSepDocuments(selectedProjectModel.getObject())) {
-                            if (!document.isProcessed()) {
-                                existUnprocessedDocument = true;
-                                break;
-                            }
+                    int annodoc = 0, trainDoc = 0;
+
+                    for (SourceDocument document : repository
+                            .listSourceDocuments(selectedProjectModel.getObject())) {
+                        if ((document.isTrainingDocument() || document.getState().equals(
+                                SourceDocumentState.CURATION_FINISHED))
+                                && !document.isProcessed()) {
+                            trainDoc++;
                         }
-                        if (!existUnprocessedDocument) {
-                            error("No new training/annotation document added.");
-                            aTarget.appendJavaScript("alert('No new training/annotation document added.')");
-                            return;
+                        else if (!document.isTrainingDocument() && !document.isProcessed()) {
+                            annodoc++;
                         }
+                    }
 
-                        int annodoc = 0, trainDoc = 0;
+                    automationStatus = automationService.existsAutomationStatus(template) ?
+                            automationService.getAutomationStatus(template) : automationStatus;
+                    automationStatus.setStartime(new Timestamp(new Date().getTime()));
+                    automationStatus.setEndTime(new Timestamp(new Date().getTime()));
+                    automationStatus.setTrainDocs(trainDoc);
+                    automationStatus.setAnnoDocs(annodoc);
+                    automationStatus.setTotalDocs(annodoc + trainDoc);
+                    automationStatus.setTemplate(template);
+                    automationStatus.setUser(SecurityContextHolder.getContext()
+                            .getAuthentication().getName());
+                    automationStatus.setStatus(Status.QUEUED);
+                    automationService.createAutomationStatus(automationStatus);
+
+                    template.setAutomationStarted(true);
+                    automationService.createTemplate(template);
+
+                    // Training and prediction run in the background, the progress is shown on
+                    // the monitoring page
+                    automationJobService.submit(template);
+                    aTarget.add(ApplyForm.this);
+                }
 
-                        for (SourceDocument document : repository
-                                .listSourceDocuments(selectedProjectModel.getObject())) {
-                            if ((document.isTrainingDocument() || document.getState().equals(
-                                    SourceDocumentState.CURATION_FINISHED))
-                                    && !document.isProcessed()) {
-                                trainDoc++;
-                            }
-                            else if (!document.isTrainingDocument() && !document.isProcessed()) {
-                                annodoc++;
-                            }
-                        }
+                @Override
+                public boolean isEnabled()
+                {
+                    return miraTemplateDetailForm != null && !isAutomationRunning();
+                }
+            });
 
-                        automationStatus = automationService.existsAutomationStatus(template) ? 
-                                automationService.getAutomationStatus(template) : automationStatus;
-                        automationStatus.setStartime(new Timestamp(new Date().getTime()));
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationStatus.setTrainDocs(trainDoc);
-                        automationStatus.setAnnoDocs(annodoc);
-                        automationStatus.setTotalDocs(annodoc + trainDoc);
-                        automationStatus.setTemplate(template);
-
-                        automationService.createAutomationStatus(automationStatus);
-
-                        template.setAutomationStarted(true);
-
-                        automationStatus.setStatus(Status.GENERATE_TRAIN_DOC);
-                        template.setResult("---");
-
-                        AutomationUtil.addOtherFeatureTrainDocument(template, repository,
-                                annotationService, automationService, userRepository);
-                        AutomationUtil.otherFeatureClassifiers(template, repository,
-                                automationService);
-
-                        AutomationUtil.addTabSepTrainDocument(template, repository,
-                                automationService);
-                        AutomationUtil.tabSepClassifiers(template, repository, automationService);
-
-                        AutomationUtil.generateTrainDocument(template, repository,
-                                annotationService, automationService, userRepository, true);
-                        AutomationUtil.generatePredictDocument(template, repository,
-                                annotationService, automationService, userRepository);
-
-                        automationStatus.setStatus(Status.GENERATE_CLASSIFIER);
-                        miraTemplateDetailForm.getModelObject().setResult(
-                                AutomationUtil.generateFinalClassifier(template, repository,
-                                        annotationService, automationService, userRepository));
-                        AutomationUtil.addOtherFeatureToPredictDocument(template, repository,
-                                annotationService, automationService, userRepository);
-
-                        automationStatus.setStatus(Status.PREDICTION);
-                        AutomationUtil.predict(template, repository, automationService, userRepository);
-
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.COMPLETED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
+            add(new IndicatingAjaxButton("cancel")
+            {
+                private static final long serialVersionUID = 1L;
 
-                    }
-                    catch (UIMAException e) {
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.INTERRUPTED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-                        aTarget.appendJavaScript("alert('" + ExceptionUtils.getRootCause(e) + "')");
-                    }
-                    catch (ClassNotFoundException e) {
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.INTERRUPTED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-                        aTarget.appendJavaScript("alert('" + e.getMessage() + "')");
-                    }
-                    catch (IOException e) {
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.INTERRUPTED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-                        aTarget.appendJavaScript("alert('" + e.getMessage() + "')");
-                    }
-                    catch (BratAnnotationException e) {
-                        aTarget.appendJavaScript("alert('" + e.getMessage() + "')");
-                    }
-                    catch (AutomationException e) {
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.INTERRUPTED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-                        aTarget.appendJavaScript("alert('" + e.getMessage() + "')");
-                    }
-                    // any other exception such as Memmory heap
-                    catch (Exception e) {
-                        template.setAutomationStarted(false);
-                        automationStatus.setStatus(Status.INTERRUPTED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        automationService.createTemplate(template);
-                        automationService.createAutomationStatus(automationStatus);
-                        aTarget.appendJavaScript("alert('" + e.getMessage() + "')");
-                    }
-                    finally {
-                        automationStatus.setStatus(Status.COMPLETED);
-                        automationStatus.setEndTime(new Timestamp(new Date().getTime()));
-                        template.setAutomationStarted(false);
-                        automationService.createTemplate(template);
-                    }
+                @Override
+                protected void onSubmit(AjaxRequestTarget aTarget, Form<?> form)
+                {
+                    automationJobService.cancel(miraTemplateDetailForm.getModelObject());
+                    aTarget.add(ApplyForm.this);
                 }
 
                 @Override
-                public boolean isEnabled()
+                public boolean isVisible()
                 {
-                    return miraTemplateDetailForm != null
-                            && !miraTemplateDetailForm.getModelObject().isAutomationStarted();
+                    return miraTemplateDetailForm != null && isAutomationRunning();
                 }
             });
         }
+
+        private boolean isAutomationRunning()
+        {
+            MiraTemplate template = miraTemplateDetailForm.getModelObject();
+            if (template.getId() == 0) {
+                return false;
+            }
+            // A cancelled job may still be stopping
+            if (automationJobService.isActive(template)) {
+                return true;
+            }
+            if (!automationService.existsAutomationStatus(template)) {
+                return false;
+            }
+
+            Status status = automationService.getAutomationStatus(template).getStatus();
+            return status == Status.QUEUED || status == Status.GENERATE_TRAIN_DOC
+                    || status == Status.GENERATE_CLASSIFIER || status == Status.PREDICTION;
+        }
     }
 
     public class SelectionModel
@@ -37,6 +37,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.persistence.NoResultException;
 
@@ -53,6 +61,7 @@ import org.apache.uima.cas.text.AnnotationFS;
 import org.apache.uima.fit.util.CasUtil;
 import org.apache.uima.jcas.JCas;
 import org.springframework.dao.DataRetrievalFailureException;
+import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
@@ -91,6 +100,34 @@ public class AutomationUtil
     private static Log LOG = LogFactory.getLog(AutomationUtil.class);
     private static final String NILL = "__nill__";
 
+    /**
+     * Number of documents predicted concurrently.
+     */
+    private static final int PREDICTION_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Shared by all automation jobs, so the number of documents predicted concurrently is
+     * bounded no matter how many jobs run. Idle threads terminate after a minute.
+     */
+    private static final ThreadPoolExecutor PREDICTION_EXECUTOR;
+
+    static {
+        final AtomicInteger count = new AtomicInteger();
+        PREDICTION_EXECUTOR = new ThreadPoolExecutor(PREDICTION_THREADS, PREDICTION_THREADS, 1,
+                TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable aRunnable)
+                    {
+                        Thread thread = new Thread(aRunnable, "webanno-mira-prediction-"
+                                + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        PREDICTION_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     public static void repeateAnnotation(BratAnnotatorModel aModel, RepositoryService aRepository,
             UserDao aUserDao, AnnotationService aAnnotationService,
             AutomationService aAutomationService, int aStart, int aEnd, AnnotationFeature aFeature)
@@ -1440,77 +1477,125 @@ public class AutomationUtil
         }
     }
 
-    public static void predict(MiraTemplate aTemplate, RepositoryService aRepository,
+    /**
+     * Predict the annotations of all unprocessed documents using the final classifier. The
+     * documents are processed concurrently on the shared prediction threads. The model is kept
+     * in memory by the {@link MiraModelCache} and the predictions are passed to the CAS in
+     * memory.
+     */
+    public static void predict(MiraTemplate aTemplate, final RepositoryService aRepository,
             AutomationService aAutomationService, UserDao aUserDao)
         throws CASException, UIMAException, ClassNotFoundException, IOException,
         BratAnnotationException
     {
-        AnnotationFeature layerFeature = aTemplate.getTrainFeature();
+        final AnnotationFeature layerFeature = aTemplate.getTrainFeature();
 
-        File miraDir = aAutomationService.getMiraDir(layerFeature);
-        AutomationStatus status = aAutomationService.getAutomationStatus(aTemplate);
-        for (SourceDocument document : aRepository.listSourceDocuments(layerFeature.getProject())) {
-            if (!document.isProcessed() && !document.isTrainingDocument()) {
-                File predFile = new File(miraDir, document.getId() + ".pred");
-                Mira mira = new Mira();
-                int shiftColumns = 0;
-                int nbest = 1;
-                int beamSize = 0;
-                boolean maxPosteriors = false;
-                String modelName = aAutomationService.getMiraModel(layerFeature, false, null)
-                        .getAbsolutePath();
-                String testName = predFile.getAbsolutePath();
-                File predcitedFile = new File(predFile.getAbsolutePath() + "-pred");
-                PrintStream stream = new PrintStream(predcitedFile);
-                BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
-                if (testName != null) {
-                    input = new BufferedReader(new FileReader(testName));
-                }
-                mira.loadModel(modelName);
-                mira.setShiftColumns(shiftColumns);
-                mira.nbest = nbest;
-                mira.beamSize = beamSize;
-                mira.maxPosteriors = maxPosteriors;
-                mira.test(input, stream);
-
-                LOG.info("Prediction is wrtten to a MIRA File. To be done is writing back to the CAS");
-                LineIterator it = IOUtils.lineIterator(new FileReader(predcitedFile));
-                List<String> annotations = new ArrayList<String>();
+        final File miraDir = aAutomationService.getMiraDir(layerFeature);
+        final File modelFile = aAutomationService.getMiraModel(layerFeature, false, null);
+        final AutomationStatus status = aAutomationService.getAutomationStatus(aTemplate);
+        String username = SecurityContextHolder.getContext().getAuthentication().getName();
+        final User user = aUserDao.get(username);
 
-                while (it.hasNext()) {
-                    String line = it.next();
-                    if (line.trim().equals("")) {
-                        continue;
-                    }
-                    StringTokenizer st = new StringTokenizer(line, " ");
-                    String tag = "";
-                    while (st.hasMoreTokens()) {
-                        tag = st.nextToken();
+        // The repository may record the acting user, so the worker threads need to act on behalf
+        // of the user who started the automation
+        final SecurityContext context = SecurityContextHolder.getContext();
 
-                    }
-                    annotations.add(tag);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        try {
+            for (final SourceDocument document : aRepository.listSourceDocuments(layerFeature
+                    .getProject())) {
+                if (!document.isProcessed() && !document.isTrainingDocument()) {
+                    futures.add(PREDICTION_EXECUTOR.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                            throws Exception
+                        {
+                            SecurityContext previous = SecurityContextHolder.getContext();
+                            SecurityContextHolder.setContext(context);
+                            try {
+                                predict(document, user, layerFeature, modelFile, miraDir,
+                                        aRepository);
+                            }
+                            finally {
+                                SecurityContextHolder.setContext(previous);
+                            }
+                            synchronized (status) {
+                                status.setAnnoDocs(status.getAnnoDocs() - 1);
+                            }
+                            return null;
+                        }
+                    }));
                 }
+            }
 
-                LOG.info(annotations.size() + " Predictions found to be written to the CAS");
-                JCas jCas = null;
-                String username = SecurityContextHolder.getContext().getAuthentication().getName();
-                User user = aUserDao.get(username);
+            for (Future<Void> future : futures) {
                 try {
-                    AnnotationDocument annoDocument = aRepository.getAnnotationDocument(document,
-                            user);
-                    jCas = aRepository.readAnnotationCas(annoDocument);
+                    future.get();
                 }
-                catch (DataRetrievalFailureException e) {
-
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while predicting", e);
                 }
-                automate(jCas, layerFeature, annotations);
-                LOG.info("Predictions found are written to the CAS");
-                aRepository.writeCorrectionCas(jCas, document, user);
-                document.setProcessed(true);
-                status.setAnnoDocs(status.getAnnoDocs() - 1);
+                catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof UIMAException) {
+                        throw (UIMAException) cause;
+                    }
+                    if (cause instanceof ClassNotFoundException) {
+                        throw (ClassNotFoundException) cause;
+                    }
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    if (cause instanceof BratAnnotationException) {
+                        throw (BratAnnotationException) cause;
+                    }
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        }
+        finally {
+            // Stop the predictions of this job which are still pending if it failed or has been
+            // cancelled
+            for (Future<Void> future : futures) {
+                future.cancel(true);
             }
         }
     }
+
+    private static void predict(SourceDocument aDocument, User aUser,
+            AnnotationFeature aLayerFeature, File aModelFile, File aMiraDir,
+            RepositoryService aRepository)
+        throws UIMAException, ClassNotFoundException, IOException, BratAnnotationException
+    {
+        File predFile = new File(aMiraDir, aDocument.getId() + ".pred");
+        List<String> annotations;
+        try (BufferedReader input = new BufferedReader(new FileReader(predFile))) {
+            annotations = MiraModelCache.predict(aModelFile, input);
+        }
+
+        LOG.info(annotations.size() + " Predictions found to be written to the CAS");
+        JCas jCas = null;
+        try {
+            AnnotationDocument annoDocument = aRepository.getAnnotationDocument(aDocument, aUser);
+            // The predictions go into the correction CAS, not into the CAS of the annotator
+            jCas = aRepository.readAnnotationCasCopy(annoDocument);
+        }
+        catch (DataRetrievalFailureException e) {
+
+        }
+        automate(jCas, aLayerFeature, annotations);
+        LOG.info("Predictions found are written to the CAS");
+        aRepository.writeCorrectionCas(jCas, aDocument, aUser);
+        aDocument.setProcessed(true);
+    }
     
     public static void clearAnnotations(JCas aJCas, Type aType)
         throws IOException
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.automation.util;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.LineIterator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import edu.lium.mira.Mira;
+
+/**
+ * Keeps trained MIRA models in memory so that they do not have to be loaded again for every
+ * document. A model is loaded again once its file has been changed, e.g. by a new training run.
+ * <p>
+ * A {@link Mira} instance must not be used by multiple threads at the same time. Thus, for each
+ * model, a pool of loaded instances is kept. Each instance holds a complete copy of the model, so
+ * the pool is limited to {@link #MAX_INSTANCES} instances. If all of them are in use, further
+ * predictions with the same model wait until one becomes idle. Instances are loaded one at a
+ * time, so threads waiting for a model which is just being loaded usually end up sharing that
+ * instance instead of loading another one.
+ */
+public class MiraModelCache
+{
+    private static final Log LOG = LogFactory.getLog(MiraModelCache.class);
+
+    /**
+     * Maximum number of different models kept in memory.
+     */
+    private static final int MAX_MODELS = 8;
+
+    /**
+     * Maximum number of loaded instances per model.
+     */
+    private static final int MAX_INSTANCES = 2;
+
+    private static final Map<String, Model> models = new LinkedHashMap<String, Model>(16,
+            0.75f, true)
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Model> aEldest)
+        {
+            return size() > MAX_MODELS;
+        }
+    };
+
+    /**
+     * Tag the given MIRA feature lines using the given model.
+     *
+     * @param aModelFile
+     *            the trained model.
+     * @param aInput
+     *            the feature lines, one token per line and sentences separated by empty lines.
+     * @return the predicted tag of each token.
+     */
+    public static List<String> predict(File aModelFile, BufferedReader aInput)
+        throws IOException, ClassNotFoundException
+    {
+        Model model = getModel(aModelFile);
+        Mira mira = model.borrow();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            PrintStream stream = new PrintStream(buffer);
+            mira.test(aInput, stream);
+            stream.flush();
+        }
+        finally {
+            model.release(mira);
+        }
+
+        // The tag is the last column of each token line
+        List<String> tags = new ArrayList<String>();
+        LineIterator it = IOUtils.lineIterator(new StringReader(buffer.toString()));
+        while (it.hasNext()) {
+            String line = it.next();
+            if (line.trim().equals("")) {
+                continue;
+            }
+            StringTokenizer st = new StringTokenizer(line, " ");
+            String tag = "";
+            while (st.hasMoreTokens()) {
+                tag = st.nextToken();
+            }
+            tags.add(tag);
+        }
+        return tags;
+    }
+
+    private static synchronized Model getModel(File aModelFile)
+    {
+        String path = aModelFile.getAbsolutePath();
+        Model model = models.get(path);
+        if (model == null || model.lastModified != aModelFile.lastModified()
+                || model.length != aModelFile.length()) {
+            model = new Model(aModelFile);
+            models.put(path, model);
+        }
+        return model;
+    }
+
+    private static synchronized boolean isCurrent(Model aModel)
+    {
+        return models.get(aModel.path) == aModel;
+    }
+
+    private static class Model
+    {
+        final String path;
+        final long lastModified;
+        final long length;
+        final Deque<Mira> idle = new ArrayDeque<Mira>();
+        // Instances loaded or being loaded
+        int instances;
+        boolean loading;
+
+        Model(File aFile)
+        {
+            path = aFile.getAbsolutePath();
+            lastModified = aFile.lastModified();
+            length = aFile.length();
+        }
+
+        Mira borrow()
+            throws IOException, ClassNotFoundException
+        {
+            synchronized (this) {
+                while (idle.isEmpty() && (loading || instances >= MAX_INSTANCES)) {
+                    try {
+                        wait();
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for MIRA "
+                                + "model [" + path + "]");
+                    }
+                }
+                if (!idle.isEmpty()) {
+                    return idle.pop();
+                }
+                loading = true;
+                instances++;
+            }
+
+            // Load outside the lock so other threads can still use the instances already loaded
+            boolean success = false;
+            try {
+                LOG.info("Loading MIRA model [" + path + "]");
+                Mira mira = new Mira();
+                mira.loadModel(path);
+                mira.setShiftColumns(0);
+                mira.nbest = 1;
+                mira.beamSize = 0;
+                mira.maxPosteriors = false;
+                success = true;
+                return mira;
+            }
+            finally {
+                synchronized (this) {
+                    loading = false;
+                    if (!success) {
+                        instances--;
+                    }
+                    notifyAll();
+                }
+            }
+        }
+
+        void release(Mira aMira)
+        {
+            // Instances of a model which has been replaced in the meantime are dropped
+            boolean current = isCurrent(this);
+            synchronized (this) {
+                if (current) {
+                    idle.push(aMira);
+                }
+                else {
+                    instances--;
+                }
+                notifyAll();
+            }
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.automation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.AutomationStatus;
+import de.tudarmstadt.ukp.clarin.webanno.model.MiraTemplate;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.Status;
+
+public class AutomationJobServiceImplTest
+{
+    private final StatusStore statuses = new StatusStore();
+
+    private final List<Long> runs = Collections.synchronizedList(new ArrayList<Long>());
+
+    private final Semaphore started = new Semaphore(0);
+
+    private final Semaphore proceed = new Semaphore(0);
+
+    private AutomationJobServiceImpl service;
+
+    @After
+    public void tearDown()
+    {
+        if (service != null) {
+            proceed.release(100);
+            service.destroy();
+        }
+    }
+
+    @Test
+    public void testOneJobPerTemplate()
+        throws Exception
+    {
+        createService(2);
+        MiraTemplate template = createTemplate(1, Status.QUEUED);
+
+        service.submit(template);
+        awaitStarted(1);
+        service.submit(template);
+        assertTrue(service.isActive(template));
+
+        proceed.release();
+        awaitInactive(template);
+        assertEquals(1, runs.size());
+    }
+
+    @Test
+    public void testJobsOfDifferentTemplatesRunConcurrently()
+        throws Exception
+    {
+        createService(2);
+        MiraTemplate template1 = createTemplate(1, Status.QUEUED);
+        MiraTemplate template2 = createTemplate(2, Status.QUEUED);
+
+        service.submit(template1);
+        service.submit(template2);
+
+        // Both jobs are running at the same time
+        awaitStarted(2);
+
+        proceed.release(2);
+        awaitInactive(template1);
+        awaitInactive(template2);
+    }
+
+    @Test
+    public void testCancelledJobRemainsActiveUntilStopped()
+        throws Exception
+    {
+        createService(2);
+        MiraTemplate template = createTemplate(1, Status.GENERATE_CLASSIFIER);
+
+        service.submit(template);
+        awaitStarted(1);
+
+        service.cancel(template);
+        assertEquals(Status.CANCELLED, statuses.getAutomationStatus(template).getStatus());
+        assertFalse(template.isAutomationStarted());
+
+        // The job ignores the interrupt just like the MIRA training does
+        assertTrue(service.isActive(template));
+        statuses.getAutomationStatus(template).setStatus(Status.QUEUED);
+        try {
+            service.submit(template);
+            fail("Submitting while a cancelled job is running must fail");
+        }
+        catch (IllegalStateException e) {
+            // Expected
+        }
+
+        proceed.release();
+        awaitInactive(template);
+
+        // Once the job has stopped, the template can be automated again
+        service.submit(template);
+        awaitStarted(1);
+        proceed.release();
+        awaitInactive(template);
+        assertEquals(2, runs.size());
+    }
+
+    @Test
+    public void testCancelQueuedJob()
+        throws Exception
+    {
+        createService(1);
+        MiraTemplate template1 = createTemplate(1, Status.QUEUED);
+        MiraTemplate template2 = createTemplate(2, Status.QUEUED);
+
+        service.submit(template1);
+        awaitStarted(1);
+        service.submit(template2);
+
+        // The queued job never starts, so it is gone right away
+        service.cancel(template2);
+        assertFalse(service.isActive(template2));
+        assertEquals(Status.CANCELLED, statuses.getAutomationStatus(template2).getStatus());
+
+        proceed.release();
+        awaitInactive(template1);
+        assertFalse(started.tryAcquire(200, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList(1L), runs);
+    }
+
+    @Test
+    public void testResumeActiveJobs()
+        throws Exception
+    {
+        createService(4);
+        createTemplate(1, Status.QUEUED);
+        createTemplate(2, Status.PREDICTION);
+        createTemplate(3, Status.COMPLETED);
+        createTemplate(4, Status.CANCELLED);
+
+        service.onApplicationEvent(null);
+        awaitStarted(2);
+
+        // Resuming happens only once
+        service.onApplicationEvent(null);
+
+        proceed.release(2);
+        assertFalse(started.tryAcquire(200, TimeUnit.MILLISECONDS));
+        List<Long> resumed = new ArrayList<Long>(runs);
+        Collections.sort(resumed);
+        assertEquals(2, resumed.size());
+        assertEquals(1L, (long) resumed.get(0));
+        assertEquals(2L, (long) resumed.get(1));
+    }
+
+    private void createService(int aThreads)
+    {
+        service = new AutomationJobServiceImpl(statuses, aThreads)
+        {
+            @Override
+            void runJob(Job aJob)
+            {
+                runs.add(aJob.getTemplateId());
+                started.release();
+                proceed.acquireUninterruptibly();
+            }
+        };
+        service.afterPropertiesSet();
+    }
+
+    private MiraTemplate createTemplate(long aId, Status aStatus)
+    {
+        MiraTemplate template = new MiraTemplate();
+        template.setId(aId);
+        template.setAutomationStarted(true);
+
+        AutomationStatus status = new AutomationStatus();
+        status.setTemplate(template);
+        status.setUser("user");
+        status.setStatus(aStatus);
+        statuses.createAutomationStatus(status);
+
+        return template;
+    }
+
+    private void awaitStarted(int aCount)
+        throws InterruptedException
+    {
+        assertTrue("Jobs did not start", started.tryAcquire(aCount, 10, TimeUnit.SECONDS));
+    }
+
+    private void awaitInactive(MiraTemplate aTemplate)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (service.isActive(aTemplate)) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Job of template [" + aTemplate.getId() + "] did not stop");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Keeps the automation status in memory - the other methods are not used by the jobs.
+     */
+    private static class StatusStore
+        implements AutomationService
+    {
+        private final Map<Long, AutomationStatus> statuses = new HashMap<Long, AutomationStatus>();
+
+        @Override
+        public synchronized void createAutomationStatus(AutomationStatus aStatus)
+        {
+            statuses.put(aStatus.getTemplate().getId(), aStatus);
+        }
+
+        @Override
+        public synchronized boolean existsAutomationStatus(MiraTemplate aTemplate)
+        {
+            return statuses.containsKey(aTemplate.getId());
+        }
+
+        @Override
+        public synchronized AutomationStatus getAutomationStatus(MiraTemplate aTemplate)
+        {
+            return statuses.get(aTemplate.getId());
+        }
+
+        @Override
+        public synchronized List<AutomationStatus> listAutomationStatus()
+        {
+            return new ArrayList<AutomationStatus>(statuses.values());
+        }
+
+        @Override
+        public synchronized void removeAutomationStatus(AutomationStatus aStatus)
+        {
+            statuses.remove(aStatus.getTemplate().getId());
+        }
+
+        @Override
+        public void createTemplate(MiraTemplate aTemplate)
+        {
+            // Templates are not stored
+        }
+
+        @Override
+        public List<SourceDocument> listTabSepDocuments(Project aProject)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> listTemplates(Project aProject)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeTemplate(Project aProject, String aFileName, String aUsername)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void createTemplate(Project aProject, File aContent, String aFileName,
+                String aUsername)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MiraTemplate getMiraTemplate(AnnotationFeature aFeature)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean existsMiraTemplate(AnnotationFeature aFeature)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<MiraTemplate> listMiraTemplates(Project aProject)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public File getMiraModel(AnnotationFeature aFeature, boolean aOtherLayer,
+                SourceDocument aDocument)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public File getMiraDir(AnnotationFeature aFeature)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void removeMiraTemplate(MiraTemplate aTemplate)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
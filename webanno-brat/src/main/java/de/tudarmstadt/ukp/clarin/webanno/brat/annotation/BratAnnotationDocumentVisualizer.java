@@ -38,6 +38,7 @@ import org.springframework.dao.DataRetrievalFailureException;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ColoringStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.RenderWindow;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
@@ -123,7 +124,7 @@ public class BratAnnotationDocumentVisualizer
         // Get CAS from the repository
         JCas jCas = null;
         try {
-            jCas = repository.readAnnotationCas(getModelObject());
+            jCas = repository.readAnnotationCasCopy(getModelObject());
         }
         catch (DataRetrievalFailureException e) {
             error(e.getCause().getMessage());
@@ -136,7 +137,8 @@ public class BratAnnotationDocumentVisualizer
         response.setText(jCas.getDocumentText());
 
         BratAnnotatorModel bratAnnotatorModel = new BratAnnotatorModel();
-        SpanAdapter.renderTokenAndSentence(jCas, response, bratAnnotatorModel);
+        RenderWindow window = new RenderWindow(jCas, bratAnnotatorModel);
+        SpanAdapter.renderTokenAndSentence(jCas, response, window);
 
         Map<String[], Queue<String>> colorQueues = new HashMap<>();
         for (AnnotationLayer layer : bratAnnotatorModel.getAnnotationLayers()) {
@@ -156,7 +158,8 @@ public class BratAnnotationDocumentVisualizer
                     layer, bratAnnotatorModel.getPreferences(), colorQueues);
 
             getAdapter(annotationService, layer)
-                    .render(jCas, features, response, bratAnnotatorModel, coloringStrategy);
+                    .render(jCas, features, response, bratAnnotatorModel, window,
+                            coloringStrategy);
         }
 
         // Serialize BRAT object model to JSON
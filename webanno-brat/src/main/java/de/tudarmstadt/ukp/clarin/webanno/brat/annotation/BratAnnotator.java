@@ -68,6 +68,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
 import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.VID;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.ArcAnnotationResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetCollectionInformationResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentDeltaResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.LoadConfResponse;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.SpanAnnotationResponse;
@@ -127,6 +128,12 @@ public class BratAnnotator
     private AbstractAjaxBehavior controller;
     private String collection = "";
 
+    /**
+     * What was last sent to the brat client. This is not serialized with the page - if it is lost,
+     * the next render simply sends the complete document data again.
+     */
+    private transient BratRenderState renderState;
+
     /**
      * Data models for {@link BratAnnotator}
      *
@@ -371,8 +378,10 @@ public class BratAnnotator
                     }
                     else if (action.equals(GetDocumentResponse.COMMAND)) {
                         if (getModelObject().getProject() != null) {
-                            result = controller
-                                    .getDocumentResponse(getModelObject(), 0, jCas, true);
+                            GetDocumentResponse response = controller.getDocumentResponse(
+                                    getModelObject(), 0, jCas, true);
+                            getRenderState().sent(response);
+                            result = response;
                         }
                         else {
                             result = new GetDocumentResponse();
@@ -563,10 +572,42 @@ public class BratAnnotator
             }
         }
         BratAjaxCasController.render(response, getModelObject(), aJCas, annotationService);
-        String json = toJson(response);
+        String command = renderDataCommand(response);
         LOG.info("END bratRenderCommand");
-        return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderData', [" + json
-                + "]);";
+        return command;
+    }
+
+    /**
+     * Build the script which passes the given response to the brat client. If only annotations
+     * changed since the last response sent to the client, only the changes are sent.
+     */
+    private String renderDataCommand(GetDocumentResponse aResponse)
+    {
+        GetDocumentDeltaResponse delta = null;
+        try {
+            delta = getRenderState().diff(aResponse);
+        }
+        catch (IOException e) {
+            renderState = null;
+            LOG.error("Unable to compute render delta", e);
+        }
+
+        if (delta != null) {
+            return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderDataPatch', ["
+                    + toJson(delta) + "]);";
+        }
+        else {
+            return "Wicket.$('" + vis.getMarkupId() + "').dispatcher.post('renderData', ["
+                    + toJson(aResponse) + "]);";
+        }
+    }
+
+    private BratRenderState getRenderState()
+    {
+        if (renderState == null) {
+            renderState = new BratRenderState(JSONUtil.getJsonConverter().getObjectMapper());
+        }
+        return renderState;
     }
 
     public void bratRenderGhostSpan(AjaxRequestTarget aTarget, JCas aJCas, int aBeginOffset,
@@ -577,9 +618,7 @@ public class BratAnnotator
 
         BratAjaxCasController.render(response, getModelObject(), aJCas, annotationService);
 
-        String json = toJson(response);
-        aTarget.appendJavaScript("Wicket.$('" + vis.getMarkupId()
-                + "').dispatcher.post('renderData', [" + json + "]);");
+        aTarget.appendJavaScript(renderDataCommand(response));
         LOG.info("END ghostAnnoRender");
     }
 
@@ -605,9 +644,7 @@ public class BratAnnotator
 
         BratAjaxCasController.render(response, getModelObject(), aJCas, annotationService);
 
-        String json = toJson(response);
-        aTarget.appendJavaScript("Wicket.$('" + vis.getMarkupId()
-                + "').dispatcher.post('renderData', [" + json + "]);");
+        aTarget.appendJavaScript(renderDataCommand(response));
         LOG.info("END ghostArcAnnoRender");
     }
 
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.annotation;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Comment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentDeltaResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+
+/**
+ * Remembers what was last sent to the brat client of a {@link BratAnnotator}, so that subsequent
+ * renders of the same display window only need to send the changed annotations.
+ * <p>
+ * Every response sent to the client is stamped with a new version. A delta is only computed if
+ * the display window itself (text, tokens, sentences) did not change since the last response.
+ * Entities and relations are identified by their VID. If a VID occurs more than once, the client
+ * gets the complete response instead.
+ */
+public class BratRenderState
+{
+    private final ObjectMapper mapper;
+
+    private long version = System.currentTimeMillis();
+
+    /**
+     * JSON of the parts of the last response which describe the display window rather than the
+     * annotations, or {@code null} if nothing was sent yet.
+     */
+    private String window;
+
+    private Map<String, String> entities = new HashMap<String, String>();
+
+    private Map<String, String> relations = new HashMap<String, String>();
+
+    /**
+     * Whether no VID occurs more than once among the entities or among the relations.
+     */
+    private boolean unique = true;
+
+    /**
+     * Comments have no ID of their own, so they are grouped by their JSON. The same comment may
+     * occur several times.
+     */
+    private Map<String, List<Comment>> comments = new HashMap<String, List<Comment>>();
+
+    public BratRenderState(ObjectMapper aMapper)
+    {
+        mapper = aMapper;
+    }
+
+    /**
+     * Remember the given response as the complete data sent to the client and assign it a new
+     * version.
+     *
+     * @param aResponse
+     *            the response which is sent to the client.
+     * @throws IOException
+     *             if the response cannot be serialized.
+     */
+    public void sent(GetDocumentResponse aResponse)
+        throws IOException
+    {
+        update(aResponse);
+    }
+
+    /**
+     * Compute the changes between the last response sent to the client and the given one. In any
+     * case, the given response is remembered as the new state and assigned a new version.
+     *
+     * @param aResponse
+     *            the complete response for the current state of the display window.
+     * @return the changes or {@code null} if the client needs the complete response, e.g. because
+     *         the display window has moved.
+     * @throws IOException
+     *             if the response cannot be serialized.
+     */
+    public GetDocumentDeltaResponse diff(GetDocumentResponse aResponse)
+        throws IOException
+    {
+        String oldWindow = window;
+        long oldVersion = version;
+        Map<String, String> oldEntities = entities;
+        Map<String, String> oldRelations = relations;
+        Map<String, List<Comment>> oldComments = comments;
+        boolean oldUnique = unique;
+
+        update(aResponse);
+
+        if (oldWindow == null || !oldWindow.equals(window) || !oldUnique || !unique) {
+            return null;
+        }
+
+        GetDocumentDeltaResponse delta = new GetDocumentDeltaResponse();
+        delta.setBaseVersion(oldVersion);
+        delta.setRenderVersion(version);
+
+        for (Entity entity : aResponse.getEntities()) {
+            String id = entity.getVid().toString();
+            if (!entities.get(id).equals(oldEntities.remove(id))) {
+                delta.getEntities().add(entity);
+            }
+        }
+        delta.getRemovedEntities().addAll(oldEntities.keySet());
+
+        for (Relation relation : aResponse.getRelations()) {
+            String id = relation.getVid().toString();
+            if (!relations.get(id).equals(oldRelations.remove(id))) {
+                delta.getRelations().add(relation);
+            }
+        }
+        delta.getRemovedRelations().addAll(oldRelations.keySet());
+
+        // The client removes all copies of a removed comment, so if the number of copies changed,
+        // they are all removed and sent again
+        for (Entry<String, List<Comment>> comment : comments.entrySet()) {
+            List<Comment> oldCopies = oldComments.remove(comment.getKey());
+            if (oldCopies == null || oldCopies.size() != comment.getValue().size()) {
+                if (oldCopies != null) {
+                    delta.getRemovedComments().add(oldCopies.get(0));
+                }
+                delta.getComments().addAll(comment.getValue());
+            }
+        }
+        for (List<Comment> oldCopies : oldComments.values()) {
+            delta.getRemovedComments().add(oldCopies.get(0));
+        }
+
+        return delta;
+    }
+
+    private void update(GetDocumentResponse aResponse)
+        throws IOException
+    {
+        version++;
+        aResponse.setRenderVersion(version);
+
+        window = mapper.writeValueAsString(asList(aResponse.getText(),
+                aResponse.getTokenOffsets(), aResponse.getSentenceOffsets(),
+                aResponse.getSentenceNumberOffset(), aResponse.isRtlMode()));
+
+        unique = true;
+
+        entities = new HashMap<String, String>();
+        for (Entity entity : aResponse.getEntities()) {
+            if (entities.put(entity.getVid().toString(),
+                    mapper.writeValueAsString(entity)) != null) {
+                unique = false;
+            }
+        }
+
+        relations = new HashMap<String, String>();
+        for (Relation relation : aResponse.getRelations()) {
+            if (relations.put(relation.getVid().toString(),
+                    mapper.writeValueAsString(relation)) != null) {
+                unique = false;
+            }
+        }
+
+        comments = new LinkedHashMap<String, List<Comment>>();
+        for (Comment comment : aResponse.getComments()) {
+            String json = mapper.writeValueAsString(comment);
+            List<Comment> copies = comments.get(json);
+            if (copies == null) {
+                copies = new ArrayList<Comment>();
+                comments.put(json, copies);
+            }
+            copies.add(comment);
+        }
+    }
+}
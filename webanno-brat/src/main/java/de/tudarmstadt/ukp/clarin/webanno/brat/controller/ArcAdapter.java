@@ -37,6 +37,7 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
@@ -151,26 +152,16 @@ public class ArcAdapter
      *            A brat response containing annotations in brat protocol
      * @param aBratAnnotatorModel
      *            Data model for brat annotations
+     * @param aWindow
+     *            the display window shared by all layers rendered into the response
      * @param aColoringStrategy
      *            the coloring strategy to render this layer
      */
     @Override
     public void render(JCas aJcas, List<AnnotationFeature> aFeatures,
             GetDocumentResponse aResponse, BratAnnotatorModel aBratAnnotatorModel,
-            ColoringStrategy aColoringStrategy)
+            RenderWindow aWindow, ColoringStrategy aColoringStrategy)
     {
-        // The first sentence address in the display window!
-        Sentence firstSentence = selectSentenceAt(aJcas,
-                aBratAnnotatorModel.getSentenceBeginOffset(),
-                aBratAnnotatorModel.getSentenceEndOffset());
-
-        int lastAddressInPage = getLastSentenceAddressInDisplayWindow(aJcas,
-                getAddr(firstSentence), aBratAnnotatorModel.getPreferences().getWindowSize());
-
-        // the last sentence address in the display window
-        Sentence lastSentenceInPage = (Sentence) selectByAddr(aJcas, FeatureStructure.class,
-                lastAddressInPage);
-
         Type type = getType(aJcas.getCas(), annotationTypeName);
         Feature dependentFeature = type.getFeatureByBaseName(targetFeatureName);
         Feature governorFeature = type.getFeatureByBaseName(sourceFeatureName);
@@ -181,11 +172,12 @@ public class ArcAdapter
         FeatureStructure dependentFs;
         FeatureStructure governorFs;
 
-        Map<Integer, List<Integer>> relationLinks = getRelationLinks(aJcas, firstSentence,
-                lastSentenceInPage, type, dependentFeature, governorFeature, arcSpanFeature);
+        List<AnnotationFS> arcs = aWindow.select(type);
+        Map<Integer, List<Integer>> relationLinks = getRelationLinks(arcs, dependentFeature,
+                governorFeature, arcSpanFeature);
 
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        String bratTypeName = TypeUtil.getBratTypeName(this);
+        for (AnnotationFS fs : arcs) {
             if (attachFeatureName != null) {
                 dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
                 governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
@@ -204,7 +196,6 @@ public class ArcAdapter
             List<Argument> argumentList = getArgument(governorFs, dependentFs);
 
             String bratLabelText = TypeUtil.getBratLabelText(this, fs, aFeatures);
-            String bratTypeName = TypeUtil.getBratTypeName(this);
             String color = aColoringStrategy.getColor(fs, bratLabelText);
 
             aResponse.addRelation(new Relation(getAddr(fs), bratTypeName, argumentList,
@@ -228,25 +219,34 @@ public class ArcAdapter
     }
 
     /**
-     * Get relation links to display
-     * @param aJcas
-     * @param firstSentence
-     * @param lastSentenceInPage
-     * @param type
+     * Get relation links to display. The yield of a relation starts with its governor and
+     * dependent, followed by the dependents of all relations in the window which are reachable
+     * from the dependent, in index order. Relations are looked up by their governor instead of
+     * scanning all relations in the window for every relation.
+     *
+     * @param aArcs
+     *            the relations in the display window in index order
      * @param dependentFeature
      * @param governorFeature
      * @param arcSpanFeature
      * @return
      */
-    private Map<Integer, List<Integer>> getRelationLinks(JCas aJcas, Sentence firstSentence,
-            Sentence lastSentenceInPage, Type type, Feature dependentFeature,
-            Feature governorFeature, Feature arcSpanFeature)
+    private Map<Integer, List<Integer>> getRelationLinks(List<AnnotationFS> aArcs,
+            Feature dependentFeature, Feature governorFeature, Feature arcSpanFeature)
     {
-        FeatureStructure dependentFs;
-        FeatureStructure governorFs;
-        Map<Integer, List<Integer>> relations = new HashMap<>();
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        int n = aArcs.size();
+        int[] addr = new int[n];
+        int[] governorAddr = new int[n];
+        int[] dependentAddr = new int[n];
+        int[] governorBegin = new int[n];
+        int[] dependentBegin = new int[n];
+        boolean[] loose = new boolean[n];
+        Map<Integer, List<Integer>> byGovernor = new HashMap<>();
+
+        for (int i = 0; i < n; i++) {
+            AnnotationFS fs = aArcs.get(i);
+            FeatureStructure dependentFs;
+            FeatureStructure governorFs;
             if (attachFeatureName != null) {
                 dependentFs = fs.getFeatureValue(dependentFeature).getFeatureValue(arcSpanFeature);
                 governorFs = fs.getFeatureValue(governorFeature).getFeatureValue(arcSpanFeature);
@@ -256,46 +256,67 @@ public class ArcAdapter
                 governorFs = fs.getFeatureValue(governorFeature);
             }
             if (dependentFs == null || governorFs == null) {
-                log.warn("Relation [" + layer.getName() + "] with id [" + getAddr(fs)
-                        + "] has loose ends - cannot render.");
+                loose[i] = true;
                 continue;
             }
-            LinkedList<Integer> links = new LinkedList<>();
 
-            links.add(getAddr(dependentFs));
-
-            // check for the existences of links
-            for (AnnotationFS oFS : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                    lastSentenceInPage.getEnd())) {
-                FeatureStructure oDependentFs;
-                FeatureStructure oGovernorFs;
-                if (attachFeatureName != null) {
-                    oDependentFs = oFS.getFeatureValue(dependentFeature).getFeatureValue(
-                            arcSpanFeature);
-                    oGovernorFs = oFS.getFeatureValue(governorFeature).getFeatureValue(
-                            arcSpanFeature);
-                }
-                else {
-                    oDependentFs = oFS.getFeatureValue(dependentFeature);
-                    oGovernorFs = oFS.getFeatureValue(governorFeature);
-                }
+            addr[i] = getAddr(fs);
+            governorAddr[i] = getAddr(governorFs);
+            dependentAddr[i] = getAddr(dependentFs);
+            governorBegin[i] = ((AnnotationFS) governorFs).getBegin();
+            dependentBegin[i] = ((AnnotationFS) dependentFs).getBegin();
+
+            List<Integer> arcs = byGovernor.get(governorAddr[i]);
+            if (arcs == null) {
+                arcs = new ArrayList<>();
+                byGovernor.put(governorAddr[i], arcs);
+            }
+            arcs.add(i);
+        }
+
+        Map<Integer, List<Integer>> relations = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            if (loose[i]) {
+                continue;
+            }
 
-                if (((AnnotationFS) governorFs).getBegin() == ((AnnotationFS) oGovernorFs)
-                        .getBegin()
-                        && ((AnnotationFS) dependentFs).getBegin() == ((AnnotationFS) oDependentFs)
-                                .getBegin()) {
+            LinkedList<Integer> links = new LinkedList<>();
+            links.add(dependentAddr[i]);
+
+            // Follow the relations starting at a span in the yield. A relation is only added if
+            // its governor was already part of the yield when a single pass over the relations in
+            // index order would have reached it.
+            PriorityQueue<Integer> pending = new PriorityQueue<>();
+            Set<Integer> seen = new HashSet<>();
+            enqueue(byGovernor.get(dependentAddr[i]), -1, pending, seen);
+            while (!pending.isEmpty()) {
+                int o = pending.poll();
+                if (governorBegin[i] == governorBegin[o] && dependentBegin[i] == dependentBegin[o]) {
                     continue;
                 }
-                else if (links.contains(getAddr(oGovernorFs))) {
-                    links.add(getAddr(oDependentFs));
-                }
+                links.add(dependentAddr[o]);
+                enqueue(byGovernor.get(dependentAddr[o]), o, pending, seen);
             }
-            links.addFirst(getAddr(governorFs));
-            relations.put(getAddr(fs), links);
+
+            links.addFirst(governorAddr[i]);
+            relations.put(addr[i], links);
         }
         return relations;
     }
 
+    private static void enqueue(List<Integer> aArcs, int aAfter, PriorityQueue<Integer> aPending,
+            Set<Integer> aSeen)
+    {
+        if (aArcs == null) {
+            return;
+        }
+        for (int arc : aArcs) {
+            if (arc > aAfter && aSeen.add(arc)) {
+                aPending.add(arc);
+            }
+        }
+    }
+
     /**
      * Update the CAS with new/modification of arc annotations from brat
      *
@@ -209,7 +209,8 @@ public class BratAjaxCasController
         aResponse.setRtlMode(ScriptDirection.RTL.equals(aBModel.getScriptDirection()));
 
         // Render invisible baseline annotations (sentence, tokens)
-        SpanAdapter.renderTokenAndSentence(aJCas, aResponse, aBModel);
+        RenderWindow window = new RenderWindow(aJCas, aBModel);
+        SpanAdapter.renderTokenAndSentence(aJCas, aResponse, window);
 
         // Render visible (custom) layers
         Map<String[], Queue<String>> colorQueues = new HashMap<>();
@@ -235,7 +236,7 @@ public class BratAjaxCasController
             }
             features.removeAll(invisibleFeatures);
             TypeAdapter adapter = getAdapter(aAnnotationService, layer);
-            adapter.render(aJCas, features, aResponse, aBModel, coloringStrategy);
+            adapter.render(aJCas, features, aResponse, aBModel, window, coloringStrategy);
         }
     }
 
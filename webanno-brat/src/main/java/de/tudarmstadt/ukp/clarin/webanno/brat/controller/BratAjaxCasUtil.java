@@ -29,15 +29,12 @@ import java.util.List;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.uima.cas.ArrayFS;
 import org.apache.uima.cas.CAS;
-import org.apache.uima.cas.FSIterator;
 import org.apache.uima.cas.Feature;
 import org.apache.uima.cas.FeatureStructure;
 import org.apache.uima.cas.Type;
 import org.apache.uima.cas.impl.CASImpl;
 import org.apache.uima.cas.text.AnnotationFS;
-import org.apache.uima.cas.text.AnnotationIndex;
 import org.apache.uima.fit.util.CasUtil;
-import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.jcas.tcas.Annotation;
 
@@ -103,22 +100,13 @@ public class BratAjaxCasUtil
         int offset1 = Math.min(aReferenceOffset, aCompareOffset);
         int offset2 = Math.max(aReferenceOffset, aCompareOffset);
 
-        // Scanning through sentences
-        Iterator<Sentence> si = JCasUtil.iterator(aJcas, Sentence.class);
-        while (si.hasNext()) {
-            Sentence s = si.next();
-            if (s.getBegin() <= offset1 && offset1 <= s.getEnd()) {
-                return s.getBegin() <= offset2 && offset2 <= s.getEnd();
-            }
-
-            // Sentences are sorted. When we hit the first sentence that is beyond the reference
-            // offset, we will never again find a sentence that contains it.
-            if (offset1 < s.getBegin()) {
-                return false;
-            }
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        int i = si.positionOfOffset(offset1);
+        if (i < 0) {
+            return false;
         }
 
-        return false;
+        return si.getBegin(i) <= offset2 && offset2 <= si.getEnd(i);
     }
 
     public static int getAddr(FeatureStructure aFS)
@@ -269,23 +257,14 @@ public class BratAjaxCasUtil
      */
     public static int getFirstSentenceAddress(JCas aJcas)
     {
-        int firstSentenceAddress = -1;
-
-        for (Sentence selectedSentence : select(aJcas, Sentence.class)) {
-            firstSentenceAddress = getAddr(selectedSentence);
-            break;
-        }
-        return firstSentenceAddress;
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        return si.size() > 0 ? si.getAddress(0) : -1;
     }
 
     public static int getLastSentenceAddress(JCas aJcas)
     {
-        int lastSentenceAddress = -1;
-
-        for (Sentence selectedSentence : select(aJcas, Sentence.class)) {
-            lastSentenceAddress = getAddr(selectedSentence);
-        }
-        return lastSentenceAddress;
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        return si.size() > 0 ? si.getAddress(si.size() - 1) : -1;
     }
 
     /**
@@ -301,15 +280,9 @@ public class BratAjaxCasUtil
      */
     public static Sentence getCurrentSentence(JCas aJCas, int aBegin, int aEnd)
     {
-        Sentence currentSentence = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (sentence.getBegin() <= aBegin && sentence.getEnd() > aBegin
-                    && sentence.getEnd() <= aEnd) {
-                currentSentence = sentence;
-                break;
-            }
-        }
-        return currentSentence;
+        SentenceIndex si = SentenceIndex.get(aJCas);
+        int i = si.positionOfSpanStart(aBegin, aEnd);
+        return i < 0 ? null : selectByAddr(aJCas, Sentence.class, si.getAddress(i));
     }
 
     /**
@@ -321,17 +294,14 @@ public class BratAjaxCasUtil
      */
     public static Sentence getSentenceByAnnoEnd(JCas aJCas, int aEnd)
     {
-
-        int prevEnd = 0;
-        Sentence sent = null;
-        for (Sentence sentence : select(aJCas, Sentence.class)) {
-            if (prevEnd >= aEnd) {
-                return sent;
-            }
-            sent = sentence;
-            prevEnd = sent.getEnd();
+        SentenceIndex si = SentenceIndex.get(aJCas);
+        if (aEnd <= 0 || si.size() == 0) {
+            return null;
         }
-        return sent;
+
+        // The first sentence ending at or after the given offset, otherwise the last sentence
+        int i = Math.min(si.firstEndingAtOrAfter(aEnd), si.size() - 1);
+        return selectByAddr(aJCas, Sentence.class, si.getAddress(i));
     }
 
     public static Token getNextToken(JCas aJCas, int aBegin, int aEnd)
@@ -361,41 +331,31 @@ public class BratAjaxCasUtil
     public static int getLastSentenceAddressInDisplayWindow(JCas aJcas, int aFirstSentenceAddress,
             int aWindowSize)
     {
-        int count = 0;
-        FSIterator<Sentence> si = seekByAddress(aJcas, Sentence.class, aFirstSentenceAddress);
-        Sentence s = si.get();
-        while (count < aWindowSize - 1) {
-            si.moveToNext();
-            if (si.isValid()) {
-                s = si.get();
-            }
-            else {
-                break;
-            }
-            count++;
-        }
-
-        return getAddr(s);
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        int i = seekByAddress(aJcas, si, aFirstSentenceAddress);
+        return si.getAddress(Math.min(i + Math.max(aWindowSize - 1, 0), si.size() - 1));
     }
 
     /**
-     * Get an iterator position at the annotation with the specified address.
+     * Get the position of the sentence with the specified address in the sentence index. If the
+     * address does not belong to an indexed sentence, the position of the first sentence starting
+     * at or after the annotation with this address is returned.
      *
      * @param aJcas
      *            the CAS object
-     * @param aType
-     *            the expected annotation type
+     * @param aIndex
+     *            the sentence index of the CAS
      * @param aAddr
-     *            the annotationa address
-     * @return the iterator.
+     *            the annotation address
+     * @return the position.
      */
-    @SuppressWarnings({ "unchecked", "rawtypes" })
-    private static <T extends Annotation> FSIterator<T> seekByAddress(JCas aJcas, Class<T> aType,
-            int aAddr)
+    private static int seekByAddress(JCas aJcas, SentenceIndex aIndex, int aAddr)
     {
-        AnnotationIndex<T> idx = (AnnotationIndex) aJcas.getAnnotationIndex(JCasUtil
-                .getAnnotationType(aJcas, aType));
-        return idx.iterator(selectByAddr(aJcas, aAddr));
+        int i = aIndex.positionOfAddress(aAddr);
+        if (i < 0) {
+            i = aIndex.firstBeginningAtOrAfter(selectByAddr(aJcas, aAddr).getBegin());
+        }
+        return Math.min(i, aIndex.size() - 1);
     }
 
     /**
@@ -419,51 +379,24 @@ public class BratAjaxCasUtil
     public static int getSentenceBeginAddress(JCas aJcas, int aSentenceAddress, int aFocosOffset,
             Project aProject, SourceDocument aDocument, int aWindowSize)
     {
-        FSIterator<Sentence> si = seekByAddress(aJcas, Sentence.class, aSentenceAddress);
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        int current = seekByAddress(aJcas, si, aSentenceAddress);
 
         // no auto-forward for single sentence window
-        Sentence s = si.get();
         if (aWindowSize == 1) {
-            return getAddr(s);
+            return si.getAddress(current);
         }
 
-        // Seek the sentence that contains the current focus
-        while (si.isValid()) {
-            if (s.getEnd() < aFocosOffset) {
-                // Focus after current sentence
-                si.moveToNext();
-            }
-            else if (aFocosOffset < s.getBegin()) {
-                // Focus before current sentence
-                si.moveToPrevious();
-            }
-            else {
-                // Focus must be in current sentence
-                break;
-            }
-            s = si.get();
-        }
+        // Seek the sentence that contains the current focus. If the focus is behind the last
+        // sentence, use the last sentence.
+        int focus = Math.min(si.firstEndingAtOrAfter(aFocosOffset), si.size() - 1);
 
         // Center sentence
-        Sentence c = (Sentence) selectByAddr(aJcas.getCas(), aSentenceAddress);
-        Sentence n = (Sentence) selectByAddr(aJcas.getCas(), getAddr(s));
-
-        if(aWindowSize == 2 && n.getBegin()>c.getBegin()) {
-            return getAddr(s);
+        if (aWindowSize == 2 && si.getBegin(focus) > si.getBegin(current)) {
+            return si.getAddress(focus);
         }
 
-        int count = 0;
-        while (si.isValid() && count < (aWindowSize / 2)) {
-            si.moveToPrevious();
-            if (si.isValid()) {
-                s = si.get();
-
-            }
-
-            count++;
-        }
-
-        return getAddr(s);
+        return si.getAddress(Math.max(focus - aWindowSize / 2, 0));
     }
 
     /**
@@ -480,29 +413,14 @@ public class BratAjaxCasUtil
     public static int getNextPageFirstSentenceAddress(JCas aJcas, int aCurrenSentenceBeginAddress,
             int aWindowSize)
     {
-        List<Integer> beginningAddresses = getDisplayWindowBeginningSentenceAddresses(aJcas,
-                aWindowSize);
-
-        int beginningAddress = aCurrenSentenceBeginAddress;
-        for (int i = 0; i < beginningAddresses.size(); i++) {
-            if (i == beginningAddresses.size() - 1) {
-                beginningAddress = beginningAddresses.get(i);
-                break;
-            }
-
-            if (beginningAddresses.get(i) == aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i + 1);
-                break;
-            }
-
-            if ((beginningAddresses.get(i) < aCurrenSentenceBeginAddress && beginningAddresses
-                    .get(i + 1) > aCurrenSentenceBeginAddress)) {
-                beginningAddress = beginningAddresses.get(i + 1);
-                break;
-            }
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        if (si.size() == 0) {
+            return aCurrenSentenceBeginAddress;
         }
 
-        return beginningAddress;
+        int lastPage = (si.size() - 1) / aWindowSize;
+        int page = seekByAddress(aJcas, si, aCurrenSentenceBeginAddress) / aWindowSize;
+        return si.getAddress(Math.min(page + 1, lastPage) * aWindowSize);
     }
 
     /**
@@ -520,32 +438,32 @@ public class BratAjaxCasUtil
     public static int getPreviousDisplayWindowSentenceBeginAddress(JCas aJcas,
             int aCurrenSentenceBeginAddress, int aWindowSize)
     {
-        List<Integer> beginningAddresses = getDisplayWindowBeginningSentenceAddresses(aJcas,
-                aWindowSize);
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        int pages = (si.size() + aWindowSize - 1) / aWindowSize;
+        if (pages < 2) {
+            return aCurrenSentenceBeginAddress;
+        }
 
-        int beginningAddress = aCurrenSentenceBeginAddress;
-        for (int i = 0; i < beginningAddresses.size() - 1; i++) {
-            if (i == 0 && aCurrenSentenceBeginAddress >= beginningAddresses.get(i)
-                    && beginningAddresses.get(i + 1) >= aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i);
-                break;
-            }
-            if (aCurrenSentenceBeginAddress >= beginningAddresses.get(i)
-                    && beginningAddresses.get(i + 1) >= aCurrenSentenceBeginAddress) {
-                beginningAddress = beginningAddresses.get(i);
-                break;
-            }
-            beginningAddress = beginningAddresses.get(i);
+        int current = seekByAddress(aJcas, si, aCurrenSentenceBeginAddress);
+        int page = current / aWindowSize;
+        if (current % aWindowSize == 0) {
+            // At the beginning of a window, go to the previous one
+            page = Math.max(page - 1, 0);
+        }
+        else if (page == pages - 1) {
+            // Within the last window, go to the one before it
+            page = pages - 2;
         }
-        return beginningAddress;
+        return si.getAddress(page * aWindowSize);
     }
 
     public static int getLastDisplayWindowFirstSentenceAddress(JCas aJcas, int aWindowSize)
     {
-        List<Integer> displayWindowBeginingSentenceAddresses = getDisplayWindowBeginningSentenceAddresses(
-                aJcas, aWindowSize);
-        return displayWindowBeginingSentenceAddresses.get(displayWindowBeginingSentenceAddresses
-                .size() - 1);
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        if (si.size() == 0) {
+            throw new IndexOutOfBoundsException("Document contains no sentences");
+        }
+        return si.getAddress((si.size() - 1) / aWindowSize * aWindowSize);
     }
 
     /**
@@ -557,7 +475,7 @@ public class BratAjaxCasUtil
      */
     public static int getNumberOfPages(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -572,13 +490,10 @@ public class BratAjaxCasUtil
     public static List<Integer> getDisplayWindowBeginningSentenceAddresses(JCas aJcas,
             int aWindowSize)
     {
+        SentenceIndex si = SentenceIndex.get(aJcas);
         List<Integer> beginningAddresses = new ArrayList<Integer>();
-        int j = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (j % aWindowSize == 0) {
-                beginningAddresses.add(getAddr(sentence));
-            }
-            j++;
+        for (int i = 0; i < si.size(); i += aWindowSize) {
+            beginningAddresses.add(si.getAddress(i));
         }
         return beginningAddresses;
 
@@ -597,14 +512,9 @@ public class BratAjaxCasUtil
      */
     public static int getFirstSentenceNumber(JCas aJcas, int aSentenceAddress)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (getAddr(sentence) == aSentenceAddress) {
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        int i = si.positionOfAddress(aSentenceAddress);
+        return i < 0 ? si.size() : i;
 
     }
 
@@ -619,20 +529,14 @@ public class BratAjaxCasUtil
      */
     public static int getSentenceNumber(JCas aJcas, int aBeginOffset)
     {
-        int sentenceNumber = 0;
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (sentence.getBegin() <= aBeginOffset && aBeginOffset <= sentence.getEnd()) {
-                sentenceNumber++;
-                break;
-            }
-            sentenceNumber++;
-        }
-        return sentenceNumber;
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        int i = si.positionOfOffset(aBeginOffset);
+        return i < 0 ? si.size() : i + 1;
     }
 
     public static int getSentenceSize(JCas aJcas)
     {
-        return select(aJcas, Sentence.class).size();
+        return SentenceIndex.get(aJcas).size();
     }
 
     /**
@@ -646,23 +550,18 @@ public class BratAjaxCasUtil
      */
     public static int getSentenceAddress(JCas aJcas, int aSentenceNumber)
     {
-        int i = 1;
-        int address = 0;
-        if (aSentenceNumber < 1) {
+        SentenceIndex si = SentenceIndex.get(aJcas);
+        if (aSentenceNumber < 1 || si.size() == 0) {
             return 0;
         }
-        for (Sentence sentence : select(aJcas, Sentence.class)) {
-            if (i == aSentenceNumber) {
-                address = getAddr(sentence);
-                break;
-            }
-            address = getAddr(sentence);
-            i++;
+        if (aSentenceNumber <= si.size()) {
+            return si.getAddress(aSentenceNumber - 1);
         }
-        if (aSentenceNumber > i) {
-            return 0;
+        // One past the last sentence still yields the last sentence
+        if (aSentenceNumber == si.size() + 1) {
+            return si.getAddress(si.size() - 1);
         }
-        return address;
+        return 0;
     }
 
     /**
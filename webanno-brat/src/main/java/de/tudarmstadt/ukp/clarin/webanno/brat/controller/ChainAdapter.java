@@ -46,7 +46,6 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
 import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
-import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 
 /**
@@ -115,21 +114,19 @@ public class ChainAdapter
      *            A brat response containing annotations in brat protocol
      * @param aBratAnnotatorModel
      *            Data model for brat annotations
+     * @param aWindow
+     *            the display window shared by all layers rendered into the response
      * @param aColoringStrategy
      *            the coloring strategy to render this layer (ignored)
      */
     @Override
     public void render(JCas aJcas, List<AnnotationFeature> aFeatures,
             GetDocumentResponse aResponse, BratAnnotatorModel aBratAnnotatorModel,
-            ColoringStrategy aColoringStrategy)
+            RenderWindow aWindow, ColoringStrategy aColoringStrategy)
     {
         // Get begin and end offsets of window content
-        int windowBegin = BratAjaxCasUtil.selectByAddr(aJcas,
-                Sentence.class, aBratAnnotatorModel.getSentenceAddress()).getBegin();
-        int windowEnd = BratAjaxCasUtil.selectByAddr(aJcas, Sentence.class,
-                BratAjaxCasUtil.getLastSentenceAddressInDisplayWindow(aJcas,
-                        aBratAnnotatorModel.getSentenceAddress(),
-                        aBratAnnotatorModel.getPreferences().getWindowSize())).getEnd();
+        int windowBegin = aWindow.getBegin();
+        int windowEnd = aWindow.getEnd();
 
         // Find the features for the arc and span labels - it is possible that we do not find a
         // feature for arc/span labels because they may have been disabled.
@@ -148,6 +145,8 @@ public class ChainAdapter
 
         Type chainType = getAnnotationType(aJcas.getCas());
         Feature chainFirst = chainType.getFeatureByBaseName(chainFirstFeatureName);
+        Feature linkNext = null;
+        String bratTypeName = TypeUtil.getBratTypeName(this);
 
         int colorIndex = 0;
         // Iterate over the chains
@@ -165,7 +164,9 @@ public class ChainAdapter
 
             // Iterate over the links of the chain
             while (linkFs != null) {
-                Feature linkNext = linkFs.getType().getFeatureByBaseName(linkNextFeatureName);
+                if (linkNext == null) {
+                    linkNext = linkFs.getType().getFeatureByBaseName(linkNextFeatureName);
+                }
                 AnnotationFS nextLinkFs = (AnnotationFS) linkFs.getFeatureValue(linkNext);
 
                 // Is link after window? If yes, we can skip the rest of the chain
@@ -181,8 +182,6 @@ public class ChainAdapter
                     continue; // Go to next link
                 }
 
-                String bratTypeName = TypeUtil.getBratTypeName(this);
-
                 // Render span
                 {
                     String bratLabelText = TypeUtil.getBratLabelText(this, linkFs,
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectByAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectSentenceAt;
+import static org.apache.uima.fit.util.CasUtil.selectCovered;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.uima.cas.Type;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * The sentences and annotations visible in the display window during one render pass. The window
+ * is determined once and then shared by all {@link TypeAdapter}s rendering into the same response,
+ * so the sentence lookups are binary searches on the {@link SentenceIndex} and the annotations of
+ * each type within the window are only selected once.
+ */
+public class RenderWindow
+{
+    private final JCas jcas;
+    private final SentenceIndex sentences;
+    private final int firstSentence;
+    private final int lastSentence;
+    private final Map<Type, List<AnnotationFS>> annotations =
+            new HashMap<Type, List<AnnotationFS>>();
+
+    /**
+     * Determine the display window starting at the sentence currently selected in the given model.
+     *
+     * @param aJcas
+     *            the JCas.
+     * @param aBratAnnotatorModel
+     *            the annotator model.
+     */
+    public RenderWindow(JCas aJcas, BratAnnotatorModel aBratAnnotatorModel)
+    {
+        jcas = aJcas;
+        sentences = SentenceIndex.get(aJcas);
+
+        // The first sentence address in the display window!
+        Sentence first = selectSentenceAt(aJcas, aBratAnnotatorModel.getSentenceBeginOffset(),
+                aBratAnnotatorModel.getSentenceEndOffset());
+        firstSentence = sentences.positionOfAddress(getAddr(first));
+
+        // the last sentence in the display window
+        int windowSize = Math.max(aBratAnnotatorModel.getPreferences().getWindowSize(), 1);
+        lastSentence = Math.min(firstSentence + windowSize - 1, sentences.size() - 1);
+    }
+
+    /**
+     * @return the begin offset of the first sentence in the window.
+     */
+    public int getBegin()
+    {
+        return sentences.getBegin(firstSentence);
+    }
+
+    /**
+     * @return the end offset of the last sentence in the window.
+     */
+    public int getEnd()
+    {
+        return sentences.getEnd(lastSentence);
+    }
+
+    /**
+     * @return the first sentence in the window.
+     */
+    public Sentence getFirstSentence()
+    {
+        return selectByAddr(jcas, Sentence.class, sentences.getAddress(firstSentence));
+    }
+
+    /**
+     * @return the last sentence in the window.
+     */
+    public Sentence getLastSentence()
+    {
+        return selectByAddr(jcas, Sentence.class, sentences.getAddress(lastSentence));
+    }
+
+    /**
+     * @return the ordinal number of the first sentence in the window, starting at 0.
+     */
+    public int getFirstSentenceNumber()
+    {
+        return firstSentence;
+    }
+
+    /**
+     * Get the annotations of the given type which are covered by the window. The list is selected
+     * from the CAS only on the first call for each type and must not be modified.
+     *
+     * @param aType
+     *            the annotation type.
+     * @return the annotations in index order.
+     */
+    public List<AnnotationFS> select(Type aType)
+    {
+        List<AnnotationFS> result = annotations.get(aType);
+        if (result == null) {
+            result = selectCovered(jcas.getCas(), aType, getBegin(), getEnd());
+            annotations.put(aType, result);
+        }
+        return result;
+    }
+
+    /**
+     * Get the first sentence in the window which contains the given offset. The begin and end
+     * offsets of a sentence are both considered to be inside the sentence.
+     *
+     * @param aOffset
+     *            a character offset.
+     * @return the position of the sentence for use with {@link #getSentenceBegin(int)} and
+     *         {@link #getSentenceEnd(int)}, or -1 if no sentence in the window contains the offset.
+     */
+    public int getSentenceAt(int aOffset)
+    {
+        int i = sentences.positionOfOffset(aOffset);
+        if (i >= 0 && i < firstSentence) {
+            // A sentence before the window may touch the first sentence in the window
+            i = sentences.getBegin(firstSentence) <= aOffset
+                    && aOffset <= sentences.getEnd(firstSentence) ? firstSentence : -1;
+        }
+        return i > lastSentence ? -1 : i;
+    }
+
+    /**
+     * @param aSentence
+     *            the position of a sentence as returned by {@link #getSentenceAt(int)}.
+     * @return the begin offset of the sentence.
+     */
+    public int getSentenceBegin(int aSentence)
+    {
+        return sentences.getBegin(aSentence);
+    }
+
+    /**
+     * @param aSentence
+     *            the position of a sentence as returned by {@link #getSentenceAt(int)}.
+     * @return the end offset of the sentence.
+     */
+    public int getSentenceEnd(int aSentence)
+    {
+        return sentences.getEnd(aSentence);
+    }
+}
@@ -0,0 +1,327 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.uima.cas.CAS;
+import org.apache.uima.cas.FSIndex;
+import org.apache.uima.cas.FSIterator;
+import org.apache.uima.cas.text.AnnotationFS;
+import org.apache.uima.fit.util.CasUtil;
+import org.apache.uima.jcas.JCas;
+
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
+
+/**
+ * Offsets and addresses of the sentences in a CAS, kept in primitive arrays in index order so that
+ * the sentence navigation in {@link BratAjaxCasUtil} can use binary searches instead of iterating
+ * over all sentences.
+ * <p>
+ * An index is built on first use and cached per CAS. Before a cached index is returned, it is
+ * checked against the current number of sentences, the addresses of the first and last sentence
+ * and the document text. Code that replaces the sentences of a CAS without changing any of these
+ * should call {@link #invalidate(JCas)}.
+ */
+public class SentenceIndex
+{
+    private static final Map<CAS, SentenceIndex> CACHE = new WeakHashMap<CAS, SentenceIndex>();
+
+    private final String text;
+    private final int[] begins;
+    private final int[] ends;
+    private final int[] addrs;
+
+    /**
+     * Pairs of (address, position) packed into a single long and sorted by address, used to look
+     * up the position of a sentence by its address.
+     */
+    private final long[] addrToPos;
+
+    /**
+     * Whether the sentence end offsets are non-decreasing, which is the case unless sentences are
+     * nested. Offset lookups fall back to a linear scan otherwise.
+     */
+    private final boolean endsSorted;
+
+    private SentenceIndex(CAS aCas, FSIndex<AnnotationFS> aIndex)
+    {
+        int size = aIndex.size();
+        text = aCas.getDocumentText();
+        begins = new int[size];
+        ends = new int[size];
+        addrs = new int[size];
+        addrToPos = new long[size];
+
+        boolean sorted = true;
+        int i = 0;
+        FSIterator<AnnotationFS> it = aIndex.iterator();
+        while (it.isValid()) {
+            AnnotationFS s = it.get();
+            begins[i] = s.getBegin();
+            ends[i] = s.getEnd();
+            addrs[i] = BratAjaxCasUtil.getAddr(s);
+            addrToPos[i] = ((long) addrs[i] << 32) | i;
+            if (i > 0 && ends[i] < ends[i - 1]) {
+                sorted = false;
+            }
+            i++;
+            it.moveToNext();
+        }
+        Arrays.sort(addrToPos);
+        endsSorted = sorted;
+    }
+
+    /**
+     * Get the sentence index of the given CAS, building it if necessary.
+     *
+     * @param aJCas
+     *            the JCas.
+     * @return the sentence index.
+     */
+    public static SentenceIndex get(JCas aJCas)
+    {
+        CAS cas = aJCas.getCas();
+        FSIndex<AnnotationFS> index = cas.getAnnotationIndex(CasUtil.getType(cas,
+                Sentence.class));
+
+        synchronized (CACHE) {
+            SentenceIndex si = CACHE.get(cas);
+            if (si != null && si.isCurrent(cas, index)) {
+                return si;
+            }
+        }
+
+        SentenceIndex si = new SentenceIndex(cas, index);
+        synchronized (CACHE) {
+            CACHE.put(cas, si);
+        }
+        return si;
+    }
+
+    /**
+     * Drop the cached sentence index of the given CAS. It is rebuilt on next use.
+     *
+     * @param aJCas
+     *            the JCas.
+     */
+    public static void invalidate(JCas aJCas)
+    {
+        synchronized (CACHE) {
+            CACHE.remove(aJCas.getCas());
+        }
+    }
+
+    private boolean isCurrent(CAS aCas, FSIndex<AnnotationFS> aIndex)
+    {
+        if (aCas.getDocumentText() != text || aIndex.size() != addrs.length) {
+            return false;
+        }
+
+        if (addrs.length == 0) {
+            return true;
+        }
+
+        FSIterator<AnnotationFS> it = aIndex.iterator();
+        if (BratAjaxCasUtil.getAddr(it.get()) != addrs[0]) {
+            return false;
+        }
+        it.moveToLast();
+        return BratAjaxCasUtil.getAddr(it.get()) == addrs[addrs.length - 1];
+    }
+
+    /**
+     * @return the number of sentences.
+     */
+    public int size()
+    {
+        return addrs.length;
+    }
+
+    /**
+     * @param aPosition
+     *            the 0-based position of the sentence.
+     * @return the begin offset of the sentence.
+     */
+    public int getBegin(int aPosition)
+    {
+        return begins[aPosition];
+    }
+
+    /**
+     * @param aPosition
+     *            the 0-based position of the sentence.
+     * @return the end offset of the sentence.
+     */
+    public int getEnd(int aPosition)
+    {
+        return ends[aPosition];
+    }
+
+    /**
+     * @param aPosition
+     *            the 0-based position of the sentence.
+     * @return the CAS address of the sentence.
+     */
+    public int getAddress(int aPosition)
+    {
+        return addrs[aPosition];
+    }
+
+    /**
+     * Get the position of the sentence with the given address.
+     *
+     * @param aAddress
+     *            the CAS address of a sentence.
+     * @return the 0-based position of the sentence or -1 if there is no sentence with this
+     *         address.
+     */
+    public int positionOfAddress(int aAddress)
+    {
+        int lo = 0;
+        int hi = addrToPos.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int addr = (int) (addrToPos[mid] >> 32);
+            if (addr < aAddress) {
+                lo = mid + 1;
+            }
+            else if (addr > aAddress) {
+                hi = mid - 1;
+            }
+            else {
+                return (int) addrToPos[mid];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the position of the first sentence whose end offset is at or after the given offset.
+     *
+     * @param aOffset
+     *            a character offset.
+     * @return the 0-based position of the sentence or {@link #size()} if all sentences end
+     *         before the offset.
+     */
+    public int firstEndingAtOrAfter(int aOffset)
+    {
+        if (!endsSorted) {
+            for (int i = 0; i < ends.length; i++) {
+                if (ends[i] >= aOffset) {
+                    return i;
+                }
+            }
+            return ends.length;
+        }
+
+        int lo = 0;
+        int hi = ends.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < aOffset) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Get the position of the first sentence whose begin offset is at or after the given offset.
+     *
+     * @param aOffset
+     *            a character offset.
+     * @return the 0-based position of the sentence or {@link #size()} if all sentences begin
+     *         before the offset.
+     */
+    public int firstBeginningAtOrAfter(int aOffset)
+    {
+        int lo = 0;
+        int hi = begins.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (begins[mid] < aOffset) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Get the position of the first sentence containing the given offset. The begin and end
+     * offsets of a sentence are both considered to be inside the sentence.
+     *
+     * @param aOffset
+     *            a character offset.
+     * @return the 0-based position of the sentence or -1 if no sentence contains the offset.
+     */
+    public int positionOfOffset(int aOffset)
+    {
+        if (!endsSorted) {
+            for (int i = 0; i < begins.length; i++) {
+                if (begins[i] <= aOffset && aOffset <= ends[i]) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // Sentences before this one end before the offset, those after it begin no earlier
+        int i = firstEndingAtOrAfter(aOffset);
+        if (i < begins.length && begins[i] <= aOffset) {
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get the position of the first sentence which contains the given begin offset and ends after
+     * it, but not after the given end offset.
+     *
+     * @param aBegin
+     *            the begin offset.
+     * @param aEnd
+     *            the end offset.
+     * @return the 0-based position of the sentence or -1 if there is no such sentence.
+     */
+    public int positionOfSpanStart(int aBegin, int aEnd)
+    {
+        if (!endsSorted) {
+            for (int i = 0; i < begins.length; i++) {
+                if (begins[i] <= aBegin && ends[i] > aBegin && ends[i] <= aEnd) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int i = firstEndingAtOrAfter(aBegin + 1);
+        if (i < begins.length && begins[i] <= aBegin && ends[i] <= aEnd) {
+            return i;
+        }
+        return -1;
+    }
+}
@@ -19,12 +19,9 @@ package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getFeature;
-import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getFirstSentenceNumber;
-import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getLastSentenceAddressInDisplayWindow;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.isSameSentence;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectByAddr;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectOverlapping;
-import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.selectSentenceAt;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.setFeature;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.util.CasUtil.getType;
@@ -175,68 +172,44 @@ public class SpanAdapter
      *            A brat response containing annotations in brat protocol
      * @param aBratAnnotatorModel
      *            Data model for brat annotations
+     * @param aWindow
+     *            the display window shared by all layers rendered into the response
      * @param aColoringStrategy
      *            the coloring strategy to render this layer
      */
     @Override
     public void render(JCas aJcas, List<AnnotationFeature> aFeatures,
             GetDocumentResponse aResponse, BratAnnotatorModel aBratAnnotatorModel,
-            ColoringStrategy aColoringStrategy)
+            RenderWindow aWindow, ColoringStrategy aColoringStrategy)
     {
-        // The first sentence address in the display window!
-        Sentence firstSentence = selectSentenceAt(aJcas,
-                aBratAnnotatorModel.getSentenceBeginOffset(),
-                aBratAnnotatorModel.getSentenceEndOffset());
-
-        int lastAddressInPage = getLastSentenceAddressInDisplayWindow(aJcas,
-                getAddr(firstSentence), aBratAnnotatorModel.getPreferences().getWindowSize());
-
-        // the last sentence address in the display window
-        Sentence lastSentenceInPage = (Sentence) selectByAddr(aJcas, FeatureStructure.class,
-                lastAddressInPage);
-
         Type type = getType(aJcas.getCas(), getAnnotationTypeName());
-        int aFirstSentenceOffset = firstSentence.getBegin();
+        int aFirstSentenceOffset = aWindow.getBegin();
+        String bratTypeName = TypeUtil.getBratTypeName(this);
 
-        for (AnnotationFS fs : selectCovered(aJcas.getCas(), type, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
-            String bratTypeName = TypeUtil.getBratTypeName(this);
+        for (AnnotationFS fs : aWindow.select(type)) {
             String bratLabelText = TypeUtil.getBratLabelText(this, fs, aFeatures);
             String color = aColoringStrategy.getColor(fs, bratLabelText);
 
-            Sentence beginSent = null, endSent = null;
             // check if annotation spans multiple sentence
-            for (Sentence sentence : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                    lastSentenceInPage.getEnd())) {
-                if (sentence.getBegin() <= fs.getBegin() && fs.getBegin() <= sentence.getEnd()) {
-                    beginSent = sentence;
-                    break;
-                }
-            }
-            for (Sentence sentence : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                    lastSentenceInPage.getEnd())) {
-                if (sentence.getBegin() <= fs.getEnd() && fs.getEnd() <= sentence.getEnd()) {
-                    endSent = sentence;
-                    break;
-                }
-            }
-
-            List<Sentence> sentences = selectCovered(aJcas, Sentence.class, beginSent.getBegin(),
-                    endSent.getEnd());
-            List<Offsets> offsets = new ArrayList<Offsets>();
-            if (sentences.size() > 1) {
-                for (Sentence sentence : sentences) {
-                    if (sentence.getBegin() <= fs.getBegin() && fs.getBegin() <= sentence.getEnd()) {
-                        offsets.add(new Offsets(fs.getBegin() - aFirstSentenceOffset, sentence
-                                .getEnd() - aFirstSentenceOffset));
+            int beginSent = aWindow.getSentenceAt(fs.getBegin());
+            int endSent = aWindow.getSentenceAt(fs.getEnd());
+
+            if (beginSent >= 0 && endSent > beginSent) {
+                List<Offsets> offsets = new ArrayList<Offsets>();
+                for (int s = beginSent; s <= endSent; s++) {
+                    int sentBegin = aWindow.getSentenceBegin(s);
+                    int sentEnd = aWindow.getSentenceEnd(s);
+                    if (sentBegin <= fs.getBegin() && fs.getBegin() <= sentEnd) {
+                        offsets.add(new Offsets(fs.getBegin() - aFirstSentenceOffset, sentEnd
+                                - aFirstSentenceOffset));
                     }
-                    else if (sentence.getBegin() <= fs.getEnd() && fs.getEnd() <= sentence.getEnd()) {
-                        offsets.add(new Offsets(sentence.getBegin() - aFirstSentenceOffset, fs
-                                .getEnd() - aFirstSentenceOffset));
+                    else if (sentBegin <= fs.getEnd() && fs.getEnd() <= sentEnd) {
+                        offsets.add(new Offsets(sentBegin - aFirstSentenceOffset, fs.getEnd()
+                                - aFirstSentenceOffset));
                     }
                     else {
-                        offsets.add(new Offsets(sentence.getBegin() - aFirstSentenceOffset,
-                                sentence.getEnd() - aFirstSentenceOffset));
+                        offsets.add(new Offsets(sentBegin - aFirstSentenceOffset, sentEnd
+                                - aFirstSentenceOffset));
                     }
                 }
                 aResponse.addEntity(new Entity(getAddr(fs), bratTypeName, offsets, bratLabelText,
@@ -283,26 +256,18 @@ public class SpanAdapter
     public static void renderTokenAndSentence(JCas aJcas, GetDocumentResponse aResponse,
             BratAnnotatorModel aBratAnnotatorModel)
     {
-        // The first sentence address in the display window!
-        Sentence firstSentence = selectSentenceAt(aJcas,
-                aBratAnnotatorModel.getSentenceBeginOffset(),
-                aBratAnnotatorModel.getSentenceEndOffset());
-
-        int lastAddressInPage = getLastSentenceAddressInDisplayWindow(aJcas,
-                getAddr(firstSentence), aBratAnnotatorModel.getPreferences().getWindowSize());
-
-        // the last sentence address in the display window
-        Sentence lastSentenceInPage = (Sentence) selectByAddr(aJcas, FeatureStructure.class,
-                lastAddressInPage);
+        renderTokenAndSentence(aJcas, aResponse, new RenderWindow(aJcas, aBratAnnotatorModel));
+    }
 
-        int sentenceNumber = getFirstSentenceNumber(aJcas, getAddr(firstSentence));
-        aResponse.setSentenceNumberOffset(sentenceNumber);
+    public static void renderTokenAndSentence(JCas aJcas, GetDocumentResponse aResponse,
+            RenderWindow aWindow)
+    {
+        aResponse.setSentenceNumberOffset(aWindow.getFirstSentenceNumber());
 
-        int aFirstSentenceOffset = firstSentence.getBegin();
+        int aFirstSentenceOffset = aWindow.getBegin();
 
         // Render token + texts
-        for (AnnotationFS fs : selectCovered(aJcas, Token.class, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        for (AnnotationFS fs : aWindow.select(getType(aJcas.getCas(), Token.class))) {
             // attache type such as POS adds non existing token element for ellipsis annotation
             if (fs.getBegin() == fs.getEnd()) {
                 continue;
@@ -311,11 +276,10 @@ public class SpanAdapter
                     - aFirstSentenceOffset);
         }
         aResponse.setText(aJcas.getDocumentText().substring(aFirstSentenceOffset,
-                lastSentenceInPage.getEnd()));
+                aWindow.getEnd()));
 
         // Render Sentence
-        for (AnnotationFS fs : selectCovered(aJcas, Sentence.class, firstSentence.getBegin(),
-                lastSentenceInPage.getEnd())) {
+        for (AnnotationFS fs : aWindow.select(getType(aJcas.getCas(), Sentence.class))) {
             aResponse.addSentence(fs.getBegin() - aFirstSentenceOffset, fs.getEnd()
                     - aFirstSentenceOffset);
         }
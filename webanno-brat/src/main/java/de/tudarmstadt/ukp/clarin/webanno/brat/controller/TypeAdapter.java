@@ -60,11 +60,14 @@ public interface TypeAdapter
      *            A brat response containing annotations in brat protocol
      * @param aBratAnnotatorModel
      *            Data model for brat annotations
+     * @param aWindow
+     *            the display window shared by all layers rendered into the response
      * @param aColoringStrategy
      *            the  coloring strategy to render this layer
      */
     void render(JCas aJcas, List<AnnotationFeature> features, GetDocumentResponse aResponse,
-            BratAnnotatorModel aBratAnnotatorModel, ColoringStrategy aColoringStrategy);
+            BratAnnotatorModel aBratAnnotatorModel, RenderWindow aWindow,
+            ColoringStrategy aColoringStrategy);
 
     /**
      * The ID of the type.
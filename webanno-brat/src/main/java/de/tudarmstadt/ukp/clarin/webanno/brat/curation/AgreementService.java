@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import java.util.Collection;
+
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+
+/**
+ * Maintains the inter-annotator agreement of the finished annotation documents. The agreement
+ * counts and the coded values are stored per document, feature and pair of annotators, so that
+ * the agreement for a whole project can be assembled without loading any CASes.
+ */
+public interface AgreementService
+{
+    /**
+     * Re-compute the stored agreement data for the given document from the finished annotation
+     * documents. This is done automatically in the background when an annotation document is
+     * saved.
+     *
+     * @param aDocument
+     *            the source document.
+     */
+    void updateAgreement(SourceDocument aDocument);
+
+    /**
+     * Get the pairwise Cohen's kappa agreement for the given feature over all documents of the
+     * project. Documents whose stored agreement data is missing or outdated are queued for an
+     * update in the background and left out of the result. Their number is reported by
+     * {@link PairwiseAnnotationResult#getPendingDocumentCount()}.
+     *
+     * @param aFeature
+     *            the feature.
+     * @param aRaters
+     *            the users to compare.
+     * @return the agreement for each pair of users.
+     */
+    PairwiseAnnotationResult getPairwiseAgreement(AnnotationFeature aFeature,
+            Collection<String> aRaters);
+}
@@ -0,0 +1,552 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.curation;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Resource;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.uima.UIMAException;
+import org.apache.uima.jcas.JCas;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasLoaderService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService.AnnotationDocumentListener;
+import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AgreementUtils.AgreementResult;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.model.AgreementSummary;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
+import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
+import de.tudarmstadt.ukp.clarin.webanno.model.Project;
+import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
+import de.tudarmstadt.ukp.dkpro.statistics.agreement.IAnnotationUnit;
+import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.CodingAnnotationStudy;
+import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.ICodingAnnotationItem;
+
+/**
+ * Stores the agreement data of each document as {@link AgreementSummary} rows. For every
+ * feature, there is one row per document recording the annotators whose finished documents were
+ * compared and the number of configuration sets, plus one row per pair of annotators with the
+ * agreement counts and the coded values of the complete sets.
+ * <p>
+ * When an annotation document is saved, its source document is queued for re-computation on a
+ * background thread. Additionally, the stored data is checked against the finished annotation
+ * documents before it is used, so that documents which were finished before this service existed
+ * or whose update failed are picked up as well. Such documents are queued the same way and left
+ * out of the result until their update is done, so no CAS is ever loaded on the request thread.
+ */
+public class AgreementServiceImpl
+    implements AgreementService, InitializingBean, DisposableBean
+{
+    private final Log log = LogFactory.getLog(getClass());
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    @Resource(name = "documentRepository")
+    private RepositoryService repository;
+
+    @Resource(name = "annotationService")
+    private AnnotationService annotationService;
+
+    @Resource(name = "casLoader")
+    private CasLoaderService casLoader;
+
+    @Resource(name = "transactionManager")
+    private PlatformTransactionManager transactionManager;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private ExecutorService executor;
+
+    private final Set<Long> pending = new HashSet<Long>();
+
+    @Override
+    public void afterPropertiesSet()
+    {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable aRunnable)
+            {
+                Thread thread = new Thread(aRunnable, "webanno-agreement");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        repository.addAnnotationDocumentListener(new AnnotationDocumentListener()
+        {
+            @Override
+            public void annotationDocumentSaved(AnnotationDocument aAnnotationDocument)
+            {
+                schedule(aAnnotationDocument.getDocument());
+            }
+        });
+    }
+
+    @Override
+    public void destroy()
+    {
+        executor.shutdownNow();
+    }
+
+    private void schedule(final SourceDocument aDocument)
+    {
+        if (aDocument.isTrainingDocument()) {
+            return;
+        }
+
+        synchronized (pending) {
+            // The document is already queued - the queued update will see the latest state
+            if (!pending.add(aDocument.getId())) {
+                return;
+            }
+        }
+
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (pending) {
+                    pending.remove(aDocument.getId());
+                }
+
+                try {
+                    if (isStale(aDocument)) {
+                        updateAgreement(aDocument);
+                    }
+                }
+                catch (Exception e) {
+                    log.error("Unable to update agreement of document [" + aDocument.getName()
+                            + "]", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void updateAgreement(final SourceDocument aDocument)
+    {
+        List<AnnotationDocument> finished = listFinishedAnnotationDocuments(aDocument);
+
+        final List<AgreementSummary> summaries;
+        if (finished.isEmpty() || aDocument.isTrainingDocument()) {
+            summaries = Collections.emptyList();
+        }
+        else {
+            try {
+                summaries = computeAgreement(aDocument, finished);
+            }
+            catch (IOException | UIMAException e) {
+                // Leave the stored data alone. Since it does not match the finished documents,
+                // the update is retried the next time the agreement is requested.
+                log.error("Unable to load annotations of document [" + aDocument.getName()
+                        + "]", e);
+                return;
+            }
+        }
+
+        transactionTemplate.execute(new TransactionCallbackWithoutResult()
+        {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus aStatus)
+            {
+                entityManager
+                        .createQuery("DELETE FROM AgreementSummary WHERE document = :document")
+                        .setParameter("document", aDocument).executeUpdate();
+                for (AgreementSummary summary : summaries) {
+                    entityManager.persist(summary);
+                }
+            }
+        });
+    }
+
+    @Override
+    public PairwiseAnnotationResult getPairwiseAgreement(AnnotationFeature aFeature,
+            Collection<String> aRaters)
+    {
+        Set<Long> stale = scheduleStale(aFeature);
+
+        List<AgreementSummary> summaries = entityManager
+                .createQuery("FROM AgreementSummary WHERE feature = :feature",
+                        AgreementSummary.class).setParameter("feature", aFeature)
+                .getResultList();
+
+        // Number of configuration sets per document and pair results per pair and document
+        Map<Long, Integer> totals = new TreeMap<Long, Integer>();
+        Map<List<String>, Map<Long, AgreementSummary>> pairs = new HashMap<List<String>,
+                Map<Long, AgreementSummary>>();
+        for (AgreementSummary summary : summaries) {
+            long documentId = summary.getDocument().getId();
+            if (stale.contains(documentId)) {
+                continue;
+            }
+            if (summary.getUser1() == null) {
+                totals.put(documentId, summary.getTotalSets());
+            }
+            else {
+                List<String> pair = asList(summary.getUser1(), summary.getUser2());
+                Map<Long, AgreementSummary> byDocument = pairs.get(pair);
+                if (byDocument == null) {
+                    byDocument = new HashMap<Long, AgreementSummary>();
+                    pairs.put(pair, byDocument);
+                }
+                byDocument.put(documentId, summary);
+            }
+        }
+
+        String type = aFeature.getLayer().getName();
+        List<String> raters = new ArrayList<String>(new TreeSet<String>(aRaters));
+        PairwiseAnnotationResult result = new PairwiseAnnotationResult();
+        result.setPendingDocumentCount(stale.size());
+        for (int m = 0; m < raters.size(); m++) {
+            for (int n = m + 1; n < raters.size(); n++) {
+                Map<Long, AgreementSummary> byDocument = pairs.get(asList(raters.get(m),
+                        raters.get(n)));
+                if (byDocument == null) {
+                    byDocument = Collections.emptyMap();
+                }
+
+                CodingAnnotationStudy study = new CodingAnnotationStudy(2);
+                int total = 0;
+                int diffs = 0;
+                int incompleteByPosition = 0;
+                int incompleteByLabel = 0;
+                int plurality = 0;
+                for (Entry<Long, Integer> e : totals.entrySet()) {
+                    total += e.getValue();
+
+                    AgreementSummary summary = byDocument.get(e.getKey());
+                    if (summary == null) {
+                        // At least one of the two did not finish the document, so none of its
+                        // configuration sets is complete
+                        incompleteByPosition += e.getValue();
+                        continue;
+                    }
+
+                    diffs += summary.getDifferingSets();
+                    incompleteByPosition += summary.getIncompleteSetsByPosition();
+                    incompleteByLabel += summary.getIncompleteSetsByLabel();
+                    plurality += summary.getPluralitySets();
+                    for (List<Object> coding : decodeCodings(summary.getCodings())) {
+                        int count = ((Number) coding.get(2)).intValue();
+                        for (int i = 0; i < count; i++) {
+                            study.addItemAsArray(new Object[] { coding.get(0), coding.get(1) });
+                        }
+                    }
+                }
+
+                result.add(raters.get(m), raters.get(n), AgreementUtils.getCohenKappaAgreement(
+                        type, aFeature.getName(), study, total, diffs, incompleteByPosition,
+                        incompleteByLabel, plurality));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Queue the documents for which the stored data of the given feature does not match the
+     * finished annotation documents for an update in the background.
+     *
+     * @return the IDs of these documents.
+     */
+    private Set<Long> scheduleStale(AnnotationFeature aFeature)
+    {
+        Project project = aFeature.getProject();
+
+        Map<SourceDocument, Set<String>> finished = new HashMap<SourceDocument, Set<String>>();
+        for (AnnotationDocument annotationDocument : repository
+                .listFinishedAnnotationDocuments(project)) {
+            SourceDocument document = annotationDocument.getDocument();
+            if (document.isTrainingDocument()) {
+                continue;
+            }
+            Set<String> users = finished.get(document);
+            if (users == null) {
+                users = new TreeSet<String>();
+                finished.put(document, users);
+            }
+            users.add(annotationDocument.getUser());
+        }
+
+        Map<SourceDocument, String> stored = new HashMap<SourceDocument, String>();
+        for (AgreementSummary summary : entityManager
+                .createQuery("FROM AgreementSummary WHERE feature = :feature AND user1 IS NULL",
+                        AgreementSummary.class).setParameter("feature", aFeature)
+                .getResultList()) {
+            stored.put(summary.getDocument(), summary.getUsers());
+        }
+
+        Set<Long> stale = new HashSet<Long>();
+        for (Entry<SourceDocument, Set<String>> e : finished.entrySet()) {
+            if (!encodeUsers(e.getValue()).equals(stored.remove(e.getKey()))) {
+                stale.add(e.getKey().getId());
+                schedule(e.getKey());
+            }
+        }
+
+        // Nobody has finished these documents anymore
+        for (SourceDocument document : stored.keySet()) {
+            stale.add(document.getId());
+            schedule(document);
+        }
+
+        if (!stale.isEmpty()) {
+            log.info("Agreement of " + stale.size() + " documents of project ["
+                    + project.getId() + "] is outdated - updating in the background");
+        }
+        return stale;
+    }
+
+    /**
+     * Check if the stored data of the given document does not match its finished annotation
+     * documents or misses any of the features.
+     */
+    private boolean isStale(SourceDocument aDocument)
+    {
+        Set<String> users = new TreeSet<String>();
+        for (AnnotationDocument annotationDocument : listFinishedAnnotationDocuments(aDocument)) {
+            users.add(annotationDocument.getUser());
+        }
+
+        List<AgreementSummary> summaries = entityManager
+                .createQuery("FROM AgreementSummary WHERE document = :document AND user1 IS NULL",
+                        AgreementSummary.class).setParameter("document", aDocument)
+                .getResultList();
+
+        if (users.isEmpty()) {
+            return !summaries.isEmpty();
+        }
+
+        String encodedUsers = encodeUsers(users);
+        Set<Long> features = new HashSet<Long>();
+        for (AgreementSummary summary : summaries) {
+            if (!encodedUsers.equals(summary.getUsers())) {
+                return true;
+            }
+            features.add(summary.getFeature().getId());
+        }
+
+        for (AnnotationFeature feature : listFeatures(aDocument.getProject())) {
+            if (!features.contains(feature.getId())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private List<AgreementSummary> computeAgreement(SourceDocument aDocument,
+            List<AnnotationDocument> aFinished)
+        throws IOException, UIMAException
+    {
+        Map<AnnotationDocument, JCas> cases = casLoader.readAnnotationCases(aFinished);
+
+        // Sorting the users here makes sure that the first user of every pair is the
+        // lexicographically smaller one
+        Map<String, List<JCas>> casMap = new TreeMap<String, List<JCas>>();
+        for (Entry<AnnotationDocument, JCas> e : cases.entrySet()) {
+            repository.upgradeCas(e.getValue().getCas(), e.getKey());
+            casMap.put(e.getKey().getUser(), asList(e.getValue()));
+        }
+        String encodedUsers = encodeUsers(casMap.keySet());
+        List<String> users = new ArrayList<String>(casMap.keySet());
+
+        Map<String, List<AnnotationFeature>> featuresByLayer = new LinkedHashMap<String,
+                List<AnnotationFeature>>();
+        for (AnnotationFeature feature : listFeatures(aDocument.getProject())) {
+            List<AnnotationFeature> features = featuresByLayer.get(feature.getLayer().getName());
+            if (features == null) {
+                features = new ArrayList<AnnotationFeature>();
+                featuresByLayer.put(feature.getLayer().getName(), features);
+            }
+            features.add(feature);
+        }
+
+        List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
+                aDocument.getProject());
+
+        List<AgreementSummary> summaries = new ArrayList<AgreementSummary>();
+        for (Entry<String, List<AnnotationFeature>> e : featuresByLayer.entrySet()) {
+            DiffResult diff = CasDiff2.doDiff(asList(e.getKey()), adapters, casMap);
+
+            for (AnnotationFeature feature : e.getValue()) {
+                AgreementSummary documentSummary = new AgreementSummary();
+                documentSummary.setDocument(aDocument);
+                documentSummary.setFeature(feature);
+                documentSummary.setUsers(encodedUsers);
+                documentSummary.setTotalSets(diff.getPositions().size());
+                summaries.add(documentSummary);
+
+                List<AgreementSummary> pairSummaries = new ArrayList<AgreementSummary>();
+                try {
+                    // Extract the labels of all users once and make the pairwise studies from them
+                    AgreementUtils.LabelMatrix labels = AgreementUtils.extractLabels(diff,
+                            e.getKey(), feature.getName(), casMap);
+                    for (int m = 0; m < users.size(); m++) {
+                        for (int n = m + 1; n < users.size(); n++) {
+                            AgreementResult result = labels.makeStudy(users.get(m),
+                                    users.get(n));
+                            pairSummaries.add(makePairSummary(aDocument, feature, users.get(m),
+                                    users.get(n), result));
+                        }
+                    }
+                }
+                catch (RuntimeException ex) {
+                    // Without pair data, the sets of the document count as incomplete
+                    log.error("Unable to calculate agreement on feature [" + feature.getName()
+                            + "] of document [" + aDocument.getName() + "]", ex);
+                    continue;
+                }
+                summaries.addAll(pairSummaries);
+            }
+        }
+
+        return summaries;
+    }
+
+    private AgreementSummary makePairSummary(SourceDocument aDocument,
+            AnnotationFeature aFeature, String aUser1, String aUser2, AgreementResult aResult)
+        throws IOException
+    {
+        // Identical codings are stored only once together with their number of occurrences
+        Map<List<Object>, Integer> codings = new LinkedHashMap<List<Object>, Integer>();
+        for (ICodingAnnotationItem item : aResult.getStudy().getItems()) {
+            List<Object> values = new ArrayList<Object>();
+            for (IAnnotationUnit unit : item.getUnits()) {
+                values.add(unit.getCategory());
+            }
+            Integer count = codings.get(values);
+            codings.put(values, count == null ? 1 : count + 1);
+        }
+
+        List<List<Object>> encodedCodings = new ArrayList<List<Object>>();
+        for (Entry<List<Object>, Integer> e : codings.entrySet()) {
+            List<Object> coding = new ArrayList<Object>(e.getKey());
+            coding.add(e.getValue());
+            encodedCodings.add(coding);
+        }
+
+        AgreementSummary summary = new AgreementSummary();
+        summary.setDocument(aDocument);
+        summary.setFeature(aFeature);
+        summary.setUser1(aUser1);
+        summary.setUser2(aUser2);
+        summary.setTotalSets(aResult.getTotalSetCount());
+        summary.setCompleteSets(aResult.getStudy().getItemCount());
+        summary.setDifferingSets(aResult.getDiffSetCount());
+        summary.setIncompleteSetsByPosition(aResult.getIncompleteSetByPositionCount());
+        summary.setIncompleteSetsByLabel(aResult.getIncompleteSetByLabelCount());
+        summary.setPluralitySets(aResult.getPluralitySetCount());
+        summary.setCodings(JSON.writeValueAsString(encodedCodings));
+        return summary;
+    }
+
+    private List<AnnotationDocument> listFinishedAnnotationDocuments(SourceDocument aDocument)
+    {
+        List<AnnotationDocument> finished = new ArrayList<AnnotationDocument>();
+        for (AnnotationDocument annotationDocument : repository
+                .listAnnotationDocuments(aDocument)) {
+            if (AnnotationDocumentState.FINISHED.equals(annotationDocument.getState())) {
+                finished.add(annotationDocument);
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * The features for which agreement can be calculated. This must be kept in sync with the
+     * features offered on the monitoring page.
+     */
+    private List<AnnotationFeature> listFeatures(Project aProject)
+    {
+        List<AnnotationFeature> features = new ArrayList<AnnotationFeature>();
+        for (AnnotationFeature feature : annotationService.listAnnotationFeature(aProject)) {
+            String layer = feature.getLayer().getName();
+            if (!layer.equals(Token.class.getName())
+                    && !layer.equals(WebAnnoConst.COREFERENCE_LAYER)) {
+                features.add(feature);
+            }
+        }
+        return features;
+    }
+
+    private static String encodeUsers(Collection<String> aUsers)
+    {
+        try {
+            return JSON.writeValueAsString(new TreeSet<String>(aUsers));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<List<Object>> decodeCodings(String aCodings)
+    {
+        if (aCodings == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return JSON.readValue(aCodings, new TypeReference<List<List<Object>>>() {});
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
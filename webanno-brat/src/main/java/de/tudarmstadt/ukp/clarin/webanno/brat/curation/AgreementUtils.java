@@ -23,10 +23,12 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
@@ -48,26 +50,85 @@ import de.tudarmstadt.ukp.dkpro.statistics.agreement.coding.ICodingAnnotationStu
 
 public class AgreementUtils
 {
+    /**
+     * Pool on which the pairwise agreements are calculated. Its worker threads are daemon threads.
+     */
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    
+    // Markers in the label matrix for users whose annotation cannot be used for a set
+    private static final Object INCOMPLETE_BY_POSITION = new Object();
+    private static final Object INCOMPLETE_BY_LABEL = new Object();
+    private static final Object PLURALITY = new Object();
+    private static final Object IRRELEVANT = new Object();
+    
+    /**
+     * Calculate the agreement between all pairs of users. The labels are extracted from the diff
+     * only once and the agreement of the pairs is then calculated in parallel. The result is cached
+     * in the diff, so the result object must not be modified.
+     */
     public static PairwiseAnnotationResult getPairwiseCohenKappaAgreement(DiffResult aDiff,
             String aType, String aFeature, Map<String, List<JCas>> aCasMap)
     {
-        PairwiseAnnotationResult result = new PairwiseAnnotationResult();
-        List<Entry<String, List<JCas>>> entryList = new ArrayList<>(aCasMap.entrySet());
-        for (int m = 0; m < entryList.size(); m++) {
-            for (int n = 0; n < entryList.size(); n++) {
+        String key = aType + "|" + aFeature + "|" + aCasMap.keySet();
+        PairwiseAnnotationResult result = aDiff.getPairwiseAgreementCache().get(key);
+        if (result != null) {
+            return result;
+        }
+        
+        final LabelMatrix matrix = extractLabels(aDiff, aType, aFeature, aCasMap);
+        List<String> users = matrix.getUsers();
+        List<Callable<AgreementResult>> tasks = new ArrayList<>();
+        for (int m = 0; m < users.size(); m++) {
+            for (int n = 0; n < m; n++) {
                 // Triangle matrix mirrored
-                if (n < m) {
-                    Map<String, List<JCas>> pairwiseCasMap = new LinkedHashMap<>();
-                    pairwiseCasMap.put(entryList.get(m).getKey(), entryList.get(m).getValue());
-                    pairwiseCasMap.put(entryList.get(n).getKey(), entryList.get(n).getValue());
-                    AgreementResult res = getCohenKappaAgreement(aDiff, aType, aFeature,
-                            pairwiseCasMap);
-                    result.add(entryList.get(m).getKey(), entryList.get(n).getKey(), res);
-                }
+                final String user1 = users.get(m);
+                final String user2 = users.get(n);
+                tasks.add(new Callable<AgreementResult>()
+                {
+                    @Override
+                    public AgreementResult call()
+                    {
+                        return calculateCohenKappaAgreement(matrix.makeStudy(user1, user2));
+                    }
+                });
+            }
+        }
+        
+        List<AgreementResult> results = invokeAll(tasks);
+        
+        result = new PairwiseAnnotationResult();
+        int i = 0;
+        for (int m = 0; m < users.size(); m++) {
+            for (int n = 0; n < m; n++) {
+                result.add(users.get(m), users.get(n), results.get(i));
+                i++;
             }
         }
+        
+        aDiff.getPairwiseAgreementCache().put(key, result);
         return result;
     }
+    
+    private static <T> List<T> invokeAll(List<Callable<T>> aTasks)
+    {
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : POOL.invokeAll(aTasks)) {
+                results.add(future.get());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while calculating agreement", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        return results;
+    }
 
     public static AgreementResult getCohenKappaAgreement(DiffResult aDiff, String aType,
             String aFeature, Map<String, List<JCas>> aCasMap)
@@ -77,6 +138,26 @@ public class AgreementUtils
         }
         
         AgreementResult agreementResult = AgreementUtils.makeStudy(aDiff, aType, aFeature, aCasMap);
+        return calculateCohenKappaAgreement(agreementResult);
+    }
+
+    /**
+     * Calculate the agreement from counts which have been collected before, e.g. from the
+     * pre-computed agreement of individual documents. Since there is no diff, the result does
+     * not provide the configuration sets, only their number.
+     */
+    public static AgreementResult getCohenKappaAgreement(String aType, String aFeature,
+            ICodingAnnotationStudy aStudy, int aTotalSetCount, int aDiffSetCount,
+            int aIncompleteByPositionCount, int aIncompleteByLabelCount, int aPluralitySetCount)
+    {
+        AgreementResult agreementResult = new AgreementResult(aType, aFeature, aStudy,
+                aTotalSetCount, aDiffSetCount, aIncompleteByPositionCount,
+                aIncompleteByLabelCount, aPluralitySetCount);
+        return calculateCohenKappaAgreement(agreementResult);
+    }
+
+    private static AgreementResult calculateCohenKappaAgreement(AgreementResult agreementResult)
+    {
         try {
             IAgreementMeasure agreement = new CohenKappaAgreement(agreementResult.study);
             if (agreementResult.study.getItemCount() > 0) {
@@ -95,7 +176,7 @@ public class AgreementUtils
         }
     }
     
-    private static AgreementResult makeStudy(DiffResult aDiff, String aType, String aFeature,
+    static AgreementResult makeStudy(DiffResult aDiff, String aType, String aFeature,
             Map<String, List<JCas>> aCasMap)
     {
         return makeStudy(aDiff, aCasMap.keySet(), aType, aFeature, aCasMap);
@@ -104,87 +185,171 @@ public class AgreementUtils
     private static AgreementResult makeStudy(DiffResult aDiff, Collection<String> aUsers,
             String aType, String aFeature, Map<String, List<JCas>> aCasMap)
     {
-        List<ConfigurationSet> completeSets = new ArrayList<>();
-        List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
-        List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
-        List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
-        List<ConfigurationSet> pluralitySets = new ArrayList<>();
-        CodingAnnotationStudy study = new CodingAnnotationStudy(aUsers.size());
-        nextPosition: for (Position p : aDiff.getPositions()) {
-            ConfigurationSet cfgSet = aDiff.getConfigurtionSet(p);
-
-            // Only calculate agreement for the given type
-            if (!cfgSet.getPosition().getType().equals(aType)) {
-                continue;
-            }
+        LabelMatrix matrix = new LabelMatrix(aDiff, aUsers, aType, aFeature, aCasMap);
+        return matrix.makeStudy(aUsers.toArray(new String[aUsers.size()]));
+    }
+    
+    /**
+     * Extract the labels of all users in the given CAS map for the given type and feature.
+     */
+    static LabelMatrix extractLabels(DiffResult aDiff, String aType, String aFeature,
+            Map<String, List<JCas>> aCasMap)
+    {
+        return new LabelMatrix(aDiff, aCasMap.keySet(), aType, aFeature, aCasMap);
+    }
+    
+    /**
+     * The labels of all users for all configuration sets of a type, extracted from the diff in a
+     * single pass. Studies for any subset of the users can be made from this without accessing the
+     * CASes again. Once created, the matrix is only read, so studies can be made concurrently.
+     */
+    static class LabelMatrix
+    {
+        private final DiffResult diff;
+        private final String type;
+        private final String feature;
+        private final List<String> users;
+        private final List<ConfigurationSet> sets = new ArrayList<>();
+        // For each set the label of each user, or one of the markers
+        private final List<Object[]> labels = new ArrayList<>();
+        
+        private LabelMatrix(DiffResult aDiff, Collection<String> aUsers, String aType,
+                String aFeature, Map<String, List<JCas>> aCasMap)
+        {
+            diff = aDiff;
+            type = aType;
+            feature = aFeature;
+            users = Collections.unmodifiableList(new ArrayList<>(aUsers));
             
-            Object[] values = new Object[aUsers.size()];
-            int i = 0;
-            for (String user : aUsers) {
-                // Set has to include all users, otherwise we cannot calculate the agreement for
-                // this configuration set.
-                if (!cfgSet.getCasGroupIds().contains(user)) {
-                    incompleteSetsByPosition.add(cfgSet);
-                    continue nextPosition;
+            for (Position p : aDiff.getPositions()) {
+                ConfigurationSet cfgSet = aDiff.getConfigurtionSet(p);
+                
+                // Only calculate agreement for the given type
+                if (!cfgSet.getPosition().getType().equals(aType)) {
+                    continue;
                 }
                 
-                // Make sure a single user didn't do multiple alternative annotations at a single
-                // position. So there is currently no support for calculating agreement on stacking
-                // annotations.
-                List<Configuration> cfgs = cfgSet.getConfigurations(user);
-                if (cfgs.size() > 1) {
-                    pluralitySets.add(cfgSet);
-                    continue nextPosition;
+                Object[] row = new Object[users.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = getLabel(cfgSet, users.get(i), aFeature, aCasMap);
                 }
+                sets.add(cfgSet);
+                labels.add(row);
+            }
+        }
+        
+        private static Object getLabel(ConfigurationSet aCfgSet, String aUser, String aFeature,
+                Map<String, List<JCas>> aCasMap)
+        {
+            // Set has to include all users, otherwise we cannot calculate the agreement for
+            // this configuration set.
+            if (!aCfgSet.getCasGroupIds().contains(aUser)) {
+                return INCOMPLETE_BY_POSITION;
+            }
+            
+            // Make sure a single user didn't do multiple alternative annotations at a single
+            // position. So there is currently no support for calculating agreement on stacking
+            // annotations.
+            List<Configuration> cfgs = aCfgSet.getConfigurations(aUser);
+            if (cfgs.size() > 1) {
+                return PLURALITY;
+            }
 
-                Configuration cfg = cfgs.get(0);
-                
-                // Only calculate agreement for the given feature
-                FeatureStructure fs = cfg.getFs(user, cfg.getPosition().getCasId(), aCasMap);
+            Configuration cfg = cfgs.get(0);
+            
+            // Only calculate agreement for the given feature
+            FeatureStructure fs = cfg.getFs(aUser, cfg.getPosition().getCasId(), aCasMap);
+            
+            Object label;
+            if (fs.getType().getFeatureByBaseName(aFeature).getRange().isPrimitive()) {
+                // Primitive features
+                label = getFeature(fs, aFeature);
+            }
+            // We may hit here on a primary position, but we only want to enter on sub-positions
+            // for link features.
+            else if (cfg.getPosition().getFeature() != null) {
+                // Link features
+                ArrayFS links = (ArrayFS) fs.getFeatureValue(fs.getType().getFeatureByBaseName(
+                        aFeature));
+                FeatureStructure link = links.get(cfg.getAID(aUser).index);
+                AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
+                        .getFeatureByBaseName("target"));
                 
-                if (fs.getType().getFeatureByBaseName(aFeature).getRange().isPrimitive()) {
-                    // Primitive features
-                    values[i] = getFeature(fs, aFeature);
-                }
-                // We may hit here on a primary position, but we only want to enter on sub-positions
-                // for link features.
-                else if (cfg.getPosition().getFeature() != null) {
-                    // Link features
-                    ArrayFS links = (ArrayFS) fs.getFeatureValue(fs.getType().getFeatureByBaseName(
-                            aFeature));
-                    FeatureStructure link = links.get(cfg.getAID(user).index);
-                    AnnotationFS target = (AnnotationFS) link.getFeatureValue(link.getType()
-                            .getFeatureByBaseName("target"));
-                    
-                    values[i] = target.getBegin() + "-" + target.getEnd();
-                }
-                else {
-                    // If we get here, then this position has nothing relevant to our feature to
-                    // be evaluated for agreement. We can skip it directly without recording it
-                    // as incomplete
-                    continue nextPosition;
-                }
+                label = target.getBegin() + "-" + target.getEnd();
+            }
+            else {
+                // If we get here, then this position has nothing relevant to our feature to
+                // be evaluated for agreement. We can skip it directly without recording it
+                // as incomplete
+                return IRRELEVANT;
+            }
 
-                // "null" cannot be used in agreement calculations. We treat these as incomplete
-                if (values[i] == null) {
-                    incompleteSetsByLabel.add(cfgSet);
-                    continue nextPosition;
+            // "null" cannot be used in agreement calculations. We treat these as incomplete
+            return label != null ? label : INCOMPLETE_BY_LABEL;
+        }
+        
+        public List<String> getUsers()
+        {
+            return users;
+        }
+        
+        /**
+         * Make a study for the given users. The first unusable label in the order of the given
+         * users determines why a set is not included in the study.
+         */
+        public AgreementResult makeStudy(String... aUsers)
+        {
+            int[] columns = new int[aUsers.length];
+            for (int i = 0; i < aUsers.length; i++) {
+                columns[i] = users.indexOf(aUsers[i]);
+                if (columns[i] == -1) {
+                    throw new IllegalArgumentException("No labels for user [" + aUsers[i] + "]");
                 }
-
-                i++;
             }
+            
+            List<ConfigurationSet> completeSets = new ArrayList<>();
+            List<ConfigurationSet> setsWithDifferences = new ArrayList<>();
+            List<ConfigurationSet> incompleteSetsByPosition = new ArrayList<>();
+            List<ConfigurationSet> incompleteSetsByLabel = new ArrayList<>();
+            List<ConfigurationSet> pluralitySets = new ArrayList<>();
+            CodingAnnotationStudy study = new CodingAnnotationStudy(aUsers.length);
+            nextSet: for (int s = 0; s < sets.size(); s++) {
+                ConfigurationSet cfgSet = sets.get(s);
+                Object[] row = labels.get(s);
+                
+                Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    Object label = row[columns[i]];
+                    if (label == INCOMPLETE_BY_POSITION) {
+                        incompleteSetsByPosition.add(cfgSet);
+                        continue nextSet;
+                    }
+                    else if (label == PLURALITY) {
+                        pluralitySets.add(cfgSet);
+                        continue nextSet;
+                    }
+                    else if (label == IRRELEVANT) {
+                        continue nextSet;
+                    }
+                    else if (label == INCOMPLETE_BY_LABEL) {
+                        incompleteSetsByLabel.add(cfgSet);
+                        continue nextSet;
+                    }
+                    values[i] = label;
+                }
 
-            if (ObjectUtils.notEqual(values[0], values[1])) {
-                setsWithDifferences.add(cfgSet);
+                if (ObjectUtils.notEqual(values[0], values[1])) {
+                    setsWithDifferences.add(cfgSet);
+                }
+                
+                completeSets.add(cfgSet);
+                study.addItemAsArray(values);
             }
             
-            completeSets.add(cfgSet);
-            study.addItemAsArray(values);
+            return new AgreementResult(type, feature, diff, study, completeSets,
+                    setsWithDifferences, incompleteSetsByPosition, incompleteSetsByLabel,
+                    pluralitySets);
         }
-        
-        return new AgreementResult(aType, aFeature, aDiff, study, completeSets,
-                setsWithDifferences, incompleteSetsByPosition, incompleteSetsByLabel,
-                pluralitySets);
     }
     
     public static void dumpAgreementStudy(PrintStream aOut, AgreementResult aAgreement)
@@ -202,16 +367,16 @@ public class AgreementUtils
             aOut.printf("Item count: %s%n", ExceptionUtils.getRootCauseMessage(e));
         }
         
-        aOut.printf("%n== Complete sets: %d ==%n", aAgreement.getCompleteSets().size());
+        aOut.printf("%n== Complete sets: %d ==%n", aAgreement.getCompleteSetCount());
         dumpAgreementConfigurationSetsWithItems(aOut, aAgreement, aAgreement.getCompleteSets());
         
-        aOut.printf("%n== Incomplete sets (by position): %d == %n", aAgreement.getIncompleteSetsByPosition().size());
+        aOut.printf("%n== Incomplete sets (by position): %d == %n", aAgreement.getIncompleteSetByPositionCount());
         dumpAgreementConfigurationSets(aOut, aAgreement, aAgreement.getIncompleteSetsByPosition());
 
-        aOut.printf("%n== Incomplete sets (by label): %d ==%n", aAgreement.getIncompleteSetsByLabel().size());
+        aOut.printf("%n== Incomplete sets (by label): %d ==%n", aAgreement.getIncompleteSetByLabelCount());
         dumpAgreementConfigurationSets(aOut, aAgreement, aAgreement.getIncompleteSetsByLabel());
 
-        aOut.printf("%n== Plurality sets: %d ==%n", aAgreement.getPluralitySets().size());
+        aOut.printf("%n== Plurality sets: %d ==%n", aAgreement.getPluralitySetCount());
         dumpAgreementConfigurationSets(aOut, aAgreement, aAgreement.getPluralitySets());
     }
     
@@ -221,7 +386,10 @@ public class AgreementUtils
         int i = 0;
         for (ICodingAnnotationItem item : aAgreement.getStudy().getItems()) {
             StringBuilder sb = new StringBuilder();
-            sb.append(aSets.get(i).getPosition());
+            // Results assembled from pre-computed counts do not have the configuration sets
+            if (i < aSets.size()) {
+                sb.append(aSets.get(i).getPosition());
+            }
             for (IAnnotationUnit unit : item.getUnits()) {
                 if (sb.length() > 0) {
                     sb.append(" \t");
@@ -287,6 +455,11 @@ public class AgreementUtils
         private final List<ConfigurationSet> incompleteSetsByPosition;
         private final List<ConfigurationSet> incompleteSetsByLabel;
         private final List<ConfigurationSet> pluralitySets;
+        private final int totalSetCount;
+        private final int diffSetCount;
+        private final int incompleteSetByPositionCount;
+        private final int incompleteSetByLabelCount;
+        private final int pluralitySetCount;
         private double agreement;
 
         public AgreementResult(String aType, String aFeature)
@@ -300,6 +473,31 @@ public class AgreementUtils
             incompleteSetsByPosition = null;
             incompleteSetsByLabel = null;
             pluralitySets = null;
+            totalSetCount = 0;
+            diffSetCount = 0;
+            incompleteSetByPositionCount = 0;
+            incompleteSetByLabelCount = 0;
+            pluralitySetCount = 0;
+        }
+
+        public AgreementResult(String aType, String aFeature, ICodingAnnotationStudy aStudy,
+                int aTotalSetCount, int aDiffSetCount, int aIncompleteByPositionCount,
+                int aIncompleteByLabelCount, int aPluralitySetCount)
+        {
+            type = aType;
+            feature = aFeature;
+            diff = null;
+            study = aStudy;
+            setsWithDifferences = Collections.emptyList();
+            completeSets = Collections.emptyList();
+            incompleteSetsByPosition = Collections.emptyList();
+            incompleteSetsByLabel = Collections.emptyList();
+            pluralitySets = Collections.emptyList();
+            totalSetCount = aTotalSetCount;
+            diffSetCount = aDiffSetCount;
+            incompleteSetByPositionCount = aIncompleteByPositionCount;
+            incompleteSetByLabelCount = aIncompleteByLabelCount;
+            pluralitySetCount = aPluralitySetCount;
         }
 
         public AgreementResult(String aType, String aFeature, DiffResult aDiff,
@@ -321,6 +519,11 @@ public class AgreementUtils
                     .unmodifiableList(new ArrayList<>(aIncompleteByLabel));
             pluralitySets = Collections
                     .unmodifiableList(new ArrayList<>(aPluralitySets));
+            totalSetCount = aDiff.getPositions().size();
+            diffSetCount = setsWithDifferences.size();
+            incompleteSetByPositionCount = incompleteSetsByPosition.size();
+            incompleteSetByLabelCount = incompleteSetsByLabel.size();
+            pluralitySetCount = pluralitySets.size();
         }
         
         private void setAgreement(double aAgreement)
@@ -364,23 +567,37 @@ public class AgreementUtils
         
         public int getDiffSetCount()
         {
-            return setsWithDifferences.size();
+            return diffSetCount;
+        }
+        
+        public int getIncompleteSetByPositionCount()
+        {
+            return incompleteSetByPositionCount;
+        }
+        
+        public int getIncompleteSetByLabelCount()
+        {
+            return incompleteSetByLabelCount;
+        }
+        
+        public int getPluralitySetCount()
+        {
+            return pluralitySetCount;
         }
         
         public int getUnusableSetCount()
         {
-            return incompleteSetsByPosition.size() + incompleteSetsByLabel.size()
-                    + pluralitySets.size();
+            return incompleteSetByPositionCount + incompleteSetByLabelCount + pluralitySetCount;
         }
         
         public Object getCompleteSetCount()
         {
-            return completeSets.size();
+            return study != null ? study.getItemCount() : 0;
         }
 
         public int getTotalSetCount()
         {
-            return diff.getPositions().size();
+            return totalSetCount;
         }
         
         public double getAgreement()
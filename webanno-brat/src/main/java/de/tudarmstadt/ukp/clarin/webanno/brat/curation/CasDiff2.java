@@ -28,11 +28,15 @@ import static org.apache.uima.fit.util.CasUtil.select;
 import static org.apache.uima.fit.util.CasUtil.selectCovered;
 
 import java.io.PrintStream;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -40,7 +44,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
@@ -71,9 +77,23 @@ public class CasDiff2
 {
     private final Log log = LogFactory.getLog(getClass());
     
+    private static final SymbolTable SYMBOLS = new SymbolTable();
+    
     private Map<String, List<CAS>> cases = new LinkedHashMap<>();
     
-    private final Map<Position, ConfigurationSet> configSets = new TreeMap<>();
+    /**
+     * Index of each CAS group ID in {@link #casGroupNames}. Configurations refer to the CAS groups
+     * by these indexes.
+     */
+    private final Map<String, Integer> casGroupIndex = new HashMap<>();
+    
+    private final List<String> casGroupNames = new ArrayList<>();
+    
+    /**
+     * Configuration sets by position. Positions are hashed on their interned IDs and offsets while
+     * the diff is built and only sorted once when the {@link DiffResult} is created.
+     */
+    private final Map<Position, ConfigurationSet> configSets = new HashMap<>();
 
     private final Map<String, String[]> sortedFeaturesCache = new HashMap<>();
 
@@ -235,6 +255,113 @@ public class CasDiff2
         return new DiffResult(diff);
     }
     
+    /**
+     * Calculate the differences between CASes separately for each of the given segments, e.g. for
+     * each sentence in the curation view. This produces the same results as calling
+     * {@link #doDiffSingle} for every segment, but selects the annotations from each CAS only once
+     * and distributes them to the segments they are covered by.
+     * 
+     * @param aService
+     *            the annotation service.
+     * @param aProject
+     *            a project.
+     * @param aEntryTypes
+     *            the types for which differences are to be calculated.
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aSegments
+     *            the segments as a mapping from begin to end offset. Segments may overlap.
+     * @return the diff results keyed by the begin offset of the segment.
+     */
+    public static Map<Integer, DiffResult> doDiffBySegment(AnnotationService aService,
+            Project aProject, List<Type> aEntryTypes, Map<String, JCas> aCasMap,
+            Map<Integer, Integer> aSegments)
+    {
+        List<DiffAdapter> adapters = CasDiff2.getAdapters(aService, aProject);
+        
+        List<String> entryTypes = new ArrayList<>();
+        for (Type t : aEntryTypes) {
+            entryTypes.add(t.getName());
+        }
+        
+        Map<String, List<JCas>> casMap = new LinkedHashMap<>();
+        for (Entry<String, JCas> e : aCasMap.entrySet()) {
+            casMap.put(e.getKey(), asList(e.getValue()));
+        }
+        return doDiffBySegment(entryTypes, adapters, casMap, aSegments);
+    }
+    
+    /**
+     * Calculate the differences between CASes separately for each of the given segments.
+     * 
+     * @param aEntryTypes
+     *            the types for which differences are to be calculated.
+     * @param aAdapters
+     *            a set of diff adapters telling how the diff algorithm should handle different
+     *            features
+     * @param aCasMap
+     *            a set of CASes, each associated with an ID
+     * @param aSegments
+     *            the segments as a mapping from begin to end offset. Segments may overlap.
+     * @return the diff results keyed by the begin offset of the segment.
+     * @see #doDiffBySegment(AnnotationService, Project, List, Map, Map)
+     */
+    public static Map<Integer, DiffResult> doDiffBySegment(List<String> aEntryTypes,
+            Collection<? extends DiffAdapter> aAdapters, Map<String, List<JCas>> aCasMap,
+            Map<Integer, Integer> aSegments)
+    {
+        sanityCheck(aCasMap);
+        
+        TreeMap<Integer, CasDiff2> diffs = new TreeMap<>();
+        // For each segment begin, the largest end of all segments starting at or before it. This
+        // allows to stop looking for covering segments early even if segments overlap.
+        TreeMap<Integer, Integer> maxEnds = new TreeMap<>();
+        int minBegin = Integer.MAX_VALUE;
+        int maxEnd = Integer.MIN_VALUE;
+        for (Entry<Integer, Integer> e : new TreeMap<>(aSegments).entrySet()) {
+            diffs.put(e.getKey(), new CasDiff2(e.getKey(), e.getValue(), aAdapters));
+            maxEnd = Math.max(maxEnd, e.getValue());
+            maxEnds.put(e.getKey(), maxEnd);
+            minBegin = Math.min(minBegin, e.getKey());
+        }
+        
+        for (Entry<String, List<JCas>> e : aCasMap.entrySet()) {
+            int casId = 0;
+            for (JCas jcas : e.getValue()) {
+                // null elements in the list can occur if a user has never worked on a CAS
+                CAS cas = jcas != null ? jcas.getCas() : null;
+                for (CasDiff2 diff : diffs.values()) {
+                    diff.registerCas(e.getKey(), casId, cas);
+                }
+                
+                if (cas != null && !diffs.isEmpty()) {
+                    for (String type : aEntryTypes) {
+                        for (AnnotationFS fs : selectCovered(cas, getType(cas, type), minBegin,
+                                maxEnd)) {
+                            for (Entry<Integer, CasDiff2> d : diffs
+                                    .headMap(fs.getBegin(), true).descendingMap().entrySet()) {
+                                if (maxEnds.get(d.getKey()) < fs.getEnd()) {
+                                    // No segment starting here or earlier covers the annotation
+                                    break;
+                                }
+                                if (fs.getEnd() <= d.getValue().end) {
+                                    d.getValue().addAnnotation(e.getKey(), casId, type, fs);
+                                }
+                            }
+                        }
+                    }
+                }
+                casId++;
+            }
+        }
+        
+        Map<Integer, DiffResult> results = new LinkedHashMap<>();
+        for (Entry<Integer, CasDiff2> e : diffs.entrySet()) {
+            results.put(e.getKey(), new DiffResult(e.getValue()));
+        }
+        return results;
+    }
+    
     /**
      * Sanity check - all CASes should have the same text.
      */
@@ -292,22 +419,7 @@ public class CasDiff2
      */
     private void addCas(String aCasGroupId, int aCasId, CAS aCas, String aType)
     {
-        // Remember that we have already seen this CAS.
-        List<CAS> casList = cases.get(aCasGroupId);
-        if (casList == null) {
-            casList = new ArrayList<>();
-            cases.put(aCasGroupId, casList);
-        }
-        
-        // Avoid adding same CAS twice in cases where we add multiple types from a CAS. If the
-        // current CAS ID is greater than the size of the current CAS list, then we did not add
-        // it yet. Before, we checked whether the casList already contained the current CAS, but
-        // that failed when we had multiple "null" CASes.
-        if ((casList.size() - 1) < aCasId) {
-            casList.add(aCas);
-        }
-        assert (casList.size() - 1) == aCasId : "Expected CAS ID [" + (casList.size() - 1)
-                + "] but was [" + aCasId + "]";
+        registerCas(aCasGroupId, aCasId, aCas);
         
         // null elements in the list can occur if a user has never worked on a CAS
         // We add these to the internal list above, but then we bail out here.
@@ -324,38 +436,66 @@ public class CasDiff2
         }
         
         for (AnnotationFS fs : annotations) {
-            List<Position> positions = new ArrayList<>();
-            
-            // Get/create configuration set at the current position
-            positions.add(getAdapter(aType).getPosition(aCasId, fs));
-            
-            // Generate secondary positions for multi-link features
-            positions.addAll(getAdapter(aType).generateSubPositions(aCasId, fs));
-
-            for (Position pos : positions) {
-                ConfigurationSet configSet = configSets.get(pos);
-                if (configSet == null) {
-                    configSet = new ConfigurationSet(pos);
-                    configSets.put(pos, configSet);
-                }
-                
-    //          REC: appears to be left-over debug code that can be removed...  
-    //            if (pos.getClass() != configSet.position.getClass()) {
-    //                pos.compareTo(configSet.position);
-    //            }
-                
-                assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
-                        + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
-    
-                // Merge FS into current set
-                configSet.addConfiguration(aCasGroupId, fs);
-            }
+            addAnnotation(aCasGroupId, aCasId, aType, fs);
         }
 //        
 //        // Remember that we have processed the type
 //        entryTypes.add(aType);
     }
     
+    /**
+     * Remember that we have seen the given CAS. Null CASes are registered as well since they can
+     * occur if a user has never worked on a CAS.
+     */
+    private void registerCas(String aCasGroupId, int aCasId, CAS aCas)
+    {
+        List<CAS> casList = cases.get(aCasGroupId);
+        if (casList == null) {
+            casList = new ArrayList<>();
+            cases.put(aCasGroupId, casList);
+            casGroupIndex.put(aCasGroupId, casGroupNames.size());
+            casGroupNames.add(aCasGroupId);
+        }
+        
+        // Avoid adding same CAS twice in cases where we add multiple types from a CAS. If the
+        // current CAS ID is greater than the size of the current CAS list, then we did not add
+        // it yet. Before, we checked whether the casList already contained the current CAS, but
+        // that failed when we had multiple "null" CASes.
+        if ((casList.size() - 1) < aCasId) {
+            casList.add(aCas);
+        }
+        assert (casList.size() - 1) == aCasId : "Expected CAS ID [" + (casList.size() - 1)
+                + "] but was [" + aCasId + "]";
+    }
+    
+    /**
+     * Merge a single annotation into the configuration sets at its position(s).
+     */
+    private void addAnnotation(String aCasGroupId, int aCasId, String aType, AnnotationFS aFS)
+    {
+        List<Position> positions = new ArrayList<>();
+        
+        // Get/create configuration set at the current position
+        positions.add(getAdapter(aType).getPosition(aCasId, aFS));
+        
+        // Generate secondary positions for multi-link features
+        positions.addAll(getAdapter(aType).generateSubPositions(aCasId, aFS));
+
+        for (Position pos : positions) {
+            ConfigurationSet configSet = configSets.get(pos);
+            if (configSet == null) {
+                configSet = new ConfigurationSet(pos);
+                configSets.put(pos, configSet);
+            }
+            
+            assert pos.getClass() == configSet.position.getClass() : "Position type mismatch ["
+                    + pos.getClass() + "] vs [" + configSet.position.getClass() + "]";
+
+            // Merge FS into current set
+            configSet.addConfiguration(aCasGroupId, aFS);
+        }
+    }
+    
     /**
      * Represents a logical position in the text. All annotations considered to be at the same logical
      * position in the document are collected under this. Within the position, there are groups
@@ -387,11 +527,15 @@ public class CasDiff2
 //        int getLinkTargetEnd();
     }
     
+    /**
+     * Base class for positions. The type and feature names are stored as IDs from a shared
+     * symbol table, so positions can be hashed and checked for equality without comparing strings.
+     */
     public static abstract class Position_ImplBase implements Position
     {
-        private final String type;
         private final int casId;
-        private final String feature;
+        private final int type;
+        private final int feature;
         private final String role;
 //        private final int linkTargetBegin;
 //        private final int linkTargetEnd;
@@ -399,9 +543,10 @@ public class CasDiff2
         public Position_ImplBase(int aCasId, String aType, String aFeature, String aRole,
                 int aLinkTargetBegin, int aLinkTargetEnd)
      {
-            type = aType;
             casId = aCasId;
-            feature = aFeature;
+            type = SYMBOLS.intern(aType);
+            feature = SYMBOLS.intern(aFeature);
+            // Roles are labels entered by the users, so they are not interned
             role = aRole;
 //            linkTargetBegin = aLinkTargetBegin;
 //            linkTargetEnd = aLinkTargetEnd;
@@ -410,7 +555,7 @@ public class CasDiff2
         @Override
         public String getType()
         {
-            return type;
+            return SYMBOLS.get(type);
         }
         
         @Override
@@ -422,7 +567,7 @@ public class CasDiff2
         @Override
         public String getFeature()
         {
-            return feature;
+            return SYMBOLS.get(feature);
         }
         
         @Override
@@ -449,12 +594,29 @@ public class CasDiff2
                 return casId - aOther.getCasId();
             }
             
-            int typeCmp = type.compareTo(aOther.getType());
+            if (aOther instanceof Position_ImplBase) {
+                // Equal IDs mean equal names, so the names only need to be compared if the IDs
+                // differ. The order is still that of the names.
+                Position_ImplBase other = (Position_ImplBase) aOther;
+                int typeCmp = SYMBOLS.compare(type, other.type);
+                if (typeCmp != 0) {
+                    return typeCmp;
+                }
+                
+                int featureCmp = SYMBOLS.compare(feature, other.feature);
+                if (featureCmp != 0) {
+                    return featureCmp;
+                }
+                
+                return ObjectUtils.compare(role, other.role);
+            }
+            
+            int typeCmp = getType().compareTo(aOther.getType());
             if (typeCmp != 0) {
                 return typeCmp;
             }
             
-            int featureCmp = ObjectUtils.compare(feature, aOther.getFeature());
+            int featureCmp = ObjectUtils.compare(getFeature(), aOther.getFeature());
             if (featureCmp != 0) {
                 return featureCmp;
             }
@@ -467,9 +629,56 @@ public class CasDiff2
 //            return linkTargetEnd - aOther.getLinkTargetEnd();
             
             // Include role into position
-            return ObjectUtils.compare(role, aOther.getRole());
+            return ObjectUtils.compare(getRole(), aOther.getRole());
 
         }
+        
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (this == aOther) {
+                return true;
+            }
+            if (aOther == null || aOther.getClass() != getClass()) {
+                return false;
+            }
+            Position_ImplBase other = (Position_ImplBase) aOther;
+            return casId == other.casId && type == other.type && feature == other.feature
+                    && ObjectUtils.equals(role, other.role);
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            int hash = casId;
+            hash = 31 * hash + type;
+            hash = 31 * hash + feature;
+            hash = 31 * hash + ObjectUtils.hashCode(role);
+            return hash;
+        }
+    }
+    
+    /**
+     * Pack two offsets into a single long. The first offset goes into the upper half.
+     */
+    private static long pack(int aFirst, int aSecond)
+    {
+        return ((long) aFirst << 32) | (aSecond & 0xFFFFFFFFL);
+    }
+    
+    private static int first(long aPacked)
+    {
+        return (int) (aPacked >> 32);
+    }
+
+    private static int second(long aPacked)
+    {
+        return (int) aPacked;
+    }
+    
+    private static int hash(long aPacked)
+    {
+        return (int) (aPacked ^ (aPacked >>> 32));
     }
     
     /**
@@ -477,15 +686,13 @@ public class CasDiff2
      */
     public static class SpanPosition extends Position_ImplBase
     {
-        private final int begin;
-        private final int end;
+        private final long offsets;
 
         public SpanPosition(int aCasId, String aType, int aBegin, int aEnd, String aFeature,
                 String aRole, int aLinkTargetBegin, int aLinkTargetEnd)
         {
             super(aCasId, aType, aFeature, aRole, aLinkTargetBegin, aLinkTargetEnd);
-            begin = aBegin;
-            end = aEnd;
+            offsets = pack(aBegin, aEnd);
         }
         
         /**
@@ -493,7 +700,7 @@ public class CasDiff2
          */
         public int getBegin()
         {
-            return begin;
+            return first(offsets);
         }
 
         /**
@@ -501,7 +708,7 @@ public class CasDiff2
          */
         public int getEnd()
         {
-            return end;
+            return second(offsets);
         }
 
         @Override
@@ -516,14 +723,26 @@ public class CasDiff2
             // end descending
             else {
                 SpanPosition otherSpan = (SpanPosition) aOther;
-                if (begin == otherSpan.begin) {
-                    return otherSpan.end - end;
+                if (getBegin() == otherSpan.getBegin()) {
+                    return otherSpan.getEnd() - getEnd();
                 }
                 else {
-                    return begin - otherSpan.begin;
+                    return getBegin() - otherSpan.getBegin();
                 }
             }
         }
+        
+        @Override
+        public boolean equals(Object aOther)
+        {
+            return super.equals(aOther) && offsets == ((SpanPosition) aOther).offsets;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return 31 * super.hashCode() + hash(offsets);
+        }
 
         @Override
         public String toString()
@@ -534,9 +753,9 @@ public class CasDiff2
             builder.append(", type=");
             builder.append(StringUtils.substringAfterLast(getType(), "."));
             builder.append(", begin=");
-            builder.append(begin);
+            builder.append(getBegin());
             builder.append(", end=");
-            builder.append(end);
+            builder.append(getEnd());
             if (getFeature() != null) {
                 builder.append(", linkFeature=");
                 builder.append(getFeature());
@@ -556,20 +775,16 @@ public class CasDiff2
      */
     public static class ArcPosition extends Position_ImplBase
     {
-        private final int sourceBegin;
-        private final int sourceEnd;
-        private final int targetBegin;
-        private final int targetEnd;
+        private final long source;
+        private final long target;
 
         public ArcPosition(int aCasId, String aType, int aSourceBegin, int aSourceEnd,
                 int aTargetBegin, int aTargetEnd, String aFeature, String aRole,
                 int aLinkTargetBegin, int aLinkTargetEnd)
         {
             super(aCasId, aType, aFeature, aRole, aLinkTargetBegin, aLinkTargetEnd);
-            sourceBegin = aSourceBegin;
-            sourceEnd = aSourceEnd;
-            targetBegin = aTargetBegin;
-            targetEnd = aTargetEnd;
+            source = pack(aSourceBegin, aSourceEnd);
+            target = pack(aTargetBegin, aTargetEnd);
         }
         
         /**
@@ -577,7 +792,7 @@ public class CasDiff2
          */
         public int getSourceBegin()
         {
-            return sourceBegin;
+            return first(source);
         }
 
         /**
@@ -585,7 +800,7 @@ public class CasDiff2
          */
         public int getSourceEnd()
         {
-            return sourceEnd;
+            return second(source);
         }
 
         /**
@@ -593,7 +808,7 @@ public class CasDiff2
          */
         public int getTargetBegin()
         {
-            return targetBegin;
+            return first(target);
         }
 
         /**
@@ -601,7 +816,7 @@ public class CasDiff2
          */
         public int getTargetEnd()
         {
-            return targetEnd;
+            return second(target);
         }
 
         @Override
@@ -616,20 +831,36 @@ public class CasDiff2
             // end descending
             else {
                 ArcPosition otherSpan = (ArcPosition) aOther;
-                if (sourceBegin != otherSpan.sourceBegin) {
-                    return sourceBegin - otherSpan.sourceBegin;
+                if (getSourceBegin() != otherSpan.getSourceBegin()) {
+                    return getSourceBegin() - otherSpan.getSourceBegin();
                 }
-                else if (sourceEnd != otherSpan.sourceEnd) {
-                    return otherSpan.sourceEnd - sourceEnd;
+                else if (getSourceEnd() != otherSpan.getSourceEnd()) {
+                    return otherSpan.getSourceEnd() - getSourceEnd();
                 }
-                else if (targetBegin != otherSpan.targetBegin) {
-                    return targetBegin - otherSpan.targetBegin;
+                else if (getTargetBegin() != otherSpan.getTargetBegin()) {
+                    return getTargetBegin() - otherSpan.getTargetBegin();
                 }
                 else {
-                    return otherSpan.targetEnd - targetEnd;
+                    return otherSpan.getTargetEnd() - getTargetEnd();
                 }
             }
         }
+        
+        @Override
+        public boolean equals(Object aOther)
+        {
+            if (!super.equals(aOther)) {
+                return false;
+            }
+            ArcPosition other = (ArcPosition) aOther;
+            return source == other.source && target == other.target;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * super.hashCode() + hash(source)) + hash(target);
+        }
 
         @Override
         public String toString()
@@ -640,9 +871,9 @@ public class CasDiff2
             builder.append(", type=");
             builder.append(StringUtils.substringAfterLast(getType(), "."));
             builder.append(", source=(");
-            builder.append(sourceBegin).append('-').append(sourceEnd);
+            builder.append(getSourceBegin()).append('-').append(getSourceEnd());
             builder.append("), target=(");
-            builder.append(targetBegin).append('-').append(targetEnd);
+            builder.append(getTargetBegin()).append('-').append(getTargetEnd());
             builder.append(')');
             if (getFeature() != null) {
                 builder.append(", linkFeature=");
@@ -753,7 +984,7 @@ public class CasDiff2
         {
             int i = 0;
             for (Configuration cfg : configurations) {
-                i += cfg.getAddressByCasId().size();
+                i += cfg.size;
             }
             return i;
         }
@@ -783,7 +1014,7 @@ public class CasDiff2
         {
             List<Configuration> configurationsForUser = new ArrayList<>();
             for (Configuration cfg : configurations) {
-                if (cfg.fsAddresses.keySet().contains(aCasGroupId)) {
+                if (cfg.indexOf(aCasGroupId) >= 0) {
                     configurationsForUser.add(cfg);
                 }
             }
@@ -960,7 +1191,7 @@ public class CasDiff2
         Position pos1 = adapter.getPosition(0, aFS1);
         Position pos2 = adapter.getPosition(0, aFS2);
         
-        return pos1.compareTo(pos2) == 0;
+        return pos1.equals(pos2);
     }
     
     /**
@@ -970,11 +1201,62 @@ public class CasDiff2
     public class Configuration
     {
         private final Position position;
-        private final Map<String, AID> fsAddresses = new TreeMap<>();
+        
+        // The CAS groups in which this configuration was seen, as indexes into casGroupNames and
+        // ordered by CAS group ID. For each of them, the address of the FS and the link slot.
+        private int[] groups = new int[2];
+        private int[] addrs = new int[2];
+        private int[] slots = new int[2];
+        private int size;
+        
+        private final Set<String> casGroupIdView = new AbstractSet<String>()
+        {
+            @Override
+            public Iterator<String> iterator()
+            {
+                return new Iterator<String>()
+                {
+                    private int next;
+                    
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return next < size;
+                    }
+
+                    @Override
+                    public String next()
+                    {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        return casGroupNames.get(groups[next++]);
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object aCasGroupId)
+            {
+                return aCasGroupId instanceof String && indexOf((String) aCasGroupId) >= 0;
+            }
+
+            @Override
+            public int size()
+            {
+                return size;
+            }
+        };
 
         public Set<String> getCasGroupIds()
         {
-            return fsAddresses.keySet();
+            return casGroupIdView;
         } 
         
         public Configuration(Position aPosition)
@@ -988,40 +1270,87 @@ public class CasDiff2
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS) {
-            fsAddresses.put(aCasGroupId, new AID(getAddr(aFS)));            
+            put(aCasGroupId, getAddr(aFS), -1);
         }
 
         private void add(String aCasGroupId, FeatureStructure aFS, String aFeature, int aSlot) {
-            fsAddresses.put(aCasGroupId, new AID(getAddr(aFS), aFeature, aSlot));            
+            assert aFeature.equals(position.getFeature());
+            put(aCasGroupId, getAddr(aFS), aSlot);
         }
-
-        private FeatureStructure getRepresentative()
+        
+        private void put(String aCasGroupId, int aAddr, int aSlot)
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return selectByAddr(cases.get(e.getKey()).get(position.getCasId()), e.getValue().addr);
+            int group = casGroupIndex.get(aCasGroupId);
+            
+            // Find the insertion point - there are only ever a handful of CAS groups
+            int i = 0;
+            while (i < size && groups[i] != group
+                    && casGroupNames.get(groups[i]).compareTo(aCasGroupId) < 0) {
+                i++;
+            }
+            
+            if (i == size || groups[i] != group) {
+                if (size == groups.length) {
+                    groups = Arrays.copyOf(groups, size * 2);
+                    addrs = Arrays.copyOf(addrs, size * 2);
+                    slots = Arrays.copyOf(slots, size * 2);
+                }
+                System.arraycopy(groups, i, groups, i + 1, size - i);
+                System.arraycopy(addrs, i, addrs, i + 1, size - i);
+                System.arraycopy(slots, i, slots, i + 1, size - i);
+                groups[i] = group;
+                size++;
+            }
+            
+            addrs[i] = aAddr;
+            slots[i] = aSlot;
+        }
+        
+        private int indexOf(String aCasGroupId)
+        {
+            Integer group = casGroupIndex.get(aCasGroupId);
+            if (group != null) {
+                for (int i = 0; i < size; i++) {
+                    if (groups[i] == group) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+        
+        private AID aid(int aIndex)
+        {
+            if (slots[aIndex] == -1) {
+                return new AID(addrs[aIndex]);
+            }
+            else {
+                return new AID(addrs[aIndex], position.getFeature(), slots[aIndex]);
+            }
         }
 
-        private AID getRepresentativeAID()
+        private FeatureStructure getRepresentative()
         {
-            Entry<String, AID> e = fsAddresses.entrySet().iterator().next();
-            return e.getValue();
+            return selectByAddr(cases.get(casGroupNames.get(groups[0])).get(position.getCasId()),
+                    addrs[0]);
         }
 
-        private Map<String, AID> getAddressByCasId()
+        private AID getRepresentativeAID()
         {
-            return fsAddresses;
+            return aid(0);
         }
 
         public AID getAID(String aCasGroupId)
         {
-            return fsAddresses.get(aCasGroupId);
+            int i = indexOf(aCasGroupId);
+            return i >= 0 ? aid(i) : null;
         }
 
         public <T extends FeatureStructure> T getFs(String aCasGroupId, int aCasId,
                 Class<T> aClass, Map<String, List<JCas>> aCasMap)
         {
             return selectByAddr(aCasMap.get(aCasGroupId).get(aCasId), aClass,
-                    fsAddresses.get(aCasGroupId).addr);
+                    getAID(aCasGroupId).addr);
         }
 
         // FIXME aCasId parameter should not be required as we can get it from the position
@@ -1045,13 +1374,13 @@ public class CasDiff2
         {
             StringBuilder sb = new StringBuilder();
             sb.append('[');
-            for (Entry<String, AID> e : fsAddresses.entrySet()) {
+            for (int i = 0; i < size; i++) {
                 if (sb.length() > 1) {
                     sb.append(", ");
                 }
-                sb.append(e.getKey());
+                sb.append(casGroupNames.get(groups[i]));
                 sb.append(':');
-                sb.append(e.getValue());
+                sb.append(aid(i));
             }
             sb.append("] -> ");
             sb.append(getRepresentative());
@@ -1066,19 +1395,92 @@ public class CasDiff2
     {
         private final Map<Position, ConfigurationSet> data;
         private final Set<String> casGroupIds;
-        private final Map<ConfigurationSet, Boolean> completenessCache = new HashMap<>();
-        private final boolean cachedHasDifferences;
+
+        /**
+         * Position of each configuration set in {@link #data}. Configuration sets do not define
+         * equality, so they are looked up by identity.
+         */
+        private final Map<ConfigurationSet, Integer> index = new IdentityHashMap<>();
+        private final BitSet agreement = new BitSet();
+        private final BitSet completeness = new BitSet();
+        private final Map<Position, ConfigurationSet> differingSets;
+        private final Map<Position, ConfigurationSet> incompleteSets;
+        private final Map<String, Integer> sizeByType = new HashMap<>();
+        
+        /**
+         * Pairwise agreement calculated on this diff, see {@link AgreementUtils}.
+         */
+        private final Map<String, PairwiseAnnotationResult> pairwiseAgreement =
+                new ConcurrentHashMap<>();
         
         private DiffResult(CasDiff2 aDiff)
         {
-            data = Collections.unmodifiableMap(aDiff.configSets);
+            // Sort the positions once - the result is expected to be in position order
+            List<Position> positions = new ArrayList<>(aDiff.configSets.keySet());
+            Collections.sort(positions);
+            Map<Position, ConfigurationSet> sorted = new LinkedHashMap<>();
+            for (Position p : positions) {
+                sorted.put(p, aDiff.configSets.get(p));
+            }
+            data = Collections.unmodifiableMap(sorted);
             casGroupIds = new LinkedHashSet<>(aDiff.cases.keySet());
-            cachedHasDifferences = !getDifferingConfigurationSets().isEmpty();
+
+            // Determine agreement and completeness once for all sets so that the views and the
+            // per-set queries below do not need to recompute them
+            Map<Position, ConfigurationSet> differing = new LinkedHashMap<>();
+            Map<Position, ConfigurationSet> incomplete = new LinkedHashMap<>();
+            int i = 0;
+            for (Entry<Position, ConfigurationSet> e : data.entrySet()) {
+                ConfigurationSet cfgSet = e.getValue();
+                index.put(cfgSet, i);
+
+                // If there is only a single configuration in the set, we call it an agreement
+                if (cfgSet.configurations.size() == 1) {
+                    agreement.set(i);
+                }
+                else {
+                    differing.put(e.getKey(), cfgSet);
+                }
+                
+//              Issue 21 GitHub - REC - not really sure if we should call this an agreement
+//                // If there are multiple configurations in the set, we only call it an
+//                // agreement if at least one of these configurations has been made by all
+//                // annotators
+//                for (Configuration cfg : cfgSet.configurations) {
+//                    HashSet<String> unseenGroupCasIDs = new HashSet<>(casGroupIds);
+//                    unseenGroupCasIDs.removeAll(cfg.fsAddresses.keySet());
+//                    if (unseenGroupCasIDs.isEmpty()) {
+//                        agreement.set(i);
+//                    }
+//                }
+
+                // CAS group indexes are dense, so the set is complete if all of them were seen
+                BitSet seenGroups = new BitSet(casGroupIds.size());
+                for (Configuration cfg : cfgSet.configurations) {
+                    for (int g = 0; g < cfg.size; g++) {
+                        seenGroups.set(cfg.groups[g]);
+                    }
+                }
+                if (seenGroups.cardinality() == casGroupIds.size()) {
+                    completeness.set(i);
+                }
+                else {
+                    incomplete.put(e.getKey(), cfgSet);
+                }
+
+                String type = e.getKey().getType();
+                Integer n = sizeByType.get(type);
+                sizeByType.put(type, n == null ? 1 : n + 1);
+                
+                i++;
+            }
+            differingSets = Collections.unmodifiableMap(differing);
+            incompleteSets = Collections.unmodifiableMap(incomplete);
         }
         
         public boolean hasDifferences()
         {
-            return cachedHasDifferences;
+            return !differingSets.isEmpty();
         }
         
         public Collection<Position> getPositions() {
@@ -1111,31 +1513,7 @@ public class CasDiff2
          */
         public boolean isAgreement(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
-                throw new IllegalArgumentException("Configuration set does not belong to this diff");
-            }
-
-            if (data.get(aConfigurationSet.position) != aConfigurationSet) {
-                throw new IllegalArgumentException("Configuration set position mismatch");
-            }
-            
-            // If there is only a single configuration in the set, we call it an agreement
-            if (aConfigurationSet.configurations.size() == 1) {
-                return true;
-            }
-
-//          Issue 21 GitHub - REC - not really sure if we should call this an agreement            
-//            // If there are multiple configurations in the set, we only call it an agreement if
-//            // at least one of these configurations has been made by all annotators
-//            for (Configuration cfg : aConfigurationSet.configurations) {
-//                HashSet<String> unseenGroupCasIDs = new HashSet<>(casGroupIds);
-//                unseenGroupCasIDs.removeAll(cfg.fsAddresses.keySet());
-//                if (unseenGroupCasIDs.isEmpty()) {
-//                    return true;
-//                }
-//            }
-            
-            return false;
+            return agreement.get(indexOf(aConfigurationSet));
         }
         
         /**
@@ -1147,49 +1525,31 @@ public class CasDiff2
          */
         public boolean isComplete(ConfigurationSet aConfigurationSet)
         {
-            if (!data.containsValue(aConfigurationSet)) {
+            return completeness.get(indexOf(aConfigurationSet));
+        }
+        
+        private int indexOf(ConfigurationSet aConfigurationSet)
+        {
+            Integer i = index.get(aConfigurationSet);
+            if (i == null) {
                 throw new IllegalArgumentException("Configuration set does not belong to this diff");
             }
 
             if (data.get(aConfigurationSet.position) != aConfigurationSet) {
                 throw new IllegalArgumentException("Configuration set position mismatch");
             }
-
-            Boolean complete = completenessCache.get(aConfigurationSet);
-            if (complete == null) {
-                HashSet<String> unseenGroupCasIDs = new HashSet<>(casGroupIds);
-                for (Configuration cfg : aConfigurationSet.configurations) {
-                    unseenGroupCasIDs.removeAll(cfg.fsAddresses.keySet());
-                }
-                complete = unseenGroupCasIDs.isEmpty();
-                completenessCache.put(aConfigurationSet, complete);
-            }
             
-            return complete;
+            return i;
         }
         
         public Map<Position, ConfigurationSet> getDifferingConfigurationSets()
         {
-            Map<Position, ConfigurationSet> diffs = new LinkedHashMap<>();
-            for (Entry<Position, ConfigurationSet> e : data.entrySet()) {
-                if (!isAgreement(e.getValue())) {
-                    diffs.put(e.getKey(), e.getValue());
-                }
-            }
-            
-            return diffs;
+            return differingSets;
         }
 
         public Map<Position, ConfigurationSet> getIncompleteConfigurationSets()
         {
-            Map<Position, ConfigurationSet> diffs = new LinkedHashMap<>();
-            for (Entry<Position, ConfigurationSet> e : data.entrySet()) {
-                if (!isComplete(e.getValue())) {
-                    diffs.put(e.getKey(), e.getValue());
-                }
-            }
-            
-            return diffs;
+            return incompleteSets;
         }
 
         public int size()
@@ -1199,14 +1559,13 @@ public class CasDiff2
 
         public int size(String aType)
         {
-            int n = 0;
-            for (Position pos : data.keySet()) {
-                if (pos.getType().equals(aType)) {
-                    n++;
-                }
-            }
-            
-            return n;
+            Integer n = sizeByType.get(aType);
+            return n == null ? 0 : n;
+        }
+        
+        Map<String, PairwiseAnnotationResult> getPairwiseAgreementCache()
+        {
+            return pairwiseAgreement;
         }
         
         public void print(PrintStream aOut)
@@ -1292,6 +1651,63 @@ public class CasDiff2
         }
     }
     
+    /**
+     * Assigns small integer IDs to the type and feature names used in positions. These come from
+     * the type systems, so the table stays small and is shared by all diffs. Looking up the name
+     * of an ID does not lock.
+     */
+    private static final class SymbolTable
+    {
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private volatile String[] names = new String[64];
+        private int size;
+        
+        public int intern(String aName)
+        {
+            if (aName == null) {
+                return -1;
+            }
+            
+            Integer id = ids.get(aName);
+            if (id != null) {
+                return id;
+            }
+            
+            synchronized (this) {
+                id = ids.get(aName);
+                if (id == null) {
+                    String[] newNames = names;
+                    if (size == newNames.length) {
+                        newNames = Arrays.copyOf(newNames, size * 2);
+                    }
+                    newNames[size] = aName;
+                    // Readers get the ID from the map, so the name must be stored before
+                    names = newNames;
+                    id = size;
+                    size++;
+                    ids.put(aName, id);
+                }
+                return id;
+            }
+        }
+        
+        public String get(int aId)
+        {
+            return aId == -1 ? null : names[aId];
+        }
+        
+        /**
+         * Compare the names of two IDs. A {@code null} name (ID -1) sorts first.
+         */
+        public int compare(int aId1, int aId2)
+        {
+            if (aId1 == aId2) {
+                return 0;
+            }
+            return ObjectUtils.compare(get(aId1), get(aId2));
+        }
+    }
+    
     public static interface DiffAdapter
     {
         String getType();
@@ -32,6 +32,7 @@ public class PairwiseAnnotationResult
     
     private Set<String> raters = new TreeSet<String>();
     private Map<String, AgreementResult> results = new HashMap<>();
+    private int pendingDocumentCount;
     
     public Set<String> getRaters()
     {
@@ -50,6 +51,20 @@ public class PairwiseAnnotationResult
         results.put(makeKey(aKey1, aKey2), aRes);
     }
     
+    /**
+     * @return the number of documents which are not included in the results yet because their
+     *         agreement is still being computed.
+     */
+    public int getPendingDocumentCount()
+    {
+        return pendingDocumentCount;
+    }
+
+    public void setPendingDocumentCount(int aPendingDocumentCount)
+    {
+        pendingDocumentCount = aPendingDocumentCount;
+    }
+
     private String makeKey(String aKey1, String aKey2)
     {
         String key;
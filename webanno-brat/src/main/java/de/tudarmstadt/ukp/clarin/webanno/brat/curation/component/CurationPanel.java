@@ -54,6 +54,7 @@ import org.apache.wicket.model.Model;
 import org.apache.wicket.spring.injection.annot.SpringBean;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasLoaderService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotator;
@@ -92,6 +93,9 @@ public class CurationPanel
     @SpringBean(name = "userRepository")
     private UserDao userRepository;
 
+    @SpringBean(name = "casLoader")
+    private CasLoaderService casLoader;
+
     public final static String CURATION_USER = "CURATION_USER";
 
     public SuggestionViewPanel suggestionViewPanel;
@@ -543,7 +547,7 @@ public class CurationPanel
         annotate = false;
         CuratorUtil.updatePanel(aTarget, suggestionViewPanel, aCC, mergeVisualizer, repository,
                 annotationSelectionByUsernameAndAddress, curationView, annotationService,
-                userRepository);
+                userRepository, casLoader);
     }
 
 }
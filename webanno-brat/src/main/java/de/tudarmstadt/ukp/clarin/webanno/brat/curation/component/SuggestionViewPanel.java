@@ -433,7 +433,7 @@ public class SuggestionViewPanel
                 return repository.readCorrectionCas(aModel.getDocument());
             }
             else {
-                return repository.readAnnotationCas(aDocument);
+                return repository.readAnnotationCasCopy(aDocument);
             }
         }
         catch (UIMAException e) {
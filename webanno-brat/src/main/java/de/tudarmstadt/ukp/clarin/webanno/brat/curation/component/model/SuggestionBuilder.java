@@ -44,6 +44,7 @@ import org.apache.uima.jcas.JCas;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasLoaderService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -56,6 +57,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.ConfigurationSet
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.Position;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.CurationPanel;
+import de.tudarmstadt.ukp.clarin.webanno.brat.util.CuratorUtil;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
@@ -83,6 +85,7 @@ public class SuggestionBuilder
     private final AnnotationService annotationService;
     private final RepositoryService repository;
     private final UserDao userRepository;
+    private final CasLoaderService casLoader;
 
     int sentenceNumber;
     int begin, end;
@@ -93,10 +96,17 @@ public class SuggestionBuilder
 
     public SuggestionBuilder(RepositoryService repository, AnnotationService aAnnotationService,
             UserDao aUserDao)
+    {
+        this(repository, aAnnotationService, aUserDao, null);
+    }
+
+    public SuggestionBuilder(RepositoryService repository, AnnotationService aAnnotationService,
+            UserDao aUserDao, CasLoaderService aCasLoader)
     {
         this.repository = repository;
         this.annotationService = aAnnotationService;
         userRepository = aUserDao;
+        casLoader = aCasLoader;
     }
 
     public CurationContainer buildCurationContainer(BratAnnotatorModel aBModel)
@@ -162,11 +172,14 @@ public class SuggestionBuilder
             firstload = false;
         }
 
+        // Calculate the differences for all segments in a single pass over the CASes
+        Map<Integer, DiffResult> diffs = CasDiff2.doDiffBySegment(annotationService,
+                aBModel.getProject(), entryTypes, jCases, segmentBeginEnd);
+
         for (Integer begin : segmentBeginEnd.keySet()) {
             Integer end = segmentBeginEnd.get(begin);
 
-            DiffResult diff = CasDiff2.doDiffSingle(annotationService, aBModel.getProject(),
-                    entryTypes, jCases, begin, end);
+            DiffResult diff = diffs.get(begin);
             SourceListView curationSegment = new SourceListView();
             curationSegment.setBegin(begin);
             curationSegment.setEnd(end);
@@ -253,10 +266,8 @@ public class SuggestionBuilder
             AnnotationDocument randomAnnotationDocument, Mode aMode)
         throws UIMAException, ClassNotFoundException, IOException
     {
-        Map<String, JCas> jCases = new HashMap<String, JCas>();
+        List<AnnotationDocument> finishedDocuments = new ArrayList<AnnotationDocument>();
         for (AnnotationDocument annotationDocument : annotationDocuments) {
-            String username = annotationDocument.getUser();
-
             if (!annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
                 continue;
             }
@@ -269,8 +280,13 @@ public class SuggestionBuilder
             // of the open dialog - it must not happen during editing because the CAS addresses
             // are used as IDs in the UI
             // repository.upgradeCasAndSave(annotationDocument.getDocument(), aMode, username);
-            JCas jCas = repository.readAnnotationCas(annotationDocument);
-            jCases.put(username, jCas);
+            finishedDocuments.add(annotationDocument);
+        }
+
+        Map<String, JCas> jCases = new HashMap<String, JCas>();
+        for (Entry<AnnotationDocument, JCas> e : CuratorUtil.readAnnotationCases(
+                finishedDocuments, repository, casLoader).entrySet()) {
+            jCases.put(e.getKey().getUser(), e.getValue());
         }
         return jCases;
     }
@@ -420,7 +436,9 @@ public class SuggestionBuilder
         User userLoggedIn = userRepository.get(SecurityContextHolder.getContext()
                 .getAuthentication().getName());
 
-        JCas mergeJCas = repository.readAnnotationCas(randomAnnotationDocument);
+        // The curation CAS starts out as a copy of the annotator's CAS - removing the differing
+        // annotations must not affect the annotator
+        JCas mergeJCas = repository.readAnnotationCasCopy(randomAnnotationDocument);
         jCases.put(CurationPanel.CURATION_USER, mergeJCas);
 
         List<Type> entryTypes = getEntryTypes(mergeJCas, aAnnotationLayers, annotationService);
@@ -450,7 +468,8 @@ public class SuggestionBuilder
     {
         User userLoggedIn = userRepository.get(SecurityContextHolder.getContext()
                 .getAuthentication().getName());
-        mergeJCas = repository.readAnnotationCas(aBratAnnotatorModel.getDocument(), userLoggedIn);
+        mergeJCas = repository.readAnnotationCasCopy(repository.createOrGetAnnotationDocument(
+                aBratAnnotatorModel.getDocument(), userLoggedIn));
         repository.writeCorrectionCas(mergeJCas, randomAnnotationDocument.getDocument(),
                 userLoggedIn);
         return mergeJCas;
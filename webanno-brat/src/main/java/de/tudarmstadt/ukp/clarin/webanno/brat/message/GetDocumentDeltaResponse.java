@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Comment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
+
+/**
+ * Changes to the annotations of the display window since the {@link GetDocumentResponse} or delta
+ * with the version {@link #getBaseVersion()} was sent to the client. Entities and relations are
+ * replaced by ID. Comments have no ID of their own and are added or removed as a whole.
+ */
+public class GetDocumentDeltaResponse
+    extends AjaxResponse
+{
+    public static final String COMMAND = "getDocumentDelta";
+
+    @JsonProperty("base_version")
+    private long baseVersion;
+
+    @JsonProperty("render_version")
+    private long renderVersion;
+
+    private List<Entity> entities = new ArrayList<Entity>();
+
+    private List<Relation> relations = new ArrayList<Relation>();
+
+    private List<Comment> comments = new ArrayList<Comment>();
+
+    @JsonProperty("removed_entities")
+    private List<String> removedEntities = new ArrayList<String>();
+
+    @JsonProperty("removed_relations")
+    private List<String> removedRelations = new ArrayList<String>();
+
+    @JsonProperty("removed_comments")
+    private List<Comment> removedComments = new ArrayList<Comment>();
+
+    public GetDocumentDeltaResponse()
+    {
+        super(COMMAND);
+    }
+
+    /**
+     * @return the version the client must hold to apply this delta.
+     */
+    public long getBaseVersion()
+    {
+        return baseVersion;
+    }
+
+    public void setBaseVersion(long aBaseVersion)
+    {
+        baseVersion = aBaseVersion;
+    }
+
+    /**
+     * @return the version the client holds after applying this delta.
+     */
+    public long getRenderVersion()
+    {
+        return renderVersion;
+    }
+
+    public void setRenderVersion(long aRenderVersion)
+    {
+        renderVersion = aRenderVersion;
+    }
+
+    /**
+     * @return new and changed entities.
+     */
+    public List<Entity> getEntities()
+    {
+        return entities;
+    }
+
+    public void setEntities(List<Entity> aEntities)
+    {
+        entities = aEntities;
+    }
+
+    /**
+     * @return new and changed relations.
+     */
+    public List<Relation> getRelations()
+    {
+        return relations;
+    }
+
+    public void setRelations(List<Relation> aRelations)
+    {
+        relations = aRelations;
+    }
+
+    /**
+     * @return new comments.
+     */
+    public List<Comment> getComments()
+    {
+        return comments;
+    }
+
+    public void setComments(List<Comment> aComments)
+    {
+        comments = aComments;
+    }
+
+    public List<String> getRemovedEntities()
+    {
+        return removedEntities;
+    }
+
+    public void setRemovedEntities(List<String> aRemovedEntities)
+    {
+        removedEntities = aRemovedEntities;
+    }
+
+    public List<String> getRemovedRelations()
+    {
+        return removedRelations;
+    }
+
+    public void setRemovedRelations(List<String> aRemovedRelations)
+    {
+        removedRelations = aRemovedRelations;
+    }
+
+    public List<Comment> getRemovedComments()
+    {
+        return removedComments;
+    }
+
+    public void setRemovedComments(List<Comment> aRemovedComments)
+    {
+        removedComments = aRemovedComments;
+    }
+
+    /**
+     * @return whether the delta contains no changes.
+     */
+    @JsonIgnore
+    public boolean isEmpty()
+    {
+        return entities.isEmpty() && relations.isEmpty() && comments.isEmpty()
+                && removedEntities.isEmpty() && removedRelations.isEmpty()
+                && removedComments.isEmpty();
+    }
+}
@@ -43,6 +43,13 @@ public class GetDocumentResponse
     @JsonProperty("sentence_number_offset")
     private int sentenceNumberOffset;
 
+    /**
+     * Version of the rendered data in the client. A {@link GetDocumentDeltaResponse} can only be
+     * applied by the client if it holds the data of the version the delta is based on.
+     */
+    @JsonProperty("render_version")
+    private long renderVersion;
+
     private String text;
 
     @JsonProperty("source_files")
@@ -300,4 +307,14 @@ public class GetDocumentResponse
     {
         rtlMode = aRtlMode;
     }
+
+    public long getRenderVersion()
+    {
+        return renderVersion;
+    }
+
+    public void setRenderVersion(long aRenderVersion)
+    {
+        renderVersion = aRenderVersion;
+    }
 }
@@ -3376,6 +3376,43 @@ Util.profileReport();
         }
       };
 
+// WEBANNO EXTENSION BEGIN - Incremental rendering
+      // Applies the changes sent by the server to the data of the last render and renders the
+      // result. If we do not hold the data the changes are based on, the complete document data
+      // is requested from the server instead.
+      var renderDataPatch = function(patch) {
+        if (!sourceData || sourceData.render_version !== patch.base_version) {
+          dispatcher.post('current', [coll, doc, args, true]);
+          return;
+        }
+
+        // Entities and relations are replaced by ID
+        var patchById = function(list, removed, updated) {
+          var drop = {};
+          $.each(removed, function(idx, id) { drop[id] = true; });
+          $.each(updated, function(idx, item) { drop[item[0]] = true; });
+          var result = $.grep(list, function(item) { return !drop[item[0]]; });
+          return result.concat(updated);
+        };
+        sourceData.entities = patchById(sourceData.entities, patch.removed_entities,
+            patch.entities);
+        sourceData.relations = patchById(sourceData.relations, patch.removed_relations,
+            patch.relations);
+
+        // Comments have no ID of their own, so they are compared as a whole
+        var dropComments = {};
+        $.each(patch.removed_comments, function(idx, comment) {
+          dropComments[JSON.stringify(comment)] = true;
+        });
+        sourceData.comments = $.grep(sourceData.comments, function(comment) {
+          return !dropComments[JSON.stringify(comment)];
+        }).concat(patch.comments);
+
+        sourceData.render_version = patch.render_version;
+        renderData(sourceData);
+      };
+// WEBANNO EXTENSION END
+
       var renderDocument = function() {
         Util.profileStart('invoke getDocument');
         dispatcher.post('ajax', [{
@@ -3811,6 +3848,9 @@ Util.profileStart('before render');
           on('collectionChanged', collectionChanged).
           on('collectionLoaded', collectionLoaded).
           on('renderData', renderData).
+// WEBANNO EXTENSION BEGIN - Incremental rendering
+          on('renderDataPatch', renderDataPatch).
+// WEBANNO EXTENSION END
           on('triggerRender', triggerRender).
           on('requestRenderData', requestRenderData).
           on('isReloadOkay', isReloadOkay).
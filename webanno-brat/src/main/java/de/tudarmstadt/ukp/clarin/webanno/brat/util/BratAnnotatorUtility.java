@@ -39,6 +39,7 @@ import org.apache.uima.jcas.tcas.Annotation;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotator;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SentenceIndex;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
@@ -124,6 +125,7 @@ public class BratAnnotatorUtility
         for (Sentence s : select(aJCas, Sentence.class)) {
             new Sentence(target, s.getBegin(), s.getEnd()).addToIndexes();
         }
+        SentenceIndex.invalidate(target);
 
         
         repository.writeAnnotationCas(target, aSourceDocument, aUser);
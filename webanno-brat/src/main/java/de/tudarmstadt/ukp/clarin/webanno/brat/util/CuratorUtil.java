@@ -25,9 +25,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,6 +42,7 @@ import org.codehaus.jackson.JsonGenerator;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasLoaderService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
@@ -48,6 +51,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasController;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAnnotationException;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.ColoringStrategy;
+import de.tudarmstadt.ukp.clarin.webanno.brat.controller.RenderWindow;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.SpanAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.controller.TypeAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AnnotationOption;
@@ -96,6 +100,8 @@ public class CuratorUtil
      *            the annotation documents.
      * @param aRepository
      *            the repository.
+     * @param aCasLoader
+     *            the CAS loader (may be {@code null}).
      * @param annotationSelectionByUsernameAndAddress
      *            selections by user.
      * @throws UIMAException
@@ -107,21 +113,58 @@ public class CuratorUtil
      */
     public static void getCases(Map<String, JCas> aJCases,
             List<AnnotationDocument> aAnnotationDocuments, RepositoryService aRepository,
+            CasLoaderService aCasLoader,
             Map<String, Map<Integer, AnnotationSelection>> annotationSelectionByUsernameAndAddress)
         throws UIMAException, ClassNotFoundException, IOException
     {
+        List<AnnotationDocument> annotationDocuments = new ArrayList<AnnotationDocument>();
         for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
             String username = annotationDocument.getUser();
             if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
                     || username.equals(CURATION_USER)) {
-                JCas jCas = aRepository.readAnnotationCas(annotationDocument);
-                aJCases.put(username, jCas);
-
-                // cleanup annotationSelections
-                annotationSelectionByUsernameAndAddress.put(username,
-                        new HashMap<Integer, AnnotationSelection>());
+                annotationDocuments.add(annotationDocument);
             }
         }
+
+        for (Entry<AnnotationDocument, JCas> e : readAnnotationCases(annotationDocuments,
+                aRepository, aCasLoader).entrySet()) {
+            String username = e.getKey().getUser();
+            aJCases.put(username, e.getValue());
+
+            // cleanup annotationSelections
+            annotationSelectionByUsernameAndAddress.put(username,
+                    new HashMap<Integer, AnnotationSelection>());
+        }
+    }
+
+    /**
+     * Load the CASes of the given annotation documents. If a CAS loader is available, the CASes
+     * are loaded concurrently, otherwise they are loaded one after the other.
+     *
+     * @param aAnnotationDocuments
+     *            the annotation documents.
+     * @param aRepository
+     *            the repository.
+     * @param aCasLoader
+     *            the CAS loader (may be {@code null}).
+     * @return the CASes in the order of the annotation documents.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public static Map<AnnotationDocument, JCas> readAnnotationCases(
+            List<AnnotationDocument> aAnnotationDocuments, RepositoryService aRepository,
+            CasLoaderService aCasLoader)
+        throws IOException
+    {
+        if (aCasLoader != null) {
+            return aCasLoader.readAnnotationCases(aAnnotationDocuments);
+        }
+
+        Map<AnnotationDocument, JCas> jCases = new LinkedHashMap<AnnotationDocument, JCas>();
+        for (AnnotationDocument annotationDocument : aAnnotationDocuments) {
+            jCases.put(annotationDocument, aRepository.readAnnotationCasCopy(annotationDocument));
+        }
+        return jCases;
     }
 
     public static void populateCurationSentences(
@@ -196,7 +239,8 @@ public class CuratorUtil
         GetDocumentResponse response = new GetDocumentResponse();
 
         // Render invisible baseline annotations (sentence, tokens)
-        SpanAdapter.renderTokenAndSentence(aJcas, response, aBratAnnotatorModel);
+        RenderWindow window = new RenderWindow(aJcas, aBratAnnotatorModel);
+        SpanAdapter.renderTokenAndSentence(aJcas, response, window);
 
         // Render visible (custom) layers
         for (AnnotationLayer layer : aBratAnnotatorModel.getAnnotationLayers()) {
@@ -215,7 +259,7 @@ public class CuratorUtil
             }
             features.removeAll(invisibleFeatures);
             TypeAdapter adapter = getAdapter(aAnnotationService, layer);
-            adapter.render(aJcas, features, response, aBratAnnotatorModel,
+            adapter.render(aJcas, features, response, aBratAnnotatorModel, window,
                     aCurationColoringStrategy);
         }
 
@@ -280,6 +324,27 @@ public class CuratorUtil
             Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
             SourceListView aCurationSegment, AnnotationService aAnnotationService, UserDao aUserDao)
         throws UIMAException, ClassNotFoundException, IOException, BratAnnotationException
+    {
+        updatePanel(aTarget, aParent, aCurationContainer, aMergeVisualizer, aRepository,
+                aAnnotationSelectionByUsernameAndAddress, aCurationSegment, aAnnotationService,
+                aUserDao, null);
+    }
+
+    /**
+     * Same as {@link #updatePanel(AjaxRequestTarget, SuggestionViewPanel, CurationContainer,
+     * BratAnnotator, RepositoryService, Map, SourceListView, AnnotationService, UserDao)}, but
+     * loads the CASes of the annotators using the given CAS loader.
+     */
+    public static void updatePanel(
+            AjaxRequestTarget aTarget,
+            SuggestionViewPanel aParent,
+            CurationContainer aCurationContainer,
+            BratAnnotator aMergeVisualizer,
+            RepositoryService aRepository,
+            Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
+            SourceListView aCurationSegment, AnnotationService aAnnotationService, UserDao aUserDao,
+            CasLoaderService aCasLoader)
+        throws UIMAException, ClassNotFoundException, IOException, BratAnnotationException
     {
         BratAnnotatorModel bModel = aCurationContainer.getBratAnnotatorModel();
         Project project = bModel.getProject();
@@ -287,7 +352,7 @@ public class CuratorUtil
         Map<String, JCas> jCases = new HashMap<String, JCas>();
 
         // This is the CAS that the user can actively edit
-        JCas annotatorCas = getAnnotatorCase(bModel, aRepository, aUserDao,
+        JCas annotatorCas = getAnnotatorCase(bModel, aRepository, aCasLoader, aUserDao,
                 aAnnotationSelectionByUsernameAndAddress, sourceDocument, jCases);
 
         // We store the CAS that the user will edit as the "CURATION USER"
@@ -418,6 +483,7 @@ public class CuratorUtil
     public static JCas getAnnotatorCase(
             BratAnnotatorModel aBModel,
             RepositoryService aRepository,
+            CasLoaderService aCasLoader,
             UserDao aUserDao,
             Map<String, Map<Integer, AnnotationSelection>> aAnnotationSelectionByUsernameAndAddress,
             SourceDocument sourceDocument, Map<String, JCas> jCases)
@@ -452,18 +518,8 @@ public class CuratorUtil
             // Now we get all the other CASes from the repository
             List<AnnotationDocument> annotationDocuments = aRepository
                     .listAnnotationDocuments(sourceDocument);
-            for (AnnotationDocument annotationDocument : annotationDocuments) {
-                String username = annotationDocument.getUser();
-                if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)
-                        || username.equals(CuratorUtil.CURATION_USER)) {
-                    JCas jCas = aRepository.readAnnotationCas(annotationDocument);
-                    jCases.put(username, jCas);
-
-                    // cleanup annotationSelections
-                    aAnnotationSelectionByUsernameAndAddress.put(username,
-                            new HashMap<Integer, AnnotationSelection>());
-                }
-            }
+            getCases(jCases, annotationDocuments, aRepository, aCasLoader,
+                    aAnnotationSelectionByUsernameAndAddress);
         }
         return annotatorCas;
     }
@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.brat.annotation;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Argument;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Comment;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Entity;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Offsets;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.Relation;
+import de.tudarmstadt.ukp.clarin.webanno.brat.display.model.VID;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentDeltaResponse;
+import de.tudarmstadt.ukp.clarin.webanno.brat.message.GetDocumentResponse;
+import de.tudarmstadt.ukp.clarin.webanno.support.JSONUtil;
+
+public class BratRenderStateTest
+{
+    private BratRenderState state;
+
+    @Before
+    public void setup()
+    {
+        state = new BratRenderState(JSONUtil.getJsonConverter().getObjectMapper());
+    }
+
+    @Test
+    public void testFirstRenderIsComplete()
+        throws Exception
+    {
+        assertNull(state.diff(response("This is a test.")));
+    }
+
+    @Test
+    public void testUnchangedResponseGivesEmptyDelta()
+        throws Exception
+    {
+        GetDocumentResponse response = response("This is a test.");
+        response.addEntity(entity(1, "A"));
+        response.addComments(new Comment(new VID(1), "AnnotatorNotes", "note"));
+        state.sent(response);
+
+        GetDocumentResponse next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        next.addComments(new Comment(new VID(1), "AnnotatorNotes", "note"));
+        GetDocumentDeltaResponse delta = state.diff(next);
+
+        assertNotNull(delta);
+        assertTrue(delta.getEntities().isEmpty());
+        assertTrue(delta.getRemovedEntities().isEmpty());
+        assertTrue(delta.getComments().isEmpty());
+        assertTrue(delta.getRemovedComments().isEmpty());
+    }
+
+    @Test
+    public void testAddChangeRemove()
+        throws Exception
+    {
+        GetDocumentResponse response = response("This is a test.");
+        response.addEntity(entity(1, "A"));
+        response.addEntity(entity(2, "B"));
+        response.addRelation(relation(10, 1, 2));
+        state.sent(response);
+
+        GetDocumentResponse next = response("This is a test.");
+        next.addEntity(entity(1, "changed"));
+        next.addEntity(entity(3, "C"));
+        next.addRelation(relation(11, 1, 3));
+        GetDocumentDeltaResponse delta = state.diff(next);
+
+        assertEquals(asList("1", "3"), vids(delta.getEntities()));
+        assertEquals(asList("2"), delta.getRemovedEntities());
+        assertEquals(1, delta.getRelations().size());
+        assertEquals("11", delta.getRelations().get(0).getVid().toString());
+        assertEquals(asList("10"), delta.getRemovedRelations());
+    }
+
+    @Test
+    public void testDuplicateComments()
+        throws Exception
+    {
+        Comment comment = new Comment(new VID(1), "AnnotationError", "error");
+
+        GetDocumentResponse response = response("This is a test.");
+        response.addEntity(entity(1, "A"));
+        response.addComments(comment);
+        response.addComments(comment);
+        state.sent(response);
+
+        // One of the two copies is gone, so all copies are replaced by the remaining one
+        GetDocumentResponse next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        next.addComments(comment);
+        GetDocumentDeltaResponse delta = state.diff(next);
+        assertEquals(1, delta.getRemovedComments().size());
+        assertEquals(1, delta.getComments().size());
+
+        // The copy is added again
+        next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        next.addComments(comment);
+        next.addComments(comment);
+        delta = state.diff(next);
+        assertEquals(1, delta.getRemovedComments().size());
+        assertEquals(2, delta.getComments().size());
+    }
+
+    @Test
+    public void testWindowChangeForcesCompleteRender()
+        throws Exception
+    {
+        GetDocumentResponse response = response("This is a test.");
+        response.addEntity(entity(1, "A"));
+        state.sent(response);
+
+        GetDocumentResponse next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        next.addToken(15, 16);
+        assertNull(state.diff(next));
+
+        // Further changes within the new window are sent as delta again
+        next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        next.addToken(15, 16);
+        assertNotNull(state.diff(next));
+    }
+
+    @Test
+    public void testDuplicateVidForcesCompleteRender()
+        throws Exception
+    {
+        GetDocumentResponse response = response("This is a test.");
+        response.addEntity(entity(1, "A"));
+        state.sent(response);
+
+        GetDocumentResponse next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        next.addEntity(entity(1, "B"));
+        assertNull(state.diff(next));
+
+        // The client holds both entities, so removing one cannot be sent as delta either
+        next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        assertNull(state.diff(next));
+
+        next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        assertNotNull(state.diff(next));
+    }
+
+    @Test
+    public void testDeltaIsBasedOnLastVersion()
+        throws Exception
+    {
+        GetDocumentResponse response = response("This is a test.");
+        state.sent(response);
+
+        GetDocumentResponse next = response("This is a test.");
+        next.addEntity(entity(1, "A"));
+        GetDocumentDeltaResponse delta = state.diff(next);
+        assertEquals(response.getRenderVersion(), delta.getBaseVersion());
+        assertEquals(next.getRenderVersion(), delta.getRenderVersion());
+        assertTrue(delta.getRenderVersion() > delta.getBaseVersion());
+
+        // A complete render also gets a new version, so a client which missed it cannot apply
+        // the next delta
+        GetDocumentResponse moved = response("Another text.");
+        assertNull(state.diff(moved));
+        assertTrue(moved.getRenderVersion() > delta.getRenderVersion());
+
+        delta = state.diff(response("Another text."));
+        assertEquals(moved.getRenderVersion(), delta.getBaseVersion());
+    }
+
+    private GetDocumentResponse response(String aText)
+    {
+        GetDocumentResponse response = new GetDocumentResponse();
+        response.setText(aText);
+        response.addSentence(0, aText.length());
+        response.addToken(0, 4);
+        return response;
+    }
+
+    private Entity entity(int aId, String aLabel)
+    {
+        return new Entity(new VID(aId), "type", new Offsets(0, 4), aLabel, "blue");
+    }
+
+    private Relation relation(int aId, int aOrigin, int aTarget)
+    {
+        return new Relation(new VID(aId), "type",
+                asList(new Argument("Arg1", aOrigin), new Argument("Arg2", aTarget)), "label",
+                "blue");
+    }
+
+    private List<String> vids(List<Entity> aEntities)
+    {
+        List<String> vids = new ArrayList<String>();
+        for (Entity entity : aEntities) {
+            vids.add(entity.getVid().toString());
+        }
+        return vids;
+    }
+}
@@ -17,7 +17,17 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.brat.controller;
 
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getAddr;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getDisplayWindowBeginningSentenceAddresses;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getFirstSentenceNumber;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getLastDisplayWindowFirstSentenceAddress;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getNextPageFirstSentenceAddress;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getPreviousDisplayWindowSentenceBeginAddress;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getSentenceAddress;
+import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.getSentenceNumber;
 import static de.tudarmstadt.ukp.clarin.webanno.brat.controller.BratAjaxCasUtil.isSameSentence;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -56,4 +66,44 @@ public class BratAjaxCasUtilTest
 
         assertTrue(isSameSentence(jcas, 0, 0));
     }
+
+    @Test
+    public void testSentenceNavigation()
+        throws Exception
+    {
+        JCas jcas = JCasFactory.createJCas();
+
+        JCasBuilder jb = new JCasBuilder(jcas);
+        Sentence[] s = new Sentence[5];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = jb.add("Sentence " + (i + 1) + ".", Sentence.class);
+            jb.add(" ");
+        }
+        jb.close();
+
+        assertEquals(1, getSentenceNumber(jcas, s[0].getBegin()));
+        assertEquals(3, getSentenceNumber(jcas, s[2].getEnd()));
+        assertEquals(5, getSentenceNumber(jcas, jcas.getDocumentText().length()));
+
+        assertEquals(0, getFirstSentenceNumber(jcas, getAddr(s[0])));
+        assertEquals(4, getFirstSentenceNumber(jcas, getAddr(s[4])));
+
+        assertEquals(0, getSentenceAddress(jcas, 0));
+        assertEquals(getAddr(s[1]), getSentenceAddress(jcas, 2));
+        assertEquals(0, getSentenceAddress(jcas, 7));
+
+        assertEquals(asList(getAddr(s[0]), getAddr(s[2]), getAddr(s[4])),
+                getDisplayWindowBeginningSentenceAddresses(jcas, 2));
+        assertEquals(getAddr(s[4]), getLastDisplayWindowFirstSentenceAddress(jcas, 2));
+        assertEquals(getAddr(s[2]), getNextPageFirstSentenceAddress(jcas, getAddr(s[0]), 2));
+        assertEquals(getAddr(s[4]), getNextPageFirstSentenceAddress(jcas, getAddr(s[4]), 2));
+        assertEquals(getAddr(s[2]),
+                getPreviousDisplayWindowSentenceBeginAddress(jcas, getAddr(s[4]), 2));
+        assertEquals(getAddr(s[0]),
+                getPreviousDisplayWindowSentenceBeginAddress(jcas, getAddr(s[1]), 2));
+
+        // Adding a sentence must be picked up by the cached sentence index
+        new Sentence(jcas, 0, 1).addToIndexes();
+        assertEquals(6, BratAjaxCasUtil.getSentenceSize(jcas));
+    }
 }
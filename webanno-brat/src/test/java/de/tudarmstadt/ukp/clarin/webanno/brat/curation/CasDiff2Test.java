@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import org.apache.uima.UIMAException;
 import org.apache.uima.cas.CAS;
 import org.apache.uima.cas.FeatureStructure;
@@ -35,6 +36,7 @@ import org.apache.uima.collection.CollectionReader;
 import org.apache.uima.fit.factory.JCasFactory;
 import org.apache.uima.fit.factory.TypeSystemDescriptionFactory;
 import org.apache.uima.fit.util.FSCollectionFactory;
+import org.apache.uima.fit.util.JCasUtil;
 import org.apache.uima.jcas.JCas;
 import org.apache.uima.resource.metadata.TypeDescription;
 import org.apache.uima.resource.metadata.TypeSystemDescription;
@@ -49,6 +51,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.SpanDiffAdapter;
 import de.tudarmstadt.ukp.dkpro.core.api.lexmorph.type.pos.POS;
+import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Sentence;
 import de.tudarmstadt.ukp.dkpro.core.api.segmentation.type.Token;
 import de.tudarmstadt.ukp.dkpro.core.api.syntax.type.dependency.Dependency;
 import de.tudarmstadt.ukp.dkpro.core.io.conll.Conll2006Reader;
@@ -314,6 +317,49 @@ public class CasDiff2Test
         assertEquals(0, agreement.getIncompleteSetsByPosition().size());
     }
 
+    @Test
+    public void segmentedDiffTest()
+        throws Exception
+    {
+        Map<String, List<JCas>> casByUser = load(
+                "casdiff/someDifferences/user1.conll",
+                "casdiff/someDifferences/user2.conll");
+
+        List<String> entryTypes = asList(POS.class.getName());
+
+        List<SpanDiffAdapter> diffAdapters = asList(SpanDiffAdapter.POS);
+
+        Map<Integer, Integer> segments = new LinkedHashMap<>();
+        for (Sentence s : JCasUtil.select(casByUser.get("user1").get(0), Sentence.class)) {
+            segments.put(s.getBegin(), s.getEnd());
+        }
+        
+        Map<Integer, DiffResult> results = CasDiff2.doDiffBySegment(entryTypes, diffAdapters,
+                casByUser, segments);
+        
+        assertEquals(segments.size(), results.size());
+        
+        int total = 0;
+        int differing = 0;
+        for (Entry<Integer, Integer> segment : segments.entrySet()) {
+            DiffResult expected = CasDiff2.doDiff(entryTypes, diffAdapters, casByUser,
+                    segment.getKey(), segment.getValue());
+            DiffResult actual = results.get(segment.getKey());
+            
+            assertEquals(expected.size(), actual.size());
+            assertEquals(expected.getDifferingConfigurationSets().size(),
+                    actual.getDifferingConfigurationSets().size());
+            assertEquals(expected.getIncompleteConfigurationSets().size(),
+                    actual.getIncompleteConfigurationSets().size());
+            
+            total += actual.size();
+            differing += actual.getDifferingConfigurationSets().size();
+        }
+        
+        assertEquals(26, total);
+        assertEquals(4, differing);
+    }
+
     @Test
     public void singleNoDifferencesTest()
         throws Exception
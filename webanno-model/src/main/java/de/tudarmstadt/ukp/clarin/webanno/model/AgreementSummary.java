@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2015
+ * Ubiquitous Knowledge Processing (UKP) Lab and FG Language Technology
+ * Technische Universität Darmstadt
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package de.tudarmstadt.ukp.clarin.webanno.model;
+
+import java.io.Serializable;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.Lob;
+import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+
+/**
+ * Pre-computed inter-annotator agreement counts for a feature on a single source document. There
+ * is one summary per document and feature without users which records the annotators that were
+ * considered and the number of positions in the document. In addition, there is one summary per
+ * pair of annotators ({@code user1} sorts before {@code user2}) holding the number of
+ * configuration sets in each category and the counts of the codings assigned by the two users.
+ */
+@Entity
+@Table(name = "agreement_summary")
+public class AgreementSummary
+    implements Serializable
+{
+    private static final long serialVersionUID = -2458337307011734428L;
+
+    @Id
+    @GeneratedValue
+    private long id;
+
+    @ManyToOne
+    @JoinColumn(name = "document")
+    private SourceDocument document;
+
+    @ManyToOne
+    @JoinColumn(name = "feature")
+    private AnnotationFeature feature;
+
+    private String user1;
+
+    private String user2;
+
+    @Lob
+    private String users;
+
+    private int totalSets;
+
+    private int completeSets;
+
+    private int differingSets;
+
+    private int incompleteSetsByPosition;
+
+    private int incompleteSetsByLabel;
+
+    private int pluralitySets;
+
+    @Lob
+    private String codings;
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public void setId(long aId)
+    {
+        id = aId;
+    }
+
+    public SourceDocument getDocument()
+    {
+        return document;
+    }
+
+    public void setDocument(SourceDocument aDocument)
+    {
+        document = aDocument;
+    }
+
+    public AnnotationFeature getFeature()
+    {
+        return feature;
+    }
+
+    public void setFeature(AnnotationFeature aFeature)
+    {
+        feature = aFeature;
+    }
+
+    public String getUser1()
+    {
+        return user1;
+    }
+
+    public void setUser1(String aUser1)
+    {
+        user1 = aUser1;
+    }
+
+    public String getUser2()
+    {
+        return user2;
+    }
+
+    public void setUser2(String aUser2)
+    {
+        user2 = aUser2;
+    }
+
+    /**
+     * @return the annotators considered for the document (only set on the per-document summary).
+     */
+    public String getUsers()
+    {
+        return users;
+    }
+
+    public void setUsers(String aUsers)
+    {
+        users = aUsers;
+    }
+
+    public int getTotalSets()
+    {
+        return totalSets;
+    }
+
+    public void setTotalSets(int aTotalSets)
+    {
+        totalSets = aTotalSets;
+    }
+
+    public int getCompleteSets()
+    {
+        return completeSets;
+    }
+
+    public void setCompleteSets(int aCompleteSets)
+    {
+        completeSets = aCompleteSets;
+    }
+
+    public int getDifferingSets()
+    {
+        return differingSets;
+    }
+
+    public void setDifferingSets(int aDifferingSets)
+    {
+        differingSets = aDifferingSets;
+    }
+
+    public int getIncompleteSetsByPosition()
+    {
+        return incompleteSetsByPosition;
+    }
+
+    public void setIncompleteSetsByPosition(int aIncompleteSetsByPosition)
+    {
+        incompleteSetsByPosition = aIncompleteSetsByPosition;
+    }
+
+    public int getIncompleteSetsByLabel()
+    {
+        return incompleteSetsByLabel;
+    }
+
+    public void setIncompleteSetsByLabel(int aIncompleteSetsByLabel)
+    {
+        incompleteSetsByLabel = aIncompleteSetsByLabel;
+    }
+
+    public int getPluralitySets()
+    {
+        return pluralitySets;
+    }
+
+    public void setPluralitySets(int aPluralitySets)
+    {
+        pluralitySets = aPluralitySets;
+    }
+
+    /**
+     * @return the coding counts (only set on the per-pair summaries).
+     */
+    public String getCodings()
+    {
+        return codings;
+    }
+
+    public void setCodings(String aCodings)
+    {
+        codings = aCodings;
+    }
+}
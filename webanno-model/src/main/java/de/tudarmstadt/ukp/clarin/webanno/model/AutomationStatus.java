@@ -67,6 +67,12 @@ public class AutomationStatus
     int totalDocs;
     @Type(type = "de.tudarmstadt.ukp.clarin.webanno.model.StatusType")
     private Status status = Status.NOT_STARTED;
+
+    /**
+     * The user who started the automation. The automation runs on behalf of this user.
+     */
+    private String user;
+
     public long getId()
     {
         return id;
@@ -131,6 +137,14 @@ public class AutomationStatus
     {
         this.totalDocs = totalDocs;
     }
+    public String getUser()
+    {
+        return user;
+    }
+    public void setUser(String user)
+    {
+        this.user = user;
+    }
 
 
 }
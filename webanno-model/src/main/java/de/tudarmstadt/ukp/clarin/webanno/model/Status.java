@@ -32,6 +32,10 @@ public enum Status
      *
      */
     NOT_STARTED("not started"),
+    /**
+     * Automation has been requested and waits for a free worker
+     */
+    QUEUED("queued"),
     /**
      * Generating training document adding appropriate features, including from other train layer
      */
@@ -48,6 +52,10 @@ public enum Status
      * automation process is interrupted due to error
      */
     INTERRUPTED("Process interrupted"),
+    /**
+     * automation process has been cancelled by the user
+     */
+    CANCELLED("cancelled"),
     /**
      * Automation completed
      */
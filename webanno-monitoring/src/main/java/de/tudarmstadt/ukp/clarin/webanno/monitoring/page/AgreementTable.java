@@ -112,9 +112,19 @@ public class AgreementTable
                             cell = new Fragment("cell", "td", AgreementTable.this);
                         }
                         
-                        // Top-left cell
+                        // Top-left cell - tell if some documents are not included yet
                         if (aRowItem.getIndex() == 0 && aCellItem.getIndex() == 0) {
-                            cell.add(new Label("label", Model.of("")));
+                            int pending = AgreementTable.this.getModelObject()
+                                    .getPendingDocumentCount();
+                            Label l = new Label("label", Model.of(pending > 0 ? pending
+                                    + " pending" : ""));
+                            if (pending > 0) {
+                                l.add(new AttributeModifier("title", String.format(
+                                        "The agreement of %d documents is still being computed "
+                                                + "and not included yet. Refresh to update.",
+                                        pending)));
+                            }
+                            cell.add(l);
                         }
                         // Raters header horizontally
                         else if (aRowItem.getIndex() == 0 && aCellItem.getIndex() != 0) {
@@ -154,9 +164,9 @@ public class AgreementTable
                                     "- Incomplete (missing): %d%n" +
                                     "- Incomplete (not labeled): %d%n" +                                  
                                     "- Plurality: %d",                                  
-                                    result.getIncompleteSetsByPosition().size(),
-                                    result.getIncompleteSetsByLabel().size(),
-                                    result.getPluralitySets().size());
+                                    result.getIncompleteSetByPositionCount(),
+                                    result.getIncompleteSetByLabelCount(),
+                                    result.getPluralitySetCount());
                             
                             Label l = new Label("label", Model.of(label)); 
                             l.add(new AttributeModifier("title", toolTip));
@@ -24,7 +24,6 @@ import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTra
 import static de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition.NEW_TO_IGNORE;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_FINISHED_TO_CURATION_IN_PROGRESS;
 import static de.tudarmstadt.ukp.clarin.webanno.model.SourceDocumentStateTransition.CURATION_IN_PROGRESS_TO_CURATION_FINISHED;
-import static java.util.Arrays.asList;
 
 import java.awt.Color;
 import java.io.IOException;
@@ -42,7 +41,6 @@ import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.uima.UIMAException;
-import org.apache.uima.jcas.JCas;
 import org.apache.wicket.AttributeModifier;
 import org.apache.wicket.ajax.AjaxEventBehavior;
 import org.apache.wicket.ajax.AjaxRequestTarget;
@@ -79,7 +77,6 @@ import org.jfree.chart.renderer.category.StandardBarPainter;
 import org.jfree.data.category.DefaultCategoryDataset;
 import org.jfree.ui.RectangleInsets;
 import org.jfree.util.UnitType;
-import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
@@ -88,10 +85,7 @@ import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.api.WebAnnoConst;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.SecurityUtil;
 import de.tudarmstadt.ukp.clarin.webanno.automation.AutomationService;
-import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AgreementUtils;
-import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2;
-import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffAdapter;
-import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffResult;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.AgreementService;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.component.CurationPanel;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument;
@@ -99,7 +93,6 @@ import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentStateTransition;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationFeature;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationLayer;
-import de.tudarmstadt.ukp.clarin.webanno.model.Authority;
 import de.tudarmstadt.ukp.clarin.webanno.model.MiraTemplate;
 import de.tudarmstadt.ukp.clarin.webanno.model.Mode;
 import de.tudarmstadt.ukp.clarin.webanno.model.PermissionLevel;
@@ -156,6 +149,9 @@ public class MonitoringPage
 
     @SpringBean(name = "userRepository")
     private UserDao userRepository;
+
+    @SpringBean(name = "agreementService")
+    private AgreementService agreementService;
     
     private final ProjectSelectionForm projectSelectionForm;
     private final MonitoringDetailForm monitoringDetailForm;
@@ -283,13 +279,10 @@ public class MonitoringPage
                             User user = userRepository.get(username);
 
                             List<Project> allProjects = repository.listProjects();
-                            List<Authority> authorities = repository.listAuthorities(user);
 
                             // if global admin, show all projects
-                            for (Authority authority : authorities) {
-                                if (authority.getAuthority().equals("ROLE_ADMIN")) {
-                                    return allProjects;
-                                }
+                            if (SecurityUtil.isSuperAdmin(repository, user)) {
+                                return allProjects;
                             }
 
                             // else only projects she is admin of
@@ -425,11 +418,16 @@ public class MonitoringPage
                     TableDataProvider provider = new TableDataProvider(documentListAsColumnHeader,
                             userAnnotationDocumentStatusList);
 
+                    // All columns share the same model, so the states of all cells are loaded
+                    // once whenever the table is rendered
+                    DocumentStatesModel states = new DocumentStatesModel(
+                            projectSelectionModel.project);
+
                     List<IColumn<?,?>> columns = new ArrayList<IColumn<?,?>>();
 
                     for (int i = 0; i < provider.getColumnCount(); i++) {
                         columns.add(new DocumentStatusColumnMetaData(provider, i, projectSelectionModel.project,
-                                repository));
+                                states));
                     }
                     annotationDocumentStatusTable.remove();
                     annotationDocumentStatusTable = new DefaultDataTable("rsTable", columns,
@@ -541,21 +539,11 @@ public class MonitoringPage
     {
         Map<String, Integer> annotatorsProgress = new HashMap<String, Integer>();
         if (aProject != null) {
+            Map<String, Map<AnnotationDocumentState, Integer>> counts = repository
+                    .countAnnotationDocumentStates(aProject, true);
             for (User user : repository.listProjectUsersWithPermissions(aProject, PermissionLevel.USER)) {
-                for (SourceDocument document : repository.listSourceDocuments(aProject)) {
-                    if (repository.isAnnotationFinished(document, user)) {
-                        if (annotatorsProgress.get(user.getUsername()) == null) {
-                            annotatorsProgress.put(user.getUsername(), 1);
-                        }
-                        else {
-                            int previousValue = annotatorsProgress.get(user.getUsername());
-                            annotatorsProgress.put(user.getUsername(), previousValue + 1);
-                        }
-                    }
-                }
-                if (annotatorsProgress.get(user.getUsername()) == null) {
-                    annotatorsProgress.put(user.getUsername(), 0);
-                }
+                annotatorsProgress.put(user.getUsername(),
+                        getCount(counts, user.getUsername(), AnnotationDocumentState.FINISHED));
             }
         }
         return annotatorsProgress;
@@ -565,31 +553,18 @@ public class MonitoringPage
     {
         Map<String, Integer> annotatorsProgress = new HashMap<String, Integer>();
         if (aProject != null) {
-            for (User user : repository.listProjectUsersWithPermissions(aProject, PermissionLevel.USER)) {
-                int finished = 0;
-                int ignored = 0;
-                int totalDocs = 0;
-                List<SourceDocument> documents = repository.listSourceDocuments(aProject);
-                List<SourceDocument> trainingDoc = new ArrayList<SourceDocument>();
-                for (SourceDocument sdc : documents) {
-                    if (sdc.isTrainingDocument()) {
-                        trainingDoc.add(sdc);
-                    }
-                }
-                documents.removeAll(trainingDoc);
-                for (SourceDocument document : documents) {
+            int totalDocs = 0;
+            for (SourceDocument document : repository.listSourceDocuments(aProject)) {
+                if (!document.isTrainingDocument()) {
                     totalDocs++;
-                    if (repository.isAnnotationFinished(document, user)) {
-                        finished++;
-                    }
-                    else if (repository.existsAnnotationDocument(document, user)) {
-                        AnnotationDocument annotationDocument = repository.getAnnotationDocument(
-                                document, user);
-                        if (annotationDocument.getState().equals(AnnotationDocumentState.IGNORE)) {
-                            ignored++;
-                        }
-                    }
                 }
+            }
+            Map<String, Map<AnnotationDocumentState, Integer>> counts = repository
+                    .countAnnotationDocumentStates(aProject, false);
+            for (User user : repository.listProjectUsersWithPermissions(aProject, PermissionLevel.USER)) {
+                int finished = getCount(counts, user.getUsername(),
+                        AnnotationDocumentState.FINISHED);
+                int ignored = getCount(counts, user.getUsername(), AnnotationDocumentState.IGNORE);
                 annotatorsProgress.put(user.getUsername(),
                         (int) Math.round((double) (finished * 100) / (totalDocs - ignored)));
             }
@@ -597,6 +572,16 @@ public class MonitoringPage
         return annotatorsProgress;
     }
 
+    private static int getCount(Map<String, Map<AnnotationDocumentState, Integer>> aCounts,
+            String aUsername, AnnotationDocumentState aState)
+    {
+        Map<AnnotationDocumentState, Integer> userCounts = aCounts.get(aUsername);
+        if (userCounts == null || userCounts.get(aState) == null) {
+            return 0;
+        }
+        return userCounts.get(aState);
+    }
+
     private Map<String, Integer> getOverallProjectProgress()
     {
         Map<String, Integer> overallProjectProgress = new LinkedHashMap<String, Integer>();
@@ -626,6 +611,54 @@ public class MonitoringPage
         public Map<String, Integer> annotatorsProgressInPercent = new TreeMap<String, Integer>();
     }
 
+    /**
+     * The source documents of a project and the states of their annotation documents as shown
+     * in the user-document status table.
+     */
+    static public class DocumentStates
+        implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        public Map<String, SourceDocument> documents = new HashMap<String, SourceDocument>();
+        public Map<String, Map<String, AnnotationDocumentState>> annotationDocumentStates;
+
+        /**
+         * @return the state of the user's annotation document or {@code null} if the user has
+         *         not opened the document yet.
+         */
+        public AnnotationDocumentState getState(String aDocumentName, String aUsername)
+        {
+            Map<String, AnnotationDocumentState> states = annotationDocumentStates
+                    .get(aDocumentName);
+            return states != null ? states.get(aUsername) : null;
+        }
+    }
+
+    private class DocumentStatesModel
+        extends LoadableDetachableModel<DocumentStates>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Project project;
+
+        public DocumentStatesModel(Project aProject)
+        {
+            project = aProject;
+        }
+
+        @Override
+        protected DocumentStates load()
+        {
+            DocumentStates states = new DocumentStates();
+            for (SourceDocument document : repository.listSourceDocuments(project)) {
+                states.documents.put(document.getName(), document);
+            }
+            states.annotationDocumentStates = repository.getAnnotationDocumentStates(project);
+            return states;
+        }
+    }
+
     static public class SelectionModel
         implements Serializable
     {
@@ -677,16 +710,16 @@ public class MonitoringPage
                         return null;
                     }
                     
-                    Map<String, List<JCas>> casMap = getJCases();
-                    
                     Project project = projectSelectionForm.getModelObject().project;
-                    List<DiffAdapter> adapters = CasDiff2.getAdapters(annotationService,
-                            project);
+                    List<String> raters = new ArrayList<String>();
+                    for (User user : repository.listProjectUsersWithPermissions(project,
+                            PermissionLevel.USER)) {
+                        raters.add(user.getUsername());
+                    }
 
-                    DiffResult diff = CasDiff2.doDiff(asList(feature.getLayer().getName()),
-                            adapters, casMap);
-                    return AgreementUtils.getPairwiseCohenKappaAgreement(diff, feature
-                            .getLayer().getName(), feature.getName(), casMap);
+                    // The agreement is assembled from the data stored per document. Documents
+                    // which changed since are updated in the background and reported as pending.
+                    return agreementService.getPairwiseAgreement(feature, raters);
                 }
             }));
         }
@@ -694,8 +727,6 @@ public class MonitoringPage
 
     private void updateAgreementForm()
     {
-        // Clear the cached CASes. When we switch to another project, we'll have to reload them.
-        cachedCASes = null;
         agreementForm.remove();
         agreementForm = new AgreementForm("agreementForm", new Model<AnnotationLayer>(),
                 new Model<Project>());
@@ -922,82 +953,6 @@ public class MonitoringPage
 
     }
 
-    // The CASes cannot be serialized, so we make them transient here. However, it does not matter
-    // as we do not access the field directly but via getJCases() which will re-load them if
-    // necessary, e.g. if the transient field is empty after a session is restored from a 
-    // persisted state.
-    private transient Map<String, List<JCas>> cachedCASes;
-
-    /**
-     * Get the finished CASes used to compute agreement.
-     */
-    private Map<String, List<JCas>> getJCases()
-    {
-        // Avoid reloading the CASes when switching features. 
-        if (cachedCASes != null) {
-            return cachedCASes;
-        }
-        
-        Project project = projectSelectionForm.getModelObject().project;
-        
-        List<User> users = repository
-                .listProjectUsersWithPermissions(project, PermissionLevel.USER);
-        
-        List<SourceDocument> sourceDocuments = repository.listSourceDocuments(project);
-        
-        // Filter training documents out from the source documents. Training documents are not
-        // being annotated
-        // FIXME actually, listSourceDocuments() shouldn return training documents in the first 
-        // place. Cf. https://github.com/webanno/webanno/issues/23
-        List<SourceDocument> trainingDoc = new ArrayList<SourceDocument>();
-        for (SourceDocument sdc : sourceDocuments) {
-            if (sdc.isTrainingDocument()) {
-                trainingDoc.add(sdc);
-            }
-        }
-        sourceDocuments.removeAll(trainingDoc);
-        
-        cachedCASes = new LinkedHashMap<>();
-        for (User user : users) {
-            List<JCas> cases = new ArrayList<>();
-            
-            for (SourceDocument document : sourceDocuments) {
-                JCas jCas = null;
-                
-                // Load the CAS if there is a finished one.
-                if (repository.existsAnnotationDocument(document, user)) {
-                    AnnotationDocument annotationDocument = repository.getAnnotationDocument(
-                            document, user);
-                    if (annotationDocument.getState().equals(AnnotationDocumentState.FINISHED)) {
-                        try {
-                            jCas = repository.readAnnotationCas(annotationDocument);
-                            repository.upgradeCas(jCas.getCas(), annotationDocument);
-                            // REC: I think there is no need to write the CASes here. We would not
-                            // want to interfere with currently active annotator users
-                        }
-                        catch (DataRetrievalFailureException e) {
-                            error(e.getCause().getMessage());
-                        }
-                        catch (UIMAException e) {
-                            error(ExceptionUtils.getRootCause(e));
-                        }
-                        catch (IOException e) {
-                            error(ExceptionUtils.getRootCause(e));
-                        }
-                    }
-                }
-                
-                // The next line can enter null values into the list if a user didn't work on this
-                // source document yet.
-                cases.add(jCas);
-            }
-
-            cachedCASes.put(user.getUsername(), cases);
-        }
-        
-        return cachedCASes;
-    }
-
     private ChartImageResource createProgressChart(Map<String, Integer> chartValues, int aMaxValue,
             boolean aIsPercentage)
     {
@@ -1052,8 +1007,10 @@ public class MonitoringPage
 
         private Project project;
 
+        private IModel<DocumentStates> states;
+
         public DocumentStatusColumnMetaData(final TableDataProvider prov, final int colNumber,
-                Project aProject, RepositoryService aProjectreRepositoryService)
+                Project aProject, IModel<DocumentStates> aStates)
         {
             super(new AbstractReadOnlyModel<String>()
             {
@@ -1068,17 +1025,20 @@ public class MonitoringPage
             });
             columnNumber = colNumber;
             project = aProject;
-//            projectRepositoryService = aProjectreRepositoryService;
+            states = aStates;
+        }
+
+        @Override
+        public void detach()
+        {
+            super.detach();
+            states.detach();
         }
 
         @Override
         public void populateItem(final Item<ICellPopulator<List<String>>> aCellItem,
                 final String componentId, final IModel<List<String>> rowModel)
         {
-            String username = SecurityContextHolder.getContext().getAuthentication()
-                    .getName();
-            final User user = userRepository.get(username);
-
             int rowNumber = aCellItem.getIndex();
             aCellItem.setOutputMarkupId(true);
 
@@ -1091,7 +1051,7 @@ public class MonitoringPage
                 aCellItem.add(AttributeModifier.append("class", "centering"));
             }
             else if (value.substring(0, value.indexOf(":")).equals(CurationPanel.CURATION_USER)) {
-                SourceDocument document = repository.getSourceDocument(project,
+                SourceDocument document = states.getObject().documents.get(
                         value.substring(value.indexOf(":") + 1));
                 SourceDocumentState state = document.getState();
                 String iconNameForState = SourceDocumentState.NEW.toString();
@@ -1140,6 +1100,9 @@ public class MonitoringPage
                     @Override
                     protected void onEvent(AjaxRequestTarget aTarget)
                     {
+                        String username = SecurityContextHolder.getContext().getAuthentication()
+                                .getName();
+                        User user = userRepository.get(username);
                         SourceDocument document = repository.getSourceDocument(project,
                                 value.substring(value.indexOf(":") + 1));
                         SourceDocumentState state = document.getState();
@@ -1174,24 +1137,20 @@ public class MonitoringPage
                 });
             }
             else {
-                SourceDocument document = repository.getSourceDocument(project,
-                        value.substring(value.indexOf(":") + 1));
-                User annotator = userRepository.get(value.substring(0, value.indexOf(":")));
+                String documentName = value.substring(value.indexOf(":") + 1);
+                String annotatorName = value.substring(0, value.indexOf(":"));
+                SourceDocument document = states.getObject().documents.get(documentName);
 
-                AnnotationDocumentState state;
-                AnnotationDocument annoDoc = null;
-                if (repository.existsAnnotationDocument(document, annotator)) {
-                    annoDoc = repository.getAnnotationDocument(document, annotator);
-                    state = annoDoc.getState();
-                }
+                AnnotationDocumentState state = states.getObject().getState(documentName,
+                        annotatorName);
                 // user didn't even start working on it
-                else {
+                if (state == null) {
                     state = AnnotationDocumentState.NEW;
                     AnnotationDocument annotationDocument = new AnnotationDocument();
                     annotationDocument.setDocument(document);
                     annotationDocument.setName(document.getName());
                     annotationDocument.setProject(project);
-                    annotationDocument.setUser(annotator.getUsername());
+                    annotationDocument.setUser(annotatorName);
                     annotationDocument.setState(state);
                     try {
                         repository.createAnnotationDocument(annotationDocument);
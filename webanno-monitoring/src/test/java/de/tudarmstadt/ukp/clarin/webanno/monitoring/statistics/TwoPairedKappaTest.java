@@ -20,6 +20,7 @@ package de.tudarmstadt.ukp.clarin.webanno.monitoring.statistics;
 import static java.util.Arrays.asList;
 import static org.apache.uima.fit.factory.CollectionReaderFactory.createReader;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -41,6 +42,7 @@ import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.ArcDiffAdapter;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.DiffResult;
 import de.tudarmstadt.ukp.clarin.webanno.brat.curation.CasDiff2.SpanDiffAdapter;
+import de.tudarmstadt.ukp.clarin.webanno.brat.curation.PairwiseAnnotationResult;
 import de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument;
 import de.tudarmstadt.ukp.clarin.webanno.model.User;
 import de.tudarmstadt.ukp.clarin.webanno.tcf.TcfReader;
@@ -278,6 +280,20 @@ public class TwoPairedKappaTest
         System.out.printf("New agreement 1/2: %s%n", agreement12.toString());
         System.out.printf("New agreement 2/3: %s%n", agreement23.toString());
         System.out.printf("New agreement 1/3: %s%n", agreement13.toString());
+        
+        // The pairwise calculation must give the same results as the individual ones
+        PairwiseAnnotationResult pairwise = AgreementUtils.getPairwiseCohenKappaAgreement(diff,
+                Dependency.class.getName(), "DependencyType", convert(userCases));
+        assertEquals(agreement12.getAgreement(),
+                pairwise.getStudy("user1", "user2").getAgreement(), 0.00001d);
+        assertEquals(agreement23.getAgreement(),
+                pairwise.getStudy("user2", "user3").getAgreement(), 0.00001d);
+        assertEquals(agreement13.getAgreement(),
+                pairwise.getStudy("user1", "user3").getAgreement(), 0.00001d);
+        assertEquals(agreement12.getCompleteSetCount(),
+                pairwise.getStudy("user1", "user2").getCompleteSetCount());
+        assertSame(pairwise, AgreementUtils.getPairwiseCohenKappaAgreement(diff,
+                Dependency.class.getName(), "DependencyType", convert(userCases)));
     }
 
     @Rule
@@ -19,7 +19,9 @@ package de.tudarmstadt.ukp.clarin.webanno.project.page;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,10 +30,19 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
+import javax.persistence.NoResultException;
+
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.logging.Log;
@@ -75,6 +86,21 @@ public class ImportUtil
 
     private static final Log LOG = LogFactory.getLog(ImportUtil.class);
 
+    /**
+     * Maximum number of threads extracting the files of a project archive in parallel.
+     */
+    private static final int IMPORT_THREADS = Math.min(4, Runtime.getRuntime()
+            .availableProcessors());
+
+    /**
+     * The kinds of project content stored in an exported project archive besides the project
+     * settings.
+     */
+    private static enum Content
+    {
+        SOURCE, ANNOTATION, CURATION, GUIDELINE, META_INF, LOG
+    }
+
     /**
      * Read Tag and Tag Description. A line has a tag name and a tag description separated by a TAB
      * 
@@ -611,6 +637,24 @@ public class ImportUtil
         }
     }
 
+    /**
+     * Copy all content of the exported project, i.e. the source documents, annotation and curation
+     * documents, guidelines, META-INF and the project log. The archive is scanned only once and the
+     * files are extracted in parallel. This must be called after the source documents have been
+     * created from the project settings.
+     * 
+     * @param zip the ZIP file.
+     * @param aProject the project.
+     * @param aRepository the repository service.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void createProjectContent(ZipFile zip, Project aProject,
+            RepositoryService aRepository)
+        throws IOException
+    {
+        importContent(zip, aProject, aRepository, EnumSet.allOf(Content.class));
+    }
+
     /**
      * copy source document files from the exported source documents
      * @param zip the ZIP file.
@@ -618,29 +662,11 @@ public class ImportUtil
      * @param aRepository the repository service.
      * @throws IOException if an I/O error occurs.
      */
-    @SuppressWarnings("rawtypes")
     public static void createSourceDocumentContent(ZipFile zip, Project aProject,
             RepositoryService aRepository)
         throws IOException
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
-            
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = normalizeEntryName(entry);
-            
-            if (entryName.startsWith(SOURCE)) {
-                String fileName = FilenameUtils.getName(entryName);
-                de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
-                        .getSourceDocument(aProject, fileName);
-                File sourceFilePath = aRepository.getSourceDocumentFile(sourceDocument);
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), sourceFilePath);
-                
-                LOG.info("Imported source document content for source document ["
-                        + sourceDocument.getId() + "] in project [" + aProject.getName()
-                        + "] with id [" + aProject.getId() + "]");
-            }
-        }
+        importContent(zip, aProject, aRepository, EnumSet.of(Content.SOURCE));
     }
 
     /**
@@ -650,37 +676,11 @@ public class ImportUtil
      * @param aRepository the repository service.
      * @throws IOException if an I/O error occurs.
      */
-    @SuppressWarnings("rawtypes")
     public static void createAnnotationDocumentContent(ZipFile zip, Project aProject,
             RepositoryService aRepository)
         throws IOException
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
-
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = normalizeEntryName(entry);
-            
-            if (entryName.startsWith(ANNOTATION_AS_SERIALISED_CAS+"/")) {
-                String fileName = entryName.replace(ANNOTATION_AS_SERIALISED_CAS+"/", "");
-
-                // the user annotated the document is file name minus extension
-                // (anno1.ser)
-                String username = FilenameUtils.getBaseName(fileName).replace(".ser", "");
-
-                // name of the annotation document
-                fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
-                de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
-                        .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
-                
-                LOG.info("Imported annotation document content for user [" + username
-                        + "] for source document [" + sourceDocument.getId() + "] in project ["
-                        + aProject.getName() + "] with id [" + aProject.getId() + "]");
-            }
-        }
+        importContent(zip, aProject, aRepository, EnumSet.of(Content.ANNOTATION));
     }
 
     /**
@@ -690,37 +690,11 @@ public class ImportUtil
      * @param aRepository the repository service.
      * @throws IOException if an I/O error occurs.
      */
-    @SuppressWarnings("rawtypes")
     public static void createCurationDocumentContent(ZipFile zip, Project aProject,
             RepositoryService aRepository)
         throws IOException
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
-
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = normalizeEntryName(entry);
-            
-            if (entryName.startsWith(CURATION_AS_SERIALISED_CAS)) {
-                String fileName = entryName.replace(CURATION_AS_SERIALISED_CAS, "");
-
-                // the user annotated the document is file name minus extension
-                // (anno1.ser)
-                String username = FilenameUtils.getBaseName(fileName).replace(".ser", "");
-
-                // name of the annotation document
-                fileName = fileName.replace(FilenameUtils.getName(fileName), "").replace("/", "");
-                de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument = aRepository
-                        .getSourceDocument(aProject, fileName);
-                File annotationFilePath = aRepository.getCasFile(sourceDocument, username);
-
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), annotationFilePath);
-                
-                LOG.info("Imported curation document content for user [" + username
-                        + "] for source document [" + sourceDocument.getId() + "] in project ["
-                        + aProject.getName() + "] with id [" + aProject.getId() + "]");
-            }
-        }
+        importContent(zip, aProject, aRepository, EnumSet.of(Content.CURATION));
     }
 
     /**
@@ -730,28 +704,11 @@ public class ImportUtil
      * @param aRepository the repository service.
      * @throws IOException if an I/O error occurs.
      */
-    @SuppressWarnings("rawtypes")
     public static void createProjectGuideline(ZipFile zip, Project aProject,
             RepositoryService aRepository)
         throws IOException
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
-            
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = normalizeEntryName(entry);
-            
-            if (entryName.startsWith(GUIDELINE)) {
-                String filename = FilenameUtils.getName(entry.getName());
-                File guidelineDir = aRepository.getGuidelinesFile(aProject);
-                FileUtils.forceMkdir(guidelineDir);
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), new File(guidelineDir,
-                        filename));
-                
-                LOG.info("Imported guideline [" + filename + "] for project [" + aProject.getName()
-                        + "] with id [" + aProject.getId() + "]");
-            }
-        }
+        importContent(zip, aProject, aRepository, EnumSet.of(Content.GUIDELINE));
     }
 
     /**
@@ -761,29 +718,11 @@ public class ImportUtil
      * @param aRepository the repository service.
      * @throws IOException if an I/O error occurs.
      */
-    @SuppressWarnings("rawtypes")
     public static void createProjectMetaInf(ZipFile zip, Project aProject,
             RepositoryService aRepository)
         throws IOException
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
-
-            // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
-            String entryName = normalizeEntryName(entry);
-
-            if (entryName.startsWith(META_INF)) {
-                File metaInfDir = new File(aRepository.getMetaInfFolder(aProject),
-                        FilenameUtils.getPath(entry.getName().replace(META_INF, "")));
-                // where the file reside in the META-INF/... directory
-                FileUtils.forceMkdir(metaInfDir);
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry), new File(metaInfDir,
-                        FilenameUtils.getName(entry.getName())));
-                
-                LOG.info("Imported META-INF for project [" + aProject.getName() + "] with id ["
-                        + aProject.getId() + "]");
-            }
-        }
+        importContent(zip, aProject, aRepository, EnumSet.of(Content.META_INF));
     }
 
     /**
@@ -793,23 +732,224 @@ public class ImportUtil
      * @param aRepository the repository service.
      * @throws IOException if an I/O error occurs.
      */
-    @SuppressWarnings("rawtypes")
     public static void createProjectLog(ZipFile zip, Project aProject, RepositoryService aRepository)
         throws IOException
     {
-        for (Enumeration zipEnumerate = zip.entries(); zipEnumerate.hasMoreElements();) {
-            ZipEntry entry = (ZipEntry) zipEnumerate.nextElement();
+        importContent(zip, aProject, aRepository, EnumSet.of(Content.LOG));
+    }
+
+    /**
+     * A ZIP entry to be extracted to a file.
+     */
+    private static class Extraction
+    {
+        private final ZipEntry entry;
+        private final File target;
+        private final String message;
+
+        public Extraction(ZipEntry aEntry, File aTarget, String aMessage)
+        {
+            entry = aEntry;
+            target = aTarget;
+            message = aMessage;
+        }
+    }
+
+    private static void importContent(final ZipFile aZip, Project aProject,
+            RepositoryService aRepository, Set<Content> aContent)
+        throws IOException
+    {
+        // Look up the source documents once instead of querying for every entry
+        Map<String, SourceDocument> documents = new HashMap<String, SourceDocument>();
+        if (aContent.contains(Content.SOURCE) || aContent.contains(Content.ANNOTATION)
+                || aContent.contains(Content.CURATION)) {
+            for (SourceDocument document : aRepository.listSourceDocuments(aProject)) {
+                documents.put(document.getName(), document);
+            }
+        }
+
+        // Determine the target file of every entry in a single pass over the archive. If several
+        // entries have the same target, only the last one needs to be extracted since it would
+        // overwrite the others anyway.
+        Map<File, Extraction> extractions = new LinkedHashMap<File, Extraction>();
+        for (Enumeration<? extends ZipEntry> zipEnumerate = aZip.entries(); zipEnumerate
+                .hasMoreElements();) {
+            ZipEntry entry = zipEnumerate.nextElement();
+            if (entry.isDirectory()) {
+                continue;
+            }
 
             // Strip leading "/" that we had in ZIP files prior to 2.0.8 (bug #985)
             String entryName = normalizeEntryName(entry);
-            
-            if (entryName.startsWith(LOG_DIR)) {
-                FileUtils.copyInputStreamToFile(zip.getInputStream(entry),
-                        aRepository.getProjectLogFile(aProject));
-                LOG.info("Imported log for project [" + aProject.getName() + "] with id ["
-                        + aProject.getId() + "]");
+
+            Extraction extraction = null;
+            if (entryName.startsWith(SOURCE)) {
+                if (aContent.contains(Content.SOURCE)) {
+                    String fileName = FilenameUtils.getName(entryName);
+                    SourceDocument sourceDocument = getSourceDocument(aRepository, aProject,
+                            documents, fileName);
+                    if (sourceDocument != null) {
+                        extraction = new Extraction(entry,
+                                aRepository.getSourceDocumentFile(sourceDocument),
+                                "Imported source document content for source document ["
+                                        + sourceDocument.getId() + "] in project ["
+                                        + aProject.getName() + "] with id [" + aProject.getId()
+                                        + "]");
+                    }
+                }
+            }
+            else if (entryName.startsWith(ANNOTATION_AS_SERIALISED_CAS + "/")) {
+                if (aContent.contains(Content.ANNOTATION)) {
+                    String fileName = entryName.replace(ANNOTATION_AS_SERIALISED_CAS + "/", "");
+                    extraction = makeCasExtraction(aRepository, aProject, documents, entry,
+                            fileName, "annotation");
+                }
+            }
+            else if (entryName.startsWith(CURATION_AS_SERIALISED_CAS)) {
+                if (aContent.contains(Content.CURATION)) {
+                    String fileName = entryName.replace(CURATION_AS_SERIALISED_CAS, "");
+                    extraction = makeCasExtraction(aRepository, aProject, documents, entry,
+                            fileName, "curation");
+                }
+            }
+            else if (entryName.startsWith(GUIDELINE)) {
+                if (aContent.contains(Content.GUIDELINE)) {
+                    String filename = FilenameUtils.getName(entry.getName());
+                    extraction = new Extraction(entry, new File(
+                            aRepository.getGuidelinesFile(aProject), filename), "Imported guideline ["
+                            + filename + "] for project [" + aProject.getName() + "] with id ["
+                            + aProject.getId() + "]");
+                }
+            }
+            else if (entryName.startsWith(META_INF)) {
+                if (aContent.contains(Content.META_INF)) {
+                    // where the file reside in the META-INF/... directory
+                    File metaInfDir = new File(aRepository.getMetaInfFolder(aProject),
+                            FilenameUtils.getPath(entry.getName().replace(META_INF, "")));
+                    extraction = new Extraction(entry, new File(metaInfDir,
+                            FilenameUtils.getName(entry.getName())), "Imported META-INF for project ["
+                            + aProject.getName() + "] with id [" + aProject.getId() + "]");
+                }
+            }
+            else if (entryName.startsWith(LOG_DIR)) {
+                if (aContent.contains(Content.LOG)) {
+                    extraction = new Extraction(entry, aRepository.getProjectLogFile(aProject),
+                            "Imported log for project [" + aProject.getName() + "] with id ["
+                                    + aProject.getId() + "]");
+                }
+            }
+
+            if (extraction != null) {
+                // Re-insert so that the order of extraction follows the last entry
+                extractions.remove(extraction.target);
+                extractions.put(extraction.target, extraction);
+            }
+        }
+
+        if (extractions.isEmpty()) {
+            return;
+        }
+
+        // Extract the files in parallel. Reading from the ZIP file is thread-safe.
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(IMPORT_THREADS, extractions.size()), new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(Runnable aRunnable)
+                    {
+                        Thread thread = new Thread(aRunnable, "webanno-project-import-"
+                                + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final Extraction extraction : extractions.values()) {
+                results.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                        throws IOException
+                    {
+                        FileUtils.copyInputStreamToFile(aZip.getInputStream(extraction.entry),
+                                extraction.target);
+                        LOG.info(extraction.message);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while importing project ["
+                            + aProject.getName() + "]");
+                }
+            }
+        }
+        finally {
+            // Stops the remaining extractions if one of them failed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Prepare the extraction of a serialized annotation or curation CAS. The entry name relative
+     * to the CAS folder is {@code <document name>/<user>.ser}.
+     */
+    private static Extraction makeCasExtraction(RepositoryService aRepository, Project aProject,
+            Map<String, SourceDocument> aDocuments, ZipEntry aEntry, String aFileName,
+            String aKind)
+    {
+        // the user annotated the document is file name minus extension
+        // (anno1.ser)
+        String username = FilenameUtils.getBaseName(aFileName).replace(".ser", "");
+
+        // name of the annotation document
+        String documentName = aFileName.replace(FilenameUtils.getName(aFileName), "").replace(
+                "/", "");
+        SourceDocument sourceDocument = getSourceDocument(aRepository, aProject, aDocuments,
+                documentName);
+        if (sourceDocument == null) {
+            return null;
+        }
+
+        return new Extraction(aEntry, aRepository.getCasFile(sourceDocument, username),
+                "Imported " + aKind + " document content for user [" + username
+                        + "] for source document [" + sourceDocument.getId() + "] in project ["
+                        + aProject.getName() + "] with id [" + aProject.getId() + "]");
+    }
+
+    private static SourceDocument getSourceDocument(RepositoryService aRepository,
+            Project aProject, Map<String, SourceDocument> aDocuments, String aName)
+    {
+        SourceDocument sourceDocument = aDocuments.get(aName);
+        if (sourceDocument == null) {
+            // Not all documents are listed, e.g. tab-separated ones are left out
+            try {
+                sourceDocument = aRepository.getSourceDocument(aProject, aName);
+                aDocuments.put(aName, sourceDocument);
+            }
+            catch (NoResultException e) {
+                LOG.warn("No source document [" + aName + "] in project [" + aProject.getName()
+                        + "] - skipping its content");
             }
         }
+        return sourceDocument;
     }
 
     public static de.tudarmstadt.ukp.clarin.webanno.model.export.AnnotationLayer exportLayerDetails(
@@ -22,12 +22,15 @@ import static org.apache.commons.collections.CollectionUtils.isEmpty;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.uima.UIMAException;
 import org.apache.wicket.markup.html.form.Button;
 import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.markup.html.form.ListMultipleChoice;
@@ -41,6 +44,7 @@ import org.apache.wicket.spring.injection.annot.SpringBean;
 import org.springframework.security.core.context.SecurityContextHolder;
 
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.DocumentImportReport;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.model.Project;
@@ -120,47 +124,42 @@ public class ProjectDocumentsPanel
                     return;
                 }
 
-                for (FileUpload documentToUpload : uploadedFiles) {
-                    String fileName = documentToUpload.getClientFileName();
+                String username = SecurityContextHolder.getContext().getAuthentication()
+                        .getName();
+                User user = userRepository.get(username);
 
-                    if (repository.existsSourceDocument(project, fileName)) {
-                        error("Document " + fileName + " already uploaded ! Delete "
-                                + "the document if you want to upload again");
-                        continue;
+                Map<String, File> files = new LinkedHashMap<String, File>();
+                try {
+                    for (FileUpload documentToUpload : uploadedFiles) {
+                        files.put(documentToUpload.getClientFileName(),
+                                documentToUpload.writeToTempFile());
                     }
 
-                    try {
-                        File uploadFile = documentToUpload.writeToTempFile();
-
-                        String username = SecurityContextHolder.getContext().getAuthentication()
-                                .getName();
-                        User user = userRepository.get(username);
-
-                        SourceDocument document = new SourceDocument();
-                        document.setName(fileName);
-                        document.setProject(project);
+                    String reader = repository.getReadableFormatId(readableFormatsChoice
+                            .getModelObject());
+                    DocumentImportReport report = repository.uploadSourceDocuments(project,
+                            reader, files, user);
 
-                        String reader = repository.getReadableFormatId(readableFormatsChoice
-                                .getModelObject());
-                        document.setFormat(reader);
-                        repository.createSourceDocument(document, user);
-                        repository.uploadSourceDocument(uploadFile, document);
+                    for (String fileName : report.getImported()) {
                         info("File [" + fileName + "] has been imported successfully!");
                     }
-                    catch (ClassNotFoundException e) {
-                        error(e.getMessage());
-                        LOG.error(e.getMessage(), e);
+                    for (Entry<String, String> e : report.getErrors().entrySet()) {
+                        error("Error uploading document " + e.getKey() + ": " + e.getValue());
                     }
-                    catch (IOException e) {
-                        error("Error uploading document " + e.getMessage());
-                        LOG.error(e.getMessage(), e);
-                    }
-                    catch (UIMAException e) {
-                        error("Error uploading document " + ExceptionUtils.getRootCauseMessage(e));
-                        LOG.error(e.getMessage(), e);
+                }
+                catch (ClassNotFoundException e) {
+                    error(e.getMessage());
+                    LOG.error(e.getMessage(), e);
+                }
+                catch (IOException e) {
+                    error("Error uploading document " + e.getMessage());
+                    LOG.error(e.getMessage(), e);
+                }
+                finally {
+                    for (File file : files.values()) {
+                        FileUtils.deleteQuietly(file);
                     }
                 }
-
             }
         });
 
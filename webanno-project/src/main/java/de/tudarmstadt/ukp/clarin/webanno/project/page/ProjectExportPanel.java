@@ -17,12 +17,15 @@
  ******************************************************************************/
 package de.tudarmstadt.ukp.clarin.webanno.project.page;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -32,7 +35,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
@@ -61,7 +72,6 @@ import com.ibm.icu.text.SimpleDateFormat;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
-import de.tudarmstadt.ukp.clarin.webanno.api.dao.ZipUtils;
 import de.tudarmstadt.ukp.clarin.webanno.api.dao.SecurityUtil;
 import de.tudarmstadt.ukp.clarin.webanno.automation.AutomationService;
 import de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocumentState;
@@ -94,15 +104,23 @@ public class ProjectExportPanel extends Panel {
     
     private static final String FORMAT_AUTO = "AUTO";
 
-	private static final String META_INF = "/" + ImportUtil.META_INF;
+	// Paths of the entries in the exported ZIP file
+	private static final String META_INF = ImportUtil.META_INF + "/";
 	public static final String EXPORTED_PROJECT = ImportUtil.EXPORTED_PROJECT;
-	private static final String SOURCE_FOLDER = "/"+ImportUtil.SOURCE;
-	private static final String CURATION_AS_SERIALISED_CAS = "/"+ImportUtil.CURATION_AS_SERIALISED_CAS+"/";
-	private static final String CURATION_FOLDER = "/curation/";
-	private static final String LOG_FOLDER = "/" + ImportUtil.LOG_DIR;
-	private static final String GUIDELINES_FOLDER = "/"+ImportUtil.GUIDELINE;
-	private static final String ANNOTATION_CAS_FOLDER = "/"+ImportUtil.ANNOTATION_AS_SERIALISED_CAS+"/";
-	private static final String ANNOTATION_ORIGINAL_FOLDER = "/annotation/";
+	private static final String SOURCE_FOLDER = ImportUtil.SOURCE + "/";
+	private static final String CURATION_AS_SERIALISED_CAS = ImportUtil.CURATION_AS_SERIALISED_CAS + "/";
+	private static final String CURATION_FOLDER = "curation/";
+	private static final String LOG_FOLDER = ImportUtil.LOG_DIR + "/";
+	private static final String GUIDELINES_FOLDER = ImportUtil.GUIDELINE + "/";
+	private static final String ANNOTATION_CAS_FOLDER = ImportUtil.ANNOTATION_AS_SERIALISED_CAS + "/";
+	private static final String ANNOTATION_ORIGINAL_FOLDER = "annotation/";
+
+	/**
+	 * Number of documents converted concurrently during export. Each of them may hold one
+	 * serialized CAS in memory while waiting to be written to the ZIP file.
+	 */
+	private static final int EXPORT_THREADS = Math.max(1,
+			Math.min(4, Runtime.getRuntime().availableProcessors()));
 
 	private static final String CURATION_USER = "CURATION_USER";
 	private static final String CORRECTION_USER = "CORRECTION_USER";
@@ -160,23 +178,75 @@ public class ProjectExportPanel extends Panel {
 	}
 	
     /**
-     * Copy, if exists, curation documents to a folder that will be exported as Zip file
-     *
-     * @param aProject
-     *            The {@link Project}
-     * @param aCurationDocumentExist
-     *            Check if Curation document exists
-     * @param aCopyDir
-     *            The folder where curated documents are copied to be exported as Zip File
+     * Add a ZIP entry containing the given data. Multiple threads may export documents at the same
+     * time, but only one of them may write to the ZIP file.
+     */
+    private static void addZipEntry(ZipOutputStream aZip, String aPath, byte[] aData)
+        throws IOException
+    {
+        synchronized (aZip) {
+            aZip.putNextEntry(new ZipEntry(aPath));
+            aZip.write(aData);
+            aZip.closeEntry();
+        }
+    }
+
+    /**
+     * Add a ZIP entry containing the contents of the given file.
      */
-    private void exportCuratedDocuments(ProjectExportModel aModel, File aCopyDir)
-        throws FileNotFoundException, UIMAException, IOException, ClassNotFoundException
+    private static void addZipEntry(ZipOutputStream aZip, String aPath, File aFile)
+        throws IOException
     {
-        // Get all the source documents from the project
-        List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = repository
-                .listSourceDocuments(aModel.project);
+        synchronized (aZip) {
+            aZip.putNextEntry(new ZipEntry(aPath));
+            Files.copy(aFile.toPath(), aZip);
+            aZip.closeEntry();
+        }
+    }
+
+    /**
+     * Add the CAS of the given user as a self-contained serialized CAS to the given ZIP folder.
+     * The CAS files in the repository cannot be copied directly because they may refer to a type
+     * system stored elsewhere in the repository. The CAS is serialized before the ZIP file is
+     * locked so that other documents can be written in the meantime.
+     */
+    private void exportSerializedCas(
+            de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument aDocument, String aUser,
+            ZipOutputStream aZip, String aFolder)
+        throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        repository.exportSerializedCas(aDocument, aUser, buffer);
+        addZipEntry(aZip, aFolder + aUser + ".ser", buffer.toByteArray());
+    }
 
-        // Determine which format to use for export.
+    /**
+     * Convert the CAS of the given user using the given writer and add the result to the given
+     * ZIP folder.
+     */
+    @SuppressWarnings("rawtypes")
+    private void exportConvertedCas(
+            de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument aDocument, String aUser,
+            Class aWriter, Mode aMode, boolean aStripExtension, ZipOutputStream aZip,
+            String aFolder)
+        throws UIMAException, IOException, ClassNotFoundException
+    {
+        File file = repository.exportAnnotationDocument(aDocument, aUser, aWriter, aUser, aMode,
+                aStripExtension);
+        try {
+            addZipEntry(aZip, aFolder + file.getName(), file);
+        }
+        finally {
+            FileUtils.forceDelete(file);
+        }
+    }
+
+    /**
+     * Determine which format to use for the export of curated documents.
+     */
+    private Class<?> getCurationWriter(ProjectExportModel aModel)
+        throws ClassNotFoundException, IOException
+    {
         Class<?> writer;
         if (FORMAT_AUTO.equals(aModel.format)) {
             writer = WebannoCustomTsvWriter.class;
@@ -188,36 +258,37 @@ public class ProjectExportPanel extends Panel {
                 writer = WebannoCustomTsvWriter.class;
             }
         }
-        
-        int initProgress = progress-1;
-        int i = 1;
-        for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
-            File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
-                    + sourceDocument.getName());
-            FileUtils.forceMkdir(curationCasDir);
-
-            File curationDir = new File(aCopyDir + CURATION_FOLDER + sourceDocument.getName());
-            FileUtils.forceMkdir(curationDir);
-
-            // If the curation document is exist (either finished or in progress
-            if (sourceDocument.getState().equals(SourceDocumentState.CURATION_FINISHED)
-                    || sourceDocument.getState().equals(SourceDocumentState.CURATION_IN_PROGRESS)) {
-                File curationCasFile = repository.getCasFile(sourceDocument,
-                        CURATION_USER);
-                if (curationCasFile.exists()) {
-                    // Copy CAS - this is used when importing the project again
-                    FileUtils.copyFileToDirectory(curationCasFile, curationCasDir);
-                    
-                    // Copy secondary export format for convenience - not used during import
-                    File curationFile = repository.exportAnnotationDocument(sourceDocument,
-                            CURATION_USER, writer, CURATION_USER, Mode.CURATION);
-                    FileUtils.copyFileToDirectory(curationFile, curationDir);
-                    FileUtils.forceDelete(curationFile);
-                }
+        return writer;
+    }
+
+    /**
+     * Add, if exists, the curation document of the given source document to the ZIP file.
+     *
+     * @param aDocument
+     *            The source document
+     * @param aWriter
+     *            The writer used for the secondary export format
+     * @param aZip
+     *            The ZIP file the curated document is added to
+     */
+    private void exportCuratedDocument(
+            de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument aDocument, Class<?> aWriter,
+            ZipOutputStream aZip)
+        throws UIMAException, IOException, ClassNotFoundException
+    {
+        // If the curation document is exist (either finished or in progress
+        if (aDocument.getState().equals(SourceDocumentState.CURATION_FINISHED)
+                || aDocument.getState().equals(SourceDocumentState.CURATION_IN_PROGRESS)) {
+            File curationCasFile = repository.getCasFile(aDocument, CURATION_USER);
+            if (curationCasFile.exists()) {
+                // Copy CAS - this is used when importing the project again
+                exportSerializedCas(aDocument, CURATION_USER, aZip, CURATION_AS_SERIALISED_CAS
+                        + aDocument.getName() + "/");
+
+                // Copy secondary export format for convenience - not used during import
+                exportConvertedCas(aDocument, CURATION_USER, aWriter, Mode.CURATION, true, aZip,
+                        CURATION_FOLDER + aDocument.getName() + "/");
             }
-            
-            progress = initProgress+ (int) Math.ceil(((double) i)/documents.size()*10.0);
-            i++;
         }
     }
     
@@ -267,33 +338,29 @@ public class ProjectExportPanel extends Panel {
                 @Override
                 protected File load() {
                     File exportFile = null;
-                    File exportTempDir = null;
                     try {
-                        exportTempDir = File.createTempFile("webanno", "export");
-                        exportTempDir.delete();
-                        exportTempDir.mkdirs();
-
                         boolean curationDocumentExist = existsCurationDocument(ProjectExportForm.this
                                 .getModelObject().project);
 
                         if (!curationDocumentExist) {
                             error("No curation document created yet for this document");
                         } else {
-                            exportCuratedDocuments(ProjectExportForm.this.getModelObject(),
-                                    exportTempDir);
-                            ZipUtils.zipFolder(exportTempDir, new File(
-                                    exportTempDir.getAbsolutePath() + ".zip"));
-                            exportFile = new File(exportTempDir.getAbsolutePath()
-                                    + ".zip");
-
+                            ProjectExportModel model = ProjectExportForm.this.getModelObject();
+                            Class<?> writer = getCurationWriter(model);
+                            exportFile = File.createTempFile("webanno-curation", ".zip");
+                            try (ZipOutputStream zip = new ZipOutputStream(
+                                    new BufferedOutputStream(new FileOutputStream(exportFile)))) {
+                                for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : repository
+                                        .listSourceDocuments(model.project)) {
+                                    exportCuratedDocument(sourceDocument, writer, zip);
+                                }
+                            }
                         }
                     } catch (Exception e) {
                         error(e.getMessage());
-                    } finally {
-                        try {
-                            FileUtils.forceDelete(exportTempDir);
-                        } catch (IOException e) {
-                            error("Unable to delete temp file");
+                        if (exportFile != null) {
+                            FileUtils.deleteQuietly(exportFile);
+                            exportFile = null;
                         }
                     }
 
@@ -471,48 +538,131 @@ public class ProjectExportPanel extends Panel {
             throws IOException, UIMAException, ClassNotFoundException, ZippingException,
             InterruptedException, ProjectExportException
         {
-            File exportTempDir = null;
-            // all metadata and project settings data from the database as JSON file
-            File projectSettings = null;
-            projectSettings = File.createTempFile(EXPORTED_PROJECT, ".json");
-            // Directory to store source documents and annotation documents
-            exportTempDir = File.createTempFile("webanno-project", "export");
-            exportTempDir.delete();
-            exportTempDir.mkdirs();
-
-            File projectZipFile = new File(exportTempDir.getAbsolutePath() + ".zip");
             if (aModel.project.getId() == 0) {
                 throw new ProjectExportException(
                         "Project not yet created. Please save project details first!");
             }
 
-            exportProjectSettings(aModel.project, projectSettings, exportTempDir);
-            progress = 9;
-            exportSourceDocuments(aModel.project, exportTempDir);
-            exportAnnotationDocuments(aModel, exportTempDir);
-            exportProjectLog(aModel.project, exportTempDir);
-            exportGuideLine(aModel.project, exportTempDir);
-            exportProjectMetaInf(aModel.project, exportTempDir);
-            progress = 90;
-            exportCuratedDocuments(aModel, exportTempDir);
+            // The documents are streamed directly into the ZIP file. There is no intermediate
+            // copy of the project on disk.
+            File projectZipFile = File.createTempFile("webanno-project", ".zip");
+            boolean success = false;
+            ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(projectZipFile)));
             try {
-                ZipUtils.zipFolder(exportTempDir, projectZipFile);
-            }
-            catch (Exception e) {
-                throw new ZippingException("Unable to Zipp the file");
+                exportProjectSettings(aModel.project, zip);
+                progress = 9;
+                exportDocuments(aModel, zip);
+                exportProjectLog(aModel.project, zip);
+                exportGuideLine(aModel.project, zip);
+                exportProjectMetaInf(aModel.project, zip);
+                success = true;
             }
             finally {
-                FileUtils.forceDelete(projectSettings);
-                System.gc();
-                FileUtils.forceDelete(exportTempDir);
+                // Workers of a cancelled export may still be writing
+                synchronized (zip) {
+                    try {
+                        zip.close();
+                    }
+                    catch (IOException e) {
+                        if (success) {
+                            throw new ZippingException("Unable to Zipp the file");
+                        }
+                    }
+                }
+                if (!success) {
+                    FileUtils.deleteQuietly(projectZipFile);
+                }
             }
             progress = 100;
 
             return projectZipFile;
         }
 
-        private void exportProjectSettings(Project aProject, File aProjectSettings,
-                File aExportTempDir)
+        /**
+         * Export the source documents, annotation documents and curation documents. The documents
+         * are processed concurrently by a bounded number of threads. Progress is updated whenever
+         * a document is complete.
+         */
+        private void exportDocuments(final ProjectExportModel aModel, final ZipOutputStream aZip)
+            throws IOException, UIMAException, ClassNotFoundException, InterruptedException
+        {
+            List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = repository
+                    .listSourceDocuments(aModel.project);
+            List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> tabSepDocuments = automationService
+                    .listTabSepDocuments(aModel.project);
+            final Class<?> curationWriter = getCurationWriter(aModel);
+
+            final int total = documents.size() + tabSepDocuments.size();
+            final int initProgress = progress;
+            final AtomicInteger done = new AtomicInteger();
+
+            ExecutorService executor = Executors.newFixedThreadPool(EXPORT_THREADS);
+            try {
+                List<Future<Void>> futures = new ArrayList<Future<Void>>();
+                for (final de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
+                    futures.add(executor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                            throws Exception
+                        {
+                            exportSourceDocument(sourceDocument, aZip);
+                            exportAnnotationDocuments(aModel, sourceDocument, aZip);
+                            exportCuratedDocument(sourceDocument, curationWriter, aZip);
+                            progress = initProgress
+                                    + (int) Math.ceil(((double) done.incrementAndGet()) / total
+                                            * (99 - initProgress));
+                            return null;
+                        }
+                    }));
+                }
+                // Training documents of automation projects only have a source file
+                for (final de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : tabSepDocuments) {
+                    futures.add(executor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                            throws Exception
+                        {
+                            exportSourceDocument(sourceDocument, aZip);
+                            progress = initProgress
+                                    + (int) Math.ceil(((double) done.incrementAndGet()) / total
+                                            * (99 - initProgress));
+                            return null;
+                        }
+                    }));
+                }
+
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    }
+                    catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        if (cause instanceof UIMAException) {
+                            throw (UIMAException) cause;
+                        }
+                        if (cause instanceof ClassNotFoundException) {
+                            throw (ClassNotFoundException) cause;
+                        }
+                        if (cause instanceof RuntimeException) {
+                            throw (RuntimeException) cause;
+                        }
+                        throw new IOException(cause);
+                    }
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        private void exportProjectSettings(Project aProject, ZipOutputStream aZip)
+            throws IOException
         {
             de.tudarmstadt.ukp.clarin.webanno.model.export.Project exProjekt = new de.tudarmstadt.ukp.clarin.webanno.model.export.Project();
             exProjekt.setDescription(aProject.getDescription());
@@ -678,180 +828,132 @@ public class ProjectExportPanel extends Panel {
 
             exProjekt.setMiraTemplates(exTemplates);
 
-            try {
-                JSONUtil.generateJson(exProjekt, aProjectSettings);
-                FileUtils.copyFileToDirectory(aProjectSettings, aExportTempDir);
-            }
-            catch (IOException e) {
-                error("File Path not found or No permision to save the file!");
-            }
+            addZipEntry(aZip, EXPORTED_PROJECT + ".json", JSONUtil.toJsonString(exProjekt)
+                    .getBytes());
         }
 
         /**
-         * Copy source documents from the file system of this project to the export folder
+         * Copy the source document from the file system of this project to the ZIP file
          */
-        private void exportSourceDocuments(Project aProject, File aCopyDir)
+        private void exportSourceDocument(
+                de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument aDocument,
+                ZipOutputStream aZip)
             throws IOException
         {
-            File sourceDocumentDir = new File(aCopyDir + SOURCE_FOLDER);
-            FileUtils.forceMkdir(sourceDocumentDir);
-            // Get all the source documents from the project
-            List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = repository
-                    .listSourceDocuments(aProject);
-            documents.addAll(automationService.listTabSepDocuments(aProject));
-            int i = 1;
-            for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
-                FileUtils.copyFileToDirectory(repository.getSourceDocumentFile(sourceDocument),
-                        sourceDocumentDir);
-                progress = (int) Math.ceil(((double) i) / documents.size() * 10.0);
-                i++;
-            }
+            addZipEntry(aZip, SOURCE_FOLDER + aDocument.getName(),
+                    repository.getSourceDocumentFile(aDocument));
         }
 
         /**
-         * Copy annotation document as Serialized CAS from the file system of this project to the
-         * export folder
-         *
-         * @throws ClassNotFoundException
-         * @throws UIMAException
+         * Add the annotation documents of the given source document as serialized CASes and in
+         * the export format to the ZIP file
          */
-        private void exportAnnotationDocuments(ProjectExportModel aModel, File aCopyDir)
+        private void exportAnnotationDocuments(ProjectExportModel aModel,
+                de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument,
+                ZipOutputStream aZip)
             throws IOException, UIMAException, ClassNotFoundException
         {
-            List<de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument> documents = repository
-                    .listSourceDocuments(aModel.project);
-            int i = 1;
-            int initProgress = progress;
-            for (de.tudarmstadt.ukp.clarin.webanno.model.SourceDocument sourceDocument : documents) {
-                // Determine which format to use for export
-                String formatId;
-                if (FORMAT_AUTO.equals(aModel.format)) {
-                    formatId = sourceDocument.getFormat();
-                }
-                else {
-                    formatId = repository.getWritableFormatId(aModel.format);
-                }
-                Class<?> writer = repository.getWritableFormats().get(formatId);
-                if (writer == null) {
-                    String msg = "[" + sourceDocument.getName()
-                            + "] No writer found for format [" + formatId
-                            + "] - exporting as WebAnno TSV instead.";
-                    // Avoid repeating the same message over for different users
-                    if (!messages.contains(msg)) {
-                        messages.add(msg);
-                    }
-                    writer = WebannoCustomTsvWriter.class;
+            // Determine which format to use for export
+            String formatId;
+            if (FORMAT_AUTO.equals(aModel.format)) {
+                formatId = sourceDocument.getFormat();
+            }
+            else {
+                formatId = repository.getWritableFormatId(aModel.format);
+            }
+            Class<?> writer = repository.getWritableFormats().get(formatId);
+            if (writer == null) {
+                String msg = "[" + sourceDocument.getName()
+                        + "] No writer found for format [" + formatId
+                        + "] - exporting as WebAnno TSV instead.";
+                // Avoid repeating the same message over for different users
+                if (!messages.contains(msg)) {
+                    messages.add(msg);
                 }
+                writer = WebannoCustomTsvWriter.class;
+            }
 
-                // Export annotations from regular users
-                for (de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument : repository
-                        .listAnnotationDocuments(sourceDocument)) {
-                    // copy annotation document only for ACTIVE users and the state of the 
-                    // annotation document is not NEW/IGNORE
-                    if (userRepository.get(annotationDocument.getUser()) != null
-                            && !annotationDocument.getState().equals(AnnotationDocumentState.NEW)
-                            && !annotationDocument.getState()
-                                    .equals(AnnotationDocumentState.IGNORE)) {
-                        File annotationDocumentAsSerialisedCasDir = new File(
-                                aCopyDir.getAbsolutePath() + ANNOTATION_CAS_FOLDER
-                                        + sourceDocument.getName());
-                        File annotationDocumentDir = new File(aCopyDir.getAbsolutePath()
-                                + ANNOTATION_ORIGINAL_FOLDER + sourceDocument.getName());
-
-                        FileUtils.forceMkdir(annotationDocumentAsSerialisedCasDir);
-                        FileUtils.forceMkdir(annotationDocumentDir);
-
-                        File annotationFileAsSerialisedCas = repository.getCasFile(
-                                sourceDocument, annotationDocument.getUser());
-
-                        File annotationFile = null;
-                        if (annotationFileAsSerialisedCas.exists() && writer != null) {
-                            annotationFile = repository.exportAnnotationDocument(sourceDocument,
-                                    annotationDocument.getUser(), writer,
-                                    annotationDocument.getUser(), Mode.ANNOTATION, false);
-                        }
-                        if (annotationFileAsSerialisedCas.exists()) {
-                            FileUtils.copyFileToDirectory(annotationFileAsSerialisedCas,
-                                    annotationDocumentAsSerialisedCasDir);
-                            if (writer != null) {
-                                FileUtils
-                                        .copyFileToDirectory(annotationFile, annotationDocumentDir);
-                                FileUtils.forceDelete(annotationFile);
-                            }
-                        }
+            // Export annotations from regular users
+            for (de.tudarmstadt.ukp.clarin.webanno.model.AnnotationDocument annotationDocument : repository
+                    .listAnnotationDocuments(sourceDocument)) {
+                // copy annotation document only for ACTIVE users and the state of the 
+                // annotation document is not NEW/IGNORE
+                if (userRepository.get(annotationDocument.getUser()) != null
+                        && !annotationDocument.getState().equals(AnnotationDocumentState.NEW)
+                        && !annotationDocument.getState()
+                                .equals(AnnotationDocumentState.IGNORE)) {
+                    File annotationFileAsSerialisedCas = repository.getCasFile(
+                            sourceDocument, annotationDocument.getUser());
+
+                    if (annotationFileAsSerialisedCas.exists()) {
+                        exportConvertedCas(sourceDocument, annotationDocument.getUser(), writer,
+                                Mode.ANNOTATION, false, aZip, ANNOTATION_ORIGINAL_FOLDER
+                                        + sourceDocument.getName() + "/");
+                        exportSerializedCas(sourceDocument, annotationDocument.getUser(), aZip,
+                                ANNOTATION_CAS_FOLDER + sourceDocument.getName() + "/");
                     }
                 }
-                
-                // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
-                // If this project is a correction project, add the auto-annotated  CAS to same 
-                // folder as CURATION_FOLDER
-                if (aModel.project.getMode().equals(Mode.AUTOMATION)
-                        || aModel.project.getMode().equals(Mode.CORRECTION)) {
-                    File correctionCasFile = repository.getCasFile(sourceDocument,
-                            CORRECTION_USER);
-                    if (correctionCasFile.exists()) {
-                        // Copy CAS - this is used when importing the project again
-                        File curationCasDir = new File(aCopyDir + CURATION_AS_SERIALISED_CAS
-                                + sourceDocument.getName());
-                        FileUtils.forceMkdir(curationCasDir);
-                        FileUtils.copyFileToDirectory(correctionCasFile, curationCasDir);
-                        
-                        // Copy secondary export format for convenience - not used during import
-                        File curationDir = new File(aCopyDir + CURATION_FOLDER + sourceDocument.getName());
-                        FileUtils.forceMkdir(curationDir);
-                        File correctionFile = repository.exportAnnotationDocument(sourceDocument,
-                                CORRECTION_USER, writer, CORRECTION_USER, Mode.CORRECTION);
-                        FileUtils.copyFileToDirectory(correctionFile, curationDir);
-                        FileUtils.forceDelete(correctionFile);
-                    }
+            }
+            
+            // BEGIN FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
+            // If this project is a correction project, add the auto-annotated  CAS to same 
+            // folder as CURATION_FOLDER
+            if (aModel.project.getMode().equals(Mode.AUTOMATION)
+                    || aModel.project.getMode().equals(Mode.CORRECTION)) {
+                File correctionCasFile = repository.getCasFile(sourceDocument,
+                        CORRECTION_USER);
+                if (correctionCasFile.exists()) {
+                    // Copy CAS - this is used when importing the project again
+                    exportSerializedCas(sourceDocument, CORRECTION_USER, aZip,
+                            CURATION_AS_SERIALISED_CAS + sourceDocument.getName() + "/");
+                    
+                    // Copy secondary export format for convenience - not used during import
+                    exportConvertedCas(sourceDocument, CORRECTION_USER, writer, Mode.CORRECTION,
+                            true, aZip, CURATION_FOLDER + sourceDocument.getName() + "/");
                 }
-                // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
-                
-                progress = initProgress + (int) Math.ceil(((double) i) / documents.size() * 80.0);
-                i++;
             }
+            // END FIXME #1224 CURATION_USER and CORRECTION_USER files should be exported in annotation_ser
         }
 
         /**
-         * Copy Project logs from the file system of this project to the export folder
+         * Copy Project logs from the file system of this project to the ZIP file
          */
-        private void exportProjectLog(Project aProject, File aCopyDir)
+        private void exportProjectLog(Project aProject, ZipOutputStream aZip)
             throws IOException
         {
-            File logDir = new File(aCopyDir + LOG_FOLDER);
-            FileUtils.forceMkdir(logDir);
-            if (repository.getProjectLogFile(aProject).exists()) {
-                FileUtils.copyFileToDirectory(repository.getProjectLogFile(aProject), logDir);
+            File logFile = repository.getProjectLogFile(aProject);
+            if (logFile.exists()) {
+                addZipEntry(aZip, LOG_FOLDER + logFile.getName(), logFile);
             }
         }
 
         /**
-         * Copy Project guidelines from the file system of this project to the export folder
+         * Copy Project guidelines from the file system of this project to the ZIP file
          */
-        private void exportGuideLine(Project aProject, File aCopyDir)
+        private void exportGuideLine(Project aProject, ZipOutputStream aZip)
             throws IOException
         {
-            File guidelineDir = new File(aCopyDir + GUIDELINES_FOLDER);
-            FileUtils.forceMkdir(guidelineDir);
             File annotationGuidlines = repository.getGuidelinesFile(aProject);
             if (annotationGuidlines.exists()) {
                 for (File annotationGuideline : annotationGuidlines.listFiles()) {
-                    FileUtils.copyFileToDirectory(annotationGuideline, guidelineDir);
+                    addZipEntry(aZip, GUIDELINES_FOLDER + annotationGuideline.getName(),
+                            annotationGuideline);
                 }
             }
         }
 
         /**
-         * Copy Project guidelines from the file system of this project to the export folder
+         * Copy Project META-INF from the file system of this project to the ZIP file
          */
-        private void exportProjectMetaInf(Project aProject, File aCopyDir)
+        private void exportProjectMetaInf(Project aProject, ZipOutputStream aZip)
             throws IOException
         {
-            File metaInfDir = new File(aCopyDir + META_INF);
-            FileUtils.forceMkdir(metaInfDir);
             File metaInf = repository.getMetaInfFolder(aProject);
             if (metaInf.exists()) {
-                FileUtils.copyDirectory(metaInf, metaInfDir);
+                for (File file : FileUtils.listFiles(metaInf, null, true)) {
+                    String path = metaInf.toURI().relativize(file.toURI()).getPath();
+                    addZipEntry(aZip, META_INF + path, file);
+                }
             }
         }
     }
@@ -48,6 +48,7 @@ import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.AjaxFormComponentUpdatingBehavior;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
 import org.apache.wicket.ajax.markup.html.AjaxLink;
+import org.apache.wicket.core.util.lang.WicketObjects;
 import org.apache.wicket.extensions.ajax.markup.html.modal.ModalWindow;
 import org.apache.wicket.extensions.markup.html.form.select.Select;
 import org.apache.wicket.extensions.markup.html.form.select.SelectOption;
@@ -281,7 +282,9 @@ public class ProjectLayersPanel
                 @Override
                 protected void onUpdate(AjaxRequestTarget aTarget)
                 {
-                    layerDetailForm.setModelObject(getModelObject().layerSelection);
+                    // The selection may be shared with other users, so edit a copy
+                    layerDetailForm.setModelObject(WicketObjects
+                            .cloneObject(getModelObject().layerSelection));
                     layerDetailForm.setVisible(true);
 
                     LayerSelectionForm.this.setVisible(true);
@@ -1144,7 +1147,8 @@ public class ProjectLayersPanel
                 protected void onSelectionChanged(AnnotationFeature aNewSelection)
                 {
                     if (aNewSelection != null) {
-                        featureDetailForm.setModelObject(aNewSelection);
+                        featureDetailForm.setModelObject(WicketObjects
+                                .cloneObject(aNewSelection));
                         featureDetailForm.setVisible(true);
 
                     }
@@ -652,18 +652,9 @@ public class ProjectPage
                  * ImportUtil.createTagset(importedProject, tagset, projectRepository,
                  * annotationService); }
                  */
-                // add source document content
-                ImportUtil.createSourceDocumentContent(zip, importedProject, repository);
-                // add annotation document content
-                ImportUtil.createAnnotationDocumentContent(zip, importedProject, repository);
-                // create curation document content
-                ImportUtil.createCurationDocumentContent(zip, importedProject, repository);
-                // create project log
-                ImportUtil.createProjectLog(zip, importedProject, repository);
-                // create project guideline
-                ImportUtil.createProjectGuideline(zip, importedProject, repository);
-                // cretae project META-INF
-                ImportUtil.createProjectMetaInf(zip, importedProject, repository);
+                // add source, annotation and curation document content, project log,
+                // guidelines and META-INF in a single pass over the archive
+                ImportUtil.createProjectContent(zip, importedProject, repository);
             }
             catch (IOException e) {
                 error("Error Importing Project " + ExceptionUtils.getRootCauseMessage(e));
@@ -39,6 +39,7 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.OnChangeAjaxBehavior;
+import org.apache.wicket.core.util.lang.WicketObjects;
 import org.apache.wicket.markup.html.form.Button;
 import org.apache.wicket.markup.html.form.CheckBox;
 import org.apache.wicket.markup.html.form.ChoiceRenderer;
@@ -199,7 +200,8 @@ public class ProjectTagSetsPanel
                 {
                     if (aNewSelection != null) {
                         tagSetDetailForm.clearInput();
-                        tagSetDetailForm.setModelObject(aNewSelection);
+                        // The selection may be shared with other users, so edit a copy
+                        tagSetDetailForm.setModelObject(WicketObjects.cloneObject(aNewSelection));
                         tagSetDetailForm.setVisible(true);
                         tagSelectionForm.setVisible(true);
                         tagDetailForm.setVisible(true);
@@ -714,7 +716,8 @@ public class ProjectTagSetsPanel
                 protected void onUpdate(AjaxRequestTarget aTarget)
                 {
                     if (getModelObject().tag != null) {
-                        tagDetailForm.setModelObject(getModelObject().tag);
+                        tagDetailForm.setModelObject(WicketObjects
+                                .cloneObject(getModelObject().tag));
                         aTarget.add(tagDetailForm.setOutputMarkupId(true));
                     }
                 }
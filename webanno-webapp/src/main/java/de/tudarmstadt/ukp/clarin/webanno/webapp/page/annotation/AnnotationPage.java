@@ -786,6 +786,9 @@ public class AnnotationPage
         bModel.setUser(userRepository.get(username));
 
         try {
+            // Switching documents - save whatever the user still has pending in memory
+            repository.flushCas(username);
+
             // Check if there is an annotation document entry in the database. If there is none,
             // create one.
             AnnotationDocument annotationDocument = repository.createOrGetAnnotationDocument(
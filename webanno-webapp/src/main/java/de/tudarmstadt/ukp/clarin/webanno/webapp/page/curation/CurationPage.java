@@ -57,6 +57,7 @@ import wicket.contrib.input.events.EventType;
 import wicket.contrib.input.events.InputBehavior;
 import wicket.contrib.input.events.key.KeyType;
 import de.tudarmstadt.ukp.clarin.webanno.api.AnnotationService;
+import de.tudarmstadt.ukp.clarin.webanno.api.CasLoaderService;
 import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 import de.tudarmstadt.ukp.clarin.webanno.api.UserDao;
 import de.tudarmstadt.ukp.clarin.webanno.brat.annotation.BratAnnotatorModel;
@@ -106,6 +107,9 @@ public class CurationPage
     @SpringBean(name = "userRepository")
     private UserDao userRepository;
 
+    @SpringBean(name = "casLoader")
+    private CasLoaderService casLoader;
+
     private ReMergeCasModel reMerge;
     private CurationContainer curationContainer;
     private BratAnnotatorModel bModel;
@@ -961,7 +965,7 @@ public class CurationPage
             }
 
             SuggestionBuilder cb = new SuggestionBuilder(repository, annotationService,
-                    userRepository);
+                    userRepository, casLoader);
             AnnotationDocument randomAnnotationDocument = null;
             if (finishedAnnotationDocuments.size() > 0) {
                 randomAnnotationDocument = finishedAnnotationDocuments.get(0);
@@ -993,7 +997,7 @@ public class CurationPage
             currentprojectId = bModel.getProject().getId();
 
             SuggestionBuilder builder = new SuggestionBuilder(repository, annotationService,
-                    userRepository);
+                    userRepository, casLoader);
             curationContainer = builder.buildCurationContainer(bModel);
             curationContainer.setBratAnnotatorModel(bModel);
             curationPanel.updatePanel(aTarget, curationContainer);
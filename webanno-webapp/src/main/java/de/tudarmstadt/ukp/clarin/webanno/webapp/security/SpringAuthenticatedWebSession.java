@@ -19,6 +19,8 @@ package de.tudarmstadt.ukp.clarin.webanno.webapp.security;
 
 import static java.lang.String.format;
 
+import java.io.IOException;
+
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +36,8 @@ import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
+
+import de.tudarmstadt.ukp.clarin.webanno.api.RepositoryService;
 /**
  *  An {@link AuthenticatedWebSession} based on {@link Authentication}
  * @author Richard Eckart de Castilho
@@ -50,6 +54,9 @@ public class SpringAuthenticatedWebSession
     @SpringBean(name = "org.springframework.security.authenticationManager")
     private AuthenticationManager authenticationManager;
 
+    @SpringBean(name = "documentRepository")
+    private RepositoryService repository;
+
     public SpringAuthenticatedWebSession(Request request)
     {
         super(request);
@@ -99,6 +106,18 @@ public class SpringAuthenticatedWebSession
     @Override
     public void signOut()
     {
+        // Make sure any CASes held in memory for the user are saved before the session ends
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && repository != null) {
+            try {
+                repository.flushCas(authentication.getName());
+            }
+            catch (IOException e) {
+                log.error(format("Unable to save documents of user '%s' on sign-out",
+                        authentication.getName()), e);
+            }
+        }
+
         super.signOut();
         SecurityContextHolder.clearContext();
     }